@@ -0,0 +1,70 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SyntheticScene;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+/**
+ * Shared setup for the benchmarks that trace rays through the synthetic scene.
+ */
+final class BenchmarkScene {
+  /** Width and height of the grid of primary rays. */
+  static final int RAY_GRID = 64;
+
+  /** Number of primary rays per benchmark invocation. */
+  static final int NUM_RAYS = RAY_GRID * RAY_GRID;
+
+  final Scene scene;
+  private final Vector3[] origins = new Vector3[NUM_RAYS];
+  private final Vector3[] directions = new Vector3[NUM_RAYS];
+
+  /**
+   * Generates the synthetic scene with the given octree implementation and computes a fixed grid
+   * of primary rays covering the camera view.
+   */
+  BenchmarkScene(String octreeImplementation, int depth) {
+    scene = new Scene();
+    scene.setOctreeImplementation(octreeImplementation);
+    SyntheticScene.load(scene, depth);
+
+    Camera camera = scene.camera();
+    double aspect = scene.canvasWidth() / (double) scene.canvasHeight();
+    Ray ray = new Ray();
+    for (int y = 0; y < RAY_GRID; ++y) {
+      for (int x = 0; x < RAY_GRID; ++x) {
+        camera.calcViewRay(ray,
+            aspect * ((x + 0.5) / RAY_GRID - 0.5),
+            (y + 0.5) / RAY_GRID - 0.5);
+        origins[y * RAY_GRID + x] = new Vector3(ray.o);
+        directions[y * RAY_GRID + x] = new Vector3(ray.d);
+      }
+    }
+  }
+
+  /**
+   * Reset the ray to the given primary ray.
+   */
+  void primaryRay(Ray ray, int index) {
+    ray.setDefault();
+    ray.o.set(origins[index]);
+    ray.d.set(directions[index]);
+  }
+}
@@ -0,0 +1,129 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.math.BVH;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+import se.llbit.math.primitive.Box;
+import se.llbit.math.primitive.Primitive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures BVH construction and closest-intersection traversal. The BVH contains the faces of
+ * randomly placed small boxes, similar to the entity geometry in a typical scene.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BvhBenchmark {
+  private static final int NUM_RAYS = 4096;
+
+  /** Size of the cube that the boxes are placed in. */
+  private static final double EXTENT = 256;
+
+  @Param({"1000", "10000"})
+  public int boxes;
+
+  private List<Primitive> primitives;
+  private BVH bvh;
+  private final Vector3[] origins = new Vector3[NUM_RAYS];
+  private final Vector3[] directions = new Vector3[NUM_RAYS];
+  private final Ray ray = new Ray();
+
+  @Setup public void setup() {
+    Random random = new Random(0);
+    Vector4 uv = new Vector4(0, 1, 0, 1);
+    primitives = new ArrayList<>();
+    for (int i = 0; i < boxes; ++i) {
+      double x = random.nextDouble() * EXTENT;
+      double y = random.nextDouble() * EXTENT;
+      double z = random.nextDouble() * EXTENT;
+      double size = 0.25 + random.nextDouble() * 1.75;
+      Box box = new Box(x, x + size, y, y + size, z, z + size);
+      box.addFrontFaces(primitives, Texture.stone, uv);
+      box.addBackFaces(primitives, Texture.stone, uv);
+      box.addLeftFaces(primitives, Texture.stone, uv);
+      box.addRightFaces(primitives, Texture.stone, uv);
+      box.addTopFaces(primitives, Texture.stone, uv);
+      box.addBottomFaces(primitives, Texture.stone, uv);
+    }
+    bvh = new BVH(primitives);
+
+    // Rays from the outside of the cube towards random points inside it.
+    for (int i = 0; i < NUM_RAYS; ++i) {
+      Vector3 o = new Vector3(
+          -EXTENT / 2 + random.nextDouble() * EXTENT * 2,
+          -EXTENT / 2 + random.nextDouble() * EXTENT * 2,
+          -EXTENT / 2);
+      Vector3 target = new Vector3(
+          random.nextDouble() * EXTENT,
+          random.nextDouble() * EXTENT,
+          random.nextDouble() * EXTENT);
+      Vector3 d = new Vector3();
+      d.sub(target, o);
+      d.normalize();
+      origins[i] = o;
+      directions[i] = d;
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public BVH build() {
+    return new BVH(primitives);
+  }
+
+  /** Score is in rays per second. */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(NUM_RAYS)
+  public int closestIntersection() {
+    int hits = 0;
+    for (int i = 0; i < NUM_RAYS; ++i) {
+      ray.setDefault();
+      ray.o.set(origins[i]);
+      ray.d.set(directions[i]);
+      ray.t = Double.POSITIVE_INFINITY;
+      if (bvh.closestIntersection(ray)) {
+        hits += 1;
+      }
+    }
+    return hits;
+  }
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.chunk.ChunkData;
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.Region;
+import se.llbit.chunky.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures chunk parsing with {@link Chunk#getChunkData} for all chunks in region (0, 0).
+ *
+ * <p>By default a generated fixture world is used. A real world can be benchmarked by passing
+ * its directory with {@code -p world=/path/to/world}. The score is the number of times all
+ * chunks in the region are parsed per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkLoadingBenchmark {
+  /** Number of chunks along each side of the fixture region. */
+  private static final int FIXTURE_CHUNKS = 8;
+
+  /** World directory to load chunks from. The fixture world is used if empty. */
+  @Param({""})
+  public String world;
+
+  private File fixtureDirectory;
+  private final List<Chunk> chunks = new ArrayList<>();
+  private BlockPalette palette;
+  private ChunkData chunkData;
+
+  @Setup public void setup() throws IOException {
+    File worldDirectory;
+    if (world.isEmpty()) {
+      fixtureDirectory = Files.createTempDirectory("chunky-benchmark").toFile();
+      RegionFixture.write(fixtureDirectory, FIXTURE_CHUNKS);
+      worldDirectory = fixtureDirectory;
+    } else {
+      worldDirectory = new File(world);
+    }
+    World loaded = World.loadWorld(worldDirectory, World.OVERWORLD_DIMENSION,
+        World.LoggedWarnings.SILENT);
+    Region region = loaded.getRegion(ChunkPosition.get(0, 0));
+    region.parse();
+    for (int z = 0; z < 32; ++z) {
+      for (int x = 0; x < 32; ++x) {
+        Chunk chunk = region.getChunk(x, z);
+        if (!chunk.isEmpty()) {
+          chunks.add(chunk);
+        }
+      }
+    }
+    if (chunks.isEmpty()) {
+      throw new IllegalStateException("No chunks found in region (0, 0) of " + worldDirectory);
+    }
+    palette = new BlockPalette();
+  }
+
+  @Benchmark public int getChunkData() {
+    int blocks = 0;
+    for (Chunk chunk : chunks) {
+      chunkData = chunk.getChunkData(chunkData, palette);
+      blocks += chunkData.getBlockAt(0, 64, 0);
+    }
+    return blocks;
+  }
+
+  @TearDown public void tearDown() {
+    if (fixtureDirectory != null) {
+      deleteRecursively(fixtureDirectory);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,76 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.llbit.chunky.renderer.renderdump.FloatingPointCompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures compression and decompression of a render dump sample buffer with
+ * {@link FloatingPointCompressor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FloatingPointCompressorBenchmark {
+  @Param({"1280"})
+  public int width;
+
+  @Param({"720"})
+  public int height;
+
+  private double[] samples;
+  private byte[] compressed;
+
+  @Setup public void setup() throws IOException {
+    samples = SampleImages.sampleBuffer(width, height);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FloatingPointCompressor.compress(out, samples, pixels -> {});
+    compressed = out.toByteArray();
+  }
+
+  @Benchmark public int compress() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length);
+    FloatingPointCompressor.compress(out, samples, pixels -> {});
+    return out.size();
+  }
+
+  @Benchmark public void decompress(Blackhole blackhole) throws IOException {
+    FloatingPointCompressor.decompress(new ByteArrayInputStream(compressed), samples.length,
+        (index, r, g, b) -> blackhole.consume(r + g + b), pixels -> {});
+  }
+}
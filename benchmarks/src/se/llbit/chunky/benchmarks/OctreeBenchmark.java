@@ -0,0 +1,90 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SyntheticScene;
+import se.llbit.math.Octree;
+import se.llbit.math.Ray;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures octree traversal ({@link Octree#enterBlock}) and construction for each octree
+ * implementation. Scores are in primary rays per second for traversal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OctreeBenchmark {
+  @Param({"PACKED", "BIGPACKED", "NODE", "DAG", "MAPPED"})
+  public String implementation;
+
+  @Param({"7"})
+  public int depth;
+
+  private BenchmarkScene benchmarkScene;
+  private Scene scene;
+  private Octree worldTree;
+  private BlockPalette palette;
+  private final Ray ray = new Ray();
+
+  @Setup public void setup() {
+    benchmarkScene = new BenchmarkScene(implementation, depth);
+    scene = benchmarkScene.scene;
+    worldTree = scene.getWorldOctree();
+    palette = scene.getPalette();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BenchmarkScene.NUM_RAYS)
+  public int enterBlock() {
+    int hits = 0;
+    for (int i = 0; i < BenchmarkScene.NUM_RAYS; ++i) {
+      benchmarkScene.primaryRay(ray, i);
+      if (worldTree.enterBlock(scene, ray, palette)) {
+        hits += 1;
+      }
+    }
+    return hits;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Octree build() {
+    Octree tree = new Octree(implementation, depth);
+    SyntheticScene.generate(new BlockPalette(), tree, new Octree(implementation, depth));
+    return tree;
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.llbit.chunky.block.Air;
+import se.llbit.chunky.renderer.WorkerState;
+import se.llbit.chunky.renderer.scene.PathTracer;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.math.Ray;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PathTracer#pathTrace} for the primary rays of the synthetic scene.
+ * Scores are in samples (complete paths) per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PathTracerBenchmark {
+  @Param({"PACKED"})
+  public String implementation;
+
+  @Param({"7"})
+  public int depth;
+
+  @Param({"true"})
+  public boolean emitters;
+
+  private BenchmarkScene benchmarkScene;
+  private Scene scene;
+  private final WorkerState state = new WorkerState();
+
+  @Setup public void setup() {
+    benchmarkScene = new BenchmarkScene(implementation, depth);
+    scene = benchmarkScene.scene;
+    scene.setEmittersEnabled(emitters);
+    state.ray = new Ray();
+    state.random = new Random(0);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BenchmarkScene.NUM_RAYS)
+  public double pathTrace() {
+    Ray ray = state.ray;
+    double sum = 0;
+    for (int i = 0; i < BenchmarkScene.NUM_RAYS; ++i) {
+      benchmarkScene.primaryRay(ray, i);
+      ray.setCurrentMaterial(Air.INSTANCE);
+      PathTracer.pathTrace(scene, ray, state, 1, true);
+      sum += ray.color.x + ray.color.y + ray.color.z;
+    }
+    return sum;
+  }
+}
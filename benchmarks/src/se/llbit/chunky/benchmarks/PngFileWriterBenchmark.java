@@ -0,0 +1,79 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.llbit.png.PngFileWriter;
+import se.llbit.util.TaskTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures PNG encoding of a rendered image with {@link PngFileWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngFileWriterBenchmark {
+  @Param({"1280"})
+  public int width;
+
+  @Param({"720"})
+  public int height;
+
+  private int[] pixels;
+  private byte[] alpha;
+
+  @Setup public void setup() {
+    pixels = SampleImages.argbImage(width, height);
+    alpha = new byte[width * height];
+    for (int i = 0; i < alpha.length; ++i) {
+      alpha[i] = (byte) (pixels[i] >>> 24);
+    }
+  }
+
+  @Benchmark public int writeRgb() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PngFileWriter writer = new PngFileWriter(out)) {
+      writer.write(pixels, width, height, TaskTracker.Task.NONE);
+    }
+    return out.size();
+  }
+
+  @Benchmark public int writeRgba() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PngFileWriter writer = new PngFileWriter(out)) {
+      writer.write(pixels, alpha, width, height, TaskTracker.Task.NONE);
+    }
+    return out.size();
+  }
+}
@@ -0,0 +1,294 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a small Minecraft world (level.dat and one region file) in the 1.16 chunk format.
+ *
+ * <p>The world is generated instead of being checked in so that the benchmarks do not depend on
+ * Minecraft world data. The block layout only depends on the chunk position, so the fixture is
+ * identical on every run.
+ */
+final class RegionFixture {
+  /** Data version of Minecraft 1.16.5. */
+  private static final int DATA_VERSION = 2586;
+
+  private static final int SECTOR_SIZE = 4096;
+
+  /** Number of 16-block sections written per chunk. */
+  private static final int SECTIONS = 6;
+
+  private static final String[] PALETTE = {
+      "air", "stone", "dirt", "grass_block", "sand", "gravel", "coal_ore", "iron_ore",
+      "oak_log", "oak_leaves", "water", "bedrock",
+  };
+  private static final int AIR = 0, STONE = 1, DIRT = 2, GRASS = 3, SAND = 4, GRAVEL = 5,
+      COAL = 6, IRON = 7, LOG = 8, LEAVES = 9, WATER = 10, BEDROCK = 11;
+
+  private static final int SEA_LEVEL = 62;
+
+  private RegionFixture() {
+  }
+
+  /**
+   * Write the fixture world to the given directory.
+   *
+   * @param chunks the number of chunks along each side of the generated area, at most 32
+   */
+  static void write(File worldDirectory, int chunks) throws IOException {
+    File regionDirectory = new File(worldDirectory, "region");
+    if (!regionDirectory.isDirectory() && !regionDirectory.mkdirs()) {
+      throw new IOException("Could not create directory " + regionDirectory);
+    }
+    writeLevelDat(new File(worldDirectory, "level.dat"));
+    writeRegion(new File(regionDirectory, "r.0.0.mca"), chunks);
+  }
+
+  private static void writeLevelDat(File file) throws IOException {
+    try (NbtWriter out = new NbtWriter(new GZIPOutputStream(new FileOutputStream(file)))) {
+      out.beginCompound("");
+      out.beginCompound("Data");
+      out.writeInt("version", 19133);
+      out.writeInt("DataVersion", DATA_VERSION);
+      out.writeString("LevelName", "Benchmark");
+      out.writeLong("RandomSeed", 0);
+      out.writeInt("GameType", 1);
+      out.beginCompound("Player");
+      out.writeInt("SpawnX", 64);
+      out.writeInt("SpawnY", 80);
+      out.writeInt("SpawnZ", 64);
+      out.writeInt("Dimension", 0);
+      out.endCompound();
+      out.beginCompound("Version");
+      out.writeInt("Id", DATA_VERSION);
+      out.endCompound();
+      out.endCompound();
+      out.endCompound();
+    }
+  }
+
+  private static void writeRegion(File file, int chunks) throws IOException {
+    try (RandomAccessFile region = new RandomAccessFile(file, "rw")) {
+      region.setLength(0);
+      region.write(new byte[2 * SECTOR_SIZE]);
+      int sector = 2;
+      for (int cz = 0; cz < chunks; ++cz) {
+        for (int cx = 0; cx < chunks; ++cx) {
+          byte[] data = chunkData(cx, cz);
+          int sectors = (data.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+          region.seek((long) sector * SECTOR_SIZE);
+          region.writeInt(data.length + 1);
+          region.writeByte(2); // Zlib compression.
+          region.write(data);
+          region.write(new byte[sectors * SECTOR_SIZE - data.length - 5]);
+
+          int index = cx + cz * 32;
+          region.seek(4 * index);
+          region.writeInt((sector << 8) | sectors);
+          region.seek(SECTOR_SIZE + 4 * index);
+          region.writeInt(1);
+          sector += sectors;
+        }
+      }
+    }
+  }
+
+  private static byte[] chunkData(int cx, int cz) throws IOException {
+    int[] blocks = new int[16 * 16 * 16 * SECTIONS];
+    for (int z = 0; z < 16; ++z) {
+      for (int x = 0; x < 16; ++x) {
+        int wx = cx * 16 + x;
+        int wz = cz * 16 + z;
+        int height = 56 + (int) (6 * Math.sin(wx * 0.11) + 5 * Math.cos(wz * 0.07));
+        for (int y = 0; y < 16 * SECTIONS; ++y) {
+          int block;
+          if (y == 0) {
+            block = BEDROCK;
+          } else if (y < height - 4) {
+            int h = hash(wx, y, wz);
+            block = h % 61 == 0 ? COAL : h % 97 == 0 ? IRON : h % 41 == 0 ? GRAVEL : STONE;
+          } else if (y < height) {
+            block = height <= SEA_LEVEL ? SAND : DIRT;
+          } else if (y == height) {
+            block = height <= SEA_LEVEL ? SAND : GRASS;
+          } else if (y <= SEA_LEVEL) {
+            block = WATER;
+          } else {
+            block = AIR;
+          }
+          blocks[x + 16 * (z + 16 * y)] = block;
+        }
+        if (height > SEA_LEVEL + 1 && hash(wx, 0, wz) % 53 == 0 && x > 1 && x < 14 && z > 1 && z < 14) {
+          for (int y = height + 3; y < height + 7; ++y) {
+            for (int dz = -2; dz <= 2; ++dz) {
+              for (int dx = -2; dx <= 2; ++dx) {
+                blocks[(x + dx) + 16 * ((z + dz) + 16 * y)] = LEAVES;
+              }
+            }
+          }
+          for (int y = height + 1; y < height + 6; ++y) {
+            blocks[x + 16 * (z + 16 * y)] = LOG;
+          }
+        }
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (NbtWriter out = new NbtWriter(new DeflaterOutputStream(bytes))) {
+      out.beginCompound("");
+      out.writeInt("DataVersion", DATA_VERSION);
+      out.beginCompound("Level");
+      out.writeInt("xPos", cx);
+      out.writeInt("zPos", cz);
+      out.writeString("Status", "full");
+      int[] biomes = new int[256];
+      for (int i = 0; i < biomes.length; ++i) {
+        biomes[i] = hash(cx, i, cz) % 3 == 0 ? 4 : 1; // Forest or plains.
+      }
+      out.writeIntArray("Biomes", biomes);
+      out.beginList("Sections", NbtWriter.TAG_COMPOUND, SECTIONS);
+      for (int section = 0; section < SECTIONS; ++section) {
+        out.writeByte("Y", section);
+        out.beginList("Palette", NbtWriter.TAG_COMPOUND, PALETTE.length);
+        for (String name : PALETTE) {
+          out.writeString("Name", "minecraft:" + name);
+          if (name.equals("water")) {
+            out.beginCompound("Properties");
+            out.writeString("level", "0");
+            out.endCompound();
+          } else if (name.equals("oak_log")) {
+            out.beginCompound("Properties");
+            out.writeString("axis", "y");
+            out.endCompound();
+          }
+          out.endCompound();
+        }
+        // 4 bits per block, 16 blocks per long.
+        long[] states = new long[256];
+        for (int i = 0; i < 4096; ++i) {
+          states[i / 16] |= (long) blocks[section * 4096 + i] << (4 * (i % 16));
+        }
+        out.writeLongArray("BlockStates", states);
+        out.endCompound();
+      }
+      out.beginList("Entities", NbtWriter.TAG_END, 0);
+      out.beginList("TileEntities", NbtWriter.TAG_END, 0);
+      out.endCompound();
+      out.endCompound();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int hash(int x, int y, int z) {
+    int h = x * 73856093 ^ y * 19349663 ^ z * 83492791;
+    h ^= h >>> 13;
+    h *= 0x5bd1e995;
+    h ^= h >>> 15;
+    return h & 0x7FFFFFFF;
+  }
+
+  /**
+   * Minimal NBT writer. Compound tags in a list are started implicitly by
+   * writing their first item and must be closed with {@link #endCompound()}.
+   */
+  private static class NbtWriter implements AutoCloseable {
+    static final int TAG_END = 0;
+    static final int TAG_BYTE = 1;
+    static final int TAG_INT = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_STRING = 8;
+    static final int TAG_LIST = 9;
+    static final int TAG_COMPOUND = 10;
+    static final int TAG_INT_ARRAY = 11;
+    static final int TAG_LONG_ARRAY = 12;
+
+    private final DataOutputStream out;
+
+    NbtWriter(OutputStream out) {
+      this.out = new DataOutputStream(out);
+    }
+
+    private void header(int type, String name) throws IOException {
+      out.writeByte(type);
+      out.writeUTF(name);
+    }
+
+    void beginCompound(String name) throws IOException {
+      header(TAG_COMPOUND, name);
+    }
+
+    void endCompound() throws IOException {
+      out.writeByte(TAG_END);
+    }
+
+    void beginList(String name, int type, int size) throws IOException {
+      header(TAG_LIST, name);
+      out.writeByte(type);
+      out.writeInt(size);
+    }
+
+    void writeByte(String name, int value) throws IOException {
+      header(TAG_BYTE, name);
+      out.writeByte(value);
+    }
+
+    void writeInt(String name, int value) throws IOException {
+      header(TAG_INT, name);
+      out.writeInt(value);
+    }
+
+    void writeLong(String name, long value) throws IOException {
+      header(TAG_LONG, name);
+      out.writeLong(value);
+    }
+
+    void writeString(String name, String value) throws IOException {
+      header(TAG_STRING, name);
+      out.writeUTF(value);
+    }
+
+    void writeIntArray(String name, int[] value) throws IOException {
+      header(TAG_INT_ARRAY, name);
+      out.writeInt(value.length);
+      for (int v : value) {
+        out.writeInt(v);
+      }
+    }
+
+    void writeLongArray(String name, long[] value) throws IOException {
+      header(TAG_LONG_ARRAY, name);
+      out.writeInt(value.length);
+      for (long v : value) {
+        out.writeLong(v);
+      }
+    }
+
+    @Override public void close() throws IOException {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.benchmarks;
+
+import se.llbit.math.ColorUtil;
+import se.llbit.math.QuickMath;
+
+import java.util.Random;
+
+/**
+ * Deterministic test images resembling partially converged renders: smooth gradients
+ * with per-pixel noise.
+ */
+final class SampleImages {
+  private SampleImages() {
+  }
+
+  /**
+   * @return a sample buffer with three linear color components per pixel
+   */
+  static double[] sampleBuffer(int width, int height) {
+    Random random = new Random(0);
+    double[] samples = new double[width * height * 3];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int offset = (y * width + x) * 3;
+        double u = x / (double) width;
+        double v = y / (double) height;
+        double noise = 0.15 * random.nextGaussian();
+        samples[offset + 0] = Math.max(0, 0.2 + 0.6 * u + noise);
+        samples[offset + 1] = Math.max(0, 0.3 + 0.5 * v + noise);
+        samples[offset + 2] = Math.max(0, 0.8 - 0.4 * u * v + noise);
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * @return the sample buffer image converted to ARGB pixels
+   */
+  static int[] argbImage(int width, int height) {
+    double[] samples = sampleBuffer(width, height);
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; ++i) {
+      double r = QuickMath.min(1, samples[i * 3 + 0]);
+      double g = QuickMath.min(1, samples[i * 3 + 1]);
+      double b = QuickMath.min(1, samples[i * 3 + 2]);
+      pixels[i] = ColorUtil.getArgb(r, g, b, 1);
+    }
+    return pixels;
+  }
+}
@@ -83,6 +83,23 @@ public class BlockPalette {
     this(new ConcurrentHashMap<>(), new CopyOnWriteArrayList<>());
   }
 
+  /**
+   * Create a copy of this palette that blocks can be added to without changing this palette.
+   * The blocks and their material properties are shared with this palette.
+   */
+  public BlockPalette copy() {
+    final ReentrantLock lock = this.lock;
+    lock.lock();
+    try {
+      BlockPalette copy = new BlockPalette(new ConcurrentHashMap<>(blockMap),
+          new CopyOnWriteArrayList<>(palette));
+      copy.materialProperties.putAll(materialProperties);
+      return copy;
+    } finally {
+      lock.unlock();
+    }
+  }
+
   /**
    * This method should be called when no threads are acting on the palette anymore.
    *
@@ -0,0 +1,54 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading the compressed data of one chunk from a region file.
+ */
+@Name("se.llbit.chunky.ChunkRead")
+@Label("Chunk Read")
+@Category({"Chunky", "World"})
+@Description("Reading the compressed data of a chunk from a region file")
+public class ChunkReadEvent extends Event {
+  @Label("Chunk X")
+  public int chunkX;
+
+  @Label("Chunk Z")
+  public int chunkZ;
+
+  @Label("Bytes Read")
+  @DataAmount
+  public long bytes;
+
+  public ChunkReadEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static ChunkReadEvent start() {
+    return EventTypes.isEnabled(ChunkReadEvent.class) ? new ChunkReadEvent() : null;
+  }
+}
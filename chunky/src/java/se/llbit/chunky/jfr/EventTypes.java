@@ -0,0 +1,40 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Looks up whether an event type is being recorded, so that events are only allocated while
+ * a recording is running. Like the event classes, this must only be used if
+ * {@link Jfr#AVAILABLE} is {@code true}.
+ */
+final class EventTypes {
+  private static final ClassValue<EventType> TYPES = new ClassValue<EventType>() {
+    @Override protected EventType computeValue(Class<?> type) {
+      return EventType.getEventType(type.asSubclass(Event.class));
+    }
+  };
+
+  private EventTypes() {
+  }
+
+  static boolean isEnabled(Class<? extends Event> type) {
+    return TYPES.get(type).isEnabled();
+  }
+}
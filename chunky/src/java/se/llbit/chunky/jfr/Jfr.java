@@ -0,0 +1,53 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+/**
+ * Java Flight Recorder support.
+ *
+ * <p>The event classes in this package extend {@code jdk.jfr.Event}, which is not available in
+ * all Java 8 runtimes. Events must only be created if {@link #AVAILABLE} is {@code true}:
+ *
+ * <pre>
+ * ChunkReadEvent event = Jfr.AVAILABLE ? ChunkReadEvent.start() : null;
+ * // ... read the chunk ...
+ * if (event != null) {
+ *   event.bytes = size;
+ *   event.commit();
+ * }
+ * </pre>
+ *
+ * <p>Timing starts when an event is created. The {@code start()} methods of the events
+ * return {@code null} unless a flight recording of the event is running, for example when Chunky is started with
+ * {@code -XX:StartFlightRecording=filename=chunky.jfr}.
+ */
+public final class Jfr {
+  /** {@code true} if the flight recorder event API is available in this JVM. */
+  public static final boolean AVAILABLE = isAvailable();
+
+  private Jfr() {
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Finalizing the octree for one loaded chunk.
+ */
+@Name("se.llbit.chunky.OctreeFinalization")
+@Label("Octree Finalization")
+@Category({"Chunky", "World"})
+@Description("Finalizing the octree blocks of a loaded chunk")
+public class OctreeFinalizationEvent extends Event {
+  @Label("Chunk X")
+  public int chunkX;
+
+  @Label("Chunk Z")
+  public int chunkZ;
+
+  public OctreeFinalizationEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static OctreeFinalizationEvent start() {
+    return EventTypes.isEnabled(OctreeFinalizationEvent.class) ? new OctreeFinalizationEvent() : null;
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing the header of a region file to find the chunks in the region.
+ */
+@Name("se.llbit.chunky.RegionRead")
+@Label("Region Read")
+@Category({"Chunky", "World"})
+@Description("Reading the chunk table of a region file")
+public class RegionReadEvent extends Event {
+  @Label("Region X")
+  public int regionX;
+
+  @Label("Region Z")
+  public int regionZ;
+
+  /** Zero if the chunk table could not be read. */
+  @Label("Bytes Read")
+  @DataAmount
+  public long bytes;
+
+  @Label("Chunks")
+  public int chunks;
+
+  public RegionReadEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static RegionReadEvent start() {
+    return EventTypes.isEnabled(RegionReadEvent.class) ? new RegionReadEvent() : null;
+  }
+}
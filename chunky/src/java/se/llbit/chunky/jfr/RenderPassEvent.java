@@ -0,0 +1,61 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One render pass (frame) of the render manager.
+ */
+@Name("se.llbit.chunky.RenderPass")
+@Label("Render Pass")
+@Category({"Chunky", "Rendering"})
+@Description("A render pass over all tiles of the canvas")
+public class RenderPassEvent extends Event {
+  @Label("SPP")
+  public int spp;
+
+  @Label("SPP Per Pass")
+  public int sppPerPass;
+
+  @Label("Tiles")
+  public int tiles;
+
+  @Label("Width")
+  public int width;
+
+  @Label("Height")
+  public int height;
+
+  @Label("Preview")
+  public boolean preview;
+
+  public RenderPassEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static RenderPassEvent start() {
+    return EventTypes.isEnabled(RenderPassEvent.class) ? new RenderPassEvent() : null;
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Rendering one tile by a render worker.
+ */
+@Name("se.llbit.chunky.RenderTile")
+@Label("Render Tile")
+@Category({"Chunky", "Rendering"})
+@Description("Rendering one tile of a render pass")
+public class RenderTileEvent extends Event {
+  @Label("Worker")
+  public int worker;
+
+  @Label("X")
+  public int x;
+
+  @Label("Y")
+  public int y;
+
+  @Label("Width")
+  public int width;
+
+  @Label("Height")
+  public int height;
+
+  public RenderTileEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static RenderTileEvent start() {
+    return EventTypes.isEnabled(RenderTileEvent.class) ? new RenderTileEvent() : null;
+  }
+}
@@ -0,0 +1,55 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading textures from one resource pack or Minecraft Jar.
+ */
+@Name("se.llbit.chunky.TexturePackLoad")
+@Label("Texture Pack Load")
+@Category({"Chunky", "Resources"})
+@Description("Loading textures from a resource pack")
+public class TexturePackLoadEvent extends Event {
+  @Label("Path")
+  public String path;
+
+  @Label("Requested Textures")
+  public int requested;
+
+  @Label("Loaded Textures")
+  public int loaded;
+
+  @Label("Cached Images")
+  public int cached;
+
+  public TexturePackLoadEvent() {
+    begin();
+  }
+
+  /**
+   * @return a started event, or {@code null} if the event is not being recorded
+   */
+  public static TexturePackLoadEvent start() {
+    return EventTypes.isEnabled(TexturePackLoadEvent.class) ? new TexturePackLoadEvent() : null;
+  }
+}
@@ -25,16 +25,23 @@ import se.llbit.chunky.main.CommandLineOptions.Mode;
 import se.llbit.chunky.plugin.PluginApi;
 import se.llbit.chunky.plugin.ChunkyPlugin;
 import se.llbit.chunky.plugin.TabTransformer;
+import se.llbit.chunky.renderer.AnimationRender;
 import se.llbit.chunky.renderer.ConsoleProgressListener;
 import se.llbit.chunky.renderer.RayTracerFactory;
 import se.llbit.chunky.renderer.RenderContext;
 import se.llbit.chunky.renderer.RenderContextFactory;
 import se.llbit.chunky.renderer.RenderController;
 import se.llbit.chunky.renderer.RenderManager;
+import se.llbit.chunky.renderer.RenderMode;
+import se.llbit.chunky.renderer.RenderStatistics;
+import se.llbit.chunky.renderer.RenderStatusListener;
 import se.llbit.chunky.renderer.Renderer;
 import se.llbit.chunky.renderer.RendererFactory;
 import se.llbit.chunky.renderer.SceneProvider;
 import se.llbit.chunky.renderer.SnapshotControl;
+import se.llbit.chunky.renderer.TiledRender;
+import se.llbit.chunky.renderer.distributed.RenderCoordinator;
+import se.llbit.chunky.renderer.distributed.RenderFarmWorker;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
 import se.llbit.chunky.renderer.scene.AsynchronousSceneManager;
 import se.llbit.chunky.renderer.scene.PathTracer;
@@ -43,6 +50,7 @@ import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.renderer.scene.SceneFactory;
 import se.llbit.chunky.renderer.scene.SceneManager;
 import se.llbit.chunky.renderer.scene.SynchronousSceneManager;
+import se.llbit.chunky.resources.MinecraftFinder;
 import se.llbit.chunky.resources.SettingsDirectory;
 import se.llbit.chunky.resources.TexturePackLoader;
 import se.llbit.chunky.ui.ChunkyFx;
@@ -61,7 +69,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 
@@ -156,6 +166,24 @@ public class Chunky {
       }
     });
     renderer.setRenderTask(taskTracker.backgroundTask());
+    RenderStatistics statistics = new RenderStatistics();
+    renderer.addRenderListener(new RenderStatusListener() {
+      @Override public void setRenderTime(long time) {
+      }
+
+      @Override public void setSamplesPerSecond(int sps) {
+      }
+
+      @Override public void setSpp(int spp) {
+      }
+
+      @Override public void setRenderStatistics(RenderStatistics frame, RenderStatistics total) {
+        statistics.set(total);
+      }
+
+      @Override public void renderStateChanged(RenderMode state) {
+      }
+    });
     renderer.setOnRenderCompleted((time, sps) -> {
       System.out.println("Render job finished.");
       int seconds = (int) ((time / 1000) % 60);
@@ -165,13 +193,23 @@ public class Chunky {
           .format("Total rendering time: %d hours, %d minutes, %d seconds", hours, minutes,
               seconds));
       System.out.println("Average samples per second (SPS): " + sps);
+      System.out.println("Render statistics: " + statistics);
     });
 
     try {
+      if (options.cropSize > 0) {
+        sceneManager.getScene().setMaxCropSize(options.cropSize);
+      } else if (options.crop != null) {
+        sceneManager.getScene().setCropOverride(options.crop[0], options.crop[1],
+            options.crop[2], options.crop[3]);
+      }
       sceneManager.loadScene(options.sceneName);
       if (options.target != -1) {
         sceneManager.getScene().setTargetSpp(options.target);
       }
+      if (options.noiseThreshold >= 0) {
+        sceneManager.getScene().setNoiseThreshold(options.noiseThreshold);
+      }
       if (logger.getNumErrors() > 0) {
         if (!options.force) {
           System.err.println("\rAborting render due to errors while loading the scene.");
@@ -179,10 +217,43 @@ public class Chunky {
           return 1;
         }
       }
+      if (options.animationFile != null) {
+        if (options.cropSize > 0) {
+          System.err.println("Animations can not be rendered in crops.");
+          return 1;
+        }
+        AnimationRender animation = startAnimationRender(sceneManager, renderer, statistics);
+        try {
+          animation.loadKeyframes(options.animationFile);
+        } catch (IOException e) {
+          System.err.format("Failed to load animation keyframes (%s)%n", e.getMessage());
+          return 1;
+        }
+        System.out.format("Rendering %d frames (%d already done)%n",
+            animation.numFrames(), animation.numFinishedFrames());
+        if (!animation.startNextFrame()) {
+          System.out.println("All frames were already rendered.");
+          return 0;
+        }
+      }
+      TiledRender tiledRender = null;
+      if (options.cropSize > 0) {
+        tiledRender = startTiledRender(sceneManager, renderer, taskTracker, statistics);
+        if (!tiledRender.startNextCrop()) {
+          // All crops were finished in an earlier run.
+          return finishTiledRender(sceneManager.getScene(), tiledRender, taskTracker);
+        }
+        System.out.format("Rendering %d crops of %dx%d pixels (%d already done)%n",
+            tiledRender.numCrops(), options.cropSize, options.cropSize,
+            tiledRender.numFinishedCrops());
+      }
       sceneManager.getScene().startHeadlessRender();
 
       renderer.start();
       renderer.join();
+      if (tiledRender != null) {
+        return finishTiledRender(sceneManager.getScene(), tiledRender, taskTracker);
+      }
       return 0;
     } catch (FileNotFoundException e) {
       System.err.format("Scene \"%s\" not found!%n", options.sceneName);
@@ -201,6 +272,85 @@ public class Chunky {
     }
   }
 
+  /**
+   * Set up the renderer to render the frame as a sequence of crops. Finished crops are saved
+   * instead of snapshots and render dumps.
+   */
+  private TiledRender startTiledRender(SynchronousSceneManager sceneManager, Renderer renderer,
+      TaskTracker taskTracker, RenderStatistics statistics) {
+    TiledRender tiledRender = new TiledRender(sceneManager.getScene(),
+        getRenderContext().getSceneDirectory(), options.cropSize);
+    int numCrops = tiledRender.numCrops();
+    renderer.setOnFrameCompleted((scene, spp) -> {
+      if (spp >= scene.getTargetSpp() || scene.isConverged()) {
+        try {
+          tiledRender.saveCrop(scene, taskTracker, getRenderContext().numRenderThreads());
+        } catch (IOException e) {
+          Log.error("Failed to save crop image", e);
+        }
+      }
+    });
+    renderer.setOnRenderCompleted((time, sps) -> {
+      System.out.format("Crop finished (%d of %d done). Average samples per second (SPS): %d%n",
+          tiledRender.numFinishedCrops(), numCrops, sps);
+      System.out.println("Render statistics: " + statistics);
+      tiledRender.startNextCrop();
+    });
+    return tiledRender;
+  }
+
+  /**
+   * Set up the renderer to render the frames of an animation one after another. Finished
+   * frames are saved instead of snapshots and render dumps.
+   */
+  private AnimationRender startAnimationRender(SynchronousSceneManager sceneManager,
+      Renderer renderer, RenderStatistics statistics) {
+    AnimationRender animation = new AnimationRender(sceneManager.getScene(),
+        getRenderContext().getSceneDirectory());
+    renderer.setOnFrameCompleted((scene, spp) -> {
+      if (spp >= scene.getTargetSpp() || scene.isConverged()) {
+        try {
+          animation.saveFrame(scene, TaskTracker.NONE, getRenderContext().numRenderThreads());
+        } catch (IOException e) {
+          Log.error("Failed to save frame image", e);
+        }
+      }
+    });
+    renderer.setOnRenderCompleted((time, sps) -> {
+      System.out.format("Frame finished (%d of %d done). Average samples per second (SPS): %d%n",
+          animation.numFinishedFrames(), animation.numFrames(), sps);
+      System.out.println("Render statistics: " + statistics);
+      animation.startNextFrame();
+    });
+    return animation;
+  }
+
+  /**
+   * Stitch the crops of a tiled render into a snapshot.
+   *
+   * @return the exit code
+   */
+  private int finishTiledRender(Scene scene, TiledRender tiledRender, TaskTracker taskTracker) {
+    if (tiledRender.numFinishedCrops() < tiledRender.numCrops()) {
+      System.err.println("Not all crops were rendered.");
+      return 1;
+    }
+    File directory = new File(getRenderContext().getSceneDirectory(), "snapshots");
+    File output = new File(directory,
+        String.format("%s-%d.png", scene.name(), scene.getTargetSpp()));
+    try (TaskTracker.Task task = taskTracker.task("Stitching crops", 1)) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create directory " + directory);
+      }
+      tiledRender.stitch(output, scene.transparentSky(), task);
+    } catch (IOException e) {
+      System.err.format("Failed to stitch crops: %s%n", e.getMessage());
+      return 1;
+    }
+    System.out.println("Render job finished: " + output);
+    return 0;
+  }
+
   /**
    * Main entry point for Chunky. Chunky should normally be started via the launcher which sets up
    * the classpath with all dependencies.
@@ -219,8 +369,13 @@ public class Chunky {
       commonThreads = new ForkJoinPool(PersistentSettings.getNumThreads());
 
       Chunky chunky = new Chunky(cmdline.options);
-      chunky.headless = cmdline.mode == Mode.HEADLESS_RENDER || cmdline.mode == Mode.SNAPSHOT;
-      chunky.loadPlugins();
+      chunky.headless = cmdline.mode == Mode.HEADLESS_RENDER || cmdline.mode == Mode.SNAPSHOT
+          || cmdline.mode == Mode.BENCHMARK || cmdline.mode == Mode.COORDINATOR
+          || cmdline.mode == Mode.RENDER_WORKER;
+      if (cmdline.mode != Mode.BENCHMARK) {
+        // Plugins are not loaded for benchmarks so that results are comparable.
+        chunky.loadPlugins();
+      }
 
       try {
         switch (cmdline.mode) {
@@ -230,6 +385,15 @@ public class Chunky {
           case SNAPSHOT:
             exitCode = chunky.doSnapshot();
             break;
+          case BENCHMARK:
+            exitCode = new RenderBenchmark(chunky).run();
+            break;
+          case COORDINATOR:
+            exitCode = chunky.doCoordinator();
+            break;
+          case RENDER_WORKER:
+            exitCode = chunky.doRenderFarmWorker();
+            break;
           case DEFAULT:
             ChunkyFx.startChunkyUI(chunky);
             break;
@@ -320,7 +484,7 @@ public class Chunky {
         PictureExportFormat outputMode = scene.getOutputMode();
         if (options.imageOutputFile.isEmpty()) {
           options.imageOutputFile = String
-              .format("%s-%d%s", scene.name(), scene.spp, outputMode.getExtension());
+              .format("%s-%d%s", scene.outputName(), scene.spp, outputMode.getExtension());
         }
         System.out.println("Image output mode: " + outputMode);
         scene.saveFrame(new File(options.imageOutputFile), taskTracker, context.numRenderThreads());
@@ -334,6 +498,73 @@ public class Chunky {
     }
   }
 
+  /**
+   * Distribute the render of a scene to render workers.
+   */
+  private int doCoordinator() {
+    Log.setReceiver(HEADLESS_LOG_RECEIVER, Level.INFO, Level.WARNING, Level.ERROR);
+    try {
+      File file = options.getSceneDescriptionFile();
+      Scene scene = new Scene();
+      try (FileInputStream in = new FileInputStream(file)) {
+        scene.loadDescription(in);
+      }
+      RenderContext context = new RenderContext(this);
+      context.setSceneDirectory(file.getParentFile());
+      TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener());
+      scene.loadDump(context, taskTracker);
+      if (options.target != -1) {
+        scene.setTargetSpp(options.target);
+      }
+      if (scene.spp >= scene.getTargetSpp()) {
+        System.out.format("The scene already has %d SPP%n", scene.spp);
+        return 0;
+      }
+
+      List<File> texturePacks = new ArrayList<>();
+      if (options.texturePack != null) {
+        for (String path : options.texturePack.split(File.pathSeparator)) {
+          if (!path.isEmpty()) {
+            texturePacks.add(new File(path));
+          }
+        }
+      }
+      File minecraftJar = MinecraftFinder.getMinecraftJar();
+      if (minecraftJar != null && !PersistentSettings.getDisableDefaultTextures()) {
+        texturePacks.add(minecraftJar);
+      }
+      new RenderCoordinator(scene, context, texturePacks, renderFarmDirectory(),
+          RenderCoordinator.REPORT_INTERVAL, taskTracker).run(options.port);
+      return 0;
+    } catch (IOException e) {
+      Log.error("Render coordinator failed", e);
+      return 1;
+    }
+  }
+
+  /**
+   * Render the job of a render coordinator.
+   */
+  private int doRenderFarmWorker() {
+    System.setProperty("java.awt.headless", "true");
+    Log.setReceiver(HEADLESS_LOG_RECEIVER, Level.INFO, Level.WARNING, Level.ERROR);
+    try {
+      new RenderFarmWorker(this, renderFarmDirectory(),
+          new TaskTracker(new ConsoleProgressListener()))
+          .run(options.coordinatorHost, options.port);
+      return 0;
+    } catch (IOException e) {
+      Log.error("Render worker failed", e);
+      return 1;
+    } catch (InterruptedException e) {
+      return 1;
+    }
+  }
+
+  private static File renderFarmDirectory() {
+    return new File(PersistentSettings.cacheDirectory(), "render-farm");
+  }
+
   /**
    * Get the common thread pool. This should only be used for parallelized processing, not for wait tasks.
    */
@@ -18,6 +18,7 @@ package se.llbit.chunky.main;
 
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.RenderConstants;
+import se.llbit.chunky.renderer.distributed.RenderJob;
 import se.llbit.chunky.renderer.scene.Scene;
 
 import java.io.File;
@@ -34,14 +35,41 @@ public class ChunkyOptions {
   /** The output filename when doing a headless snapshot. */
   public String imageOutputFile = "";
 
+  /** The output filename for the benchmark report. Standard output is used if empty. */
+  public String benchmarkOutputFile = "";
+
   public String texturePack = null;
   public int renderThreads = -1;
   public File worldDir = null;
   public int target = -1;
 
+  /** Noise threshold for adaptive sampling, negative to use the scene setting. */
+  public double noiseThreshold = -1;
+
+  /** Render the frame as a sequence of crops of this size in headless mode, if positive. */
+  public int cropSize = 0;
+
+  /** Crop of the frame to render in headless mode, as x, y, width, height, or null. */
+  public int[] crop = null;
+
+  /** Keyframe file of an animation to render in headless mode, or null. */
+  public File animationFile = null;
+
   public int tileWidth = RenderConstants.TILE_WIDTH_DEFAULT;
   public int sppPerPass = RenderConstants.SPP_PER_PASS_DEFAULT;
 
+  /**
+   * Offset added to the sample index of each pixel. Processes that render the same scene use
+   * different offsets so that they do not trace the same samples.
+   */
+  public long sampleOffset = 0;
+
+  /** Port of the render coordinator. */
+  public int port = RenderJob.DEFAULT_PORT;
+
+  /** Host name of the render coordinator to connect to as a render worker. */
+  public String coordinatorHost = null;
+
   /** Ignore scene loading errors when starting a headless render. */
   public boolean force = false;
 
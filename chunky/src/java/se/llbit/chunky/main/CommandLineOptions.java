@@ -18,8 +18,10 @@ package se.llbit.chunky.main;
 
 import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.ConsoleProgressListener;
+import se.llbit.chunky.renderer.CropStitcher;
 import se.llbit.chunky.renderer.RenderContext;
 import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.resources.DecodedTextureCache;
 import se.llbit.chunky.resources.TexturePackLoader;
 import se.llbit.json.JsonNumber;
 import se.llbit.json.JsonObject;
@@ -56,6 +58,9 @@ public class CommandLineOptions {
     NOTHING,
     HEADLESS_RENDER,
     SNAPSHOT,
+    BENCHMARK,
+    COORDINATOR,
+    RENDER_WORKER,
   }
 
   /**
@@ -64,6 +69,7 @@ public class CommandLineOptions {
   private static final String USAGE = StringUtil
       .join("\n", "Usage: mapLoader [OPTIONS] [WORLD DIRECTORY]", "Options:",
           "  -texture <FILE>        use FILE as the texture pack (must be a Zip file)",
+          "  -no-texture-cache      decode all textures without using the texture cache",
           "  -render <SCENE>        render the specified scene (see notes)",
           "  -snapshot <SCENE> [PNG] create a snapshot of the specified scene",
           "  -scene-dir <DIR>       use the directory DIR for loading/saving scenes",
@@ -71,6 +77,21 @@ public class CommandLineOptions {
           "  -tile-width <NUM>      use the specified tile width for rendering",
           "  -spp-per-pass <NUM>    use the specified samples per pixel per pass for rendering",
           "  -target <NUM>          override target SPP to be NUM in headless mode",
+          "  -noise-threshold <NUM> override the adaptive sampling noise threshold in",
+          "                         headless mode (0 disables adaptive sampling)",
+          "  -crop-size <NUM>       render in crops of NUM x NUM pixels in headless mode,",
+          "                         for frames too large to fit in memory",
+          "  -crop <X> <Y> <WIDTH> <HEIGHT>",
+          "                         render only the given crop of the frame in headless mode",
+          "  -animation <FILE>      render the frames described by the keyframes in FILE",
+          "                         in headless mode, keeping the scene loaded",
+          "  -stitch <SCENE> <PNG> <CROP>...",
+          "                         stitch crop images or render dumps of a scene into PNG",
+          "  -coordinator <SCENE> [PORT]",
+          "                         distribute the render of a scene to render workers",
+          "  -worker <HOST>[:PORT]  render the job of a render coordinator",
+          "  -benchmark [JSON]      render a generated test scene and write performance",
+          "                         statistics to JSON (or standard output) and exit",
           "  -set <NAME> <VALUE>    set a global configuration option and exit",
           "  -set <NAME> <VALUE> <SCENE>",
           "                         set a configuration option for a scene and exit",
@@ -194,6 +215,9 @@ public class CommandLineOptions {
     registerOption("-texture", new Range(1),
         arguments -> options.texturePack = arguments.get(0));
 
+    registerOption("-no-texture-cache", new Range(0),
+        arguments -> DecodedTextureCache.setEnabled(false));
+
     registerOption("-scene-dir", new Range(1),
         arguments -> options.sceneDir = new File(arguments.get(0)));
 
@@ -215,6 +239,22 @@ public class CommandLineOptions {
     registerOption("-target", new Range(1),
         arguments -> options.target = Math.max(1, Integer.parseInt(arguments.get(0))));
 
+    registerOption("-noise-threshold", new Range(1),
+        arguments -> options.noiseThreshold = Math.max(0, Double.parseDouble(arguments.get(0))));
+
+    registerOption("-crop-size", new Range(1),
+        arguments -> options.cropSize = Math.max(1, Integer.parseInt(arguments.get(0))));
+
+    registerOption("-animation", new Range(1),
+        arguments -> options.animationFile = new File(arguments.get(0)));
+
+    registerOption("-crop", new Range(4), arguments -> {
+      options.crop = new int[4];
+      for (int i = 0; i < 4; ++i) {
+        options.crop[i] = Integer.parseInt(arguments.get(i));
+      }
+    });
+
     registerOption("-threads", new Range(1),
         arguments -> options.renderThreads = Math.max(1, Integer.parseInt(arguments.get(0))));
 
@@ -247,6 +287,37 @@ public class CommandLineOptions {
       configurationError = true;
     });
 
+    registerOption("-coordinator", new Range(1, 2), arguments -> {
+      mode = Mode.COORDINATOR;
+      options.sceneName = arguments.get(0);
+      if (arguments.size() == 2) {
+        options.port = Integer.parseInt(arguments.get(1));
+      }
+    }, () -> {
+      System.err.println("You must specify a scene name for the -coordinator command!");
+      printAvailableScenes();
+      configurationError = true;
+    });
+
+    registerOption("-worker", new Range(1), arguments -> {
+      mode = Mode.RENDER_WORKER;
+      String address = arguments.get(0);
+      int colon = address.lastIndexOf(':');
+      if (colon >= 0) {
+        options.coordinatorHost = address.substring(0, colon);
+        options.port = Integer.parseInt(address.substring(colon + 1));
+      } else {
+        options.coordinatorHost = address;
+      }
+    });
+
+    registerOption("-benchmark", new Range(0, 1), arguments -> {
+      mode = Mode.BENCHMARK;
+      if (arguments.size() == 1) {
+        options.benchmarkOutputFile = arguments.get(0);
+      }
+    });
+
     registerOption("-list-scenes", new Range(0), arguments -> {
       mode = Mode.NOTHING;
       printAvailableScenes();
@@ -396,6 +467,37 @@ public class CommandLineOptions {
       }
     });
 
+    registerOption("-stitch", new Range(3, Integer.MAX_VALUE), arguments -> {
+      mode = Mode.NOTHING;
+      options.sceneName = arguments.get(0);
+      File output = new File(arguments.get(1));
+      File sceneFile = options.getSceneDescriptionFile();
+      if (!sceneFile.isFile()) {
+        Log.error("Not a valid scene: " + options.sceneName);
+        configurationError = true;
+        exitCode = 1;
+        return;
+      }
+      try {
+        Scene scene = new Scene();
+        try (FileInputStream in = new FileInputStream(sceneFile)) {
+          scene.loadDescription(in);
+        }
+        CropStitcher stitcher = new CropStitcher(scene.getFullWidth(), scene.getFullHeight());
+        for (String path : arguments.subList(2, arguments.size())) {
+          stitcher.addFile(new File(path), scene);
+        }
+        TaskTracker taskTracker = new TaskTracker(new ConsoleProgressListener());
+        try (TaskTracker.Task task = taskTracker.task("Stitching crops", 1)) {
+          stitcher.stitch(output, scene.transparentSky(), task);
+        }
+        System.out.println("Saved stitched image to " + output);
+      } catch (IllegalArgumentException | IOException e) {
+        Log.error("Failed to stitch crops: " + e.getMessage());
+        exitCode = 1;
+      }
+    });
+
     // When mode is set to Mode.NOTHING, then an option handler has performed
     // something and we should quit.
     // If configurationError is set to true then an option handler encountered an
@@ -433,7 +535,9 @@ public class CommandLineOptions {
       }
     }
 
-    if (!configurationError && mode != Mode.NOTHING && mode != Mode.SNAPSHOT) {
+    if (!configurationError && mode != Mode.NOTHING && mode != Mode.SNAPSHOT
+        && mode != Mode.BENCHMARK && mode != Mode.RENDER_WORKER) {
+      // Render workers load the texture packs of the coordinator.
       if (options.texturePack == null || options.texturePack.isEmpty()) {
         options.texturePack = PersistentSettings.getLastTexturePack();
       }
@@ -0,0 +1,398 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.main;
+
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.RenderManager;
+import se.llbit.chunky.renderer.RenderMode;
+import se.llbit.chunky.renderer.RenderStatistics;
+import se.llbit.chunky.renderer.RenderStatusListener;
+import se.llbit.chunky.renderer.RenderWorker;
+import se.llbit.chunky.renderer.ResetReason;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SynchronousSceneManager;
+import se.llbit.chunky.renderer.scene.SyntheticScene;
+import se.llbit.json.JsonArray;
+import se.llbit.json.JsonObject;
+import se.llbit.json.PrettyPrinter;
+import se.llbit.log.Level;
+import se.llbit.log.Log;
+import se.llbit.log.Receiver;
+import se.llbit.math.Octree;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the procedural world from {@link SyntheticScene} with fixed settings and seeds,
+ * and reports the render speed, per-stage timings, allocation rate and garbage collection
+ * activity as JSON.
+ *
+ * <p>The scene does not depend on any Minecraft world, texture pack, plugin or local render
+ * setting, so results can be compared between runs and between machines. The number of render
+ * threads, the target SPP, SPP per pass and tile width can be changed with the usual command-line
+ * options.
+ *
+ * <p>This disregards the various factories for the render context and renderer.
+ */
+class RenderBenchmark {
+  /** Canvas width of the benchmark render. */
+  static final int WIDTH = 400;
+
+  /** Canvas height of the benchmark render. */
+  static final int HEIGHT = 225;
+
+  /** Default target SPP, used if no target was given on the command line. */
+  static final int DEFAULT_SPP = 64;
+
+  /** Base seed for the render workers. Worker N uses SEED + N. */
+  static final long SEED = 0;
+
+  /** Sends all log messages to standard error so that standard output is only the report. */
+  private static final Receiver STDERR_LOG_RECEIVER = new Receiver() {
+    @Override public void logEvent(Level level, String message) {
+      System.err.println(message);
+    }
+  };
+
+  private final Chunky chunky;
+  private final ChunkyOptions options;
+
+  private final List<Long> frameTimes = new ArrayList<>();
+  private final RenderStatistics statistics = new RenderStatistics();
+  private long lastFrame;
+  private long renderStart;
+  private long renderEnd;
+  private int samplesPerSecond;
+  private final AllocationTracker allocationTracker = new AllocationTracker();
+  private long renderAllocatedBytes = -1;
+  private GcSnapshot renderGc;
+
+  RenderBenchmark(Chunky chunky) {
+    this.chunky = chunky;
+    this.options = chunky.options;
+  }
+
+  /**
+   * Run the benchmark and write the report.
+   *
+   * @return exit code
+   */
+  int run() {
+    System.setProperty("java.awt.headless", "true");
+    Log.setReceiver(STDERR_LOG_RECEIVER, Level.INFO, Level.WARNING, Level.ERROR);
+
+    long totalStart = System.nanoTime();
+    GcSnapshot totalGc = new GcSnapshot();
+    allocationTracker.sample();
+
+    RenderContext context = new RenderContext(chunky);
+    context.workerFactory = (manager, index, seed) -> new RenderWorker(manager, index, SEED + index);
+    RenderManager renderer = new RenderManager(context, true);
+    SynchronousSceneManager sceneManager = new SynchronousSceneManager(context, renderer);
+    renderer.setSceneProvider(sceneManager);
+
+    renderer.setOnFrameCompleted((scene, spp) -> {
+      long now = System.nanoTime();
+      frameTimes.add(now - lastFrame);
+      lastFrame = now;
+    });
+    renderer.addRenderListener(new RenderStatusListener() {
+      @Override public void setRenderTime(long time) {
+      }
+
+      @Override public void setSamplesPerSecond(int sps) {
+      }
+
+      @Override public void setSpp(int spp) {
+      }
+
+      @Override public void setRenderStatistics(RenderStatistics frame, RenderStatistics total) {
+        statistics.set(total);
+      }
+
+      @Override public void renderStateChanged(RenderMode state) {
+      }
+    });
+    renderer.setOnRenderCompleted((time, sps) -> {
+      // Called by the render manager while the workers are still alive,
+      // so their allocations are included.
+      renderEnd = System.nanoTime();
+      samplesPerSecond = sps;
+      renderGc = renderGc.delta();
+      long allocated = allocationTracker.sample();
+      if (allocated >= 0 && renderAllocatedBytes >= 0) {
+        renderAllocatedBytes = allocated - renderAllocatedBytes;
+      } else {
+        renderAllocatedBytes = -1;
+      }
+    });
+
+    Scene scene = sceneManager.getScene();
+    int depth = SyntheticScene.DEFAULT_DEPTH;
+    int targetSpp = options.target != -1 ? options.target : DEFAULT_SPP;
+    long generationTime, setupTime;
+    synchronized (scene) {
+      long start = System.nanoTime();
+      BlockPalette palette = new BlockPalette();
+      Octree worldTree = new Octree(scene.getOctreeImplementation(), depth);
+      Octree waterTree = new Octree(scene.getOctreeImplementation(), depth);
+      SyntheticScene.generate(palette, worldTree, waterTree);
+      generationTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      SyntheticScene.resetSettings(scene);
+      scene.setOctrees(palette, worldTree, waterTree);
+      SyntheticScene.setupCamera(scene.camera(), depth);
+      scene.setEmittersEnabled(true);
+      scene.setCanvasSize(WIDTH, HEIGHT);
+      scene.initBuffers();
+      scene.setTargetSpp(targetSpp);
+      scene.setResetReason(ResetReason.SCENE_LOADED);
+      scene.startHeadlessRender();
+      setupTime = System.nanoTime() - start;
+    }
+
+    try {
+      renderAllocatedBytes = allocationTracker.sample();
+      renderGc = new GcSnapshot();
+      renderStart = System.nanoTime();
+      lastFrame = renderStart;
+      renderer.start();
+      renderer.join();
+    } catch (InterruptedException e) {
+      System.err.println("Benchmark render was interrupted");
+      return 1;
+    } finally {
+      renderer.shutdown();
+    }
+
+    if (renderEnd == 0) {
+      System.err.println("Benchmark render did not complete");
+      return 1;
+    }
+
+    long totalTime = System.nanoTime() - totalStart;
+    totalGc = totalGc.delta();
+    long totalAllocated = allocationTracker.sample();
+
+    JsonObject report = new JsonObject();
+    report.add("chunkyVersion", Version.getVersion());
+    report.add("system", systemInfo());
+
+    JsonObject settings = new JsonObject();
+    settings.add("width", WIDTH);
+    settings.add("height", HEIGHT);
+    settings.add("spp", targetSpp);
+    settings.add("sppPerPass", context.sppPerPass());
+    settings.add("tileWidth", context.tileWidth());
+    settings.add("threads", context.numRenderThreads());
+    settings.add("octreeImplementation", scene.getOctreeImplementation());
+    settings.add("octreeDepth", depth);
+    settings.add("rayDepth", scene.getRayDepth());
+    settings.add("seed", SEED);
+    report.add("settings", settings);
+
+    long renderTime = renderEnd - renderStart;
+    JsonObject timings = new JsonObject();
+    timings.add("worldGeneration", millis(generationTime));
+    timings.add("sceneSetup", millis(setupTime));
+    timings.add("render", millis(renderTime));
+    timings.add("total", millis(totalTime));
+    report.add("timingsMs", timings);
+
+    JsonObject frames = new JsonObject();
+    long min = Long.MAX_VALUE, max = 0, sum = 0;
+    for (long time : frameTimes) {
+      min = Math.min(min, time);
+      max = Math.max(max, time);
+      sum += time;
+    }
+    frames.add("count", frameTimes.size());
+    frames.add("minMs", frameTimes.isEmpty() ? 0 : millis(min));
+    frames.add("meanMs", frameTimes.isEmpty() ? 0 : millis(sum / frameTimes.size()));
+    frames.add("maxMs", millis(max));
+    report.add("frames", frames);
+
+    report.add("samplesPerSecond", samplesPerSecond);
+    report.add("statistics", statistics.toJson());
+
+    JsonObject allocation = new JsonObject();
+    allocation.add("renderBytes", renderAllocatedBytes);
+    allocation.add("renderBytesPerSecond", rate(renderAllocatedBytes, renderTime));
+    allocation.add("totalBytes", totalAllocated);
+    allocation.add("totalBytesPerSecond", rate(totalAllocated, totalTime));
+    report.add("allocation", allocation);
+
+    JsonObject gc = new JsonObject();
+    gc.add("render", renderGc.toJson());
+    gc.add("total", totalGc.toJson());
+    report.add("gc", gc);
+
+    try {
+      writeReport(report);
+    } catch (IOException e) {
+      System.err.println("Failed to write benchmark report: " + e.getMessage());
+      return 1;
+    }
+    return 0;
+  }
+
+  private void writeReport(JsonObject report) throws IOException {
+    if (options.benchmarkOutputFile.isEmpty()) {
+      PrettyPrinter pp = new PrettyPrinter("  ", System.out);
+      report.prettyPrint(pp);
+      System.out.println();
+      System.out.flush();
+    } else {
+      try (OutputStream out = new FileOutputStream(options.benchmarkOutputFile)) {
+        PrintStream print = new PrintStream(out);
+        PrettyPrinter pp = new PrettyPrinter("  ", print);
+        report.prettyPrint(pp);
+        print.println();
+        print.flush();
+      }
+      System.err.println("Saved benchmark report to " + options.benchmarkOutputFile);
+    }
+  }
+
+  private static JsonObject systemInfo() {
+    JsonObject system = new JsonObject();
+    system.add("javaVersion", System.getProperty("java.version", ""));
+    system.add("javaVmName", System.getProperty("java.vm.name", ""));
+    system.add("osName", System.getProperty("os.name", ""));
+    system.add("osArch", System.getProperty("os.arch", ""));
+    system.add("availableProcessors", Runtime.getRuntime().availableProcessors());
+    system.add("maxMemory", Runtime.getRuntime().maxMemory());
+    return system;
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static long rate(long bytes, long nanos) {
+    if (bytes < 0 || nanos <= 0) {
+      return -1;
+    }
+    return (long) (bytes / (nanos / 1e9));
+  }
+
+  /**
+   * Accumulates the bytes allocated by each thread between samples.
+   *
+   * <p>The JVM only reports allocations of live threads, so a thread that has exited keeps the
+   * amount from the last sample where it was alive. The render workers are sampled when the
+   * render completes, before they exit.
+   */
+  private static class AllocationTracker {
+    private final Map<Long, Long> lastAllocated = new HashMap<>();
+    private long total = 0;
+    private boolean started = false;
+
+    /**
+     * @return the number of bytes allocated since the first sample, or -1 if the JVM does not
+     * support allocation tracking
+     */
+    synchronized long sample() {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+        return -1;
+      }
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (!sunThreads.isThreadAllocatedMemorySupported()
+          || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return -1;
+      }
+      long[] ids = threads.getAllThreadIds();
+      long[] allocated = sunThreads.getThreadAllocatedBytes(ids);
+      for (int i = 0; i < ids.length; ++i) {
+        if (allocated[i] < 0) {
+          continue;
+        }
+        Long last = lastAllocated.put(ids[i], allocated[i]);
+        if (started) {
+          // Threads started after the first sample count from zero.
+          total += allocated[i] - (last != null ? last : 0);
+        }
+      }
+      started = true;
+      return total;
+    }
+  }
+
+  /**
+   * Garbage collection counts and accumulated pause times for each collector.
+   */
+  private static class GcSnapshot {
+    final List<String> names = new ArrayList<>();
+    final List<Long> counts = new ArrayList<>();
+    final List<Long> times = new ArrayList<>();
+
+    GcSnapshot() {
+      for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        names.add(bean.getName());
+        counts.add(Math.max(0, bean.getCollectionCount()));
+        times.add(Math.max(0, bean.getCollectionTime()));
+      }
+    }
+
+    /**
+     * @return the collections since this snapshot was taken
+     */
+    GcSnapshot delta() {
+      GcSnapshot now = new GcSnapshot();
+      for (int i = 0; i < now.names.size(); ++i) {
+        int index = names.indexOf(now.names.get(i));
+        if (index >= 0) {
+          now.counts.set(i, now.counts.get(i) - counts.get(index));
+          now.times.set(i, now.times.get(i) - times.get(index));
+        }
+      }
+      return now;
+    }
+
+    JsonObject toJson() {
+      long count = 0, time = 0;
+      JsonArray collectors = new JsonArray();
+      for (int i = 0; i < names.size(); ++i) {
+        JsonObject collector = new JsonObject();
+        collector.add("name", names.get(i));
+        collector.add("count", counts.get(i));
+        collector.add("timeMs", times.get(i));
+        collectors.add(collector);
+        count += counts.get(i);
+        time += times.get(i);
+      }
+      JsonObject json = new JsonObject();
+      json.add("count", count);
+      json.add("timeMs", time);
+      json.add("collectors", collectors);
+      return json;
+    }
+  }
+}
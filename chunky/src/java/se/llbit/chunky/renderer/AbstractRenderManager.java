@@ -43,6 +43,7 @@ public abstract class AbstractRenderManager extends Thread {
     this.numThreads = context.numRenderThreads();
     this.tileWidth = context.tileWidth();
     this.sppPerPass = context.sppPerPass();
+    this.sampleOffset = context.sampleOffset();
     previewRayTracer = context.getChunky().getPreviewRayTracerFactory().newRayTracer();
     rayTracer = context.getChunky().getRayTracerFactory().newRayTracer();
     workerFactory = context.workerFactory;
@@ -63,6 +64,11 @@ public abstract class AbstractRenderManager extends Thread {
    */
   protected final int sppPerPass;
 
+  /**
+   * Offset added to the sample index of each pixel
+   */
+  protected final long sampleOffset;
+
   /**
    * CPU load percentage.
    */
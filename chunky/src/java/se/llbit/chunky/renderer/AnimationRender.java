@@ -0,0 +1,272 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.Sun;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonValue;
+import se.llbit.math.Vector3;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders a sequence of frames of a scene that differ only in the camera, the sun position,
+ * or the animation time.
+ *
+ * <p>The frames are rendered one after another with the same loaded scene, so the octree,
+ * textures and BVHs are only loaded once. Each frame is rendered to the target SPP and saved
+ * as an image in a directory next to the scene. Frames that already have an image are
+ * skipped, so an interrupted render resumes from the first unfinished frame.
+ *
+ * <p>The frames are described by keyframes. A property that is set in some keyframes is
+ * interpolated linearly between them, and keeps its first or last value before or after
+ * them. Properties that are not set in any keyframe keep the value from the scene.
+ */
+public class AnimationRender {
+  /** Scene properties that can be animated. */
+  public enum Property {
+    CAMERA_X,
+    CAMERA_Y,
+    CAMERA_Z,
+    CAMERA_YAW,
+    CAMERA_PITCH,
+    CAMERA_ROLL,
+    CAMERA_FOV,
+    SUN_AZIMUTH,
+    SUN_ALTITUDE,
+    ANIMATION_TIME,
+  }
+
+  private final Scene scene;
+  private final File frameDirectory;
+  private final String frameName;
+
+  /** The keyframes of each property, by frame number. */
+  private final Map<Property, TreeMap<Integer, Double>> tracks = new EnumMap<>(Property.class);
+  private int numFrames = 0;
+
+  /** The frame being rendered. */
+  private int frame = -1;
+
+  /**
+   * @param scene the scene edited by the scene manager
+   * @param sceneDirectory the frame images are stored in a subdirectory of this directory
+   */
+  public AnimationRender(Scene scene, File sceneDirectory) {
+    this.scene = scene;
+    synchronized (scene) {
+      frameDirectory = new File(sceneDirectory, scene.name() + "-frames");
+      frameName = scene.outputName();
+    }
+  }
+
+  /**
+   * Set the value of a property at a keyframe.
+   */
+  public void addKeyframe(int frame, Property property, double value) {
+    if (frame < 0) {
+      throw new IllegalArgumentException("Negative frame number: " + frame);
+    }
+    tracks.computeIfAbsent(property, p -> new TreeMap<>()).put(frame, value);
+    numFrames = Math.max(numFrames, frame + 1);
+  }
+
+  /**
+   * Load keyframes from a JSON file. The file contains an object with a {@code keyframes}
+   * array. Each keyframe can set the {@code frame} number, which defaults to the frame after
+   * the previous keyframe, and any of these properties:
+   *
+   * <pre>
+   * "camera": {
+   *   "position": { "x": 0, "y": 0, "z": 0 },
+   *   "orientation": { "yaw": 0, "pitch": 0, "roll": 0 },
+   *   "fov": 70
+   * },
+   * "sun": { "azimuth": 0, "altitude": 0 },
+   * "animationTime": 0
+   * </pre>
+   *
+   * Angles are in radians, like in the scene description.
+   */
+  public void loadKeyframes(File file) throws IOException {
+    JsonObject json;
+    try (JsonParser parser = new JsonParser(new FileInputStream(file))) {
+      json = parser.parse().object();
+    } catch (JsonParser.SyntaxError e) {
+      throw new IOException("JSON syntax error in " + file);
+    }
+    int next = 0;
+    for (JsonValue value : json.get("keyframes").array()) {
+      JsonObject keyframe = value.object();
+      int frame = keyframe.get("frame").intValue(next);
+      next = frame + 1;
+      JsonObject camera = keyframe.get("camera").object();
+      JsonObject position = camera.get("position").object();
+      JsonObject orientation = camera.get("orientation").object();
+      JsonObject sun = keyframe.get("sun").object();
+      addKeyframe(frame, Property.CAMERA_X, position.get("x"));
+      addKeyframe(frame, Property.CAMERA_Y, position.get("y"));
+      addKeyframe(frame, Property.CAMERA_Z, position.get("z"));
+      addKeyframe(frame, Property.CAMERA_YAW, orientation.get("yaw"));
+      addKeyframe(frame, Property.CAMERA_PITCH, orientation.get("pitch"));
+      addKeyframe(frame, Property.CAMERA_ROLL, orientation.get("roll"));
+      addKeyframe(frame, Property.CAMERA_FOV, camera.get("fov"));
+      addKeyframe(frame, Property.SUN_AZIMUTH, sun.get("azimuth"));
+      addKeyframe(frame, Property.SUN_ALTITUDE, sun.get("altitude"));
+      addKeyframe(frame, Property.ANIMATION_TIME, keyframe.get("animationTime"));
+      numFrames = Math.max(numFrames, frame + 1);
+    }
+  }
+
+  private void addKeyframe(int frame, Property property, JsonValue value) {
+    if (!value.isUnknown()) {
+      addKeyframe(frame, property, value.doubleValue(0));
+    }
+  }
+
+  /**
+   * @return the value of a property at a frame, or the given value if the property has no
+   * keyframes
+   */
+  public double value(Property property, int frame, double defaultValue) {
+    TreeMap<Integer, Double> track = tracks.get(property);
+    if (track == null) {
+      return defaultValue;
+    }
+    Map.Entry<Integer, Double> before = track.floorEntry(frame);
+    Map.Entry<Integer, Double> after = track.ceilingEntry(frame);
+    if (before == null) {
+      return after.getValue();
+    }
+    if (after == null || after.getKey().equals(before.getKey())) {
+      return before.getValue();
+    }
+    double t = (frame - before.getKey()) / (double) (after.getKey() - before.getKey());
+    return before.getValue() + t * (after.getValue() - before.getValue());
+  }
+
+  /**
+   * @return the number of frames in the animation
+   */
+  public int numFrames() {
+    return numFrames;
+  }
+
+  /**
+   * @return the number of frames that have been saved
+   */
+  public int numFinishedFrames() {
+    int finished = 0;
+    for (int i = 0; i < numFrames; ++i) {
+      if (frameFile(i).isFile()) {
+        finished += 1;
+      }
+    }
+    return finished;
+  }
+
+  private File frameFile(int index) {
+    String extension;
+    synchronized (scene) {
+      extension = scene.getOutputMode().getExtension();
+    }
+    return new File(frameDirectory, String.format("%s-%05d%s", frameName, index, extension));
+  }
+
+  /**
+   * Move the scene to the next frame that does not have an image yet, and restart the
+   * render. Only the animated properties of the scene are changed, the loaded world is kept.
+   *
+   * @return {@code false} if all frames are finished
+   */
+  public boolean startNextFrame() {
+    synchronized (scene) {
+      while (++frame < numFrames) {
+        if (!frameFile(frame).isFile()) {
+          applyFrame(frame);
+          scene.refresh();
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private void applyFrame(int frame) {
+    Camera camera = scene.camera();
+    if (tracks.containsKey(Property.CAMERA_X) || tracks.containsKey(Property.CAMERA_Y)
+        || tracks.containsKey(Property.CAMERA_Z)) {
+      Vector3 position = camera.getPosition();
+      camera.setPosition(new Vector3(
+          value(Property.CAMERA_X, frame, position.x),
+          value(Property.CAMERA_Y, frame, position.y),
+          value(Property.CAMERA_Z, frame, position.z)));
+    }
+    if (tracks.containsKey(Property.CAMERA_YAW) || tracks.containsKey(Property.CAMERA_PITCH)
+        || tracks.containsKey(Property.CAMERA_ROLL)) {
+      camera.setView(
+          value(Property.CAMERA_YAW, frame, camera.getYaw()),
+          value(Property.CAMERA_PITCH, frame, camera.getPitch()),
+          value(Property.CAMERA_ROLL, frame, camera.getRoll()));
+    }
+    if (tracks.containsKey(Property.CAMERA_FOV)) {
+      camera.setFoV(value(Property.CAMERA_FOV, frame, camera.getFov()));
+    }
+    Sun sun = scene.sun();
+    if (tracks.containsKey(Property.SUN_AZIMUTH)) {
+      sun.setAzimuth(value(Property.SUN_AZIMUTH, frame, sun.getAzimuth()));
+    }
+    if (tracks.containsKey(Property.SUN_ALTITUDE)) {
+      sun.setAltitude(value(Property.SUN_ALTITUDE, frame, sun.getAltitude()));
+    }
+    if (tracks.containsKey(Property.ANIMATION_TIME)) {
+      scene.setAnimationTime(value(Property.ANIMATION_TIME, frame, scene.getAnimationTime()));
+    }
+  }
+
+  /**
+   * Save the current frame of a scene as the image of the frame being rendered.
+   *
+   * <p>The image is written to a temporary file first, so that a frame image is never
+   * incomplete.
+   */
+  public void saveFrame(Scene bufferedScene, TaskTracker taskTracker, int threadCount)
+      throws IOException {
+    if (!frameDirectory.isDirectory() && !frameDirectory.mkdirs()) {
+      throw new IOException("Could not create directory " + frameDirectory);
+    }
+    File file = frameFile(frame);
+    File tmp = new File(frameDirectory, file.getName() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      bufferedScene.writeFrame(out, bufferedScene.getOutputMode(), taskTracker, threadCount);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -0,0 +1,218 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.png.PngFileWriter;
+import se.llbit.util.TaskTracker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stitches crops of a frame into one PNG image.
+ *
+ * <p>The image is written one band of rows at a time, and the pixels of a crop are only kept
+ * in memory while the band being written overlaps the crop. Parts of the frame that are not
+ * covered by any crop are left black.
+ */
+public class CropStitcher {
+  /**
+   * Matches the position and size of a crop at the end of a file name, as in
+   * {@code scene-X-Y-WxH.dump} or {@code scene-X-Y-WxH-SPP.png}.
+   */
+  private static final Pattern CROP_NAME =
+      Pattern.compile("(?:^|-)(\\d+)-(\\d+)-(\\d+)x(\\d+)(?:-\\d+)?\\.[^.]+$");
+
+  /**
+   * Reads the ARGB pixels of a crop, in row-major order.
+   */
+  public interface PixelSource {
+    int[] read() throws IOException;
+  }
+
+  private static class Crop {
+    final int x, y, width, height;
+    final PixelSource source;
+    int[] pixels;
+
+    Crop(int x, int y, int width, int height, PixelSource source) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.source = source;
+    }
+  }
+
+  private final int fullWidth;
+  private final int fullHeight;
+  private final List<Crop> crops = new ArrayList<>();
+
+  public CropStitcher(int fullWidth, int fullHeight) {
+    this.fullWidth = fullWidth;
+    this.fullHeight = fullHeight;
+  }
+
+  /**
+   * Add a crop of the frame.
+   *
+   * @throws IllegalArgumentException if the crop is outside the frame
+   */
+  public void add(int x, int y, int width, int height, PixelSource source) {
+    if (x < 0 || y < 0 || width <= 0 || height <= 0
+        || x + width > fullWidth || y + height > fullHeight) {
+      throw new IllegalArgumentException(String.format(
+          "Crop %d-%d-%dx%d is outside the %dx%d frame", x, y, width, height,
+          fullWidth, fullHeight));
+    }
+    crops.add(new Crop(x, y, width, height, source));
+  }
+
+  /**
+   * Add a crop image.
+   */
+  public void addImage(int x, int y, int width, int height, File file) {
+    add(x, y, width, height, () -> {
+      BufferedImage image = ImageIO.read(file);
+      if (image == null || image.getWidth() != width || image.getHeight() != height) {
+        throw new IOException("Missing or invalid crop image: " + file);
+      }
+      return image.getRGB(0, 0, width, height, null, 0, width);
+    });
+  }
+
+  /**
+   * Add a crop image or render dump. The position and size of the crop are taken from the
+   * end of the file name, as written by {@link Scene#outputName()}. Render dumps are
+   * post-processed with the settings of the given scene.
+   *
+   * @param scene a scene with the scene description loaded, only used for render dumps
+   * @throws IllegalArgumentException if the file name does not end with a crop
+   */
+  public void addFile(File file, Scene scene) {
+    Matcher matcher = CROP_NAME.matcher(file.getName());
+    if (!matcher.find()) {
+      throw new IllegalArgumentException("Not a crop file name: " + file.getName());
+    }
+    int x = Integer.parseInt(matcher.group(1));
+    int y = Integer.parseInt(matcher.group(2));
+    int width = Integer.parseInt(matcher.group(3));
+    int height = Integer.parseInt(matcher.group(4));
+    if (file.getName().endsWith(".dump")) {
+      add(x, y, width, height, () -> readDump(file, scene, x, y, width, height));
+    } else {
+      addImage(x, y, width, height, file);
+    }
+  }
+
+  private static int[] readDump(File file, Scene scene, int x, int y, int width, int height)
+      throws IOException {
+    synchronized (scene) {
+      scene.setCrop(x, y, width, height);
+      if (scene.getCropX() != x || scene.getCropY() != y
+          || scene.canvasWidth() != width || scene.canvasHeight() != height) {
+        throw new IOException("Render dump does not fit the frame: " + file);
+      }
+      try (InputStream in = new FileInputStream(file)) {
+        RenderDump.load(in, scene, TaskTracker.NONE);
+      } catch (IllegalStateException e) {
+        throw new IOException("Invalid render dump: " + file, e);
+      }
+      scene.postProcessFrame(TaskTracker.NONE);
+      return scene.getBackBuffer().data.clone();
+    }
+  }
+
+  /**
+   * Write the stitched frame to a PNG file.
+   *
+   * @param alpha write the alpha channel of the crops
+   */
+  public void stitch(File output, boolean alpha, TaskTracker.Task task) throws IOException {
+    // Bands end where a crop starts or ends, so each crop covers whole bands.
+    TreeSet<Integer> edges = new TreeSet<>();
+    edges.add(fullHeight);
+    for (Crop crop : crops) {
+      edges.add(crop.y);
+      edges.add(crop.y + crop.height);
+    }
+    List<Crop> pending = new ArrayList<>(crops);
+    pending.sort(Comparator.comparingInt(crop -> crop.y));
+    List<Crop> active = new ArrayList<>();
+    int uncovered = 0;
+
+    try (PngFileWriter writer = new PngFileWriter(output)) {
+      writer.startRows(fullWidth, fullHeight, alpha);
+      int[] row = new int[fullWidth];
+      int y0 = 0;
+      for (int y1 : edges) {
+        if (y1 == 0) {
+          continue;
+        }
+        task.update(fullHeight, y0);
+        while (!pending.isEmpty() && pending.get(0).y < y1) {
+          Crop crop = pending.remove(0);
+          crop.pixels = crop.source.read();
+          active.add(crop);
+        }
+        int covered = 0;
+        for (Crop crop : active) {
+          covered += crop.width;
+        }
+        if (covered < fullWidth) {
+          uncovered += y1 - y0;
+        }
+        for (int y = y0; y < y1; ++y) {
+          Arrays.fill(row, 0xFF000000);
+          for (Crop crop : active) {
+            System.arraycopy(crop.pixels, (y - crop.y) * crop.width, row, crop.x, crop.width);
+          }
+          writer.writeRow(row, 0, fullWidth);
+        }
+        Iterator<Crop> iterator = active.iterator();
+        while (iterator.hasNext()) {
+          Crop crop = iterator.next();
+          if (crop.y + crop.height <= y1) {
+            crop.pixels = null;
+            iterator.remove();
+          }
+        }
+        y0 = y1;
+      }
+      writer.finishRows();
+      task.update(fullHeight, fullHeight);
+    }
+    if (uncovered > 0) {
+      Log.warnf("Parts of %d rows are not covered by any crop", uncovered);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-pixel sample counts and noise estimates for adaptive sampling.
+ *
+ * <p>Render workers skip converged pixels, so each pixel has its own sample count instead of
+ * the SPP of the scene. The noise of a pixel is estimated from the mean of its squared
+ * luminance and the luminance of its mean color in the sample buffer. A pixel is converged
+ * when the standard error of its luminance, relative to the square root of the luminance,
+ * is below the noise threshold of the scene.
+ *
+ * <p>The counts are only valid for the SPP they were last updated to. If the SPP of the
+ * scene changes in some other way, for example when the render is reset or a render dump is
+ * loaded, every pixel is set to the SPP of the scene and its noise estimate is restarted.
+ */
+public class PixelConvergence {
+  /** The minimum number of samples in the noise estimate of a converged pixel. */
+  public static final int MIN_SAMPLES = 16;
+
+  /** Avoids division by zero for black pixels. */
+  private static final double MIN_LUMINANCE = 1e-4;
+
+  private final int[] sampleCounts;
+  private final int[] noiseSampleCounts;
+  private final double[] squaredLuminance;
+  private final boolean[] converged;
+  private final AtomicInteger convergedCount = new AtomicInteger();
+
+  /** The SPP of the scene that the counts are valid for. */
+  private int spp;
+
+  private double threshold;
+
+  public PixelConvergence(int width, int height, int spp) {
+    int pixels = width * height;
+    sampleCounts = new int[pixels];
+    noiseSampleCounts = new int[pixels];
+    squaredLuminance = new double[pixels];
+    converged = new boolean[pixels];
+    reset(spp);
+  }
+
+  private void reset(int spp) {
+    this.spp = spp;
+    Arrays.fill(sampleCounts, spp);
+    Arrays.fill(noiseSampleCounts, 0);
+    Arrays.fill(squaredLuminance, 0);
+    Arrays.fill(converged, false);
+    convergedCount.set(0);
+  }
+
+  /**
+   * Prepare for a render pass. Must be called before the workers start the pass.
+   * If the threshold was lowered, converged pixels are sampled again.
+   *
+   * @param spp the current SPP of the scene
+   * @param sppPerPass the number of samples that the pass adds to unconverged pixels
+   * @param threshold the noise threshold of the scene
+   */
+  public void startPass(int spp, int sppPerPass, double threshold) {
+    if (spp != this.spp) {
+      reset(spp);
+    } else if (threshold < this.threshold) {
+      Arrays.fill(converged, false);
+      convergedCount.set(0);
+    }
+    this.spp = spp + sppPerPass;
+    this.threshold = threshold;
+  }
+
+  public boolean isConverged(int pixel) {
+    return converged[pixel];
+  }
+
+  /**
+   * @return the number of samples in the sample buffer for the pixel
+   */
+  public int getSampleCount(int pixel) {
+    return sampleCounts[pixel];
+  }
+
+  /**
+   * Add samples to a pixel and update its convergence. The mean color of the pixel in the
+   * sample buffer must already include the new samples.
+   *
+   * @param count number of new samples
+   * @param squaredLuminanceSum the sum of the squared luminance of the new samples
+   * @param luminance the luminance of the mean color of the pixel
+   */
+  public void addSamples(int pixel, int count, double squaredLuminanceSum, double luminance) {
+    int n = noiseSampleCounts[pixel];
+    int total = n + count;
+    double squared = (squaredLuminance[pixel] * n + squaredLuminanceSum) / total;
+    squaredLuminance[pixel] = squared;
+    noiseSampleCounts[pixel] = total;
+    sampleCounts[pixel] += count;
+    if (total >= MIN_SAMPLES) {
+      double variance = Math.max(0, squared - luminance * luminance);
+      double error = Math.sqrt(variance / total);
+      if (error < threshold * Math.sqrt(Math.max(luminance, MIN_LUMINANCE))) {
+        converged[pixel] = true;
+        convergedCount.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return {@code true} if all pixels are converged
+   */
+  public boolean isConverged() {
+    return convergedCount.get() == converged.length;
+  }
+
+  /**
+   * @return the fraction of converged pixels
+   */
+  public double getConvergedFraction() {
+    return convergedCount.get() / (double) converged.length;
+  }
+
+  /**
+   * @return the luminance of a color
+   */
+  public static double luminance(double r, double g, double b) {
+    return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+  }
+}
@@ -146,6 +146,13 @@ public class RenderContext {
     return config.sppPerPass;
   }
 
+  /**
+   * @return The offset added to the sample index of each pixel
+   */
+  public long sampleOffset() {
+    return config.sampleOffset;
+  }
+
   /**
    * @param fileName  the filename with the extension
    * @param timestamp the last file modification timestamp to compare against
@@ -16,6 +16,8 @@
  */
 package se.llbit.chunky.renderer;
 
+import se.llbit.chunky.jfr.Jfr;
+import se.llbit.chunky.jfr.RenderPassEvent;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.log.Log;
@@ -50,9 +52,40 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
   private boolean finalizeAllFrames = false;
 
+  /**
+   * The denoiser may use at most this fraction of the render time for the
+   * frames that are shown while rendering.
+   */
+  private static final double MAX_DENOISE_TIME_FRACTION = 0.1;
+
+  /** Set if the render manager denoises and finalizes the current frame after the pass. */
+  private boolean denoiseFrame = false;
+
+  /** Set if the current frame is not finalized and the last denoised frame is kept. */
+  private boolean keepFrame = false;
+
+  private long lastDenoiseEnd = 0;
+  private long lastDenoiseTime = 0;
+
+  /**
+   * Time budget for the first preview pass after the scene changed, in nanoseconds.
+   */
+  private static final long PREVIEW_FRAME_TIME = 40000000;
+
+  /**
+   * The first preview pass renders at no less than 1/8 of the canvas resolution.
+   */
+  private static final int MAX_PREVIEW_BLOCK_SIZE = 8;
+
+  /**
+   * Average time of the last preview pass per rendered pixel, in nanoseconds, or
+   * -1 if no preview pass was measured yet.
+   */
+  private double previewPixelTime = -1;
+
   private Repaintable canvas = EMPTY_CANVAS;
 
-  private Thread[] workers = {};
+  private RenderWorker[] workers = {};
 
   /**
    * This scene state is used by render workers while rendering.
@@ -73,6 +106,11 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
   private Collection<RenderStatusListener> listeners = new ArrayList<>();
 
+  /** Sum of the worker statistics, used to find the statistics for one frame. */
+  private final RenderStatistics workerStatistics = new RenderStatistics();
+  private final RenderStatistics frameStatistics = new RenderStatistics();
+  private final RenderStatistics totalStatistics = new RenderStatistics();
+
   private BiConsumer<Long, Integer> renderCompletionListener = (time, sps) -> {};
   private BiConsumer<Scene, Integer> frameCompletionListener = (scene, spp) -> {};
   private TaskTracker.Task renderTask = TaskTracker.Task.NONE;
@@ -116,8 +154,10 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
   @Override public void run() {
     try {
-      long seed = System.currentTimeMillis();
-      workers = new Thread[numThreads];
+      // Render farm sample offsets are multiples of 2^32, so they are multiplied rather than
+      // shifted into the seed.
+      long seed = System.currentTimeMillis() + sampleOffset * 0x9E3779B97F4A7C15L;
+      workers = new RenderWorker[numThreads];
       for (int i = 0; i < numThreads; ++i) {
         workers[i] = workerFactory.buildWorker(this, i, seed + i);
         workers[i].start();
@@ -173,7 +213,8 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
           }
         }
 
-        if (headless) {
+        if (headless && !sceneProvider.pollSceneStateChange()) {
+          // Keep rendering if the scene was changed when the render completed.
           break;
         }
       }
@@ -215,9 +256,30 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
 
       synchronized (bufferedScene) {
         long frameStart = System.currentTimeMillis();
+        long frameStartNanos = System.nanoTime();
+        RenderPassEvent event = Jfr.AVAILABLE ? RenderPassEvent.start() : null;
+        sumWorkerStatistics(workerStatistics);
+        bufferedScene.startAdaptivePass(sppPerPass);
+        bufferedScene.startDenoiserPass();
         startNextFrame();
         waitOnWorkers();
-        bufferedScene.swapBuffers();
+        if (denoiseFrame) {
+          long denoiseStart = System.nanoTime();
+          bufferedScene.postProcessFrame(TaskTracker.Task.NONE);
+          lastDenoiseEnd = System.nanoTime();
+          lastDenoiseTime = lastDenoiseEnd - denoiseStart;
+        }
+        commitPass(event, false);
+        sumWorkerStatistics(frameStatistics);
+        frameStatistics.sub(workerStatistics);
+        frameStatistics.time = System.nanoTime() - frameStartNanos;
+        if (bufferedScene.spp == 0) {
+          totalStatistics.reset();
+        }
+        totalStatistics.add(frameStatistics);
+        if (!keepFrame) {
+          bufferedScene.swapBuffers();
+        }
         bufferedScene.renderTime += System.currentTimeMillis() - frameStart;
       }
 
@@ -229,7 +291,16 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
         int currentSpp = bufferedScene.spp;
         frameCompletionListener.accept(bufferedScene, currentSpp);
         updateRenderProgress();
-        if (currentSpp >= bufferedScene.getTargetSpp()) {
+        synchronized (this) {
+          // The listeners get copies, the counters are reused for the next frame.
+          RenderStatistics frame = frameStatistics.copy();
+          RenderStatistics total = totalStatistics.copy();
+          listeners.forEach(listener -> listener.setRenderStatistics(frame, total));
+        }
+        if (bufferedScene.isConverged()) {
+          Log.infof("All pixels are below the noise threshold after %d SPP", currentSpp);
+        }
+        if (currentSpp >= bufferedScene.getTargetSpp() || bufferedScene.isConverged()) {
           renderCompletionListener.accept(bufferedScene.renderTime, samplesPerSecond());
           return;
         }
@@ -237,6 +308,29 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
     }
   }
 
+  private void commitPass(RenderPassEvent event, boolean preview) {
+    if (event != null) {
+      event.spp = bufferedScene.spp;
+      event.sppPerPass = sppPerPass;
+      event.tiles = numJobs;
+      event.width = bufferedScene.canvasWidth();
+      event.height = bufferedScene.canvasHeight();
+      event.preview = preview;
+      event.commit();
+    }
+  }
+
+  /**
+   * Sum the statistics of all render workers.
+   * This must only be called while the workers are waiting for the next frame.
+   */
+  private void sumWorkerStatistics(RenderStatistics sum) {
+    sum.reset();
+    for (RenderWorker worker : workers) {
+      sum.add(worker.state.statistics);
+    }
+  }
+
   /**
    * @return the current rendering speed in samples per second (SPS)
    */
@@ -254,7 +348,11 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
     // Notify progress listener.
     int target = bufferedScene.getTargetSpp();
     long etaSeconds = (long) (((target - bufferedScene.spp) * renderTime) / bufferedScene.spp);
-    if (etaSeconds > 0) {
+    PixelConvergence convergence = bufferedScene.getPixelConvergence();
+    if (convergence != null) {
+      renderTask.update(String.format("Rendering (%.1f%% converged)",
+          100 * convergence.getConvergedFraction()), target, bufferedScene.spp, "");
+    } else if (etaSeconds > 0) {
       int seconds = (int) ((etaSeconds) % 60);
       int minutes = (int) ((etaSeconds / 60) % 60);
       int hours = (int) (etaSeconds / 3600);
@@ -274,12 +372,22 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
     }
   }
 
+  /**
+   * Render the preview in passes of increasing resolution. The first pass renders at
+   * the highest resolution that fits in the preview time budget, going by the cost of
+   * the previous preview passes, and each following pass doubles the resolution until
+   * every pixel has been rendered.
+   */
   private void previewLoop() throws InterruptedException {
     long frameStart;
 
-    renderTask.update("Preview", 2, 0, "");
+    int blockSize = firstPreviewBlockSize();
+    int passes = Integer.numberOfTrailingZeros(blockSize) + 1;
+    renderTask.update("Preview", passes, 0, "");
     synchronized (bufferedScene) {
-      bufferedScene.previewCount = 2;
+      bufferedScene.previewCount = passes;
+      bufferedScene.previewBlockSize = blockSize;
+      bufferedScene.previewRenderedBlockSize = 0;
     }
 
     while (true) {
@@ -295,14 +403,26 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
       long renderTime;
       synchronized (bufferedScene) {
         frameStart = System.currentTimeMillis();
+        long frameStartNanos = System.nanoTime();
+        RenderPassEvent event = Jfr.AVAILABLE ? RenderPassEvent.start() : null;
+        sumWorkerStatistics(workerStatistics);
         startNextFrame();
         waitOnWorkers();
+        commitPass(event, true);
         bufferedScene.swapBuffers();
+        sumWorkerStatistics(frameStatistics);
+        frameStatistics.sub(workerStatistics);
+        if (frameStatistics.primaryRays > 0) {
+          previewPixelTime =
+              (System.nanoTime() - frameStartNanos) / (double) frameStatistics.primaryRays;
+        }
         sendSceneStatus(bufferedScene.sceneStatus());
         bufferedScene.renderTime += System.currentTimeMillis() - frameStart;
         bufferedScene.previewCount -= 1;
+        bufferedScene.previewRenderedBlockSize = bufferedScene.previewBlockSize;
+        bufferedScene.previewBlockSize = Math.max(1, bufferedScene.previewBlockSize / 2);
         bufferedScene.spp = 0;
-        progress = 2 - bufferedScene.previewCount;
+        progress = passes - bufferedScene.previewCount;
         renderTime = bufferedScene.renderTime;
       }
 
@@ -314,13 +434,34 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
       });
 
       // Update render progress.
-      renderTask.update("Preview", 2, progress, "");
+      renderTask.update("Preview", passes, progress, "");
 
       // Notify the canvas to repaint.
       canvas.repaint();
     }
   }
 
+  /**
+   * @return the smallest preview block size for which the first preview pass is expected
+   * to fit in the preview time budget
+   */
+  private int firstPreviewBlockSize() {
+    int maxBlockSize = Math.min(MAX_PREVIEW_BLOCK_SIZE, Integer.highestOneBit(tileWidth));
+    if (previewPixelTime < 0) {
+      return maxBlockSize;
+    }
+    double pixels;
+    synchronized (bufferedScene) {
+      pixels = bufferedScene.canvasWidth() * (double) bufferedScene.canvasHeight();
+    }
+    int blockSize = 1;
+    while (blockSize < maxBlockSize
+        && pixels / (blockSize * blockSize) * previewPixelTime > PREVIEW_FRAME_TIME) {
+      blockSize *= 2;
+    }
+    return blockSize;
+  }
+
   /**
    * Assign render jobs to tiles of the canvas.
    */
@@ -352,8 +493,22 @@ public class RenderManager extends AbstractRenderManager implements Renderer {
    */
   private void startNextFrame() {
     int nextSpp = bufferedScene.spp + sppPerPass;
-    bufferedScene.setBufferFinalization(finalizeAllFrames
-        || snapshotControl.saveSnapshot(bufferedScene, nextSpp));
+    if (bufferedScene.isDenoiserEnabled()) {
+      // The denoiser needs the whole frame, so the workers do not finalize pixels.
+      // Frames shown while rendering are denoised when it takes little enough of the
+      // render time, otherwise the last denoised frame stays visible. Snapshots are
+      // denoised when they are saved.
+      denoiseFrame = finalizeAllFrames && (nextSpp >= bufferedScene.getTargetSpp()
+          || System.nanoTime() - lastDenoiseEnd
+          > lastDenoiseTime / MAX_DENOISE_TIME_FRACTION);
+      keepFrame = finalizeAllFrames && !denoiseFrame;
+      bufferedScene.setBufferFinalization(false);
+    } else {
+      denoiseFrame = false;
+      keepFrame = false;
+      bufferedScene.setBufferFinalization(finalizeAllFrames
+          || snapshotControl.saveSnapshot(bufferedScene, nextSpp));
+    }
     frameFinished = new CountDownLatch(numJobs);
     synchronized (jobMonitor) {
       lastJob += numJobs;
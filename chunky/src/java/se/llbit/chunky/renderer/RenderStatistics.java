@@ -0,0 +1,166 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.json.JsonObject;
+
+/**
+ * Counts the work done by the renderer.
+ *
+ * <p>Each render worker has its own counters, which are only written by that worker thread.
+ * The render manager sums the counters of all workers after each frame, while the workers are
+ * waiting for the next frame, so the counters are plain fields.
+ *
+ * <p>Code that does not have access to the worker state, such as the octree and BVH traversal,
+ * uses {@link #current()} to find the counters of the current thread.
+ */
+public class RenderStatistics {
+  private static final ThreadLocal<RenderStatistics> OTHER_THREADS =
+      ThreadLocal.withInitial(RenderStatistics::new);
+
+  /** Number of camera rays. */
+  public long primaryRays;
+
+  /** Number of diffuse reflections. */
+  public long diffuseBounces;
+
+  /** Number of specular reflections, including Fresnel and total internal reflection. */
+  public long specularBounces;
+
+  /** Number of refractions and transmissions through transparent surfaces. */
+  public long refractionBounces;
+
+  /** Number of octree leaf nodes visited while traversing the world and water octrees. */
+  public long octreeSteps;
+
+  /** Number of BVH nodes visited while intersecting entities. */
+  public long bvhNodeVisits;
+
+  /** Number of emitter shadow rays cast by emitter sampling. */
+  public long emitterSamples;
+
+  /** Number of fog inscatter samples. */
+  public long fogSamples;
+
+  /** Wall-clock time in nanoseconds that these statistics were collected over. */
+  public long time;
+
+  /**
+   * @return the counters for the current thread. For render workers these are the counters
+   * that are reported by the render manager, for other threads the counts are not reported.
+   */
+  public static RenderStatistics current() {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof RenderWorker) {
+      return ((RenderWorker) thread).state.statistics;
+    }
+    return OTHER_THREADS.get();
+  }
+
+  /**
+   * @return a copy of these counters
+   */
+  public RenderStatistics copy() {
+    RenderStatistics copy = new RenderStatistics();
+    copy.set(this);
+    return copy;
+  }
+
+  public void set(RenderStatistics other) {
+    primaryRays = other.primaryRays;
+    diffuseBounces = other.diffuseBounces;
+    specularBounces = other.specularBounces;
+    refractionBounces = other.refractionBounces;
+    octreeSteps = other.octreeSteps;
+    bvhNodeVisits = other.bvhNodeVisits;
+    emitterSamples = other.emitterSamples;
+    fogSamples = other.fogSamples;
+    time = other.time;
+  }
+
+  public void add(RenderStatistics other) {
+    primaryRays += other.primaryRays;
+    diffuseBounces += other.diffuseBounces;
+    specularBounces += other.specularBounces;
+    refractionBounces += other.refractionBounces;
+    octreeSteps += other.octreeSteps;
+    bvhNodeVisits += other.bvhNodeVisits;
+    emitterSamples += other.emitterSamples;
+    fogSamples += other.fogSamples;
+    time += other.time;
+  }
+
+  public void sub(RenderStatistics other) {
+    primaryRays -= other.primaryRays;
+    diffuseBounces -= other.diffuseBounces;
+    specularBounces -= other.specularBounces;
+    refractionBounces -= other.refractionBounces;
+    octreeSteps -= other.octreeSteps;
+    bvhNodeVisits -= other.bvhNodeVisits;
+    emitterSamples -= other.emitterSamples;
+    fogSamples -= other.fogSamples;
+    time -= other.time;
+  }
+
+  public void reset() {
+    primaryRays = 0;
+    diffuseBounces = 0;
+    specularBounces = 0;
+    refractionBounces = 0;
+    octreeSteps = 0;
+    bvhNodeVisits = 0;
+    emitterSamples = 0;
+    fogSamples = 0;
+    time = 0;
+  }
+
+  /**
+   * @return the total number of rays traced, i.e. primary rays plus all bounces
+   */
+  public long totalRays() {
+    return primaryRays + diffuseBounces + specularBounces + refractionBounces;
+  }
+
+  /**
+   * @return the number of events per second over the collection time
+   */
+  public double perSecond(long count) {
+    return time > 0 ? count / (time / 1e9) : 0;
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.add("primaryRays", primaryRays);
+    json.add("diffuseBounces", diffuseBounces);
+    json.add("specularBounces", specularBounces);
+    json.add("refractionBounces", refractionBounces);
+    json.add("octreeSteps", octreeSteps);
+    json.add("bvhNodeVisits", bvhNodeVisits);
+    json.add("emitterSamples", emitterSamples);
+    json.add("fogSamples", fogSamples);
+    json.add("timeMs", time / 1e6);
+    json.add("raysPerSecond", perSecond(totalRays()));
+    return json;
+  }
+
+  @Override public String toString() {
+    return String.format("rays/s: %.0f (primary: %d, diffuse: %d, specular: %d, refraction: %d), "
+            + "octree steps: %d, BVH node visits: %d, emitter samples: %d, fog samples: %d",
+        perSecond(totalRays()), primaryRays, diffuseBounces, specularBounces, refractionBounces,
+        octreeSteps, bvhNodeVisits, emitterSamples, fogSamples);
+  }
+}
@@ -55,6 +55,16 @@ public interface RenderStatusListener {
    */
   void setSpp(int spp);
 
+  /**
+   * Called after each rendered frame with the render statistics of the frame. The statistics
+   * are copies that the listener may keep.
+   *
+   * @param frame statistics for the last frame
+   * @param total statistics since the render was started
+   */
+  default void setRenderStatistics(RenderStatistics frame, RenderStatistics total) {
+  }
+
   /**
    * Called when the current scene has been saved.
    */
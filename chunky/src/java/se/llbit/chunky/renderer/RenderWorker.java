@@ -16,14 +16,18 @@
  */
 package se.llbit.chunky.renderer;
 
+import se.llbit.chunky.jfr.Jfr;
+import se.llbit.chunky.jfr.RenderTileEvent;
+import se.llbit.chunky.renderer.denoiser.AovBuffer;
 import se.llbit.chunky.renderer.scene.Camera;
 import se.llbit.chunky.renderer.scene.RayTracer;
+import se.llbit.chunky.renderer.sampler.Sampler;
+import se.llbit.chunky.renderer.sampler.SamplerType;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.log.Log;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
-
-import java.util.Random;
+import se.llbit.math.Vector3;
 
 /**
  * Performs rendering work.
@@ -44,6 +48,10 @@ public class RenderWorker extends Thread {
   protected final RayTracer previewRayTracer;
   protected final RayTracer rayTracer;
 
+  private final long seed;
+  private SamplerType samplerType;
+  private Sampler sampler;
+
   /**
    * Create a new render worker, slave to a given render manager.
    *
@@ -58,11 +66,23 @@ public class RenderWorker extends Thread {
     this.previewRayTracer = manager.getPreviewRayTracer();
     this.rayTracer = manager.getRayTracer();
     this.id = id;
+    this.seed = seed;
     state = new WorkerState();
-    state.random = new Random(seed);
+    setSamplerType(SamplerType.INDEPENDENT);
     state.ray = new Ray();
   }
 
+  /**
+   * Replace the sampler of this worker if the sampler type changed.
+   */
+  private void setSamplerType(SamplerType type) {
+    if (type != samplerType) {
+      samplerType = type;
+      sampler = type.create(seed);
+      state.random = sampler;
+    }
+  }
+
   @Override
   public void run() {
     long jobTime = 0;
@@ -70,7 +90,16 @@ public class RenderWorker extends Thread {
       while (!isInterrupted()) {
         RenderTile job = manager.getNextJob();
         long jobStart = System.nanoTime();
+        RenderTileEvent event = Jfr.AVAILABLE ? RenderTileEvent.start() : null;
         work(job);
+        if (event != null) {
+          event.worker = id;
+          event.x = job.x0;
+          event.y = job.y0;
+          event.width = job.x1 - job.x0;
+          event.height = job.y1 - job.y0;
+          event.commit();
+        }
         jobTime += System.nanoTime() - jobStart;
         manager.jobDone();
 
@@ -99,44 +128,86 @@ public class RenderWorker extends Thread {
   private void work(RenderTile tile) {
     Scene scene = manager.getBufferedScene();
 
-    Random random = state.random;
+    setSamplerType(scene.getSamplerType());
+    Sampler random = sampler;
     Ray ray = state.ray;
 
     int width = scene.canvasWidth();
     int height = scene.canvasHeight();
 
-    double halfWidth = width / (2.0 * height);
-    double invHeight = 1.0 / height;
+    // Camera rays are computed for the position of the pixels in the full frame,
+    // so that a cropped canvas renders the same pixels as the full frame.
+    int cropX = scene.getCropX();
+    int cropY = scene.getCropY();
+    double halfWidth = scene.getFullWidth() / (2.0 * scene.getFullHeight());
+    double invHeight = 1.0 / scene.getFullHeight();
 
     double[] samples = scene.getSampleBuffer();
     final Camera cam = scene.camera();
 
     if (scene.getMode() != RenderMode.PREVIEW) {
+      PixelConvergence convergence = scene.getPixelConvergence();
+      AovBuffer aov = scene.getAovBuffer();
+      Vector3 albedoSum = new Vector3();
+      Vector3 normalSum = new Vector3();
       for (int y = tile.y0; y < tile.y1; ++y) {
         int offset = y * width * 3 + tile.x0 * 3;
         for (int x = tile.x0; x < tile.x1; ++x) {
+          int pixel = y * width + x;
+          int spp = scene.spp;
+          if (convergence != null) {
+            if (convergence.isConverged(pixel)) {
+              if (scene.shouldFinalizeBuffer()) {
+                scene.finalizePixel(x, y);
+              }
+              offset += 3;
+              continue;
+            }
+            spp = convergence.getSampleCount(pixel);
+          }
 
           double sr = 0;
           double sg = 0;
           double sb = 0;
+          double sl2 = 0;
+          albedoSum.set(0, 0, 0);
+          normalSum.set(0, 0, 0);
 
           for (int i = 0; i < manager.sppPerPass; ++i) {
+            random.startSample(cropX + x, cropY + y, manager.sampleOffset + spp + i);
             double oy = random.nextDouble();
             double ox = random.nextDouble();
 
-            cam.calcViewRay(ray, random, (-halfWidth + (x + ox) * invHeight),
-                (-.5 + (y + oy) * invHeight));
+            cam.calcViewRay(ray, random, (-halfWidth + (cropX + x + ox) * invHeight),
+                (-.5 + (cropY + y + oy) * invHeight));
+            state.statistics.primaryRays += 1;
 
+            state.albedo.set(1, 1, 1);
+            state.normal.set(0, 0, 0);
             scene.rayTrace(rayTracer, state);
 
             sr += ray.color.x;
             sg += ray.color.y;
             sb += ray.color.z;
+            double luminance = PixelConvergence.luminance(ray.color.x, ray.color.y, ray.color.z);
+            sl2 += luminance * luminance;
+            albedoSum.add(state.albedo);
+            normalSum.add(state.normal);
+          }
+          double sinv = 1.0 / (spp + manager.sppPerPass);
+          samples[offset + 0] = (samples[offset + 0] * spp + sr) * sinv;
+          samples[offset + 1] = (samples[offset + 1] * spp + sg) * sinv;
+          samples[offset + 2] = (samples[offset + 2] * spp + sb) * sinv;
+
+          if (convergence != null) {
+            convergence.addSamples(pixel, manager.sppPerPass, sl2,
+                PixelConvergence.luminance(samples[offset + 0], samples[offset + 1],
+                    samples[offset + 2]));
+          }
+
+          if (aov != null) {
+            aov.addSamples(pixel, manager.sppPerPass, albedoSum, normalSum, sl2);
           }
-          double sinv = 1.0 / (scene.spp + manager.sppPerPass);
-          samples[offset + 0] = (samples[offset + 0] * scene.spp + sr) * sinv;
-          samples[offset + 1] = (samples[offset + 1] * scene.spp + sg) * sinv;
-          samples[offset + 2] = (samples[offset + 2] * scene.spp + sb) * sinv;
 
           if (scene.shouldFinalizeBuffer()) {
             scene.finalizePixel(x, y);
@@ -154,63 +225,66 @@ public class RenderWorker extends Thread {
       int ty = (int) QuickMath.floor(target.o.y + target.d.y * Ray.OFFSET);
       int tz = (int) QuickMath.floor(target.o.z + target.d.z * Ray.OFFSET);
 
-      for (int x = tile.x0; x < tile.x1; ++x)
-        for (int y = tile.y0; y < tile.y1; ++y) {
-
-          boolean firstFrame = scene.previewCount > 1;
-          if (firstFrame) {
-            if (((x + y) % 2) == 0) {
-              continue;
+      // Render one pixel per block, except for the pixels rendered by the previous pass,
+      // and fill the block with the color of that pixel.
+      int blockSize = scene.previewBlockSize;
+      int renderedBlockSize = scene.previewRenderedBlockSize;
+      for (int y = tile.y0; y < tile.y1; y += blockSize) {
+        for (int x = tile.x0; x < tile.x1; x += blockSize) {
+          boolean rendered = renderedBlockSize > 0
+              && (x - tile.x0) % renderedBlockSize == 0
+              && (y - tile.y0) % renderedBlockSize == 0;
+          if (!rendered) {
+            cam.calcViewRay(ray, random, (-halfWidth + (double) (cropX + x) * invHeight),
+                (-.5 + (double) (cropY + y) * invHeight));
+            state.statistics.primaryRays += 1;
+
+            scene.rayTrace(previewRayTracer, state);
+
+            // Target highlighting.
+            int rx = (int) QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
+            int ry = (int) QuickMath.floor(ray.o.y + ray.d.y * Ray.OFFSET);
+            int rz = (int) QuickMath.floor(ray.o.z + ray.d.z * Ray.OFFSET);
+            if (hit && tx == rx && ty == ry && tz == rz) {
+              ray.color.x = 1 - ray.color.x;
+              ray.color.y = 1 - ray.color.y;
+              ray.color.z = 1 - ray.color.z;
+              ray.color.w = 1;
             }
-          } else {
-            if (((x + y) % 2) != 0) {
-              scene.finalizePixel(x, y);
-              continue;
-            }
-          }
-
-          // Draw the crosshairs.
-          if (x == width / 2 && (y >= height / 2 - 5 && y <= height / 2 + 5) || y == height / 2 && (
-              x >= width / 2 - 5 && x <= width / 2 + 5)) {
-            samples[(y * width + x) * 3 + 0] = 0xFF;
-            samples[(y * width + x) * 3 + 1] = 0xFF;
-            samples[(y * width + x) * 3 + 2] = 0xFF;
-            scene.finalizePixel(x, y);
-            continue;
-          }
-
-          cam.calcViewRay(ray, random, (-halfWidth + (double) x * invHeight),
-              (-.5 + (double) y * invHeight));
-
-          scene.rayTrace(previewRayTracer, state);
 
-          // Target highlighting.
-          int rx = (int) QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
-          int ry = (int) QuickMath.floor(ray.o.y + ray.d.y * Ray.OFFSET);
-          int rz = (int) QuickMath.floor(ray.o.z + ray.d.z * Ray.OFFSET);
-          if (hit && tx == rx && ty == ry && tz == rz) {
-            ray.color.x = 1 - ray.color.x;
-            ray.color.y = 1 - ray.color.y;
-            ray.color.z = 1 - ray.color.z;
-            ray.color.w = 1;
+            samples[(y * width + x) * 3 + 0] = ray.color.x;
+            samples[(y * width + x) * 3 + 1] = ray.color.y;
+            samples[(y * width + x) * 3 + 2] = ray.color.z;
           }
 
-          samples[(y * width + x) * 3 + 0] = ray.color.x;
-          samples[(y * width + x) * 3 + 1] = ray.color.y;
-          samples[(y * width + x) * 3 + 2] = ray.color.z;
-
           scene.finalizePixel(x, y);
 
-          if (firstFrame) {
-            if (y % 2 == 0 && x < (width - 1)) {
-              // Copy the current pixel to the next one.
-              scene.copyPixel(y * width + x, 1);
-            } else if (y % 2 != 0 && x > 0) {
-              // Copy the next pixel to this pixel.
-              scene.copyPixel(y * width + x, -1);
+          int pixel = y * width + x;
+          int blockX1 = Math.min(x + blockSize, tile.x1);
+          int blockY1 = Math.min(y + blockSize, tile.y1);
+          for (int by = y; by < blockY1; ++by) {
+            for (int bx = x; bx < blockX1; ++bx) {
+              if (bx != x || by != y) {
+                scene.copyPixel(pixel, by * width + bx - pixel);
+              }
             }
           }
         }
+      }
+
+      // Draw the crosshairs.
+      int cx = width / 2;
+      int cy = height / 2;
+      if (cx >= tile.x0 && cx < tile.x1) {
+        for (int y = Math.max(tile.y0, cy - 5); y < Math.min(tile.y1, cy + 6); ++y) {
+          scene.setPixel(cx, y, 0xFFFFFFFF);
+        }
+      }
+      if (cy >= tile.y0 && cy < tile.y1) {
+        for (int x = Math.max(tile.x0, cx - 5); x < Math.min(tile.x1, cx + 6); ++x) {
+          scene.setPixel(x, cy, 0xFFFFFFFF);
+        }
+      }
     }
   }
 }
@@ -31,6 +31,7 @@ public interface SnapshotControl {
    */
   default boolean saveSnapshot(Scene scene, int nextSpp) {
     return nextSpp >= scene.getTargetSpp()
+        || scene.isConverged()
         || (scene.shouldSaveDumps()
         && scene.shouldSaveSnapshots()
         && (nextSpp % scene.getDumpFrequency() == 0));
@@ -38,6 +39,7 @@ public interface SnapshotControl {
 
   default boolean saveRenderDump(Scene scene, int nextSpp) {
     return nextSpp >= scene.getTargetSpp()
+        || scene.isConverged()
         || (scene.shouldSaveDumps()
         && (nextSpp % scene.getDumpFrequency() == 0));
   }
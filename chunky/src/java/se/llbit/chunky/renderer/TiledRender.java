@@ -0,0 +1,161 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import se.llbit.chunky.renderer.export.PictureExportFormats;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Renders a frame that is too large for the render buffers as a sequence of crops.
+ *
+ * <p>The frame is split into a grid of square crops which are rendered one at a time, each to
+ * the target SPP. Finished crops are saved as PNG images in a directory next to the scene,
+ * and crops that already have an image are skipped, so an interrupted render resumes from
+ * the first unfinished crop. When all crops are done they are stitched into one PNG image,
+ * one band of crops at a time.
+ *
+ * <p>The scene must be loaded with {@link Scene#setMaxCropSize} set to the crop size.
+ *
+ * <p>The denoiser only sees the pixels of the crop being rendered, so with the denoiser
+ * enabled there can be visible seams along the crop edges.
+ */
+public class TiledRender {
+  private final Scene scene;
+  private final File cropDirectory;
+  private final int cropSize;
+  private final int fullWidth;
+  private final int fullHeight;
+  private final int columns;
+  private final int rows;
+
+  /** Index of the crop being rendered. */
+  private int crop = -1;
+
+  /**
+   * @param scene the scene edited by the scene manager
+   * @param sceneDirectory the crop images are stored in a subdirectory of this directory
+   */
+  public TiledRender(Scene scene, File sceneDirectory, int cropSize) {
+    this.scene = scene;
+    this.cropSize = cropSize;
+    synchronized (scene) {
+      fullWidth = scene.getFullWidth();
+      fullHeight = scene.getFullHeight();
+      cropDirectory = new File(sceneDirectory, scene.name() + "-crops");
+    }
+    columns = (fullWidth + cropSize - 1) / cropSize;
+    rows = (fullHeight + cropSize - 1) / cropSize;
+  }
+
+  /**
+   * @return the number of crops in the frame
+   */
+  public int numCrops() {
+    return columns * rows;
+  }
+
+  /**
+   * @return the number of crops that have been saved
+   */
+  public int numFinishedCrops() {
+    int finished = 0;
+    for (int i = 0; i < numCrops(); ++i) {
+      if (cropFile(i).isFile()) {
+        finished += 1;
+      }
+    }
+    return finished;
+  }
+
+  private File cropFile(int index) {
+    int x = (index % columns) * cropSize;
+    int y = (index / columns) * cropSize;
+    return cropFile(x, y, Math.min(cropSize, fullWidth - x), Math.min(cropSize, fullHeight - y));
+  }
+
+  private File cropFile(int x, int y, int width, int height) {
+    return new File(cropDirectory, String.format("%d-%d-%dx%d.png", x, y, width, height));
+  }
+
+  /**
+   * Crop the scene to the next crop that does not have an image yet, and restart the render.
+   *
+   * @return {@code false} if all crops are finished
+   */
+  public boolean startNextCrop() {
+    synchronized (scene) {
+      while (++crop < numCrops()) {
+        if (!cropFile(crop).isFile()) {
+          int x = (crop % columns) * cropSize;
+          int y = (crop / columns) * cropSize;
+          scene.setCrop(x, y, cropSize, cropSize);
+          scene.refresh();
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Save the current frame of a scene as the image of the crop it renders.
+   *
+   * <p>The image is written to a temporary file first, so that a crop image is never
+   * incomplete.
+   */
+  public void saveCrop(Scene bufferedScene, TaskTracker taskTracker, int threadCount)
+      throws IOException {
+    if (!cropDirectory.isDirectory() && !cropDirectory.mkdirs()) {
+      throw new IOException("Could not create directory " + cropDirectory);
+    }
+    File file = cropFile(bufferedScene.getCropX(), bufferedScene.getCropY(),
+        bufferedScene.canvasWidth(), bufferedScene.canvasHeight());
+    File tmp = new File(cropDirectory, file.getName() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      bufferedScene.writeFrame(out, PictureExportFormats.PNG, taskTracker, threadCount);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Stitch the crop images into a PNG image of the full frame.
+   *
+   * <p>Only one row of crops is kept in memory at a time.
+   *
+   * @param alpha write the alpha channel of the crop images
+   * @throws IOException if a crop image is missing or could not be read
+   */
+  public void stitch(File output, boolean alpha, TaskTracker.Task task) throws IOException {
+    CropStitcher stitcher = new CropStitcher(fullWidth, fullHeight);
+    for (int y = 0; y < fullHeight; y += cropSize) {
+      for (int x = 0; x < fullWidth; x += cropSize) {
+        int width = Math.min(cropSize, fullWidth - x);
+        int height = Math.min(cropSize, fullHeight - y);
+        stitcher.addImage(x, y, width, height, cropFile(x, y, width, height));
+      }
+    }
+    stitcher.stitch(output, alpha, task);
+  }
+}
@@ -17,6 +17,7 @@
 package se.llbit.chunky.renderer;
 
 import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
 import se.llbit.math.Vector4;
 
 import java.util.Random;
@@ -27,5 +28,17 @@ import java.util.Random;
 public class WorkerState {
   public Ray ray;
   public Vector4 attenuation = new Vector4();
+
+  /**
+   * Source of random numbers. This is a {@link se.llbit.chunky.renderer.sampler.Sampler}
+   * for render workers.
+   */
   public Random random;
+  public final RenderStatistics statistics = new RenderStatistics();
+
+  /** Albedo at the first hit of the current camera ray, written by the path tracer. */
+  public final Vector3 albedo = new Vector3();
+
+  /** Surface normal at the first hit of the current camera ray, zero if nothing was hit. */
+  public final Vector3 normal = new Vector3();
 }
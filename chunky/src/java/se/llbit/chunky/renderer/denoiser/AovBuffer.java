@@ -0,0 +1,112 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.denoiser;
+
+import se.llbit.math.Vector3;
+
+import java.util.Arrays;
+
+/**
+ * Arbitrary output variables (AOVs) used to guide the denoiser.
+ *
+ * <p>For each pixel this stores the average albedo and normal at the first hit of the camera
+ * rays, and the average squared luminance of the samples, which gives the variance of the
+ * pixel together with the sample buffer. The buffer counts its own samples per pixel, so it
+ * can be enabled in the middle of a render.
+ *
+ * <p>Each pixel is only written by the render worker that renders it, so no synchronization
+ * is needed while rendering.
+ */
+public class AovBuffer {
+  public final int width;
+  public final int height;
+
+  private final float[] albedo;
+  private final float[] normal;
+  private final float[] squaredLuminance;
+  private final int[] sampleCounts;
+
+  public AovBuffer(int width, int height) {
+    this.width = width;
+    this.height = height;
+    albedo = new float[width * height * 3];
+    normal = new float[width * height * 3];
+    squaredLuminance = new float[width * height];
+    sampleCounts = new int[width * height];
+  }
+
+  /**
+   * Remove all samples.
+   */
+  public void clear() {
+    Arrays.fill(albedo, 0);
+    Arrays.fill(normal, 0);
+    Arrays.fill(squaredLuminance, 0);
+    Arrays.fill(sampleCounts, 0);
+  }
+
+  /**
+   * Add samples to a pixel.
+   *
+   * @param count number of samples
+   * @param albedoSum sum of the first hit albedo of the samples
+   * @param normalSum sum of the first hit normal of the samples
+   * @param squaredLuminanceSum sum of the squared luminance of the samples
+   */
+  public void addSamples(int pixel, int count, Vector3 albedoSum, Vector3 normalSum,
+      double squaredLuminanceSum) {
+    int n = sampleCounts[pixel];
+    double sinv = 1.0 / (n + count);
+    int offset = pixel * 3;
+    albedo[offset + 0] = (float) ((albedo[offset + 0] * n + albedoSum.x) * sinv);
+    albedo[offset + 1] = (float) ((albedo[offset + 1] * n + albedoSum.y) * sinv);
+    albedo[offset + 2] = (float) ((albedo[offset + 2] * n + albedoSum.z) * sinv);
+    normal[offset + 0] = (float) ((normal[offset + 0] * n + normalSum.x) * sinv);
+    normal[offset + 1] = (float) ((normal[offset + 1] * n + normalSum.y) * sinv);
+    normal[offset + 2] = (float) ((normal[offset + 2] * n + normalSum.z) * sinv);
+    squaredLuminance[pixel] = (float) ((squaredLuminance[pixel] * n + squaredLuminanceSum) * sinv);
+    sampleCounts[pixel] = n + count;
+  }
+
+  /**
+   * @return the number of samples added to the pixel
+   */
+  public int getSampleCount(int pixel) {
+    return sampleCounts[pixel];
+  }
+
+  /**
+   * @return the average albedo of the pixel, as three consecutive components
+   */
+  public float[] getAlbedo() {
+    return albedo;
+  }
+
+  /**
+   * @return the average normal of the pixel, as three consecutive components
+   */
+  public float[] getNormal() {
+    return normal;
+  }
+
+  /**
+   * @return the average squared luminance of each pixel
+   */
+  public float[] getSquaredLuminance() {
+    return squaredLuminance;
+  }
+}
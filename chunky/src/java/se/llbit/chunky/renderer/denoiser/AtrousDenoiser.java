@@ -0,0 +1,326 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.denoiser;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.PixelConvergence;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Edge-avoiding à-trous wavelet denoiser.
+ *
+ * <p>The filter is applied to the irradiance, that is the pixel color divided by the first hit
+ * albedo, so that texture detail is kept. Each iteration blurs with a 5x5 B3-spline kernel
+ * whose taps are spread twice as far apart as in the previous iteration. The weight of a tap
+ * drops with the difference in normal and albedo, and with the difference in luminance
+ * relative to the estimated standard deviation of the pixel. The variance is filtered along
+ * with the color, so the filter becomes more selective as the noise goes down.
+ *
+ * <p>A denoiser keeps its filter buffers between frames, so one instance should be reused
+ * for every frame of the same size. Only the pixels of the frame are filtered. When a large
+ * image is rendered as separate crops, each crop is denoised on its own and seams can show
+ * where the crops meet.
+ *
+ * <p>See Dammertz et al. 2010, "Edge-Avoiding À-Trous Wavelet Transform for fast Global
+ * Illumination Filtering" and Schied et al. 2017, "Spatiotemporal Variance-Guided Filtering".
+ */
+public class AtrousDenoiser {
+  private static final int ITERATIONS = 5;
+
+  /** B3-spline kernel. */
+  private static final double[] KERNEL = { 1 / 16.0, 1 / 4.0, 3 / 8.0, 1 / 4.0, 1 / 16.0 };
+
+  /** Luminance edge-stopping parameter, in standard deviations. */
+  private static final double SIGMA_LUMINANCE = 4;
+
+  /** The normal weight is the cosine between the normals raised to 2^NORMAL_POWER_STEPS. */
+  private static final int NORMAL_POWER_STEPS = 9;
+
+  /** Albedo edge-stopping parameter. */
+  private static final double SIGMA_ALBEDO = 0.25;
+
+  /** Albedo components below this are not divided out of the color. */
+  private static final double MIN_ALBEDO = 0.01;
+
+  public final int width;
+  public final int height;
+  private AovBuffer aov;
+  private final float[] normal;
+  private double[] irradiance;
+  private double[] variance;
+  private double[] nextIrradiance;
+  private double[] nextVariance;
+
+  public AtrousDenoiser(int width, int height) {
+    this.width = width;
+    this.height = height;
+    int pixels = width * height;
+    normal = new float[pixels * 3];
+    irradiance = new double[pixels * 3];
+    variance = new double[pixels];
+    nextIrradiance = new double[pixels * 3];
+    nextVariance = new double[pixels];
+  }
+
+  /**
+   * Denoise the sample buffer.
+   *
+   * <p>Pixels without AOV samples are copied unchanged. The filter runs in parallel on the
+   * common thread pool.
+   *
+   * @param samples the average color of each pixel
+   * @param aov the AOV buffer, which must have the same size as this denoiser
+   * @param result the denoised colors are written to this array, which can not be the
+   * sample buffer
+   */
+  public synchronized void denoise(double[] samples, AovBuffer aov, double[] result) {
+    if (aov.width != width || aov.height != height) {
+      throw new IllegalArgumentException("AOV buffer size does not match the denoiser");
+    }
+    this.aov = aov;
+    forEachRow(y -> demodulate(samples, y));
+    forEachRow(this::filterVariance);
+    swap();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      int step = 1 << i;
+      forEachRow(y -> filter(y, step));
+      swap();
+    }
+    forEachRow(y -> remodulate(samples, result, y));
+    this.aov = null;
+  }
+
+  private void forEachRow(IntConsumer row) {
+    Chunky.getCommonThreads().submit(() -> IntStream.range(0, height).parallel().forEach(row))
+        .join();
+  }
+
+  private void swap() {
+    double[] tmp = irradiance;
+    irradiance = nextIrradiance;
+    nextIrradiance = tmp;
+    tmp = variance;
+    variance = nextVariance;
+    nextVariance = tmp;
+  }
+
+  /**
+   * Divide the albedo out of the color and compute the variance of the mean irradiance.
+   */
+  private void demodulate(double[] samples, int y) {
+    float[] albedo = aov.getAlbedo();
+    float[] normals = aov.getNormal();
+    float[] squaredLuminance = aov.getSquaredLuminance();
+    for (int x = 0; x < width; ++x) {
+      int pixel = y * width + x;
+      int offset = pixel * 3;
+      double nx = normals[offset];
+      double ny = normals[offset + 1];
+      double nz = normals[offset + 2];
+      double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length > 0) {
+        normal[offset] = (float) (nx / length);
+        normal[offset + 1] = (float) (ny / length);
+        normal[offset + 2] = (float) (nz / length);
+      } else {
+        normal[offset] = 0;
+        normal[offset + 1] = 0;
+        normal[offset + 2] = 0;
+      }
+      double r = samples[offset];
+      double g = samples[offset + 1];
+      double b = samples[offset + 2];
+      double ir = r / albedoFactor(albedo[offset]);
+      double ig = g / albedoFactor(albedo[offset + 1]);
+      double ib = b / albedoFactor(albedo[offset + 2]);
+      irradiance[offset] = ir;
+      irradiance[offset + 1] = ig;
+      irradiance[offset + 2] = ib;
+      int count = aov.getSampleCount(pixel);
+      if (count > 0) {
+        double luminance = PixelConvergence.luminance(r, g, b);
+        double pixelVariance =
+            Math.max(0, squaredLuminance[pixel] - luminance * luminance) / count;
+        if (luminance > 0) {
+          double scale = PixelConvergence.luminance(ir, ig, ib) / luminance;
+          pixelVariance *= scale * scale;
+        }
+        variance[pixel] = pixelVariance;
+      } else {
+        variance[pixel] = 0;
+      }
+    }
+  }
+
+  /**
+   * Blur the variance estimate with a 3x3 Gaussian to make it more reliable.
+   */
+  private void filterVariance(int y) {
+    System.arraycopy(irradiance, y * width * 3, nextIrradiance, y * width * 3, width * 3);
+    for (int x = 0; x < width; ++x) {
+      int pixel = y * width + x;
+      if (aov.getSampleCount(pixel) == 0) {
+        nextVariance[pixel] = 0;
+        continue;
+      }
+      double sum = 0;
+      double weightSum = 0;
+      for (int dy = -1; dy <= 1; ++dy) {
+        int qy = y + dy;
+        if (qy < 0 || qy >= height) {
+          continue;
+        }
+        for (int dx = -1; dx <= 1; ++dx) {
+          int qx = x + dx;
+          int q = qy * width + qx;
+          if (qx < 0 || qx >= width || aov.getSampleCount(q) == 0) {
+            continue;
+          }
+          double weight = (dx == 0 ? 2 : 1) * (dy == 0 ? 2 : 1);
+          sum += weight * variance[q];
+          weightSum += weight;
+        }
+      }
+      nextVariance[pixel] = sum / weightSum;
+    }
+  }
+
+  /**
+   * One à-trous iteration.
+   */
+  private void filter(int y, int step) {
+    float[] albedo = aov.getAlbedo();
+    for (int x = 0; x < width; ++x) {
+      int pixel = y * width + x;
+      int offset = pixel * 3;
+      if (aov.getSampleCount(pixel) == 0) {
+        nextIrradiance[offset] = irradiance[offset];
+        nextIrradiance[offset + 1] = irradiance[offset + 1];
+        nextIrradiance[offset + 2] = irradiance[offset + 2];
+        nextVariance[pixel] = variance[pixel];
+        continue;
+      }
+      double luminance = PixelConvergence.luminance(irradiance[offset], irradiance[offset + 1],
+          irradiance[offset + 2]);
+      double sigma = SIGMA_LUMINANCE * Math.sqrt(variance[pixel]) + 1e-6;
+      double nx = normal[offset];
+      double ny = normal[offset + 1];
+      double nz = normal[offset + 2];
+      boolean hasNormal = nx != 0 || ny != 0 || nz != 0;
+      double ar = albedo[offset];
+      double ag = albedo[offset + 1];
+      double ab = albedo[offset + 2];
+
+      double sr = 0;
+      double sg = 0;
+      double sb = 0;
+      double sv = 0;
+      double weightSum = 0;
+      for (int ky = 0; ky < 5; ++ky) {
+        int qy = y + (ky - 2) * step;
+        if (qy < 0 || qy >= height) {
+          continue;
+        }
+        for (int kx = 0; kx < 5; ++kx) {
+          int qx = x + (kx - 2) * step;
+          if (qx < 0 || qx >= width) {
+            continue;
+          }
+          int q = qy * width + qx;
+          if (aov.getSampleCount(q) == 0) {
+            continue;
+          }
+          int qOffset = q * 3;
+
+          double normalWeight;
+          double qnx = normal[qOffset];
+          double qny = normal[qOffset + 1];
+          double qnz = normal[qOffset + 2];
+          if (hasNormal) {
+            normalWeight = Math.max(0, nx * qnx + ny * qny + nz * qnz);
+            for (int i = 0; i < NORMAL_POWER_STEPS; ++i) {
+              normalWeight *= normalWeight;
+            }
+          } else {
+            // Sky pixels are only blended with other sky pixels.
+            normalWeight = qnx == 0 && qny == 0 && qnz == 0 ? 1 : 0;
+          }
+          if (normalWeight == 0) {
+            continue;
+          }
+
+          double dr = albedo[qOffset] - ar;
+          double dg = albedo[qOffset + 1] - ag;
+          double db = albedo[qOffset + 2] - ab;
+          double albedoDistance = (dr * dr + dg * dg + db * db) / (SIGMA_ALBEDO * SIGMA_ALBEDO);
+
+          double qr = irradiance[qOffset];
+          double qg = irradiance[qOffset + 1];
+          double qb = irradiance[qOffset + 2];
+          double luminanceDistance =
+              Math.abs(PixelConvergence.luminance(qr, qg, qb) - luminance) / sigma;
+
+          double weight = KERNEL[kx] * KERNEL[ky] * normalWeight
+              * Math.exp(-luminanceDistance - albedoDistance);
+          sr += weight * qr;
+          sg += weight * qg;
+          sb += weight * qb;
+          sv += weight * weight * variance[q];
+          weightSum += weight;
+        }
+      }
+      if (weightSum > 0) {
+        double winv = 1 / weightSum;
+        nextIrradiance[offset] = sr * winv;
+        nextIrradiance[offset + 1] = sg * winv;
+        nextIrradiance[offset + 2] = sb * winv;
+        nextVariance[pixel] = sv * winv * winv;
+      } else {
+        nextIrradiance[offset] = irradiance[offset];
+        nextIrradiance[offset + 1] = irradiance[offset + 1];
+        nextIrradiance[offset + 2] = irradiance[offset + 2];
+        nextVariance[pixel] = variance[pixel];
+      }
+    }
+  }
+
+  /**
+   * Multiply the filtered irradiance by the albedo again.
+   */
+  private void remodulate(double[] samples, double[] result, int y) {
+    float[] albedo = aov.getAlbedo();
+    for (int x = 0; x < width; ++x) {
+      int pixel = y * width + x;
+      int offset = pixel * 3;
+      if (aov.getSampleCount(pixel) == 0) {
+        result[offset] = samples[offset];
+        result[offset + 1] = samples[offset + 1];
+        result[offset + 2] = samples[offset + 2];
+      } else {
+        result[offset] = irradiance[offset] * albedoFactor(albedo[offset]);
+        result[offset + 1] = irradiance[offset + 1] * albedoFactor(albedo[offset + 1]);
+        result[offset + 2] = irradiance[offset + 2] * albedoFactor(albedo[offset + 2]);
+      }
+    }
+  }
+
+  private static double albedoFactor(double albedo) {
+    return albedo < MIN_ALBEDO ? 1 : albedo;
+  }
+}
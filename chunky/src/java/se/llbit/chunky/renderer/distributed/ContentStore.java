@@ -0,0 +1,165 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of files named by the SHA-256 hash of their content.
+ *
+ * <p>Files are written to a temporary file and then renamed, so several processes can share
+ * a store.
+ */
+public class ContentStore {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File directory;
+
+  public ContentStore(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the file with the given hash, or {@code null} if it is not in the store
+   */
+  public File get(String hash) {
+    if (!isValidHash(hash)) {
+      return null;
+    }
+    File file = new File(directory, hash);
+    return file.isFile() ? file : null;
+  }
+
+  /**
+   * Add a copy of a file to the store.
+   *
+   * @return the hash of the file
+   */
+  public String add(File file) throws IOException {
+    String hash;
+    try (InputStream in = new FileInputStream(file)) {
+      hash = hash(in, file.length(), null);
+    }
+    if (get(hash) == null) {
+      try (InputStream in = new FileInputStream(file)) {
+        put(hash, file.length(), in);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Read a file from a stream into the store.
+   *
+   * @param size the number of bytes to read from the stream
+   * @throws IOException if the content does not match the hash
+   */
+  public void put(String hash, long size, InputStream in) throws IOException {
+    if (!isValidHash(hash)) {
+      throw new IOException("Invalid hash: " + hash);
+    }
+    ensureDirectory();
+    File tmp = File.createTempFile(hash, ".tmp", directory);
+    try {
+      String actual;
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        actual = hash(in, size, out);
+      }
+      if (!actual.equals(hash)) {
+        throw new IOException("Content does not match hash " + hash);
+      }
+      Files.move(tmp.toPath(), new File(directory, hash).toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      //noinspection ResultOfMethodCallIgnored
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Place a file from the store at the given path, as a hard link if possible.
+   */
+  public void link(String hash, File target) throws IOException {
+    File file = get(hash);
+    if (file == null) {
+      throw new IOException("Missing file " + hash);
+    }
+    File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+    Files.delete(tmp.toPath());
+    try {
+      Files.createLink(tmp.toPath(), file.toPath());
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(file.toPath(), tmp.toPath());
+    }
+    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    // Renaming a link onto another link to the same file does nothing.
+    Files.deleteIfExists(tmp.toPath());
+  }
+
+  private static boolean isValidHash(String hash) {
+    return hash.matches("[0-9a-f]{64}");
+  }
+
+  private void ensureDirectory() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+  }
+
+  /**
+   * Hash the given number of bytes from a stream, and copy them to an output stream.
+   *
+   * @param out output stream, or {@code null}
+   * @return the hexadecimal SHA-256 hash
+   */
+  private static String hash(InputStream in, long size, OutputStream out) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long remaining = size;
+    while (remaining > 0) {
+      int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (n < 0) {
+        throw new EOFException();
+      }
+      digest.update(buffer, 0, n);
+      if (out != null) {
+        out.write(buffer, 0, n);
+      }
+      remaining -= n;
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
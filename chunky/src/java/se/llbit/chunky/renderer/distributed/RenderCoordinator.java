@@ -0,0 +1,333 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinates a render of one scene on several worker processes.
+ *
+ * <p>Each worker gets its own range of sample indices, so the workers trace different
+ * samples. The range of a worker that disconnects before sending any samples is given to
+ * the next worker. The workers send the samples they rendered since their previous report as render
+ * dumps, which are merged into the scene weighted by SPP. The coordinator saves snapshots
+ * and render dumps like a headless render, and stops the workers when the target SPP is
+ * reached.
+ *
+ * <p>The coordinator does not load the octree. It only needs the scene description and the
+ * render dump.
+ */
+public class RenderCoordinator {
+  /** Render dumps from workers are sent this often, in seconds. */
+  public static final int REPORT_INTERVAL = 30;
+
+  /**
+   * Each worker gets this many sample indices. The first range is left for local renders of
+   * the scene, which may be in the render dump already.
+   */
+  private static final long SAMPLE_RANGE = 1L << 32;
+
+  /** Room for the render dump header: magic number, version, size, SPP and render time. */
+  private static final int DUMP_HEADER_SIZE = 64;
+
+  private static final String[] SCENE_FILE_EXTENSIONS = {
+      Scene.EXTENSION, ".octree2", ".emittergrid", ".foliage", ".grass",
+  };
+
+  private final Scene scene;
+  private final RenderContext context;
+  private final TaskTracker taskTracker;
+  private final ContentStore store;
+  private final RenderJob job;
+  private final List<Socket> connections = new ArrayList<>();
+  private ServerSocket server;
+  private long numSampleRanges = 1;
+
+  /** Sample ranges of workers that disconnected before sending any samples. */
+  private final Deque<Long> unusedSampleRanges = new ArrayDeque<>();
+  private boolean finished = false;
+
+  /**
+   * Prepare the job. The scene files and texture packs are added to the content store, so
+   * that changes to the scene files during the render do not change the job.
+   *
+   * @param scene a scene with the scene description and render dump loaded
+   * @param context the render context, with the scene directory
+   * @param texturePacks the texture packs used to render the scene, in load order
+   * @param directory the content store is kept in this directory
+   */
+  public RenderCoordinator(Scene scene, RenderContext context, List<File> texturePacks,
+      File directory, int reportInterval, TaskTracker taskTracker) throws IOException {
+    this.scene = scene;
+    this.context = context;
+    this.store = new ContentStore(new File(directory, "files"));
+    this.taskTracker = taskTracker;
+    List<RenderJob.JobFile> sceneFiles = new ArrayList<>();
+    List<RenderJob.JobFile> packs = new ArrayList<>();
+    int numFiles = SCENE_FILE_EXTENSIONS.length + texturePacks.size();
+    try (TaskTracker.Task task = taskTracker.task("Preparing render job", numFiles)) {
+      int done = 0;
+      for (String extension : SCENE_FILE_EXTENSIONS) {
+        File file = context.getSceneFile(scene.name() + extension);
+        if (file.isFile()) {
+          sceneFiles.add(addFile(file));
+        }
+        task.update(++done);
+      }
+      for (File pack : texturePacks) {
+        packs.add(addFile(pack));
+        task.update(++done);
+      }
+    }
+    job = new RenderJob(scene.name(), 0, reportInterval, sceneFiles, packs);
+  }
+
+  private RenderJob.JobFile addFile(File file) throws IOException {
+    return new RenderJob.JobFile(file.getName(), store.add(file), file.length());
+  }
+
+  /**
+   * Accept workers until the target SPP is reached.
+   */
+  public void run(int port) throws IOException {
+    try (ServerSocket server = new ServerSocket(port)) {
+      synchronized (this) {
+        this.server = server;
+      }
+      Log.infof("Waiting for render workers on port %d", server.getLocalPort());
+      while (true) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (IOException e) {
+          synchronized (this) {
+            if (finished) {
+              return;
+            }
+          }
+          throw e;
+        }
+        synchronized (this) {
+          if (finished) {
+            socket.close();
+            return;
+          }
+          connections.add(socket);
+        }
+        Thread thread = new Thread(() -> serve(socket),
+            "Render Coordinator " + socket.getRemoteSocketAddress());
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+  }
+
+  /**
+   * @return the offset of a sample range that no worker has sent samples from
+   */
+  private synchronized long takeSampleRange() {
+    if (!unusedSampleRanges.isEmpty()) {
+      return unusedSampleRanges.pop();
+    }
+    numSampleRanges += 1;
+    return (numSampleRanges - 1) * SAMPLE_RANGE;
+  }
+
+  private void serve(Socket socket) {
+    String worker = socket.getRemoteSocketAddress().toString();
+    try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()))) {
+      if (in.readInt() != RenderJob.MAGIC || in.readInt() != RenderJob.VERSION) {
+        Log.warn("Rejected incompatible render worker " + worker);
+        return;
+      }
+      Log.info("Render worker connected: " + worker);
+      long sampleOffset = takeSampleRange();
+      boolean sentSamples = false;
+      try {
+        RenderJob workerJob = job.withSampleOffset(sampleOffset);
+        workerJob.write(out);
+        out.flush();
+        sendFiles(workerJob, in, out, worker);
+
+        long maxDumpSize = maxDumpSize();
+        while (true) {
+          int dumpSize = in.readInt();
+          if (dumpSize < 0 || dumpSize > maxDumpSize) {
+            throw new IOException(
+                String.format("Invalid render dump size %d from %s", dumpSize, worker));
+          }
+          byte[] dump = new byte[dumpSize];
+          in.readFully(dump);
+          boolean more = merge(dump, worker);
+          sentSamples = true;
+          if (!more) {
+            break;
+          }
+        }
+      } finally {
+        // Released before the connection is closed, so the next worker can get the range.
+        if (!sentSamples) {
+          synchronized (this) {
+            unusedSampleRanges.push(sampleOffset);
+          }
+        }
+      }
+    } catch (EOFException e) {
+      Log.info("Render worker disconnected: " + worker);
+    } catch (IOException e) {
+      synchronized (this) {
+        if (!finished) {
+          Log.warn("Lost connection to render worker " + worker, e);
+        }
+      }
+    } finally {
+      synchronized (this) {
+        connections.remove(socket);
+      }
+    }
+  }
+
+  /**
+   * Send the files of the job that the worker does not have.
+   */
+  private void sendFiles(RenderJob workerJob, DataInputStream in, DataOutputStream out,
+      String worker) throws IOException {
+    Map<String, RenderJob.JobFile> files = new HashMap<>();
+    for (RenderJob.JobFile file : workerJob.allFiles()) {
+      files.put(file.hash, file);
+    }
+    int numMissing = in.readInt();
+    if (numMissing < 0 || numMissing > files.size()) {
+      throw new IOException(
+          String.format("Worker %s requested %d files of %d", worker, numMissing, files.size()));
+    }
+    List<String> missing = new ArrayList<>();
+    for (int i = 0; i < numMissing; ++i) {
+      missing.add(in.readUTF());
+    }
+    for (String hash : missing) {
+      File file = files.containsKey(hash) ? store.get(hash) : null;
+      if (file == null) {
+        throw new IOException("Worker requested unknown file " + hash);
+      }
+      Log.infof("Sending %s to %s", files.get(hash).name, worker);
+      Files.copy(file.toPath(), out);
+    }
+    out.flush();
+  }
+
+  /**
+   * @return the largest size of a render dump of the scene. The compressed samples take at
+   * most 17 bytes per pair of values.
+   */
+  private long maxDumpSize() {
+    long values = 3L * scene.width * scene.height;
+    return DUMP_HEADER_SIZE + (values + 1) / 2 * 17;
+  }
+
+  /**
+   * Merge a render dump from a worker into the scene.
+   *
+   * @return {@code false} if the render is finished
+   */
+  private synchronized boolean merge(byte[] dump, String worker) throws IOException {
+    if (finished) {
+      return false;
+    }
+    int previousSpp = scene.spp;
+    try {
+      RenderDump.merge(new ByteArrayInputStream(dump), scene, TaskTracker.NONE);
+    } catch (IllegalStateException e) {
+      throw new IOException("Invalid render dump from " + worker, e);
+    }
+    int spp = scene.spp;
+    int target = scene.getTargetSpp();
+    taskTracker.backgroundTask().update("Rendering", target, spp);
+
+    boolean done = spp >= target;
+    int frequency = scene.getDumpFrequency();
+    boolean interval = frequency > 0 && spp / frequency != previousSpp / frequency;
+    if (done || (interval && scene.shouldSaveDumps())) {
+      saveDump();
+    }
+    if (done || (interval && scene.shouldSaveDumps() && scene.shouldSaveSnapshots())) {
+      scene.saveSnapshot(new File(context.getSceneDirectory(), "snapshots"), taskTracker,
+          context.numRenderThreads());
+    }
+    if (done) {
+      Log.infof("Render job finished at %d SPP", spp);
+      stop();
+    }
+    return !done;
+  }
+
+  private void saveDump() {
+    scene.saveDump(context, taskTracker);
+    try (OutputStream out = context.getSceneDescriptionOutputStream(scene.name())) {
+      scene.saveDescription(out);
+    } catch (IOException e) {
+      Log.warn("Failed to save the scene description", e);
+    }
+  }
+
+  /**
+   * Stop accepting workers and close all connections, which stops the workers.
+   */
+  public synchronized void stop() {
+    finished = true;
+    try {
+      if (server != null) {
+        server.close();
+      }
+    } catch (IOException e) {
+      Log.warn("Failed to close the server socket", e);
+    }
+    for (Socket socket : connections) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        Log.warn("Failed to close connection", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.renderer.Renderer;
+import se.llbit.chunky.renderer.SnapshotControl;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.renderer.scene.SynchronousSceneManager;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.log.Log;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Renders a job from a {@link RenderCoordinator}.
+ *
+ * <p>The scene files and texture packs of the job are kept in a content store, so they are
+ * only transferred the first time a worker renders the scene. The worker renders until the
+ * coordinator closes the connection, and sends the samples rendered since the previous report
+ * at the interval given by the job.
+ */
+public class RenderFarmWorker {
+  /** Never finalize frames or save anything locally. */
+  private static final SnapshotControl NO_SNAPSHOTS = new SnapshotControl() {
+    @Override public boolean saveSnapshot(Scene scene, int nextSpp) {
+      return false;
+    }
+
+    @Override public boolean saveRenderDump(Scene scene, int nextSpp) {
+      return false;
+    }
+  };
+
+  private final Chunky chunky;
+  private final File directory;
+  private final ContentStore store;
+  private final TaskTracker taskTracker;
+
+  private DataOutputStream out;
+  private Renderer renderer;
+  private long reportInterval;
+  private long lastReportTime;
+
+  /** The samples of the previous report, and the scene used to send a report. */
+  private double[] reportedSamples;
+  private int reportedSpp;
+  private long reportedRenderTime;
+  private Scene report;
+
+  /**
+   * @param directory the content store and the scene directories of the jobs are kept in
+   * this directory
+   */
+  public RenderFarmWorker(Chunky chunky, File directory, TaskTracker taskTracker) {
+    this.chunky = chunky;
+    this.directory = directory;
+    this.store = new ContentStore(new File(directory, "files"));
+    this.taskTracker = taskTracker;
+  }
+
+  /**
+   * Connect to a coordinator and render its job until the coordinator closes the connection.
+   *
+   * <p>The render controller of the Chunky instance must not have been created yet, since the
+   * sample offset of the job is set in the options of the renderer.
+   */
+  public void run(String host, int port) throws IOException, InterruptedException {
+    try (Socket socket = new Socket(host, port);
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()))) {
+      this.out = out;
+      out.writeInt(RenderJob.MAGIC);
+      out.writeInt(RenderJob.VERSION);
+      out.flush();
+      RenderJob job = RenderJob.read(in);
+      Log.infof("Received render job for scene %s", job.sceneName);
+      receiveFiles(job, in);
+
+      File sceneDirectory = new File(new File(directory, "scenes"),
+          new File(job.sceneName).getName());
+      if (!sceneDirectory.isDirectory() && !sceneDirectory.mkdirs()) {
+        throw new IOException("Could not create directory " + sceneDirectory);
+      }
+      for (RenderJob.JobFile file : job.sceneFiles) {
+        store.link(file.hash, new File(sceneDirectory, new File(file.name).getName()));
+      }
+      String[] texturePacks = new String[job.texturePacks.size()];
+      for (int i = 0; i < texturePacks.length; ++i) {
+        texturePacks[i] = store.get(job.texturePacks.get(i).hash).getAbsolutePath();
+      }
+      TexturePackLoader.loadTexturePacks(texturePacks, false);
+
+      render(job, sceneDirectory, in);
+    }
+  }
+
+  private void receiveFiles(RenderJob job, DataInputStream in) throws IOException {
+    List<RenderJob.JobFile> missing = new ArrayList<>();
+    Set<String> hashes = new HashSet<>();
+    for (RenderJob.JobFile file : job.allFiles()) {
+      if (store.get(file.hash) == null && hashes.add(file.hash)) {
+        missing.add(file);
+      }
+    }
+    out.writeInt(missing.size());
+    for (RenderJob.JobFile file : missing) {
+      out.writeUTF(file.hash);
+    }
+    out.flush();
+    try (TaskTracker.Task task = taskTracker.task("Receiving files", missing.size())) {
+      for (int i = 0; i < missing.size(); ++i) {
+        RenderJob.JobFile file = missing.get(i);
+        task.update("Receiving " + file.name, missing.size(), i);
+        store.put(file.hash, file.size, in);
+      }
+    }
+  }
+
+  private void render(RenderJob job, File sceneDirectory, DataInputStream in)
+      throws IOException, InterruptedException {
+    chunky.options.sampleOffset = job.sampleOffset;
+    SynchronousSceneManager sceneManager =
+        (SynchronousSceneManager) chunky.getRenderController().getSceneManager();
+    renderer = chunky.getRenderController().getRenderer();
+    sceneManager.setTaskTracker(taskTracker);
+    renderer.setSnapshotControl(NO_SNAPSHOTS);
+    renderer.setRenderTask(taskTracker.backgroundTask());
+    reportInterval = job.reportInterval * 1000L;
+    renderer.setOnFrameCompleted(this::frameCompleted);
+
+    sceneManager.loadScene(sceneDirectory, job.sceneName);
+    Scene scene = sceneManager.getScene();
+    synchronized (scene) {
+      // The coordinator decides when the render is finished.
+      scene.setTargetSpp(Integer.MAX_VALUE);
+      scene.setNoiseThreshold(0);
+      scene.startHeadlessRender();
+    }
+    lastReportTime = System.currentTimeMillis();
+    renderer.start();
+
+    // The coordinator sends nothing more, it only closes the connection.
+    Thread watcher = new Thread(() -> {
+      try {
+        while (in.read() != -1) {
+        }
+      } catch (IOException ignored) {
+      }
+      Log.info("The coordinator closed the connection");
+      renderer.shutdown();
+    }, "Render Farm Connection");
+    watcher.setDaemon(true);
+    watcher.start();
+    renderer.join();
+  }
+
+  private void frameCompleted(Scene scene, int spp) {
+    long now = System.currentTimeMillis();
+    if (now - lastReportTime < reportInterval) {
+      return;
+    }
+    lastReportTime = now;
+    try {
+      sendReport(scene);
+    } catch (IOException e) {
+      Log.info("Could not send samples to the coordinator: " + e.getMessage());
+      renderer.shutdown();
+    }
+  }
+
+  /**
+   * Send the mean of the samples rendered since the previous report, so that the
+   * coordinator can merge the report like a render dump.
+   */
+  private void sendReport(Scene scene) throws IOException {
+    double[] samples = scene.getSampleBuffer();
+    if (report == null || reportedSamples.length != samples.length || scene.spp < reportedSpp) {
+      report = new Scene();
+      report.width = scene.canvasWidth();
+      report.height = scene.canvasHeight();
+      report.initBuffers();
+      reportedSamples = new double[samples.length];
+      reportedSpp = 0;
+      reportedRenderTime = 0;
+    }
+    int newSpp = scene.spp - reportedSpp;
+    if (newSpp <= 0) {
+      return;
+    }
+    double[] mean = report.getSampleBuffer();
+    for (int i = 0; i < samples.length; ++i) {
+      mean[i] = (samples[i] * scene.spp - reportedSamples[i] * reportedSpp) / newSpp;
+    }
+    report.spp = newSpp;
+    report.renderTime = scene.renderTime - reportedRenderTime;
+    System.arraycopy(samples, 0, reportedSamples, 0, samples.length);
+    reportedSpp = scene.spp;
+    reportedRenderTime = scene.renderTime;
+
+    ByteArrayOutputStream dump = new ByteArrayOutputStream();
+    RenderDump.save(dump, report, TaskTracker.NONE);
+    out.writeInt(dump.size());
+    dump.writeTo(out);
+    out.flush();
+  }
+}
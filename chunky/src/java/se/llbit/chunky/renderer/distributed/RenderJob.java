@@ -0,0 +1,138 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the render job that the coordinator sends to a worker.
+ *
+ * <p>The protocol between the coordinator and a worker is:
+ * <ol>
+ *   <li>The worker sends {@link #MAGIC} and {@link #VERSION}.
+ *   <li>The coordinator sends the job.
+ *   <li>The worker sends the number of files it does not have in its content store,
+ *   followed by their hashes.
+ *   <li>The coordinator sends the content of the missing files, in the same order.
+ *   <li>The worker periodically sends the length of a render dump followed by the dump.
+ *   The dump contains only the samples rendered since the previous dump.
+ *   <li>The coordinator closes the connection when the target SPP is reached.
+ * </ol>
+ */
+public class RenderJob {
+  public static final int DEFAULT_PORT = 25570;
+
+  static final int MAGIC = 0x43484B59;
+  static final int VERSION = 2;
+
+  /**
+   * A file that the worker needs for the job.
+   */
+  public static class JobFile {
+    public final String name;
+    public final String hash;
+    public final long size;
+
+    public JobFile(String name, String hash, long size) {
+      this.name = name;
+      this.hash = hash;
+      this.size = size;
+    }
+  }
+
+  public final String sceneName;
+
+  /** Offset added to the sample indices of the worker. */
+  public final long sampleOffset;
+
+  /** Time between render dumps from the worker, in seconds. */
+  public final int reportInterval;
+
+  /** The scene description and the files stored next to it. */
+  public final List<JobFile> sceneFiles;
+
+  /** Texture packs, in the order they should be loaded. */
+  public final List<JobFile> texturePacks;
+
+  public RenderJob(String sceneName, long sampleOffset, int reportInterval,
+      List<JobFile> sceneFiles, List<JobFile> texturePacks) {
+    this.sceneName = sceneName;
+    this.sampleOffset = sampleOffset;
+    this.reportInterval = reportInterval;
+    this.sceneFiles = Collections.unmodifiableList(sceneFiles);
+    this.texturePacks = Collections.unmodifiableList(texturePacks);
+  }
+
+  /**
+   * @return a copy of this job with another sample offset
+   */
+  public RenderJob withSampleOffset(long offset) {
+    return new RenderJob(sceneName, offset, reportInterval, sceneFiles, texturePacks);
+  }
+
+  /**
+   * @return all files of the job
+   */
+  public List<JobFile> allFiles() {
+    List<JobFile> files = new ArrayList<>(sceneFiles);
+    files.addAll(texturePacks);
+    return files;
+  }
+
+  void write(DataOutputStream out) throws IOException {
+    out.writeUTF(sceneName);
+    out.writeLong(sampleOffset);
+    out.writeInt(reportInterval);
+    writeFiles(out, sceneFiles);
+    writeFiles(out, texturePacks);
+  }
+
+  static RenderJob read(DataInputStream in) throws IOException {
+    String sceneName = in.readUTF();
+    long sampleOffset = in.readLong();
+    int reportInterval = in.readInt();
+    List<JobFile> sceneFiles = readFiles(in);
+    List<JobFile> texturePacks = readFiles(in);
+    return new RenderJob(sceneName, sampleOffset, reportInterval, sceneFiles, texturePacks);
+  }
+
+  private static void writeFiles(DataOutputStream out, List<JobFile> files) throws IOException {
+    out.writeInt(files.size());
+    for (JobFile file : files) {
+      out.writeUTF(file.name);
+      out.writeUTF(file.hash);
+      out.writeLong(file.size);
+    }
+  }
+
+  private static List<JobFile> readFiles(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<JobFile> files = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      String name = in.readUTF();
+      String hash = in.readUTF();
+      long size = in.readLong();
+      files.add(new JobFile(name, hash, size));
+    }
+    return files;
+  }
+}
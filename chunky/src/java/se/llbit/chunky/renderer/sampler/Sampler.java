@@ -0,0 +1,68 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.sampler;
+
+import java.util.Random;
+
+/**
+ * Source of the sample values used by a render worker.
+ *
+ * <p>A sampler is a {@link Random} so that it can be passed to all code that draws random
+ * numbers, but it does not use the synchronized seed of {@code Random}. Before tracing each
+ * sample of a pixel the worker calls {@link #startSample}. Samplers that generate
+ * low-discrepancy sequences then return the next dimension of the sequence from each call
+ * to {@link #nextDouble()}, so the values drawn in the same order for different samples of
+ * a pixel are well distributed.
+ */
+public abstract class Sampler extends Random {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Start drawing the values of a new sample.
+   *
+   * @param x pixel x coordinate
+   * @param y pixel y coordinate
+   * @param sampleIndex index of the sample in the pixel, including the sample offset of
+   * the render
+   */
+  public abstract void startSample(int x, int y, long sampleIndex);
+
+  /**
+   * @return a uniformly distributed 32-bit value
+   */
+  protected abstract int nextBits();
+
+  @Override
+  protected int next(int bits) {
+    return nextBits() >>> (32 - bits);
+  }
+
+  @Override
+  public long nextLong() {
+    return ((long) nextBits() << 32) + nextBits();
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextBits() & 0xFFFFFFFFL) * 0x1.0p-32;
+  }
+
+  @Override
+  public float nextFloat() {
+    return (nextBits() >>> 8) * 0x1.0p-24f;
+  }
+}
@@ -0,0 +1,50 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.sampler;
+
+import java.util.function.LongFunction;
+
+/**
+ * Available samplers for render workers.
+ */
+public enum SamplerType {
+  INDEPENDENT("Independent (SplitMix64)", SplitMixSampler::new),
+  // The sequence of a pixel must not depend on the worker, so the seed is not used. Renders
+  // of a scene with the same sample offset trace the same samples, so merging them does not
+  // reduce noise. This is why it is not the default.
+  SOBOL("Sobol (Owen scrambled)", seed -> new SobolSampler());
+
+  private final String niceName;
+  private final LongFunction<Sampler> factory;
+
+  SamplerType(String niceName, LongFunction<Sampler> factory) {
+    this.niceName = niceName;
+    this.factory = factory;
+  }
+
+  /**
+   * @param seed seed for samplers that draw pseudo-random values
+   * @return a new sampler of this type
+   */
+  public Sampler create(long seed) {
+    return factory.apply(seed);
+  }
+
+  @Override public String toString() {
+    return niceName;
+  }
+}
@@ -0,0 +1,120 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.sampler;
+
+/**
+ * Owen-scrambled Sobol samples.
+ *
+ * <p>The dimensions are drawn in pairs from the first two dimensions of the Sobol sequence.
+ * Each pair uses its own shuffle of the sample indices and its own scrambling, which keeps
+ * the pairs independent of each other (Burley, "Practical Hash-based Owen Scrambling", 2020).
+ * The shuffle and scrambling depend on the pixel, so there are no visible patterns between
+ * neighbouring pixels.
+ *
+ * <p>The values of a pixel only depend on the pixel and the sample index, so every worker
+ * continues the same sequence of a pixel.
+ */
+public class SobolSampler extends Sampler {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Bit-reversed second dimension of the Sobol sequence, for each byte of the bit-reversed
+   * sample index. Owen scrambling works on reversed values, so this saves bit reversals.
+   */
+  private static final int[][] REVERSED_SOBOL = new int[4][256];
+
+  static {
+    int[] reversedDirections = new int[32];
+    int v = 1 << 31;
+    for (int bit = 0; bit < 32; ++bit) {
+      // Bit b of the index is bit 31 - b of the reversed index.
+      reversedDirections[31 - bit] = Integer.reverse(v);
+      v ^= v >>> 1;
+    }
+    for (int b = 0; b < 4; ++b) {
+      for (int value = 0; value < 256; ++value) {
+        int result = 0;
+        for (int bit = 0; bit < 8; ++bit) {
+          if ((value & (1 << bit)) != 0) {
+            result ^= reversedDirections[8 * b + bit];
+          }
+        }
+        REVERSED_SOBOL[b][value] = result;
+      }
+    }
+  }
+
+  private int pixelSeed;
+  private int reversedIndex;
+  private int dimension;
+
+  /** The second value of the current pair of dimensions. */
+  private int pairSecond;
+
+  /**
+   * The sequence has 2^32 samples. The upper bits of the sample index select another
+   * scrambling of the sequence.
+   */
+  @Override
+  public void startSample(int x, int y, long sampleIndex) {
+    this.pixelSeed = hash(hash(x) ^ y) ^ hash((int) (sampleIndex >>> 32));
+    this.reversedIndex = Integer.reverse((int) sampleIndex);
+    this.dimension = 0;
+  }
+
+  @Override
+  protected int nextBits() {
+    int dim = dimension++;
+    if ((dim & 1) != 0) {
+      return pairSecond;
+    }
+    int pairSeed = hash(pixelSeed + dim * 0x9E3779B9);
+    int seed0 = hash(pairSeed);
+    int seed1 = hash(seed0);
+    // Shuffle the sample index for this pair. The first dimension of the Sobol sequence is
+    // the bit-reversed index, so the reversed value is what gets scrambled.
+    int index = owenScramble(reversedIndex, pairSeed);
+    int first = Integer.reverse(index);
+    int second = REVERSED_SOBOL[0][index & 0xFF] ^ REVERSED_SOBOL[1][(index >>> 8) & 0xFF]
+        ^ REVERSED_SOBOL[2][(index >>> 16) & 0xFF] ^ REVERSED_SOBOL[3][index >>> 24];
+    pairSecond = Integer.reverse(owenScramble(second, seed1));
+    return Integer.reverse(owenScramble(first, seed0));
+  }
+
+  /**
+   * Nested uniform (Owen) scrambling of a bit-reversed value: each bit is flipped depending
+   * on the lower bits, which are the higher bits of the value that is not reversed.
+   * This is the hash by Laine and Karras as improved by Burley.
+   */
+  private static int owenScramble(int x, int seed) {
+    x += seed;
+    x ^= x * 0x6c50b47c;
+    x ^= x * 0xb82f1e52;
+    x ^= x * 0xc7afe638;
+    x ^= x * 0x8d22f6e6;
+    return x;
+  }
+
+  private static int hash(int x) {
+    x ^= x >>> 16;
+    x *= 0x7feb352d;
+    x ^= x >>> 15;
+    x *= 0x846ca68b;
+    x ^= x >>> 16;
+    return x;
+  }
+}
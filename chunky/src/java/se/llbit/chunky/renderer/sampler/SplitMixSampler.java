@@ -0,0 +1,61 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.sampler;
+
+/**
+ * Independent pseudo-random samples from the SplitMix64 generator.
+ *
+ * <p>This is a drop-in replacement for {@link java.util.Random} that needs no atomic update
+ * of the seed and has a period of 2^64.
+ */
+public class SplitMixSampler extends Sampler {
+  private static final long serialVersionUID = 1L;
+
+  private long state;
+
+  public SplitMixSampler(long seed) {
+    setSeed(seed);
+  }
+
+  @Override
+  public void setSeed(long seed) {
+    // Called by the Random constructor, so the state has no initializer.
+    state = seed;
+  }
+
+  @Override
+  public void startSample(int x, int y, long sampleIndex) {
+  }
+
+  @Override
+  public long nextLong() {
+    long z = (state += 0x9E3779B97F4A7C15L);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  protected int nextBits() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+}
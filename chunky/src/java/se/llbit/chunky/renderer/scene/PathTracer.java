@@ -125,17 +125,30 @@ public class PathTracer implements RayTracer {
         continue;
       }
 
+      if (ray.depth == 0) {
+        // First hit of the camera ray, used by the denoiser.
+        state.albedo.set(ray.color.x, ray.color.y, ray.color.z);
+        state.normal.set(ray.n);
+      }
+
       float pMetal = currentMat.metalness;
       boolean doMetal = pMetal > Ray.EPSILON && random.nextFloat() < pMetal;
 
+      // Russian Roulette survival probability of the next ray.
+      double survival = 1;
+
       if (doMetal || (pSpecular > Ray.EPSILON && random.nextFloat() < pSpecular)) {
         // Specular reflection (metals only do specular reflection).
 
         firstReflection = false;
 
-        if (!scene.kill(ray.depth + 1, random)) {
+        double weight = doMetal ? maxComponent(ray.color) : 1;
+        survival = scene.kill(ray.depth + 1, ray.throughput * weight, random);
+        if (survival > 0) {
           Ray reflected = new Ray();
           reflected.specularReflection(ray, random);
+          reflected.throughput *= weight / survival;
+          state.statistics.specularBounces += 1;
 
           if (pathTrace(scene, reflected, state, 1, false)) {
             if (doMetal) {
@@ -159,8 +172,11 @@ public class PathTracer implements RayTracer {
 
           firstReflection = false;
 
-          if (!scene.kill(ray.depth + 1, random)) {
+          double weight = maxComponent(ray.color);
+          survival = scene.kill(ray.depth + 1, ray.throughput * weight, random);
+          if (survival > 0) {
             Ray reflected = new Ray();
+            state.statistics.diffuseBounces += 1;
 
             float emittance = 0;
 
@@ -183,10 +199,12 @@ public class PathTracer implements RayTracer {
                 Grid.EmitterPosition pos = scene.getEmitterGrid().sampleEmitterPosition((int) ray.o.x, (int) ray.o.y, (int) ray.o.z, random);
                 if(pos != null) {
                   indirectEmitterColor = sampleEmitter(scene, ray, pos,  random);
+                  state.statistics.emitterSamples += 1;
                 }
               } else {
                 for(Grid.EmitterPosition pos : scene.getEmitterGrid().getEmitterPositions((int) ray.o.x, (int) ray.o.y, (int) ray.o.z)) {
                   indirectEmitterColor.scaleAdd(1, sampleEmitter(scene, ray, pos, random));
+                  state.statistics.emitterSamples += 1;
                 }
               }
             }
@@ -223,6 +241,7 @@ public class PathTracer implements RayTracer {
               }
 
               reflected.diffuseReflection(ray, random);
+              reflected.throughput *= weight / survival;
               hit = pathTrace(scene, reflected, state, 0, false) || hit;
               if (hit) {
                 ray.color.x = ray.color.x * (emittance + directLightR * scene.sun.emittance.x + (
@@ -240,6 +259,7 @@ public class PathTracer implements RayTracer {
 
             } else {
               reflected.diffuseReflection(ray, random);
+              reflected.throughput *= weight / survival;
 
               hit = pathTrace(scene, reflected, state, 0, false) || hit;
               if (hit) {
@@ -270,9 +290,12 @@ public class PathTracer implements RayTracer {
           double radicand = 1 - n1n2 * n1n2 * (1 - cosTheta * cosTheta);
           if (doRefraction && radicand < Ray.EPSILON) {
             // Total internal reflection.
-            if (!scene.kill(ray.depth + 1, random)) {
+            survival = scene.kill(ray.depth + 1, ray.throughput, random);
+            if (survival > 0) {
               Ray reflected = new Ray();
               reflected.specularReflection(ray, random);
+              reflected.throughput /= survival;
+              state.statistics.specularBounces += 1;
               if (pathTrace(scene, reflected, state, 1, false)) {
 
                 ray.color.x = reflected.color.x;
@@ -282,7 +305,8 @@ public class PathTracer implements RayTracer {
               }
             }
           } else {
-            if (!scene.kill(ray.depth + 1, random)) {
+            survival = scene.kill(ray.depth + 1, ray.throughput, random);
+            if (survival > 0) {
               Ray refracted = new Ray();
               refracted.set(ray);
 
@@ -298,6 +322,8 @@ public class PathTracer implements RayTracer {
               if (random.nextFloat() < Rtheta) {
                 Ray reflected = new Ray();
                 reflected.specularReflection(ray, random);
+                reflected.throughput /= survival;
+                state.statistics.specularBounces += 1;
                 if (pathTrace(scene, reflected, state, 1, false)) {
                   ray.color.x = reflected.color.x;
                   ray.color.y = reflected.color.y;
@@ -323,6 +349,9 @@ public class PathTracer implements RayTracer {
                   refracted.o.scaleAdd(Ray.OFFSET, refracted.d);
                 }
 
+                refracted.throughput *=
+                    (maxComponent(ray.color) * pDiffuse + (1 - pDiffuse)) / survival;
+                state.statistics.refractionBounces += 1;
                 if (pathTrace(scene, refracted, state, 1, false)) {
                   ray.color.x = ray.color.x * pDiffuse + (1 - pDiffuse);
                   ray.color.y = ray.color.y * pDiffuse + (1 - pDiffuse);
@@ -341,6 +370,7 @@ public class PathTracer implements RayTracer {
           Ray transmitted = new Ray();
           transmitted.set(ray);
           transmitted.o.scaleAdd(Ray.OFFSET, transmitted.d);
+          state.statistics.refractionBounces += 1;
 
           if (pathTrace(scene, transmitted, state, 1, false)) {
             ray.color.x = ray.color.x * pDiffuse + (1 - pDiffuse);
@@ -354,6 +384,14 @@ public class PathTracer implements RayTracer {
         }
       }
 
+      if (hit && survival < 1) {
+        // Compensate for the paths that were terminated by Russian Roulette.
+        ray.color.x /= survival;
+        ray.color.y /= survival;
+        ray.color.z /= survival;
+        ray.emittance.scale(1 / survival);
+      }
+
       if (hit && prevMat.isWater()) {
         // Render water fog effect.
         if(scene.waterVisibility == 0) {
@@ -401,6 +439,7 @@ public class PathTracer implements RayTracer {
       double fogDensity = scene.getFogDensity() * EXTINCTION_FACTOR;
       double extinction = Math.exp(-airDistance * fogDensity);
       ray.color.scale(extinction);
+      state.statistics.fogSamples += 1;
 
       // Check sun visibility at random point to determine inscatter brightness.
       getDirectLightAttenuation(scene, atmos, state);
@@ -471,6 +510,13 @@ public class PathTracer implements RayTracer {
     return indirectEmitterColor;
   }
 
+  /**
+   * @return the largest color component, used as the weight of a bounce in the path throughput
+   */
+  private static double maxComponent(Vector4 color) {
+    return Math.max(color.x, Math.max(color.y, color.z));
+  }
+
   /**
    * Calculate direct lighting attenuation.
    */
@@ -34,6 +34,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -61,10 +62,18 @@ import se.llbit.chunky.entity.Lectern;
 import se.llbit.chunky.entity.PaintingEntity;
 import se.llbit.chunky.entity.PlayerEntity;
 import se.llbit.chunky.entity.Poseable;
+import se.llbit.chunky.jfr.ChunkLoadingStageEvent;
+import se.llbit.chunky.jfr.Jfr;
+import se.llbit.chunky.jfr.OctreeFinalizationEvent;
+import se.llbit.chunky.jfr.SceneWriteEvent;
 import se.llbit.chunky.main.Chunky;
 import se.llbit.chunky.plugin.PluginApi;
 import se.llbit.chunky.renderer.EmitterSamplingStrategy;
+import se.llbit.chunky.renderer.sampler.SamplerType;
 import se.llbit.chunky.renderer.export.PictureExportFormats;
+import se.llbit.chunky.renderer.PixelConvergence;
+import se.llbit.chunky.renderer.denoiser.AovBuffer;
+import se.llbit.chunky.renderer.denoiser.AtrousDenoiser;
 import se.llbit.chunky.renderer.Postprocess;
 import se.llbit.chunky.renderer.Refreshable;
 import se.llbit.chunky.renderer.RenderContext;
@@ -98,6 +107,7 @@ import se.llbit.math.BVH;
 import se.llbit.math.ColorUtil;
 import se.llbit.math.Grid;
 import se.llbit.math.Octree;
+import se.llbit.math.OctreeStatistics;
 import se.llbit.math.PackedOctree;
 import se.llbit.math.QuickMath;
 import se.llbit.math.Ray;
@@ -139,6 +149,12 @@ public class Scene implements JsonSerializable, Refreshable {
 
   protected static final double fSubSurface = 0.3;
 
+  /**
+   * Upper bound for the Russian Roulette survival probability. This guarantees that paths
+   * between perfect reflectors are terminated eventually.
+   */
+  private static final double MAX_SURVIVAL_PROBABILITY = 0.95;
+
   /** Minimum canvas width. */
   public static final int MIN_CANVAS_WIDTH = 20;
 
@@ -187,6 +203,12 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public static final double DEFAULT_FOG_DENSITY = 0.0;
 
+  /**
+   * Chunks are loaded in parallel in columns of 2^n by 2^n blocks, each column is built in
+   * separate subtrees of this depth.
+   */
+  private static final int CHUNK_GROUP_DEPTH = 7;
+
   protected final Sky sky = new Sky(this);
   protected final Camera camera = new Camera(this);
   protected final Sun sun = new Sun(this);
@@ -209,6 +231,36 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public int height;
 
+  /**
+   * Width of the full frame. The canvas can be a crop of the full frame, in which case only
+   * the crop is rendered and the render buffers have the size of the crop.
+   */
+  protected int fullWidth;
+
+  /**
+   * Height of the full frame.
+   */
+  protected int fullHeight;
+
+  /**
+   * Position of the canvas in the full frame.
+   */
+  protected int cropX = 0;
+  protected int cropY = 0;
+
+  /**
+   * Upper limit for the canvas size when the frame is rendered as a sequence of crops, or
+   * zero if the full frame can be rendered. With a limit the render buffers are never
+   * allocated for the full frame.
+   */
+  private int maxCropSize = 0;
+
+  /**
+   * Crop that replaces the crop in the scene description when the scene is loaded, or
+   * {@code null}. The crop is given as x, y, width, height.
+   */
+  private int[] cropOverride = null;
+
   public Postprocess postprocess = Postprocess.DEFAULT;
   public PictureExportFormat outputMode = PictureExportFormats.PNG;
   public long renderTime;
@@ -221,10 +273,26 @@ public class Scene implements JsonSerializable, Refreshable {
    * Target SPP for the scene.
    */
   protected int sppTarget = PersistentSettings.getSppTargetDefault();
+  /**
+   * Noise threshold for adaptive sampling. Pixels with less noise are not sampled
+   * further, and the render is complete when all pixels are below the threshold.
+   * Zero disables adaptive sampling.
+   */
+  protected double noiseThreshold = 0;
+  /**
+   * Denoise the frame before post-processing. The render workers collect the
+   * albedo and normal buffers used by the denoiser while this is enabled.
+   */
+  protected boolean denoiserEnabled = false;
   /**
    * Recursive ray depth limit (not including Russian Roulette).
    */
   protected int rayDepth = PersistentSettings.getRayDepthDefault();
+  /**
+   * Maximum recursive ray depth. Paths that survive Russian Roulette are
+   * terminated at this depth. Zero means no limit.
+   */
+  protected int maxRayDepth = 0;
   protected String worldPath = "";
   protected int worldDimension = 0;
   protected RenderMode mode = RenderMode.PREVIEW;
@@ -233,6 +301,7 @@ public class Scene implements JsonSerializable, Refreshable {
   protected boolean emittersEnabled = DEFAULT_EMITTERS_ENABLED;
   protected double emitterIntensity = DEFAULT_EMITTER_INTENSITY;
   protected EmitterSamplingStrategy emitterSamplingStrategy = EmitterSamplingStrategy.NONE;
+  protected SamplerType samplerType = SamplerType.INDEPENDENT;
 
   protected boolean sunEnabled = true;
   /**
@@ -263,6 +332,18 @@ public class Scene implements JsonSerializable, Refreshable {
   protected boolean transparentSky = false;
   protected boolean renderActors = true;
   protected Collection<ChunkPosition> chunks = new ArrayList<>();
+
+  /**
+   * Region file timestamps of the chunks loaded from the world, used to find the chunks that
+   * changed when the chunks are reloaded. Empty if the octree was not loaded from the world.
+   */
+  private Map<ChunkPosition, Integer> chunkTimestamps = new HashMap<>();
+
+  /** The loaded chunks that contain blocks. */
+  private Set<ChunkPosition> nonEmptyChunks = new HashSet<>();
+
+  /** Biome IDs of the loaded chunks, used for updating the biome textures of reloaded chunks. */
+  private Heightmap biomeIdMap = new Heightmap();
   protected JsonObject cameraPresets = new JsonObject();
   /**
    * Indicates if the render should be forced to reset.
@@ -292,6 +373,12 @@ public class Scene implements JsonSerializable, Refreshable {
   private Octree worldOctree;
   private Octree waterOctree;
 
+  /**
+   * Statistics of the world octree, counted when the octree was finalized.
+   * Null if the octree implementation did not count them.
+   */
+  private OctreeStatistics worldOctreeStatistics;
+
   /**
    * Entities in the scene.
    */
@@ -318,10 +405,23 @@ public class Scene implements JsonSerializable, Refreshable {
   private BVH actorBvh = new BVH(Collections.emptyList());
 
   /**
-   * Preview frame interlacing counter.
+   * Number of preview passes left until the preview is rendered at full resolution.
    */
   public int previewCount;
 
+  /**
+   * Block size of the current preview pass. The pass renders the top left pixel of each
+   * block and fills the rest of the block with its color. Blocks are aligned to the render
+   * tiles.
+   */
+  public int previewBlockSize = 1;
+
+  /**
+   * Block size of the previous preview pass, whose pixels do not need to be rendered again,
+   * or 0 if this is the first pass.
+   */
+  public int previewRenderedBlockSize = 0;
+
   /**
    * Current time in seconds. Adjusts animated blocks like fire.
    */
@@ -350,6 +450,28 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   protected double[] samples;
 
+  /**
+   * Per-pixel sample counts for adaptive sampling, null if adaptive sampling is not used.
+   */
+  private PixelConvergence pixelConvergence;
+
+  /**
+   * Albedo and normal buffers for the denoiser, null if the denoiser is disabled.
+   */
+  private AovBuffer aovBuffer;
+
+  /**
+   * The denoiser and its filter buffers, reused while the frame size does not change.
+   */
+  private AtrousDenoiser denoiser;
+
+  /**
+   * Output of the denoiser. Only valid while {@code denoised} is set.
+   */
+  private double[] denoisedSamples;
+
+  private boolean denoised = false;
+
   private byte[] alphaChannel;
 
   private boolean finalized = false;
@@ -379,6 +501,8 @@ public class Scene implements JsonSerializable, Refreshable {
   public Scene() {
     width = PersistentSettings.get3DCanvasWidth();
     height = PersistentSettings.get3DCanvasHeight();
+    fullWidth = width;
+    fullHeight = height;
     sppTarget = PersistentSettings.getSppTargetDefault();
 
     palette = new BlockPalette();
@@ -421,6 +545,11 @@ public class Scene implements JsonSerializable, Refreshable {
     backBuffer = new BitmapImage(width, height);
     alphaChannel = new byte[width * height];
     samples = new double[width * height * 3];
+    pixelConvergence = null;
+    aovBuffer = denoiserEnabled ? new AovBuffer(width, height) : null;
+    denoiser = null;
+    denoisedSamples = null;
+    denoised = false;
   }
 
   /**
@@ -443,8 +572,15 @@ public class Scene implements JsonSerializable, Refreshable {
       // The octree reference is overwritten to save time.
       // When the other scene is changed it must create a new octree.
       palette = other.palette;
+      if (worldOctree != other.worldOctree) {
+        worldOctree.dispose();
+      }
+      if (waterOctree != other.waterOctree) {
+        waterOctree.dispose();
+      }
       worldOctree = other.worldOctree;
       waterOctree = other.waterOctree;
+      worldOctreeStatistics = other.worldOctreeStatistics;
       entities = other.entities;
       actors = new LinkedList<>(other.actors); // Create a copy so that entity changes can be reset.
       profiles = other.profiles;
@@ -479,6 +615,7 @@ public class Scene implements JsonSerializable, Refreshable {
     emittersEnabled = other.emittersEnabled;
     emitterIntensity = other.emitterIntensity;
     emitterSamplingStrategy = other.emitterSamplingStrategy;
+    samplerType = other.samplerType;
     preventNormalEmitterWithSampling = other.preventNormalEmitterWithSampling;
     transparentSky = other.transparentSky;
     fogDensity = other.fogDensity;
@@ -503,6 +640,10 @@ public class Scene implements JsonSerializable, Refreshable {
 
     finalized = false;
 
+    fullWidth = other.fullWidth;
+    fullHeight = other.fullHeight;
+    cropX = other.cropX;
+    cropY = other.cropY;
     if (samples != other.samples) {
       width = other.width;
       height = other.height;
@@ -510,6 +651,11 @@ public class Scene implements JsonSerializable, Refreshable {
       frontBuffer = other.frontBuffer;
       alphaChannel = other.alphaChannel;
       samples = other.samples;
+      pixelConvergence = other.pixelConvergence;
+      aovBuffer = other.aovBuffer;
+      denoiser = null;
+      denoisedSamples = null;
+      denoised = false;
     }
 
     octreeImplementation = other.octreeImplementation;
@@ -578,7 +724,12 @@ public class Scene implements JsonSerializable, Refreshable {
       }
     }
 
-    loadDump(context, taskTracker);
+    if (maxCropSize > 0) {
+      spp = 0;
+      renderTime = 0;
+    } else {
+      loadDump(context, taskTracker);
+    }
 
     if (spp == 0) {
       mode = RenderMode.PREVIEW;
@@ -742,49 +893,61 @@ public class Scene implements JsonSerializable, Refreshable {
   /**
    * Test whether the ray intersects any voxel before exiting the Octree.
    *
+   * <p>The water octree is traversed first since it is mostly empty and cheap to march
+   * through. The world octree is then only traversed up to the water hit, so rays looking
+   * at or through water don't march through the world octree behind the water surface.
+   *
    * @param ray   the ray
    * @return {@code true} if the ray intersects a voxel
    */
   private boolean worldIntersection(Ray ray) {
     Ray start = new Ray(ray);
     start.setCurrentMaterial(ray.getPrevMaterial(), ray.getPrevData());
-    boolean hit = false;
-    Ray r = new Ray(start);
-    r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-    if (worldOctree.enterBlock(this, r, palette) && r.distance < ray.t) {
-      ray.t = r.distance;
-      ray.n.set(r.n);
-      ray.color.set(r.color);
-      ray.setPrevMaterial(r.getPrevMaterial(), r.getPrevData());
-      ray.setCurrentMaterial(r.getCurrentMaterial(), r.getCurrentData());
-      hit = true;
-    }
-    if (start.getCurrentMaterial().isWater()) {
-      r = new Ray(start);
-      r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-      if(waterOctree.exitWater(this, r, palette) && r.distance < ray.t - Ray.EPSILON) {
-        ray.t = r.distance;
-        ray.n.set(r.n);
-        ray.color.set(r.color);
-        ray.setPrevMaterial(r.getPrevMaterial(), r.getPrevData());
-        ray.setCurrentMaterial(r.getCurrentMaterial(), r.getCurrentData());
-        hit = true;
-      } else if(ray.getPrevMaterial() == Air.INSTANCE) {
-        ray.setPrevMaterial(Water.INSTANCE, 1 << Water.FULL_BLOCK);
-      }
+    boolean inWater = start.getCurrentMaterial().isWater();
+
+    // When leaving water, the water surface has to be closer than the world hit by at
+    // least Ray.EPSILON to be used.
+    double waterMargin = inWater ? Ray.EPSILON : 0;
+
+    Ray water = new Ray(start);
+    water.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
+    boolean waterHit;
+    if (inWater) {
+      waterHit = waterOctree.exitWater(this, water, palette, ray.t);
     } else {
-      r = new Ray(start);
-      r.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
-      if (waterOctree.enterBlock(this, r, palette) && r.distance < ray.t) {
-        ray.t = r.distance;
-        ray.n.set(r.n);
-        ray.color.set(r.color);
-        ray.setPrevMaterial(r.getPrevMaterial(), r.getPrevData());
-        ray.setCurrentMaterial(r.getCurrentMaterial(), r.getCurrentData());
-        hit = true;
-      }
+      waterHit = waterOctree.enterBlock(this, water, palette, ray.t);
+    }
+
+    double maxWorldDistance = ray.t;
+    if (waterHit) {
+      maxWorldDistance = Math.min(maxWorldDistance, water.distance + waterMargin);
+    }
+    Ray world = new Ray(start);
+    world.setCurrentMaterial(start.getPrevMaterial(), start.getPrevData());
+    boolean worldHit = worldOctree.enterBlock(this, world, palette, maxWorldDistance)
+        && world.distance < ray.t;
+    if (worldHit) {
+      setIntersection(ray, world);
+    }
+
+    if (waterHit && water.distance < ray.t - waterMargin) {
+      setIntersection(ray, water);
+      return true;
+    } else if (inWater && ray.getPrevMaterial() == Air.INSTANCE) {
+      ray.setPrevMaterial(Water.INSTANCE, 1 << Water.FULL_BLOCK);
     }
-    return hit;
+    return worldHit;
+  }
+
+  /**
+   * Copy an octree intersection to the ray.
+   */
+  private static void setIntersection(Ray ray, Ray hit) {
+    ray.t = hit.distance;
+    ray.n.set(hit.n);
+    ray.color.set(hit.color);
+    ray.setPrevMaterial(hit.getPrevMaterial(), hit.getPrevData());
+    ray.setCurrentMaterial(hit.getCurrentMaterial(), hit.getCurrentData());
   }
 
   public void updateOpacity(Ray ray) {
@@ -804,26 +967,243 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  /**
+   * Test if the ray should be killed (using Russian Roulette).
+   *
+   * <p>Below the ray depth limit rays always survive. Beyond it, a ray survives with a
+   * probability equal to its path throughput, so paths that can no longer contribute much
+   * are terminated early. The caller must divide the radiance of a surviving ray by the
+   * returned probability to keep the estimate unbiased.
+   *
+   * @param depth depth of the new ray
+   * @param throughput path throughput of the new ray, before Russian Roulette
+   * @return the probability that the ray survived, or zero if the ray needs to die now
+   */
+  public final double kill(int depth, double throughput, Random random) {
+    if (maxRayDepth > 0 && depth > maxRayDepth) {
+      return 0;
+    }
+    if (depth < rayDepth) {
+      return 1;
+    }
+    double survival = Math.min(MAX_SURVIVAL_PROBABILITY, throughput);
+    return random.nextDouble() < survival ? survival : 0;
+  }
+
   /**
    * Test if the ray should be killed (using Russian Roulette).
    *
    * @return {@code true} if the ray needs to die now
+   * @deprecated Use {@link #kill(int, double, Random)} and divide the radiance of surviving
+   * rays by the survival probability. This assumes a path throughput of one and does not
+   * compensate surviving rays. It will be removed in the next release.
    */
+  @Deprecated
   public final boolean kill(int depth, Random random) {
-    return depth >= rayDepth && random.nextDouble() < .5f;
+    return kill(depth, 1, random) == 0;
   }
 
   /**
    * Reload all loaded chunks.
+   *
+   * <p>If the chunks were loaded from the world in this session, only the chunks that changed
+   * since they were loaded are reloaded, together with their neighbors.
+   *
+   * @return {@code false} if no chunk changed
    */
-  public synchronized void reloadChunks(TaskTracker taskTracker) {
+  public synchronized boolean reloadChunks(TaskTracker taskTracker) {
     if (loadedWorld == EmptyWorld.INSTANCE) {
       Log.warn("Can not reload chunks for scene - world directory not found!");
-      return;
+      return false;
+    }
+    return reloadChunks(taskTracker,
+        World.loadWorld(loadedWorld.getWorldDirectory(), worldDimension, World.LoggedWarnings.NORMAL));
+  }
+
+  /**
+   * Reload all loaded chunks from a new instance of the loaded world.
+   *
+   * @return {@code false} if no chunk changed
+   */
+  synchronized boolean reloadChunks(TaskTracker taskTracker, World world) {
+    loadedWorld = world;
+    Collection<ChunkPosition> changedChunks = findChangedChunks(loadedWorld);
+    if (changedChunks == null) {
+      loadChunks(taskTracker, loadedWorld, chunks);
+    } else if (changedChunks.isEmpty()) {
+      Log.info("No chunks changed since they were loaded");
+      return false;
+    } else {
+      try {
+        reloadChangedChunks(taskTracker, loadedWorld, changedChunks);
+      } catch (IOException e) {
+        Log.warn("Failed to copy the octree, reloading all chunks", e);
+        loadChunks(taskTracker, loadedWorld, chunks);
+      }
     }
-    loadedWorld = World.loadWorld(loadedWorld.getWorldDirectory(), worldDimension, World.LoggedWarnings.NORMAL);
-    loadChunks(taskTracker, loadedWorld, chunks);
     refresh();
+    return true;
+  }
+
+  /**
+   * Find the loaded chunks that changed in the world since they were loaded.
+   *
+   * @return the changed chunks, or {@code null} if all chunks have to be reloaded
+   */
+  Collection<ChunkPosition> findChangedChunks(World world) {
+    if (chunks.isEmpty() || chunkTimestamps.size() != chunks.size()) {
+      // The octree was not loaded from the world in this session.
+      return null;
+    }
+    boolean isTallWorld = world.getVersionId() >= World.VERSION_21W06A;
+    int newYMin = isTallWorld ? yClipMin : Math.max(0, yClipMin);
+    int newYMax = isTallWorld ? yClipMax : Math.min(256, yClipMax);
+    if (newYMin != yMin || newYMax != yMax
+        || (emitterSamplingStrategy != EmitterSamplingStrategy.NONE) != (emitterGrid != null)) {
+      return null;
+    }
+
+    Set<ChunkPosition> regions = new HashSet<>();
+    for (ChunkPosition cp : chunks) {
+      regions.add(cp.getRegionPosition());
+    }
+    for (ChunkPosition region : regions) {
+      world.getRegion(region).parse();
+    }
+    List<ChunkPosition> changedChunks = new ArrayList<>();
+    for (ChunkPosition cp : chunks) {
+      Integer timestamp = chunkTimestamps.get(cp);
+      if (timestamp == null) {
+        return null;
+      }
+      if (world.getRegion(cp.getRegionPosition()).chunkChangedSince(cp, timestamp)) {
+        changedChunks.add(cp);
+      }
+    }
+    return changedChunks;
+  }
+
+  /**
+   * Reload the changed chunks and their neighbors into the octree.
+   *
+   * <p>The octrees, block palette, textures, entity lists and emitter grid may be shared with
+   * the scene that is being rendered, so they are copied before they are modified.
+   */
+  private void reloadChangedChunks(TaskTracker taskTracker, World world,
+      Collection<ChunkPosition> changedChunks) throws IOException {
+    // Blocks on the edges of the neighbor chunks are finalized using the blocks of the changed
+    // chunks, so the neighbors are reloaded too.
+    Set<ChunkPosition> reloadedChunks = new HashSet<>();
+    for (ChunkPosition cp : changedChunks) {
+      for (int x = -1; x <= 1; ++x) {
+        for (int z = -1; z <= 1; ++z) {
+          ChunkPosition neighbor = ChunkPosition.get(cp.x + x, cp.z + z);
+          if (chunkTimestamps.containsKey(neighbor)) {
+            reloadedChunks.add(neighbor);
+          }
+        }
+      }
+    }
+
+    Octree oldWorldOctree = worldOctree;
+    Octree oldWaterOctree = waterOctree;
+    worldOctree = worldOctree.copy();
+    waterOctree = waterOctree.copy();
+    oldWorldOctree.dispose();
+    oldWaterOctree.dispose();
+    palette = palette.copy();
+    grassTexture = grassTexture.copy();
+    foliageTexture = foliageTexture.copy();
+    waterTexture = waterTexture.copy();
+
+    // Remove the entities and emitters of the reloaded chunks, they are added again
+    // when the chunks are loaded.
+    Collection<Entity> keptEntities = new LinkedList<>();
+    for (Entity entity : entities) {
+      if (!reloadedChunks.contains(chunkPosition(entity.position.x, entity.position.z))) {
+        keptEntities.add(entity);
+      }
+    }
+    entities = keptEntities;
+    if (emitterGrid != null) {
+      emitterGrid = emitterGrid.filterEmitters(pos ->
+          !reloadedChunks.contains(chunkPosition(pos.x + origin.x, pos.z + origin.z)));
+    }
+
+    try (TaskTracker.Task task = taskTracker.task("(1/4) Loading changed chunks")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
+      ChunkData chunkData = world.getVersionId() >= World.VERSION_21W06A
+          ? new GenericChunkData()
+          : new SimpleChunkData();
+      int[] cubeWorldBlocks = new int[16*16*16];
+      int[] cubeWaterBlocks = new int[16*16*16];
+      ChunkGroup group = new ChunkGroup(worldOctree, waterOctree);
+      int done = 0;
+      int target = reloadedChunks.size();
+      for (ChunkPosition cp : reloadedChunks) {
+        task.updateEta(target, done);
+        done += 1;
+        world.getChunk(cp).getChunkData(chunkData, palette);
+        loadChunk(group, cp, chunkData, cubeWorldBlocks, cubeWaterBlocks);
+        if (chunkData.isEmpty()) {
+          nonEmptyChunks.remove(cp);
+        } else {
+          nonEmptyChunks.add(cp);
+        }
+        chunkTimestamps.put(cp, world.getRegion(cp.getRegionPosition()).getChunkTimestamp(cp));
+      }
+      addChunkGroup(group);
+      commitStage(stage, "Loading changed chunks", reloadedChunks.size());
+    }
+
+    palette.unsynchronize();
+
+    try (TaskTracker.Task task = taskTracker.task("(2/4) Finalizing octree")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
+      worldOctree.startFinalization();
+      waterOctree.startFinalization();
+      int done = 0;
+      int target = reloadedChunks.size();
+      for (ChunkPosition cp : reloadedChunks) {
+        task.updateEta(target, done);
+        done += 1;
+        if (nonEmptyChunks.contains(cp)) {
+          updateBiomeTextures(cp);
+          OctreeFinalizer.finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        }
+      }
+      worldOctree.endFinalization();
+      waterOctree.endFinalization();
+      commitStage(stage, "Finalizing octree", reloadedChunks.size());
+    }
+
+    for (Entity entity : actors) {
+      if (reloadedChunks.contains(chunkPosition(entity.position.x, entity.position.z))) {
+        entity.loadDataFromOctree(worldOctree, palette, origin);
+      }
+    }
+    for (Entity entity : entities) {
+      if (reloadedChunks.contains(chunkPosition(entity.position.x, entity.position.z))) {
+        entity.loadDataFromOctree(worldOctree, palette, origin);
+      }
+    }
+
+    if (emitterGrid != null)
+      emitterGrid.prepare();
+
+    try (TaskTracker.Task task = taskTracker.task("(3/4) Building world BVH")) {
+      buildBvh(task);
+    }
+    try (TaskTracker.Task task = taskTracker.task("(4/4) Building actor BVH")) {
+      buildActorBvh(task);
+    }
+    Log.info(String.format("Reloaded %d changed chunks (%d including neighbors)",
+        changedChunks.size(), reloadedChunks.size()));
+    updateOctreeStatistics();
+  }
+
+  private static ChunkPosition chunkPosition(double x, double z) {
+    return ChunkPosition.get((int) Math.floor(x) >> 4, (int) Math.floor(z) >> 4);
   }
 
   /**
@@ -853,6 +1233,7 @@ public class Scene implements JsonSerializable, Refreshable {
 
     try (TaskTracker.Task task = taskTracker.task("(1/6) Loading regions")) {
       task.update(2, 1);
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
 
       loadedWorld = world;
       worldPath = loadedWorld.getWorldDirectory().getAbsolutePath();
@@ -866,6 +1247,8 @@ public class Scene implements JsonSerializable, Refreshable {
 
       // Create new octree to fit all chunks.
       palette = new BlockPalette();
+      worldOctree.dispose();
+      waterOctree.dispose();
       worldOctree = new Octree(octreeImplementation, requiredDepth);
       waterOctree = new Octree(octreeImplementation, requiredDepth);
       if(emitterSamplingStrategy != EmitterSamplingStrategy.NONE)
@@ -880,9 +1263,11 @@ public class Scene implements JsonSerializable, Refreshable {
       for (ChunkPosition region : regions) {
         world.getRegion(region).parse();
       }
+      commitStage(stage, "Loading regions", chunksToLoad.size());
     }
 
     try (TaskTracker.Task task = taskTracker.task("(2/6) Loading entities")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
       entities = new LinkedList<>();
       if (actors.isEmpty() && PersistentSettings.getLoadPlayers()) {
         // We don't load actor entities if some already exists. Loading actor entities
@@ -907,484 +1292,602 @@ public class Scene implements JsonSerializable, Refreshable {
           actors.add(entity);
         }
       }
+      commitStage(stage, "Loading entities", chunksToLoad.size());
     }
 
-    Set<ChunkPosition> nonEmptyChunks = new HashSet<>();
-    Heightmap biomeIdMap = new Heightmap();
-
-    ChunkData chunkData1;
-    ChunkData chunkData2;
-    if (isTallWorld) { //snapshot 21w06a, treat as -64 - 320
-      chunkData1 = new GenericChunkData(); // chunk loading will switch between these two, using one asynchronously to load the data
-      chunkData2 = new GenericChunkData(); // while the other is used to add to the octree
-    } else { //Treat as 0 - 256 world
-      chunkData1 = new SimpleChunkData();
-      chunkData2 = new SimpleChunkData();
-    }
+    nonEmptyChunks = new HashSet<>();
+    biomeIdMap = new Heightmap();
 
     try (TaskTracker.Task task = taskTracker.task("(3/6) Loading chunks")) {
-      int done = 1;
-      int target = chunksToLoad.size();
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
+
+      // The chunks are grouped in columns that are loaded in parallel into separate subtrees.
+      int subtreeDepth = Math.min(CHUNK_GROUP_DEPTH, worldOctree.getDepth());
+      Map<ChunkPosition, ChunkGroup> groupMap = new LinkedHashMap<>();
+      for (ChunkPosition cp : chunksToLoad) {
+        if (loadedChunks.add(cp)) {
+          int x = (cp.x * 16 - origin.x) >> subtreeDepth;
+          int z = (cp.z * 16 - origin.z) >> subtreeDepth;
+          groupMap.computeIfAbsent(ChunkPosition.get(x, z), column ->
+              new ChunkGroup(worldOctree, waterOctree, subtreeDepth,
+                  column.x << subtreeDepth, column.z << subtreeDepth))
+              .chunks.add(cp);
+        }
+      }
+      List<ChunkGroup> groups = new ArrayList<>(groupMap.values());
+
+      AtomicInteger done = new AtomicInteger(0);
+      int target = loadedChunks.size();
+      try {
+        Chunky.getCommonThreads().submit(() -> {
+          groups.parallelStream().forEach(group -> {
+            ChunkData chunkData = isTallWorld ? new GenericChunkData() : new SimpleChunkData();
+            int[] cubeWorldBlocks = new int[16*16*16];
+            int[] cubeWaterBlocks = new int[16*16*16];
+            for (ChunkPosition cp : group.chunks) {
+              world.getChunk(cp).getChunkData(chunkData, palette);
+              loadChunk(group, cp, chunkData, cubeWorldBlocks, cubeWaterBlocks);
+              if (!chunkData.isEmpty()) {
+                group.nonEmptyChunks.add(cp);
+              }
+              task.updateEta(target, done.incrementAndGet());
+            }
+            // Splice the subtrees right away, so that only the groups being loaded keep
+            // subtrees in memory.
+            group.insertSubtrees();
+          });
+        }).get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException("Failed to load chunks", e);
+      }
 
-      boolean usingFirstChunkData = true;
+      for (ChunkGroup group : groups) {
+        addChunkGroup(group);
+      }
+      numChunks = loadedChunks.size();
+      commitStage(stage, "Loading chunks", chunksToLoad.size());
+    }
 
-      ChunkPosition[] chunkPositions = chunksToLoad.toArray(new ChunkPosition[0]);
+    palette.unsynchronize();
 
-      int[] cubeWorldBlocks = new int[16*16*16];
-      int[] cubeWaterBlocks = new int[16*16*16];
+    grassTexture = new WorldTexture();
+    foliageTexture = new WorldTexture();
+    waterTexture = new WorldTexture();
 
-      ExecutorService executor = Executors.newSingleThreadExecutor();
-      Future<?> nextChunkDataTask = executor.submit(() -> { //Initialise first chunk data for the for loop
-        world.getChunk(chunkPositions[0]).getChunkData(chunkData1, palette);
-      });
-      for (int i = 0; i < chunkPositions.length; i++) {
-        ChunkPosition cp = chunkPositions[i];
+    try (TaskTracker.Task task = taskTracker.task("(4/6) Finalizing octree")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
 
+      worldOctree.startFinalization();
+      waterOctree.startFinalization();
+
+      int done = 0;
+      int target = nonEmptyChunks.size();
+      for (ChunkPosition cp : nonEmptyChunks) {
+        updateBiomeTextures(cp);
         task.updateEta(target, done);
         done += 1;
-
-        if (loadedChunks.contains(cp)) {
-          continue;
+        OctreeFinalizationEvent event = Jfr.AVAILABLE ? OctreeFinalizationEvent.start() : null;
+        OctreeFinalizer.finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        if (event != null) {
+          event.chunkX = cp.x;
+          event.chunkZ = cp.z;
+          event.commit();
         }
+      }
 
-        loadedChunks.add(cp);
+      worldOctree.endFinalization();
+      waterOctree.endFinalization();
+      commitStage(stage, "Finalizing octree", nonEmptyChunks.size());
+    }
 
-        try {
-          nextChunkDataTask.get(50, TimeUnit.MILLISECONDS);
-        } catch(TimeoutException | InterruptedException logged) { // If except, load the chunk synchronously
-          if (logged instanceof TimeoutException) {
-            Log.info("Chunk loading timed out.");
-          } else {
-            Log.warn("Chunky loading interrupted.", logged);
-          }
+    for (Entity entity : actors) {
+      entity.loadDataFromOctree(worldOctree, palette, origin);
+    }
 
-          if(usingFirstChunkData) {
-            world.getChunk(chunkPositions[i]).getChunkData(chunkData1, palette);
-          }
-          else {
-            world.getChunk(chunkPositions[i]).getChunkData(chunkData2, palette);
-          }
-        } catch(ExecutionException e) {
-          throw new RuntimeException(e.getCause());
-        }
+    for (Entity entity : entities) {
+      entity.loadDataFromOctree(worldOctree, palette, origin);
+    }
 
-        ChunkData chunkData; //the chunk data to be used for THIS iteration
-        {
-          ChunkData nextChunkData; //the chunk data to be used for the next iteration
-          if (usingFirstChunkData) {
-            chunkData = chunkData1;
-            nextChunkData = chunkData2;
-          } else {
-            chunkData = chunkData2;
-            nextChunkData = chunkData1;
-          }
-          usingFirstChunkData = !usingFirstChunkData;
+    if (emitterGrid != null)
+      emitterGrid.prepare();
 
-          if (i + 1 < chunkPositions.length) { //if has next request next
-            final int finalI = i;
-            nextChunkDataTask = executor.submit(() -> { //Initialise first chunk data for the for loop
-              world.getChunk(chunkPositions[finalI + 1]).getChunkData(nextChunkData, palette);
-            });
-          }
-        }
+    chunks = loadedChunks;
+    chunkTimestamps = new HashMap<>();
+    for (ChunkPosition cp : loadedChunks) {
+      chunkTimestamps.put(cp, world.getRegion(cp.getRegionPosition()).getChunkTimestamp(cp));
+    }
+    camera.setWorldSize(1 << worldOctree.getDepth());
+    try (TaskTracker.Task task = taskTracker.task("(5/6) Building world BVH")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
+      buildBvh(task);
+      commitStage(stage, "Building world BVH", chunks.size());
+    }
+    try (TaskTracker.Task task = taskTracker.task("(6/6) Building actor BVH")) {
+      ChunkLoadingStageEvent stage = Jfr.AVAILABLE ? ChunkLoadingStageEvent.start() : null;
+      buildActorBvh(task);
+      commitStage(stage, "Building actor BVH", chunks.size());
+    }
+    Log.info(String.format("Loaded %d chunks", numChunks));
+    updateOctreeStatistics();
+  }
 
-        numChunks += 1;
+  /**
+   * Write the statistics that were counted while finalizing the octrees to the log.
+   * Counting the nodes separately would walk the whole octree, so there are no statistics
+   * for octrees that were loaded from a file or not compacted.
+   */
+  private void updateOctreeStatistics() {
+    worldOctreeStatistics = worldOctree.getFinalizationStatistics();
+    if (worldOctreeStatistics != null) {
+      Log.info("World " + worldOctreeStatistics);
+    }
+    OctreeStatistics waterStatistics = waterOctree.getFinalizationStatistics();
+    if (waterStatistics != null) {
+      Log.info("Water octree: " + waterStatistics.summary());
+    }
+  }
 
-        int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
-        int wz0 = cp.z * 16;
-        for (int cz = 0; cz < 16; ++cz) {
-          int wz = cz + wz0;
-          for (int cx = 0; cx < 16; ++cx) {
-            int wx = cx + wx0;
-            int biomeId = 0xFF & chunkData.getBiomeAt(cx, 0, cz); // TODO add vertical biomes support (1.15+)
-            biomeIdMap.set(biomeId, wx, wz);
-          }
-        }
+  /**
+   * Load the blocks, entities and emitters of a chunk into a chunk group.
+   */
+  private void loadChunk(ChunkGroup group, ChunkPosition cp, ChunkData chunkData,
+      int[] cubeWorldBlocks, int[] cubeWaterBlocks) {
+    int wx0 = cp.x * 16; // Start of this chunk in world coordinates.
+    int wz0 = cp.z * 16;
+    for (int cz = 0; cz < 16; ++cz) {
+      int wz = cz + wz0;
+      for (int cx = 0; cx < 16; ++cx) {
+        int wx = cx + wx0;
+        int biomeId = 0xFF & chunkData.getBiomeAt(cx, 0, cz); // TODO add vertical biomes support (1.15+)
+        biomeIdMap.set(biomeId, wx, wz);
+      }
+    }
 
-        // Load entities from the chunk:
-        for (CompoundTag tag : chunkData.getEntities()) {
-          Tag posTag = tag.get("Pos");
-          if (posTag.isList()) {
-            ListTag pos = posTag.asList();
-            double x = pos.get(0).doubleValue();
-            double y = pos.get(1).doubleValue();
-            double z = pos.get(2).doubleValue();
-
-            if (y >= yClipMin && y < yClipMax) {
-              String id = tag.get("id").stringValue("");
-              if (id.equals("minecraft:painting") || id.equals("Painting")) {
-                // Before 1.12 paintings had id=Painting.
-                // After 1.12 paintings had id=minecraft:painting.
-                float yaw = tag.get("Rotation").get(0).floatValue();
-                entities.add(
-                    new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
-              } else if (id.equals("minecraft:armor_stand")) {
-                actors.add(new ArmorStand(new Vector3(x, y, z), tag));
-              }
-            }
+    // Load entities from the chunk:
+    for (CompoundTag tag : chunkData.getEntities()) {
+      Tag posTag = tag.get("Pos");
+      if (posTag.isList()) {
+        ListTag pos = posTag.asList();
+        double x = pos.get(0).doubleValue();
+        double y = pos.get(1).doubleValue();
+        double z = pos.get(2).doubleValue();
+
+        if (y >= yClipMin && y < yClipMax) {
+          String id = tag.get("id").stringValue("");
+          if (id.equals("minecraft:painting") || id.equals("Painting")) {
+            // Before 1.12 paintings had id=Painting.
+            // After 1.12 paintings had id=minecraft:painting.
+            float yaw = tag.get("Rotation").get(0).floatValue();
+            group.entities.add(
+                new PaintingEntity(new Vector3(x, y, z), tag.get("Motive").stringValue(), yaw));
+          } else if (id.equals("minecraft:armor_stand")) {
+            group.actors.add(new ArmorStand(new Vector3(x, y, z), tag));
           }
         }
+      }
+    }
 
-        int yCubeMin = yMin / 16;
-        int yCubeMax = (yMax+15) / 16;
-        for(int yCube = yCubeMin; yCube < yCubeMax; ++yCube) {
-          // Reset the cubes
-          Arrays.fill(cubeWorldBlocks, 0);
-          Arrays.fill(cubeWaterBlocks, 0);
-          for(int cy = 0; cy < 16; ++cy) { //Uses chunk min and max, rather than global - minor optimisation for pre1.13 worlds
-            int y = yCube * 16 + cy;
-            if(y < yMin || y >= yMax)
-              continue;
-            for(int cz = 0; cz < 16; ++cz) {
-              int z = cz + cp.z * 16 - origin.z;
-              for(int cx = 0; cx < 16; ++cx) {
-                int x = cx + cp.x * 16 - origin.x;
-
-                int cubeIndex = (cz * 16 + cy) * 16 + cx;
-
-                // Change the type of hidden blocks to ANY_TYPE
-                boolean onEdge = y <= yMin || y >= yMax - 1 || chunkData.isBlockOnEdge(cx, y, cz);
-                boolean isHidden = !onEdge
-                        && palette.get(chunkData.getBlockAt(cx + 1, y, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx - 1, y, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y + 1, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y - 1, cz)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y, cz + 1)).opaque
-                        && palette.get(chunkData.getBlockAt(cx, y, cz - 1)).opaque;
-
-                if(isHidden) {
-                  cubeWorldBlocks[cubeIndex] = Octree.ANY_TYPE;
+    int yCubeMin = yMin / 16;
+    int yCubeMax = (yMax+15) / 16;
+    for(int yCube = yCubeMin; yCube < yCubeMax; ++yCube) {
+      // Reset the cubes
+      Arrays.fill(cubeWorldBlocks, 0);
+      Arrays.fill(cubeWaterBlocks, 0);
+      for(int cy = 0; cy < 16; ++cy) { //Uses chunk min and max, rather than global - minor optimisation for pre1.13 worlds
+        int y = yCube * 16 + cy;
+        if(y < yMin || y >= yMax)
+          continue;
+        for(int cz = 0; cz < 16; ++cz) {
+          int z = cz + cp.z * 16 - origin.z;
+          for(int cx = 0; cx < 16; ++cx) {
+            int x = cx + cp.x * 16 - origin.x;
+
+            int cubeIndex = (cz * 16 + cy) * 16 + cx;
+
+            // Change the type of hidden blocks to ANY_TYPE
+            boolean onEdge = y <= yMin || y >= yMax - 1 || chunkData.isBlockOnEdge(cx, y, cz);
+            boolean isHidden = !onEdge
+                    && palette.get(chunkData.getBlockAt(cx + 1, y, cz)).opaque
+                    && palette.get(chunkData.getBlockAt(cx - 1, y, cz)).opaque
+                    && palette.get(chunkData.getBlockAt(cx, y + 1, cz)).opaque
+                    && palette.get(chunkData.getBlockAt(cx, y - 1, cz)).opaque
+                    && palette.get(chunkData.getBlockAt(cx, y, cz + 1)).opaque
+                    && palette.get(chunkData.getBlockAt(cx, y, cz - 1)).opaque;
+
+            if(isHidden) {
+              cubeWorldBlocks[cubeIndex] = Octree.ANY_TYPE;
+            } else {
+              int currentBlock = chunkData.getBlockAt(cx, y, cz);
+              int octNode = currentBlock;
+              Block block = palette.get(currentBlock);
+
+              if(block.isEntity()) {
+                Vector3 position = new Vector3(cx + cp.x * 16, y, cz + cp.z * 16);
+                Entity entity = block.toEntity(position);
+
+                if(entity instanceof Poseable && !(entity instanceof Lectern && !((Lectern) entity).hasBook())) {
+                  group.actors.add(entity);
                 } else {
-                  int currentBlock = chunkData.getBlockAt(cx, y, cz);
-                  int octNode = currentBlock;
-                  Block block = palette.get(currentBlock);
-
-                  if(block.isEntity()) {
-                    Vector3 position = new Vector3(cx + cp.x * 16, y, cz + cp.z * 16);
-                    Entity entity = block.toEntity(position);
-
-                    if(entity instanceof Poseable && !(entity instanceof Lectern && !((Lectern) entity).hasBook())) {
-                      // don't add the actor again if it was already loaded from json
-                      if(actors.stream().noneMatch(actor -> {
-                        if(actor.getClass().equals(entity.getClass())) {
-                          Vector3 distance = new Vector3(actor.position);
-                          distance.sub(entity.position);
-                          return distance.lengthSquared() < Ray.EPSILON;
-                        }
-                        return false;
-                      })) {
-                        actors.add(entity);
-                      }
-                    } else {
-                      entities.add(entity);
-                      if(emitterGrid != null) {
-                        for(Grid.EmitterPosition emitterPos : entity.getEmitterPosition()) {
-                          emitterPos.x -= origin.x;
-                          emitterPos.y -= origin.y;
-                          emitterPos.z -= origin.z;
-                          emitterGrid.addEmitter(emitterPos);
-                        }
-                      }
+                  group.entities.add(entity);
+                  if(emitterGrid != null) {
+                    for(Grid.EmitterPosition emitterPos : entity.getEmitterPosition()) {
+                      emitterPos.x -= origin.x;
+                      emitterPos.y -= origin.y;
+                      emitterPos.z -= origin.z;
+                      group.emitters.add(emitterPos);
                     }
+                  }
+                }
 
-                    if(!block.isBlockWithEntity()) {
-                      if(block.waterlogged) {
-                        block = palette.water;
-                        octNode = palette.waterId;
-                      } else {
-                        block = Air.INSTANCE;
-                        octNode = palette.airId;
-                      }
-                    }
+                if(!block.isBlockWithEntity()) {
+                  if(block.waterlogged) {
+                    block = palette.water;
+                    octNode = palette.waterId;
+                  } else {
+                    block = Air.INSTANCE;
+                    octNode = palette.airId;
                   }
+                }
+              }
 
-                  if(block.isWaterFilled()) {
-                    int waterNode = palette.waterId;
-                    if(y + 1 < yMax) {
-                      if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)).isWaterFilled()) {
-                        waterNode = palette.getWaterId(0, 1 << Water.FULL_BLOCK);
-                      }
-                    }
-                    if(block.isWater()) {
-                      // Move plain water blocks to the water octree.
-                      octNode = palette.airId;
-
-                      if(!onEdge) {
-                        // Perform water computation now for water blocks that are not on th edge of the chunk
-                        // Test if the block has not already be marked as full
-                        if(((Water) palette.get(waterNode)).data == 0) {
-                          int level0 = 8 - ((Water) block).level;
-                          int corner0 = level0;
-                          int corner1 = level0;
-                          int corner2 = level0;
-                          int corner3 = level0;
-
-                          int level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz, level0);
-                          corner3 += level;
-                          corner0 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
-                          corner0 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz + 1, level0);
-                          corner0 += level;
-                          corner1 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
-                          corner1 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz, level0);
-                          corner1 += level;
-                          corner2 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
-                          corner2 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz - 1, level0);
-                          corner2 += level;
-                          corner3 += level;
-
-                          level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
-                          corner3 += level;
-
-                          corner0 = Math.min(7, 8 - (corner0 / 4));
-                          corner1 = Math.min(7, 8 - (corner1 / 4));
-                          corner2 = Math.min(7, 8 - (corner2 / 4));
-                          corner3 = Math.min(7, 8 - (corner3 / 4));
-                          waterNode = palette.getWaterId(((Water) block).level, (corner0 << Water.CORNER_0)
-                                          | (corner1 << Water.CORNER_1)
-                                          | (corner2 << Water.CORNER_2)
-                                          | (corner3 << Water.CORNER_3));
-                        }
-                      } else {
-                        // Water computation for water blocks on the edge of a chunk is done by the OctreeFinalizer but we need the water level information
-                        waterNode = palette.getWaterId(((Water) block).level, 0);
-                      }
-                    }
-                    cubeWaterBlocks[cubeIndex] = waterNode;
-                  } else if(y + 1 < yMax && block instanceof Lava) {
-                    if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)) instanceof Lava) {
-                      octNode = palette.getLavaId(0, 1 << Water.FULL_BLOCK);
-                    } else if(!onEdge) {
-                      // Compute lava level for blocks not on edge
-                      Lava lava = (Lava) block;
-                      int level0 = 8 - lava.level;
+              if(block.isWaterFilled()) {
+                int waterNode = palette.waterId;
+                if(y + 1 < yMax) {
+                  if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)).isWaterFilled()) {
+                    waterNode = palette.getWaterId(0, 1 << Water.FULL_BLOCK);
+                  }
+                }
+                if(block.isWater()) {
+                  // Move plain water blocks to the water octree.
+                  octNode = palette.airId;
+
+                  if(!onEdge) {
+                    // Perform water computation now for water blocks that are not on th edge of the chunk
+                    // Test if the block has not already be marked as full
+                    if(((Water) palette.get(waterNode)).data == 0) {
+                      int level0 = 8 - ((Water) block).level;
                       int corner0 = level0;
                       int corner1 = level0;
                       int corner2 = level0;
                       int corner3 = level0;
 
-                      int level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz, level0);
+                      int level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz, level0);
                       corner3 += level;
                       corner0 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
                       corner0 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz + 1, level0);
                       corner0 += level;
                       corner1 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
                       corner1 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz, level0);
                       corner1 += level;
                       corner2 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
                       corner2 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx, y, cz - 1, level0);
                       corner2 += level;
                       corner3 += level;
 
-                      level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
+                      level = Chunk.waterLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
                       corner3 += level;
 
                       corner0 = Math.min(7, 8 - (corner0 / 4));
                       corner1 = Math.min(7, 8 - (corner1 / 4));
                       corner2 = Math.min(7, 8 - (corner2 / 4));
                       corner3 = Math.min(7, 8 - (corner3 / 4));
-                      octNode = palette.getLavaId(
-                              lava.level,
-                              (corner0 << Water.CORNER_0)
+                      waterNode = palette.getWaterId(((Water) block).level, (corner0 << Water.CORNER_0)
                                       | (corner1 << Water.CORNER_1)
                                       | (corner2 << Water.CORNER_2)
-                                      | (corner3 << Water.CORNER_3)
-                      );
+                                      | (corner3 << Water.CORNER_3));
                     }
-                  }
-                  cubeWorldBlocks[cubeIndex] = octNode;
-
-                  if(emitterGrid != null && block.emittance > 1e-4) {
-                    emitterGrid.addEmitter(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f));
+                  } else {
+                    // Water computation for water blocks on the edge of a chunk is done by the OctreeFinalizer but we need the water level information
+                    waterNode = palette.getWaterId(((Water) block).level, 0);
                   }
                 }
+                cubeWaterBlocks[cubeIndex] = waterNode;
+              } else if(y + 1 < yMax && block instanceof Lava) {
+                if(palette.get(chunkData.getBlockAt(cx, y + 1, cz)) instanceof Lava) {
+                  octNode = palette.getLavaId(0, 1 << Water.FULL_BLOCK);
+                } else if(!onEdge) {
+                  // Compute lava level for blocks not on edge
+                  Lava lava = (Lava) block;
+                  int level0 = 8 - lava.level;
+                  int corner0 = level0;
+                  int corner1 = level0;
+                  int corner2 = level0;
+                  int corner3 = level0;
+
+                  int level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz, level0);
+                  corner3 += level;
+                  corner0 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz + 1, level0);
+                  corner0 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz + 1, level0);
+                  corner0 += level;
+                  corner1 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz + 1, level0);
+                  corner1 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz, level0);
+                  corner1 += level;
+                  corner2 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx + 1, y, cz - 1, level0);
+                  corner2 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx, y, cz - 1, level0);
+                  corner2 += level;
+                  corner3 += level;
+
+                  level = Chunk.lavaLevelAt(chunkData, palette, cx - 1, y, cz - 1, level0);
+                  corner3 += level;
+
+                  corner0 = Math.min(7, 8 - (corner0 / 4));
+                  corner1 = Math.min(7, 8 - (corner1 / 4));
+                  corner2 = Math.min(7, 8 - (corner2 / 4));
+                  corner3 = Math.min(7, 8 - (corner3 / 4));
+                  octNode = palette.getLavaId(
+                          lava.level,
+                          (corner0 << Water.CORNER_0)
+                                  | (corner1 << Water.CORNER_1)
+                                  | (corner2 << Water.CORNER_2)
+                                  | (corner3 << Water.CORNER_3)
+                  );
+                }
+              }
+              cubeWorldBlocks[cubeIndex] = octNode;
+
+              if(emitterGrid != null && block.emittance > 1e-4) {
+                group.emitters.add(new Grid.EmitterPosition(x + 0.5f, y - origin.y + 0.5f, z + 0.5f));
               }
             }
           }
-          worldOctree.setCube(4, cubeWorldBlocks, cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
-          waterOctree.setCube(4, cubeWaterBlocks, cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
         }
+      }
+      group.setCube(cubeWorldBlocks, cubeWaterBlocks,
+          cp.x*16 - origin.x, yCube*16 - origin.y, cp.z*16 - origin.z);
+    }
 
-        // Block entities are also called "tile entities". These are extra bits of metadata
-        // about certain blocks or entities.
-        // Block entities are loaded after the base block data so that metadata can be updated.
-        for (CompoundTag entityTag : chunkData.getTileEntities()) {
-          int y = entityTag.get("y").intValue(0);
-          if (y >= yMin && y < yMax) {
-            int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
-            int z = entityTag.get("z").intValue(0) - wz0;
-            if (x < 0 || x > 15 || z < 0 || z > 15) {
-              // Block entity is out of range (bad chunk data?), ignore it
-              continue;
-            }
-            Block block = palette.get(chunkData.getBlockAt(x, y, z));
-            // Metadata is the old block data (to be replaced in future Minecraft versions?).
-            Vector3 position = new Vector3(x + wx0, y, z + wz0);
-            if (block.isBlockEntity()) {
-              Entity blockEntity = block.toBlockEntity(position, entityTag);
-              if (blockEntity == null) {
-                continue;
-              }
-              if (blockEntity instanceof Poseable) {
-                // don't add the actor again if it was already loaded from json
-                if (actors.stream().noneMatch(actor -> {
-                  if (actor.getClass().equals(blockEntity.getClass())) {
-                    Vector3 distance = new Vector3(actor.position);
-                    distance.sub(blockEntity.position);
-                    return distance.lengthSquared() < Ray.EPSILON;
-                  }
-                  return false;
-                })) {
-                  actors.add(blockEntity);
-                }
-              } else {
-                entities.add(blockEntity);
-                if(emitterGrid != null) {
-                  for(Grid.EmitterPosition emitterPos : blockEntity.getEmitterPosition()) {
-                    emitterPos.x -= origin.x;
-                    emitterPos.y -= origin.y;
-                    emitterPos.z -= origin.z;
-                    emitterGrid.addEmitter(emitterPos);
-                  }
-                }
-              }
-            }
-            /*
-            switch (block) {
-              case Block.HEAD_ID:
-                entities.add(new SkullEntity(position, entityTag, metadata));
-                break;
-              case Block.WALL_BANNER_ID: {
-                entities.add(new WallBanner(position, metadata, entityTag));
-                break;
+    // Block entities are also called "tile entities". These are extra bits of metadata
+    // about certain blocks or entities.
+    // Block entities are loaded after the base block data so that metadata can be updated.
+    for (CompoundTag entityTag : chunkData.getTileEntities()) {
+      int y = entityTag.get("y").intValue(0);
+      if (y >= yMin && y < yMax) {
+        int x = entityTag.get("x").intValue(0) - wx0; // Chunk-local coordinates.
+        int z = entityTag.get("z").intValue(0) - wz0;
+        if (x < 0 || x > 15 || z < 0 || z > 15) {
+          // Block entity is out of range (bad chunk data?), ignore it
+          continue;
+        }
+        Block block = palette.get(chunkData.getBlockAt(x, y, z));
+        // Metadata is the old block data (to be replaced in future Minecraft versions?).
+        Vector3 position = new Vector3(x + wx0, y, z + wz0);
+        if (block.isBlockEntity()) {
+          Entity blockEntity = block.toBlockEntity(position, entityTag);
+          if (blockEntity == null) {
+            continue;
+          }
+          if (blockEntity instanceof Poseable) {
+            group.actors.add(blockEntity);
+          } else {
+            group.entities.add(blockEntity);
+            if(emitterGrid != null) {
+              for(Grid.EmitterPosition emitterPos : blockEntity.getEmitterPosition()) {
+                emitterPos.x -= origin.x;
+                emitterPos.y -= origin.y;
+                emitterPos.z -= origin.z;
+                group.emitters.add(emitterPos);
               }
             }
-            */
           }
         }
-
-        if (!chunkData.isEmpty()){
-          nonEmptyChunks.add(cp);
+        /*
+        switch (block) {
+          case Block.HEAD_ID:
+            entities.add(new SkullEntity(position, entityTag, metadata));
+            break;
+          case Block.WALL_BANNER_ID: {
+            entities.add(new WallBanner(position, metadata, entityTag));
+            break;
+          }
         }
+        */
       }
-      executor.shutdown();
     }
+  }
 
-    palette.unsynchronize();
-
-    grassTexture = new WorldTexture();
-    foliageTexture = new WorldTexture();
-    waterTexture = new WorldTexture();
-
-    try (TaskTracker.Task task = taskTracker.task("(4/6) Finalizing octree")) {
+  /**
+   * Add the blocks, entities and emitters of a loaded chunk group to the scene.
+   */
+  private void addChunkGroup(ChunkGroup group) {
+    group.insertSubtrees();
+    entities.addAll(group.entities);
+    for (Entity actor : group.actors) {
+      addActor(actor);
+    }
+    if (emitterGrid != null) {
+      for (Grid.EmitterPosition emitter : group.emitters) {
+        emitterGrid.addEmitter(emitter);
+      }
+    }
+    nonEmptyChunks.addAll(group.nonEmptyChunks);
+  }
 
-      worldOctree.startFinalization();
-      waterOctree.startFinalization();
+  /**
+   * Add an actor loaded from a chunk to the scene.
+   */
+  private void addActor(Entity entity) {
+    // don't add the actor again if it was already loaded from json or by an earlier reload
+    if (actors.stream().noneMatch(actor -> {
+      if (actor.getClass().equals(entity.getClass())) {
+        Vector3 distance = new Vector3(actor.position);
+        distance.sub(entity.position);
+        return distance.lengthSquared() < Ray.EPSILON;
+      }
+      return false;
+    })) {
+      actors.add(entity);
+    }
+  }
 
-      int done = 0;
-      int target = nonEmptyChunks.size();
-      for (ChunkPosition cp : nonEmptyChunks) {
-        // Finalize grass and foliage textures.
-        // 3x3 box blur.
-        for (int x = 0; x < 16; ++x) {
-          for (int z = 0; z < 16; ++z) {
-
-            int nsum = 0;
-            float[] grassMix = {0, 0, 0};
-            float[] foliageMix = {0, 0, 0};
-            float[] waterMix = {0, 0, 0};
-            for (int sx = x - 1; sx <= x + 1; ++sx) {
-              int wx = cp.x * 16 + sx;
-              for (int sz = z - 1; sz <= z + 1; ++sz) {
-                int wz = cp.z * 16 + sz;
-
-                ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
-                if (nonEmptyChunks.contains(ccp)) {
-                  nsum += 1;
-                  int biomeId = biomeIdMap.get(wx, wz);
-                  float[] grassColor = Biomes.getGrassColorLinear(biomeId);
-                  grassMix[0] += grassColor[0];
-                  grassMix[1] += grassColor[1];
-                  grassMix[2] += grassColor[2];
-                  float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
-                  foliageMix[0] += foliageColor[0];
-                  foliageMix[1] += foliageColor[1];
-                  foliageMix[2] += foliageColor[2];
-                  float[] waterColor = Biomes.getWaterColorLinear(biomeId);
-                  waterMix[0] += waterColor[0];
-                  waterMix[1] += waterColor[1];
-                  waterMix[2] += waterColor[2];
-                }
-              }
+  /**
+   * Update the grass, foliage and water textures of a chunk from the biomes of the
+   * surrounding blocks.
+   */
+  private void updateBiomeTextures(ChunkPosition cp) {
+    // Finalize grass and foliage textures.
+    // 3x3 box blur.
+    for (int x = 0; x < 16; ++x) {
+      for (int z = 0; z < 16; ++z) {
+
+        int nsum = 0;
+        float[] grassMix = {0, 0, 0};
+        float[] foliageMix = {0, 0, 0};
+        float[] waterMix = {0, 0, 0};
+        for (int sx = x - 1; sx <= x + 1; ++sx) {
+          int wx = cp.x * 16 + sx;
+          for (int sz = z - 1; sz <= z + 1; ++sz) {
+            int wz = cp.z * 16 + sz;
+
+            ChunkPosition ccp = ChunkPosition.get(wx >> 4, wz >> 4);
+            if (nonEmptyChunks.contains(ccp)) {
+              nsum += 1;
+              int biomeId = biomeIdMap.get(wx, wz);
+              float[] grassColor = Biomes.getGrassColorLinear(biomeId);
+              grassMix[0] += grassColor[0];
+              grassMix[1] += grassColor[1];
+              grassMix[2] += grassColor[2];
+              float[] foliageColor = Biomes.getFoliageColorLinear(biomeId);
+              foliageMix[0] += foliageColor[0];
+              foliageMix[1] += foliageColor[1];
+              foliageMix[2] += foliageColor[2];
+              float[] waterColor = Biomes.getWaterColorLinear(biomeId);
+              waterMix[0] += waterColor[0];
+              waterMix[1] += waterColor[1];
+              waterMix[2] += waterColor[2];
             }
-            grassMix[0] /= nsum;
-            grassMix[1] /= nsum;
-            grassMix[2] /= nsum;
-            grassTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, grassMix);
-
-            foliageMix[0] /= nsum;
-            foliageMix[1] /= nsum;
-            foliageMix[2] /= nsum;
-            foliageTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, foliageMix);
-
-            waterMix[0] /= nsum;
-            waterMix[1] /= nsum;
-            waterMix[2] /= nsum;
-            waterTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, waterMix);
           }
         }
-        task.updateEta(target, done);
-        done += 1;
-        OctreeFinalizer.finalizeChunk(worldOctree, waterOctree, palette, origin, cp, yMin, yMax);
+        grassMix[0] /= nsum;
+        grassMix[1] /= nsum;
+        grassMix[2] /= nsum;
+        grassTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, grassMix);
+
+        foliageMix[0] /= nsum;
+        foliageMix[1] /= nsum;
+        foliageMix[2] /= nsum;
+        foliageTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, foliageMix);
+
+        waterMix[0] /= nsum;
+        waterMix[1] /= nsum;
+        waterMix[2] /= nsum;
+        waterTexture.set(cp.x * 16 + x - origin.x, cp.z * 16 + z - origin.z, waterMix);
       }
-
-      worldOctree.endFinalization();
-      waterOctree.endFinalization();
     }
+  }
 
-    for (Entity entity : actors) {
-      entity.loadDataFromOctree(worldOctree, palette, origin);
+  /**
+   * Blocks, entities and emitters loaded from a group of chunks.
+   *
+   * <p>Chunk groups are loaded in parallel. Each group sets its blocks in its own subtrees,
+   * which are inserted into the scene octrees as soon as the group is loaded. A group without
+   * subtrees sets its blocks directly in the scene octrees.
+   */
+  private static class ChunkGroup {
+    final List<ChunkPosition> chunks = new ArrayList<>();
+    final Set<ChunkPosition> nonEmptyChunks = new HashSet<>();
+    final List<Entity> entities = new ArrayList<>();
+    final List<Entity> actors = new ArrayList<>();
+    final List<Grid.EmitterPosition> emitters = new ArrayList<>();
+
+    private final Octree worldOctree;
+    private final Octree waterOctree;
+    private final int subtreeDepth;
+    private final int x0;
+    private final int z0;
+    private final Octree[] worldSubtrees;
+    private final Octree[] waterSubtrees;
+
+    /**
+     * Create a group that sets its blocks directly in the given octrees.
+     */
+    ChunkGroup(Octree worldOctree, Octree waterOctree) {
+      this(worldOctree, waterOctree, 0, 0, 0);
     }
 
-    for (Entity entity : entities) {
-      entity.loadDataFromOctree(worldOctree, palette, origin);
+    /**
+     * Create a group that sets its blocks in subtrees of the given octrees.
+     *
+     * @param x0 x position of the subtrees in octree coordinates
+     * @param z0 z position of the subtrees in octree coordinates
+     */
+    ChunkGroup(Octree worldOctree, Octree waterOctree, int subtreeDepth, int x0, int z0) {
+      this.worldOctree = worldOctree;
+      this.waterOctree = waterOctree;
+      this.subtreeDepth = subtreeDepth;
+      this.x0 = x0;
+      this.z0 = z0;
+      int numSubtrees = subtreeDepth == 0 ? 0 : 1 << (worldOctree.getDepth() - subtreeDepth);
+      worldSubtrees = new Octree[numSubtrees];
+      waterSubtrees = new Octree[numSubtrees];
     }
 
-    if (emitterGrid != null)
-      emitterGrid.prepare();
+    /**
+     * Set a 16x16x16 cube of blocks at the given octree coordinates.
+     */
+    void setCube(int[] worldBlocks, int[] waterBlocks, int x, int y, int z) {
+      if (subtreeDepth == 0) {
+        worldOctree.setCube(4, worldBlocks, x, y, z);
+        waterOctree.setCube(4, waterBlocks, x, y, z);
+        return;
+      }
+      int index = y >> subtreeDepth;
+      if (worldSubtrees[index] == null) {
+        worldSubtrees[index] = worldOctree.createSubtree(subtreeDepth);
+        waterSubtrees[index] = waterOctree.createSubtree(subtreeDepth);
+      }
+      int mask = (1 << subtreeDepth) - 1;
+      worldSubtrees[index].setCube(4, worldBlocks, x & mask, y & mask, z & mask);
+      waterSubtrees[index].setCube(4, waterBlocks, x & mask, y & mask, z & mask);
+    }
 
-    chunks = loadedChunks;
-    camera.setWorldSize(1 << worldOctree.getDepth());
-    try (TaskTracker.Task task = taskTracker.task("(5/6) Building world BVH")) {
-      buildBvh(task);
+    /**
+     * Insert the subtrees of this group into the scene octrees. This can be called while
+     * other groups are loaded.
+     */
+    void insertSubtrees() {
+      for (int i = 0; i < worldSubtrees.length; ++i) {
+        if (worldSubtrees[i] != null) {
+          worldOctree.setSubtree(worldSubtrees[i], x0, i << subtreeDepth, z0);
+          waterOctree.setSubtree(waterSubtrees[i], x0, i << subtreeDepth, z0);
+          worldSubtrees[i].dispose();
+          waterSubtrees[i].dispose();
+          worldSubtrees[i] = null;
+          waterSubtrees[i] = null;
+        }
+      }
     }
-    try (TaskTracker.Task task = taskTracker.task("(6/6) Building actor BVH")) {
-      buildActorBvh(task);
+  }
+
+  private static void commitStage(ChunkLoadingStageEvent event, String stage, int chunks) {
+    if (event != null) {
+      event.stage = stage;
+      event.chunks = chunks;
+      event.commit();
     }
-    Log.info(String.format("Loaded %d chunks", numChunks));
   }
 
   private void buildBvh(TaskTracker.Task task) {
@@ -1658,6 +2161,24 @@ public class Scene implements JsonSerializable, Refreshable {
     return rayDepth;
   }
 
+  /**
+   * Set the maximum recursive ray depth. Zero removes the limit.
+   */
+  public synchronized void setMaxRayDepth(int value) {
+    value = Math.max(0, value);
+    if (maxRayDepth != value) {
+      maxRayDepth = value;
+      refresh();
+    }
+  }
+
+  /**
+   * @return Maximum recursive ray depth, or zero if there is no limit
+   */
+  public int getMaxRayDepth() {
+    return maxRayDepth;
+  }
+
   /**
    * Clear the scene refresh flag
    */
@@ -1906,7 +2427,14 @@ public class Scene implements JsonSerializable, Refreshable {
     dumpFrequency = other.dumpFrequency;
     saveSnapshots = other.saveSnapshots;
     sppTarget = other.sppTarget;
+    noiseThreshold = other.noiseThreshold;
+    denoiserEnabled = other.denoiserEnabled;
+    if (samples == other.samples) {
+      // The denoiser buffers are allocated when the denoiser is enabled.
+      aovBuffer = other.aovBuffer;
+    }
     rayDepth = other.rayDepth;
+    maxRayDepth = other.maxRayDepth;
     mode = other.mode;
     outputMode = other.outputMode;
     cameraPresets = other.cameraPresets;
@@ -1929,6 +2457,96 @@ public class Scene implements JsonSerializable, Refreshable {
     sppTarget = value;
   }
 
+  /**
+   * @return the noise threshold for adaptive sampling, zero if adaptive sampling is disabled
+   */
+  public double getNoiseThreshold() {
+    return noiseThreshold;
+  }
+
+  /**
+   * Set the noise threshold for adaptive sampling. This does not reset the render.
+   *
+   * @param value the noise threshold, or zero to disable adaptive sampling
+   */
+  public void setNoiseThreshold(double value) {
+    noiseThreshold = Math.max(0, value);
+  }
+
+  /**
+   * Prepare the per-pixel sample counts for the next render pass.
+   * This is called by the render manager before the workers start a pass.
+   */
+  public synchronized void startAdaptivePass(int sppPerPass) {
+    if (noiseThreshold > 0) {
+      if (pixelConvergence == null) {
+        pixelConvergence = new PixelConvergence(width, height, spp);
+      }
+      pixelConvergence.startPass(spp, sppPerPass, noiseThreshold);
+    } else {
+      pixelConvergence = null;
+    }
+  }
+
+  /**
+   * Enable or disable the denoiser. This does not reset the render, the denoiser
+   * buffers start collecting samples from the next render pass.
+   */
+  public synchronized void setDenoiserEnabled(boolean value) {
+    if (value != denoiserEnabled) {
+      denoiserEnabled = value;
+      if (value && samples != null) {
+        aovBuffer = new AovBuffer(width, height);
+      } else if (!value) {
+        aovBuffer = null;
+        denoiser = null;
+        denoised = false;
+      }
+    }
+  }
+
+  public boolean isDenoiserEnabled() {
+    return denoiserEnabled;
+  }
+
+  /**
+   * Prepare the denoiser buffers for the next render pass.
+   * This is called by the render manager before the workers start a pass.
+   */
+  public synchronized void startDenoiserPass() {
+    denoised = false;
+    if (denoiserEnabled && aovBuffer == null) {
+      aovBuffer = new AovBuffer(width, height);
+    } else if (aovBuffer != null && spp == 0) {
+      aovBuffer.clear();
+    }
+  }
+
+  /**
+   * @return the albedo and normal buffers for the denoiser,
+   * or {@code null} if the denoiser is disabled
+   */
+  public AovBuffer getAovBuffer() {
+    return aovBuffer;
+  }
+
+  /**
+   * @return the per-pixel sample counts for adaptive sampling,
+   * or {@code null} if adaptive sampling is not used
+   */
+  public PixelConvergence getPixelConvergence() {
+    return pixelConvergence;
+  }
+
+  /**
+   * @return {@code true} if adaptive sampling is used and all pixels are below the
+   * noise threshold
+   */
+  public boolean isConverged() {
+    PixelConvergence convergence = pixelConvergence;
+    return convergence != null && convergence.isConverged();
+  }
+
   /**
    * Change the canvas size for this scene. This will refresh
    * the scene and reinitialize the sample buffers if the
@@ -1937,28 +2555,135 @@ public class Scene implements JsonSerializable, Refreshable {
   public synchronized void setCanvasSize(int canvasWidth, int canvasHeight) {
     int newWidth = Math.max(MIN_CANVAS_WIDTH, canvasWidth);
     int newHeight = Math.max(MIN_CANVAS_HEIGHT, canvasHeight);
-    if (newWidth != width || newHeight != height) {
-      width = newWidth;
-      height = newHeight;
+    if (newWidth != width || newHeight != height || isCropped()) {
+      fullWidth = newWidth;
+      fullHeight = newHeight;
+      resetCrop();
       initBuffers();
       refresh();
     }
   }
 
   /**
-   * @return Canvas width
+   * Make the canvas cover the full frame, or the top left crop if the crop size is limited.
+   */
+  private void resetCrop() {
+    cropX = 0;
+    cropY = 0;
+    width = maxCropSize > 0 ? Math.min(fullWidth, maxCropSize) : fullWidth;
+    height = maxCropSize > 0 ? Math.min(fullHeight, maxCropSize) : fullHeight;
+  }
+
+  /**
+   * Limit the canvas size, for rendering the frame as a sequence of crops. This must be set
+   * before loading the scene, so that the render buffers are never allocated for the
+   * full frame. Render dumps are not loaded when the crop size is limited.
+   *
+   * @param size the largest crop width and height, or zero for no limit
+   */
+  public synchronized void setMaxCropSize(int size) {
+    maxCropSize = Math.max(0, size);
+  }
+
+  /**
+   * Render only a crop of the full frame. The canvas gets the size of the crop, so the
+   * render buffers only cover the crop. The crop is clamped to the full frame.
+   *
+   * <p>Use {@link #setCanvasSize} to render the full frame again.
+   */
+  public synchronized void setCrop(int x, int y, int cropWidth, int cropHeight) {
+    int oldX = cropX;
+    int oldY = cropY;
+    int oldWidth = width;
+    int oldHeight = height;
+    clampCrop(x, y, cropWidth, cropHeight);
+    if (cropX != oldX || cropY != oldY || width != oldWidth || height != oldHeight) {
+      initBuffers();
+      refresh();
+    }
+  }
+
+  /**
+   * Make the given crop, clamped to the full frame, the canvas. Does not resize the render
+   * buffers.
+   */
+  private void clampCrop(int x, int y, int cropWidth, int cropHeight) {
+    cropX = Math.max(0, Math.min(fullWidth - 1, x));
+    cropY = Math.max(0, Math.min(fullHeight - 1, y));
+    width = Math.max(1, Math.min(fullWidth - cropX, cropWidth));
+    height = Math.max(1, Math.min(fullHeight - cropY, cropHeight));
+  }
+
+  /**
+   * Render only the given crop of the frame, instead of the crop stored in the scene
+   * description. This must be set before loading the scene, so that the render buffers are
+   * only allocated for the crop. The crop is not saved in the scene description.
+   */
+  public synchronized void setCropOverride(int x, int y, int cropWidth, int cropHeight) {
+    cropOverride = new int[] { x, y, cropWidth, cropHeight };
+  }
+
+  /**
+   * @return the scene name, followed by the position and size of the crop if the canvas is
+   * a crop of the full frame. Render dumps and snapshots are named after this, so that
+   * different crops of a scene can be rendered in the same scene directory.
+   */
+  public String outputName() {
+    if (!isCropped()) {
+      return name;
+    }
+    return String.format("%s-%d-%d-%dx%d", name, cropX, cropY, width, height);
+  }
+
+  /**
+   * @return {@code true} if the canvas is a crop of the full frame
+   */
+  public boolean isCropped() {
+    return width != fullWidth || height != fullHeight;
+  }
+
+  /**
+   * @return Canvas width, which is the width of the crop if the canvas is cropped
    */
   public int canvasWidth() {
     return width;
   }
 
   /**
-   * @return Canvas height
+   * @return Canvas height, which is the height of the crop if the canvas is cropped
    */
   public int canvasHeight() {
     return height;
   }
 
+  /**
+   * @return Width of the full frame
+   */
+  public int getFullWidth() {
+    return fullWidth;
+  }
+
+  /**
+   * @return Height of the full frame
+   */
+  public int getFullHeight() {
+    return fullHeight;
+  }
+
+  /**
+   * @return X position of the canvas in the full frame
+   */
+  public int getCropX() {
+    return cropX;
+  }
+
+  /**
+   * @return Y position of the canvas in the full frame
+   */
+  public int getCropY() {
+    return cropY;
+  }
+
   /**
    * Save a snapshot
    */
@@ -1967,7 +2692,7 @@ public class Scene implements JsonSerializable, Refreshable {
       Log.error("Can't save snapshot: bad output directory!");
       return;
     }
-    String fileName = String.format("%s-%d%s", name, spp, getOutputMode().getExtension());
+    String fileName = String.format("%s-%d%s", outputName(), spp, getOutputMode().getExtension());
     File targetFile = new File(directory, fileName);
     if (!directory.exists()) {
       directory.mkdirs();
@@ -2055,6 +2780,7 @@ public class Scene implements JsonSerializable, Refreshable {
    * but in some cases an separate post processing pass is needed.
    */
   public void postProcessFrame(TaskTracker.Task task) {
+    denoise(task);
     task.update("Finalizing frame", width, 0);
     AtomicInteger done = new AtomicInteger(0);
     Chunky.getCommonThreads().submit(() -> {
@@ -2074,12 +2800,45 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  /**
+   * Run the denoiser, if it is enabled. The denoised colors are used for
+   * post-processing until the next render pass starts.
+   */
+  private void denoise(TaskTracker.Task task) {
+    denoised = false;
+    AovBuffer aov = aovBuffer;
+    if (!denoiserEnabled || aov == null || mode == RenderMode.PREVIEW
+        || aov.width != width || aov.height != height) {
+      return;
+    }
+    task.update("Denoising frame", 1, 0);
+    if (denoisedSamples == null || denoisedSamples.length != samples.length) {
+      denoisedSamples = new double[samples.length];
+    }
+    if (denoiser == null || denoiser.width != width || denoiser.height != height) {
+      denoiser = new AtrousDenoiser(width, height);
+    }
+    denoiser.denoise(samples, aov, denoisedSamples);
+    denoised = true;
+  }
+
   private void writeImage(File targetFile, PictureExportFormat mode, TaskTracker taskTracker) {
+    SceneWriteEvent event = Jfr.AVAILABLE ? SceneWriteEvent.start() : null;
     try (FileOutputStream out = new FileOutputStream(targetFile)) {
       mode.write(out, this, taskTracker);
     } catch (IOException e) {
       Log.warn("Failed to write file: " + targetFile.getAbsolutePath(), e);
     }
+    commitWrite(event, "image", targetFile);
+  }
+
+  private static void commitWrite(SceneWriteEvent event, String kind, File file) {
+    if (event != null) {
+      event.kind = kind;
+      event.path = file.getAbsolutePath();
+      event.bytes = file.length();
+      event.commit();
+    }
   }
 
   private synchronized void saveEmitterGrid(RenderContext context, TaskTracker taskTracker) {
@@ -2110,9 +2869,18 @@ public class Scene implements JsonSerializable, Refreshable {
       Log.info("Saving octree " + fileName);
 
       boolean saved = false;
-      try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new GZIPOutputStream(context.getSceneFileOutputStream(fileName))))) {
-        OctreeFileFormat.store(out, worldOctree, waterOctree, palette,
-            grassTexture, foliageTexture, waterTexture);
+      try (OutputStream fileOut = context.getSceneFileOutputStream(fileName)) {
+        if (PersistentSettings.getUncompressedOctree()) {
+          OutputStream out = new FastBufferedOutputStream(fileOut);
+          OctreeFileFormat.storeUncompressed(out, worldOctree, waterOctree, palette,
+              grassTexture, foliageTexture, waterTexture);
+          out.flush();
+        } else {
+          DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new GZIPOutputStream(fileOut)));
+          OctreeFileFormat.store(out, worldOctree, waterOctree, palette,
+              grassTexture, foliageTexture, waterTexture);
+          out.close();
+        }
         saved = true;
 
         task.update(2);
@@ -2128,13 +2896,15 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   public synchronized void saveDump(RenderContext context, TaskTracker taskTracker) {
-    File dumpFile = context.getSceneFile(name + ".dump");
+    File dumpFile = context.getSceneFile(outputName() + ".dump");
     Log.info("Saving render dump: " + dumpFile);
+    SceneWriteEvent event = Jfr.AVAILABLE ? SceneWriteEvent.start() : null;
     try (FileOutputStream outputStream = new FileOutputStream(dumpFile)) {
       RenderDump.save(outputStream, this, taskTracker);
     } catch (IOException e) {
       Log.warn("Failed to save the render dump", e);
     }
+    commitWrite(event, "dump", dumpFile);
     Log.info("Render dump saved: " + dumpFile);
   }
 
@@ -2165,21 +2935,39 @@ public class Scene implements JsonSerializable, Refreshable {
       try {
         long fileTimestamp = context.fileTimestamp(fileName);
         OctreeFileFormat.OctreeData data;
-        try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
-          task.updateInterval((int) (pos * progressScale), 1);
-        }))))) {
-          data = OctreeFileFormat.load(in, octreeImplementation);
-        } catch (PackedOctree.OctreeTooBigException e) {
-          // Octree too big, reload file and force loading as NodeBasedOctree
-          Log.warn("Octree was too big when loading dump, reloading with old (slower and bigger) implementation.");
-          DataInputStream inRetry = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
+        boolean uncompressed;
+        try (InputStream in = context.getSceneFileInputStream(fileName)) {
+          uncompressed = OctreeFileFormat.isUncompressed(in);
+        }
+        if (uncompressed) {
+          try (InputStream in = context.getSceneFileInputStream(fileName)) {
+            data = OctreeFileFormat.loadUncompressed(in, octreeImplementation);
+          } catch (PackedOctree.OctreeTooBigException e) {
+            Log.warn("Octree was too big when loading dump, reloading with memory mapped (slower) implementation.");
+            try (InputStream in = context.getSceneFileInputStream(fileName)) {
+              data = OctreeFileFormat.loadUncompressed(in, Octree.OVERFLOW_IMPLEMENTATION);
+            }
+          }
+        } else {
+          try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
             task.updateInterval((int) (pos * progressScale), 1);
-          }))));
-          data = OctreeFileFormat.load(inRetry, "NODE");
+          }))))) {
+            data = OctreeFileFormat.load(in, octreeImplementation);
+          } catch (PackedOctree.OctreeTooBigException e) {
+            // Octree too big, reload file and force loading with the fallback implementation
+            Log.warn("Octree was too big when loading dump, reloading with memory mapped (slower) implementation.");
+            DataInputStream inRetry = new DataInputStream(new FastBufferedInputStream(new GZIPInputStream(new PositionalInputStream(context.getSceneFileInputStream(fileName), pos -> {
+              task.updateInterval((int) (pos * progressScale), 1);
+            }))));
+            data = OctreeFileFormat.load(inRetry, Octree.OVERFLOW_IMPLEMENTATION);
+          }
         }
 
+        worldOctree.dispose();
+        waterOctree.dispose();
         worldOctree = data.worldTree;
         worldOctree.setTimestamp(fileTimestamp);
+        chunkTimestamps = new HashMap<>();
         waterOctree = data.waterTree;
         grassTexture = data.grassColors;
         foliageTexture = data.foliageColors;
@@ -2187,6 +2975,7 @@ public class Scene implements JsonSerializable, Refreshable {
         palette = data.palette;
         palette.applyMaterials();
         Log.info("Octree loaded");
+        updateOctreeStatistics();
         calculateOctreeOrigin(chunks, data.version < 6);
         camera.setWorldSize(1 << worldOctree.getDepth());
 
@@ -2206,9 +2995,9 @@ public class Scene implements JsonSerializable, Refreshable {
   }
 
   public synchronized boolean loadDump(RenderContext context, TaskTracker taskTracker) {
-    if (!tryLoadDump(context, name + ".dump", taskTracker)) {
+    if (!tryLoadDump(context, outputName() + ".dump", taskTracker)) {
       // Failed to load the default render dump - try the backup file.
-      if (!tryLoadDump(context, name + ".dump.backup", taskTracker)) {
+      if (!tryLoadDump(context, outputName() + ".dump.backup", taskTracker)) {
         // we don't have the old render state, so reset spp and render time
         spp = 0;
         renderTime = 0;
@@ -2265,9 +3054,10 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public void postProcessPixel(int x, int y, double[] result) {
     int index = (y * width + x) * 3;
-    double r = samples[index];
-    double g = samples[index + 1];
-    double b = samples[index + 2];
+    double[] source = denoised ? denoisedSamples : samples;
+    double r = source[index];
+    double g = source[index + 1];
+    double b = source[index + 2];
 
     r *= exposure;
     g *= exposure;
@@ -2344,13 +3134,15 @@ public class Scene implements JsonSerializable, Refreshable {
    */
   public void computeAlpha(int x, int y, WorkerState state) {
     Ray ray = state.ray;
-    double halfWidth = width / (2.0 * height);
-    double invHeight = 1.0 / height;
+    double halfWidth = fullWidth / (2.0 * fullHeight);
+    double invHeight = 1.0 / fullHeight;
+    int frameX = x + cropX;
+    int frameY = y + cropY;
 
     // Rotated grid supersampling.
 
     camera
-        .calcViewRay(ray, -halfWidth + (x - 3 / 8.0) * invHeight, -.5 + (y + 1 / 8.0) * invHeight);
+        .calcViewRay(ray, -halfWidth + (frameX - 3 / 8.0) * invHeight, -.5 + (frameY + 1 / 8.0) * invHeight);
     ray.o.x -= origin.x;
     ray.o.y -= origin.y;
     ray.o.z -= origin.z;
@@ -2358,7 +3150,7 @@ public class Scene implements JsonSerializable, Refreshable {
     double occlusion = PreviewRayTracer.skyOcclusion(this, state);
 
     camera
-        .calcViewRay(ray, -halfWidth + (x + 1 / 8.0) * invHeight, -.5 + (y + 3 / 8.0) * invHeight);
+        .calcViewRay(ray, -halfWidth + (frameX + 1 / 8.0) * invHeight, -.5 + (frameY + 3 / 8.0) * invHeight);
     ray.o.x -= origin.x;
     ray.o.y -= origin.y;
     ray.o.z -= origin.z;
@@ -2366,7 +3158,7 @@ public class Scene implements JsonSerializable, Refreshable {
     occlusion += PreviewRayTracer.skyOcclusion(this, state);
 
     camera
-        .calcViewRay(ray, -halfWidth + (x - 1 / 8.0) * invHeight, -.5 + (y - 3 / 8.0) * invHeight);
+        .calcViewRay(ray, -halfWidth + (frameX - 1 / 8.0) * invHeight, -.5 + (frameY - 3 / 8.0) * invHeight);
     ray.o.x -= origin.x;
     ray.o.y -= origin.y;
     ray.o.z -= origin.z;
@@ -2374,7 +3166,7 @@ public class Scene implements JsonSerializable, Refreshable {
     occlusion += PreviewRayTracer.skyOcclusion(this, state);
 
     camera
-        .calcViewRay(ray, -halfWidth + (x + 3 / 8.0) * invHeight, -.5 + (y - 1 / 8.0) * invHeight);
+        .calcViewRay(ray, -halfWidth + (frameX + 3 / 8.0) * invHeight, -.5 + (frameY - 1 / 8.0) * invHeight);
     ray.o.x -= origin.x;
     ray.o.y -= origin.y;
     ray.o.z -= origin.z;
@@ -2391,6 +3183,13 @@ public class Scene implements JsonSerializable, Refreshable {
     backBuffer.data[jobId + offset] = backBuffer.data[jobId];
   }
 
+  /**
+   * Sets a pixel in the back buffer without changing the sample buffer.
+   */
+  public void setPixel(int x, int y, int argb) {
+    backBuffer.data[y * width + x] = argb;
+  }
+
   /**
    * @return scene status text.
    */
@@ -2424,6 +3223,10 @@ public class Scene implements JsonSerializable, Refreshable {
         buf.append(new String[]{"negative X", "positive Z", "positive X", "negative Z"}[index]);
         buf.append(")");
 
+        if (worldOctreeStatistics != null) {
+          buf.append("\noctree: ").append(worldOctreeStatistics.summary());
+        }
+
         return buf.toString();
       }
 
@@ -2645,8 +3448,16 @@ public class Scene implements JsonSerializable, Refreshable {
     JsonObject json = new JsonObject();
     json.add("sdfVersion", SDF_VERSION);
     json.add("name", name);
-    json.add("width", width);
-    json.add("height", height);
+    json.add("width", fullWidth);
+    json.add("height", fullHeight);
+    if (isCropped() && maxCropSize == 0 && cropOverride == null) {
+      JsonObject crop = new JsonObject();
+      crop.add("x", cropX);
+      crop.add("y", cropY);
+      crop.add("width", width);
+      crop.add("height", height);
+      json.add("crop", crop);
+    }
     json.add("yClipMin", yClipMin);
     json.add("yClipMax", yClipMax);
     json.add("yMin", yMin);
@@ -2657,7 +3468,10 @@ public class Scene implements JsonSerializable, Refreshable {
     json.add("renderTime", renderTime);
     json.add("spp", spp);
     json.add("sppTarget", sppTarget);
+    json.add("noiseThreshold", noiseThreshold);
+    json.add("denoiserEnabled", denoiserEnabled);
     json.add("rayDepth", rayDepth);
+    json.add("maxRayDepth", maxRayDepth);
     json.add("pathTrace", mode != RenderMode.PREVIEW);
     json.add("dumpFrequency", dumpFrequency);
     json.add("saveSnapshots", saveSnapshots);
@@ -2733,6 +3547,7 @@ public class Scene implements JsonSerializable, Refreshable {
     }
     json.add("octreeImplementation", octreeImplementation);
     json.add("emitterSamplingStrategy", emitterSamplingStrategy.name());
+    json.add("sampler", samplerType.name());
     json.add("preventNormalEmitterWithSampling", preventNormalEmitterWithSampling);
 
     json.add("animationTime", animationTime);
@@ -2906,11 +3721,20 @@ public class Scene implements JsonSerializable, Refreshable {
     // TODO: check if we actually need to reset the scene based on changed settings.
     refresh();
 
-    int newWidth = json.get("width").intValue(width);
-    int newHeight = json.get("height").intValue(height);
-    if (width != newWidth || height != newHeight || samples == null) {
-      width = newWidth;
-      height = newHeight;
+    int oldWidth = width;
+    int oldHeight = height;
+    fullWidth = json.get("width").intValue(fullWidth);
+    fullHeight = json.get("height").intValue(fullHeight);
+    if (cropOverride != null) {
+      clampCrop(cropOverride[0], cropOverride[1], cropOverride[2], cropOverride[3]);
+    } else if (maxCropSize == 0 && json.get("crop").isObject()) {
+      JsonObject crop = json.get("crop").object();
+      clampCrop(crop.get("x").intValue(0), crop.get("y").intValue(0),
+          crop.get("width").intValue(fullWidth), crop.get("height").intValue(fullHeight));
+    } else {
+      resetCrop();
+    }
+    if (width != oldWidth || height != oldHeight || samples == null) {
       initBuffers();
     }
 
@@ -2925,7 +3749,10 @@ public class Scene implements JsonSerializable, Refreshable {
       .getFormat(json.get("outputMode").stringValue(outputMode.getName()))
       .orElse(PictureExportFormats.PNG);
     sppTarget = json.get("sppTarget").intValue(sppTarget);
+    noiseThreshold = json.get("noiseThreshold").doubleValue(noiseThreshold);
+    denoiserEnabled = json.get("denoiserEnabled").boolValue(denoiserEnabled);
     rayDepth = json.get("rayDepth").intValue(rayDepth);
+    maxRayDepth = json.get("maxRayDepth").intValue(maxRayDepth);
     if (!json.get("pathTrace").isUnknown()) {
       boolean pathTrace = json.get("pathTrace").boolValue(false);
       if (pathTrace) {
@@ -3041,6 +3868,7 @@ public class Scene implements JsonSerializable, Refreshable {
     octreeImplementation = json.get("octreeImplementation").asString(PersistentSettings.getOctreeImplementation());
 
     emitterSamplingStrategy = EmitterSamplingStrategy.valueOf(json.get("emitterSamplingStrategy").asString("NONE"));
+    samplerType = SamplerType.valueOf(json.get("sampler").asString(samplerType.name()));
     preventNormalEmitterWithSampling = json.get("preventNormalEmitterWithSampling").asBoolean(PersistentSettings.getPreventNormalEmitterWithSampling());
 
     animationTime = json.get("animationTime").doubleValue(animationTime);
@@ -3322,6 +4150,37 @@ public class Scene implements JsonSerializable, Refreshable {
     return waterOctree;
   }
 
+  /**
+   * Replace the world geometry of this scene with octrees that were not loaded from a
+   * Minecraft world, for example a procedurally generated benchmark scene.
+   * The octree origin is placed at the world origin.
+   */
+  public synchronized void setOctrees(BlockPalette palette, Octree worldOctree, Octree waterOctree) {
+    this.palette = palette;
+    if (this.worldOctree != worldOctree) {
+      this.worldOctree.dispose();
+    }
+    if (this.waterOctree != waterOctree) {
+      this.waterOctree.dispose();
+    }
+    this.worldOctree = worldOctree;
+    this.waterOctree = waterOctree;
+    palette.applyMaterials();
+    updateOctreeStatistics();
+    origin.set(0, 0, 0);
+    chunks = new ArrayList<>();
+    chunkTimestamps = new HashMap<>();
+    grassTexture = new WorldTexture();
+    foliageTexture = new WorldTexture();
+    waterTexture = new WorldTexture();
+    entities = new LinkedList<>();
+    actors = new LinkedList<>();
+    camera.setWorldSize(1 << worldOctree.getDepth());
+    buildBvh(TaskTracker.Task.NONE);
+    buildActorBvh(TaskTracker.Task.NONE);
+    refresh();
+  }
+
   public EmitterSamplingStrategy getEmitterSamplingStrategy() {
     return emitterSamplingStrategy;
   }
@@ -3333,6 +4192,17 @@ public class Scene implements JsonSerializable, Refreshable {
     }
   }
 
+  public SamplerType getSamplerType() {
+    return samplerType;
+  }
+
+  public void setSamplerType(SamplerType samplerType) {
+    if (this.samplerType != samplerType) {
+      this.samplerType = samplerType;
+      refresh();
+    }
+  }
+
   public int getGridSize() {
     return gridSize;
   }
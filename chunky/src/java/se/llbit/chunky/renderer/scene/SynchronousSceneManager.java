@@ -121,7 +121,7 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
 
         // Create backup of scene description and current render dump.
         storedScene.backupFile(context, context.getSceneDescriptionFile(sceneName));
-        storedScene.backupFile(context, new File(sceneDir, sceneName + ".dump"));
+        storedScene.backupFile(context, new File(sceneDir, storedScene.outputName() + ".dump"));
 
         // Copy render status over from the renderer.
         RenderStatus status = renderer.getRenderStatus();
@@ -137,12 +137,20 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
 
   @Override public void loadScene(String sceneName)
       throws IOException, InterruptedException {
+    loadScene(resolveSceneDirectory(sceneName), sceneName);
+  }
+
+  /**
+   * Load a scene from the given scene directory.
+   */
+  public void loadScene(File sceneDirectory, String sceneName)
+      throws IOException, InterruptedException {
 
     // Do not change lock ordering here.
     // Lock order: scene -> storedScene.
     synchronized (scene) {
       try (TaskTracker.Task ignored = taskTracker.task("Loading scene", 1)) {
-        context.setSceneDirectory(resolveSceneDirectory(sceneName));
+        context.setSceneDirectory(sceneDirectory);
         scene.loadScene(context, sceneName, taskTracker);
       }
 
@@ -187,10 +195,10 @@ public class SynchronousSceneManager implements SceneProvider, SceneManager {
 
   @Override public void reloadChunks() {
     synchronized (scene) {
-      scene.reloadChunks(taskTracker);
-      scene.refresh();
-      scene.setResetReason(ResetReason.SCENE_LOADED);
-      scene.setRenderMode(RenderMode.PREVIEW);
+      if (scene.reloadChunks(taskTracker)) {
+        scene.setResetReason(ResetReason.SCENE_LOADED);
+        scene.setRenderMode(RenderMode.PREVIEW);
+      }
     }
     onChunksLoaded.run();
   }
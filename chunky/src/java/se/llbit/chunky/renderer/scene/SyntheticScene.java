@@ -0,0 +1,277 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.block.Water;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.math.Octree;
+import se.llbit.math.QuickMath;
+import se.llbit.math.Vector3;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.StringTag;
+
+/**
+ * Generates a procedural world directly into the octrees of a scene, without loading a
+ * Minecraft world.
+ *
+ * <p>The generated world only depends on the octree depth, so it is identical between runs and
+ * machines. This makes it suitable for benchmarking the renderer and the octree implementations.
+ * The world contains rolling terrain with water, sand beaches, trees, glass and a few
+ * light-emitting blocks, so that all the main code paths of the path tracer are exercised.
+ */
+public class SyntheticScene {
+  /** Default octree depth of the generated world (128 blocks wide). */
+  public static final int DEFAULT_DEPTH = 7;
+
+  /** Minimum supported octree depth. */
+  public static final int MIN_DEPTH = 5;
+
+  private static final long SEED = 0x43484E4B59L;
+
+  private final int size;
+  private final int seaLevel;
+
+  private int air, stone, dirt, grass, sand, log, leaves, glass, glowstone, water, fullWater;
+
+  private SyntheticScene(int depth) {
+    if (depth < MIN_DEPTH) {
+      throw new IllegalArgumentException("Octree depth must be at least " + MIN_DEPTH);
+    }
+    this.size = 1 << depth;
+    this.seaLevel = size / 4;
+  }
+
+  /**
+   * Replace the world in the scene with the procedural world, using the default camera
+   * position for the generated world.
+   *
+   * @param scene the scene to load the world into. The octree implementation of the scene
+   * is used for the generated octrees.
+   * @param depth octree depth of the generated world
+   */
+  public static void load(Scene scene, int depth) {
+    SyntheticScene generator = new SyntheticScene(depth);
+    BlockPalette palette = new BlockPalette();
+    Octree worldTree = new Octree(scene.getOctreeImplementation(), depth);
+    Octree waterTree = new Octree(scene.getOctreeImplementation(), depth);
+    generator.generateWorld(palette, worldTree, waterTree);
+    scene.setOctrees(palette, worldTree, waterTree);
+    generator.setupCamera(scene.camera());
+  }
+
+  /**
+   * Move the camera to the default position for the procedural world of the given depth.
+   */
+  public static void setupCamera(Camera camera, int depth) {
+    new SyntheticScene(depth).setupCamera(camera);
+  }
+
+  /**
+   * Reset the scene settings whose defaults are read from the persistent settings,
+   * so that the scene renders the same regardless of the local Chunky configuration.
+   */
+  public static void resetSettings(Scene scene) {
+    scene.rayDepth = PersistentSettings.DEFAULT_RAY_DEPTH;
+    scene.waterOpacity = PersistentSettings.DEFAULT_WATER_OPACITY;
+    scene.waterVisibility = PersistentSettings.DEFAULT_WATER_VISIBILITY;
+    scene.waterColor.set(PersistentSettings.DEFAULT_WATER_RED,
+        PersistentSettings.DEFAULT_WATER_GREEN, PersistentSettings.DEFAULT_WATER_BLUE);
+    scene.fogColor.set(PersistentSettings.DEFAULT_FOG_RED,
+        PersistentSettings.DEFAULT_FOG_GREEN, PersistentSettings.DEFAULT_FOG_BLUE);
+    scene.stillWater = false;
+    scene.useCustomWaterColor = false;
+    scene.yClipMin = 0;
+    scene.yClipMax = 256;
+    scene.setPreventNormalEmitterWithSampling(false);
+    scene.refresh();
+  }
+
+  /**
+   * Generate the procedural world into the given octrees.
+   * The octrees must have the same depth.
+   */
+  public static void generate(BlockPalette palette, Octree worldTree, Octree waterTree) {
+    new SyntheticScene(worldTree.getDepth()).generateWorld(palette, worldTree, waterTree);
+  }
+
+  private void generateWorld(BlockPalette palette, Octree worldTree, Octree waterTree) {
+    air = palette.airId;
+    stone = palette.stoneId;
+    dirt = palette.put(block("dirt"));
+    grass = palette.put(block("grass_block"));
+    sand = palette.put(block("sand"));
+    log = palette.put(block("oak_log"));
+    leaves = palette.put(block("oak_leaves"));
+    glass = palette.put(block("glass"));
+    glowstone = palette.put(block("glowstone"));
+    water = palette.waterId;
+    fullWater = palette.getWaterId(0, 1 << Water.FULL_BLOCK);
+
+    for (int z = 0; z < size; ++z) {
+      for (int x = 0; x < size; ++x) {
+        int height = height(x, z);
+        boolean beach = height <= seaLevel + 1;
+        for (int y = 0; y <= height; ++y) {
+          int type;
+          if (y == height) {
+            type = beach ? sand : grass;
+          } else if (y >= height - 3) {
+            type = beach ? sand : dirt;
+          } else {
+            type = stone;
+          }
+          worldTree.set(type, x, y, z);
+        }
+        for (int y = height + 1; y <= seaLevel; ++y) {
+          waterTree.set(y == seaLevel ? water : fullWater, x, y, z);
+        }
+      }
+    }
+
+    // Decorations are placed on a coarse grid so that they never overlap.
+    for (int gz = 4; gz < size - 4; gz += 8) {
+      for (int gx = 4; gx < size - 4; gx += 8) {
+        int h = hash(gx, gz, 1);
+        int x = gx + (h & 3) - 2;
+        int z = gz + ((h >>> 2) & 3) - 2;
+        int ground = height(x, z);
+        if (ground <= seaLevel + 1) {
+          continue;
+        }
+        switch ((h >>> 4) % 8) {
+          case 0:
+          case 1:
+          case 2:
+            tree(worldTree, x, ground + 1, z, 4 + ((h >>> 8) & 1));
+            break;
+          case 3:
+            lamp(worldTree, x, ground + 1, z);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+
+    worldTree.startFinalization();
+    waterTree.startFinalization();
+    worldTree.endFinalization();
+    waterTree.endFinalization();
+  }
+
+  private static CompoundTag block(String name) {
+    CompoundTag tag = new CompoundTag();
+    tag.add("Name", new StringTag("minecraft:" + name));
+    return tag;
+  }
+
+  private void tree(Octree tree, int x, int y, int z, int trunk) {
+    if (y + trunk + 2 >= size) {
+      return;
+    }
+    for (int dy = trunk - 2; dy <= trunk + 1; ++dy) {
+      int radius = dy < trunk ? 2 : 1;
+      for (int dz = -radius; dz <= radius; ++dz) {
+        for (int dx = -radius; dx <= radius; ++dx) {
+          boolean corner = Math.abs(dx) == radius && Math.abs(dz) == radius;
+          if (!corner || (hash(x + dx, z + dz, y + dy) & 1) == 0) {
+            setIfAir(tree, leaves, x + dx, y + dy, z + dz);
+          }
+        }
+      }
+    }
+    for (int dy = 0; dy < trunk; ++dy) {
+      tree.set(log, x, y + dy, z);
+    }
+  }
+
+  private void lamp(Octree tree, int x, int y, int z) {
+    if (y + 3 >= size) {
+      return;
+    }
+    tree.set(glass, x, y, z);
+    tree.set(glowstone, x, y + 1, z);
+    tree.set(glass, x, y + 2, z);
+  }
+
+  private void setIfAir(Octree tree, int type, int x, int y, int z) {
+    if (x >= 0 && x < size && z >= 0 && z < size && tree.get(x, y, z).type == air) {
+      tree.set(type, x, y, z);
+    }
+  }
+
+  /**
+   * Place the camera in one corner of the world, looking diagonally across the terrain.
+   */
+  private void setupCamera(Camera camera) {
+    double x = size / 8.0;
+    double z = size / 8.0;
+    double y = Math.max(seaLevel, height((int) x, (int) z)) + size / 6.0;
+    camera.setPosition(new Vector3(x + 0.5, y, z + 0.5));
+    camera.setView(-Math.PI / 4, -QuickMath.HALF_PI + 0.35, 0);
+    camera.setFoV(70);
+  }
+
+  /**
+   * @return terrain height at the given column
+   */
+  private int height(int x, int z) {
+    double n = 0.65 * noise(x, z, size / 4, 0) + 0.35 * noise(x, z, size / 16, 1);
+    int amplitude = size / 5;
+    int height = seaLevel - amplitude / 3 + (int) (n * amplitude);
+    return Math.max(1, Math.min(size / 2, height));
+  }
+
+  /**
+   * Smoothed value noise in the range [0, 1].
+   */
+  private static double noise(int x, int z, int period, int octave) {
+    int x0 = Math.floorDiv(x, period);
+    int z0 = Math.floorDiv(z, period);
+    double fx = smooth((x - x0 * period) / (double) period);
+    double fz = smooth((z - z0 * period) / (double) period);
+    double v00 = value(x0, z0, octave);
+    double v10 = value(x0 + 1, z0, octave);
+    double v01 = value(x0, z0 + 1, octave);
+    double v11 = value(x0 + 1, z0 + 1, octave);
+    double v0 = v00 + (v10 - v00) * fx;
+    double v1 = v01 + (v11 - v01) * fx;
+    return v0 + (v1 - v0) * fz;
+  }
+
+  private static double smooth(double t) {
+    return t * t * (3 - 2 * t);
+  }
+
+  private static double value(int x, int z, int octave) {
+    return (hash(x, z, octave) & 0xFFFF) / (double) 0xFFFF;
+  }
+
+  /**
+   * Integer hash used for all pseudo random decisions, so that the generated
+   * world does not depend on any random number generator implementation.
+   */
+  private static int hash(int x, int z, int salt) {
+    long h = SEED;
+    h = (h ^ x) * 0x9E3779B97F4A7C15L;
+    h = (h ^ z) * 0xC2B2AE3D27D4EB4FL;
+    h = (h ^ salt) * 0x165667B19E3779F9L;
+    h ^= h >>> 29;
+    return (int) (h ^ (h >>> 32)) & 0x7FFFFFFF;
+  }
+}
@@ -0,0 +1,517 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.log.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent cache of decoded resource pack images.
+ *
+ * <p>Most of the time spent loading textures goes into inflating and PNG decoding the images in
+ * the resource packs. This cache stores the decoded ARGB pixels of every image loaded from a
+ * resource pack in a binary file in the cache directory. The next time the same resource pack is
+ * loaded the pixels are read from the cache file instead.
+ *
+ * <p>A cache file is only used if the absolute path, size and modification time of the resource
+ * pack match the values stored in the cache file header. If any of them differ, the cache is
+ * discarded and rebuilt. Cache files are named by the SHA-256 hash of the resource pack path.
+ * Cache files for resource packs that no longer exist, or that have not been used for
+ * {@link #MAX_UNUSED_DAYS} days, are deleted when the first cache is closed.
+ *
+ * <p>Several processes can share a cache directory. Each process writes a new cache file to a
+ * temporary file of its own and then renames it atomically, so other processes see either the
+ * old or the new cache file.
+ *
+ * <p>Cache file layout (big endian):
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   long   offset of the pixel data
+ *   UTF    resource pack path
+ *   long   resource pack size
+ *   long   resource pack modification time
+ *   int    number of images
+ *   for each image:
+ *     UTF  entry name
+ *     int  width
+ *     int  height
+ *     long offset of the pixels, relative to the pixel data
+ *   pixel data: int[width * height] ARGB pixels for each image
+ * </pre>
+ */
+public class DecodedTextureCache implements AutoCloseable {
+  private static final int MAGIC = 0x43544331; // "CTC1"
+  private static final int VERSION = 2;
+
+  /** Cache files that have not been used for this many days are deleted. */
+  private static final int MAX_UNUSED_DAYS = 30;
+
+  private static final String PREFIX = "textures-";
+
+  /** Caches for the resource packs that are currently being loaded, keyed by Zip file name. */
+  private static final Map<String, DecodedTextureCache> openCaches = new HashMap<>();
+
+  /** Set when the cache directory has been pruned, it is only pruned once per run. */
+  private static boolean pruned = false;
+
+  private static boolean enabled = true;
+
+  /** Location of the pixels of an image in the cache file. */
+  private static class Entry {
+    final int width;
+    final int height;
+    final long offset;
+
+    Entry(int width, int height, long offset) {
+      this.width = width;
+      this.height = height;
+      this.offset = offset;
+    }
+  }
+
+  private final File packFile;
+  private final File cacheFile;
+  private final String packPath;
+  private final long packSize;
+  private final long packModified;
+
+  /**
+   * The open cache file, or {@code null} if there was no valid cache file. Images are read with
+   * positional reads rather than through a memory mapping, so that the file can be replaced as
+   * soon as the channel is closed. A mapping stays open until it is garbage collected, and
+   * Windows does not allow replacing a mapped file.
+   */
+  private FileChannel channel;
+
+  /** Location of each cached image, keyed by Zip entry name. */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /** Images that were decoded while this cache was open and are not yet in the cache file. */
+  private final Map<String, BitmapImage> decoded = new LinkedHashMap<>();
+
+  private int hits = 0;
+
+  private DecodedTextureCache(File packFile) {
+    this.packFile = packFile;
+    this.packPath = packFile.getAbsolutePath();
+    this.packSize = packFile.length();
+    this.packModified = packFile.lastModified();
+    this.cacheFile = new File(PersistentSettings.cacheDirectory(), cacheFileName(packPath));
+  }
+
+  /**
+   * @return the name of the cache file for a resource pack path
+   */
+  static String cacheFileName(String packPath) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+    StringBuilder name = new StringBuilder(PREFIX);
+    for (byte b : digest.digest(packPath.getBytes(StandardCharsets.UTF_8))) {
+      name.append(String.format("%02x", b));
+    }
+    return name.append(".bin").toString();
+  }
+
+  /**
+   * Enable or disable the texture cache. When disabled, resource packs are always decoded from
+   * the original Zip files and no cache files are written.
+   */
+  public static void setEnabled(boolean value) {
+    enabled = value;
+  }
+
+  public static boolean isEnabled() {
+    return enabled && PersistentSettings.getUseTextureCache();
+  }
+
+  /**
+   * Open the decoded texture cache for a resource pack. The cache must be closed when the
+   * resource pack has been loaded, this writes any newly decoded images to the cache file.
+   *
+   * @return the cache for the resource pack, or {@code null} if the texture cache is disabled
+   */
+  public static DecodedTextureCache open(File packFile) {
+    if (!isEnabled()) {
+      return null;
+    }
+    DecodedTextureCache cache = new DecodedTextureCache(packFile);
+    cache.readCacheFile();
+    synchronized (openCaches) {
+      openCaches.put(packFile.getPath(), cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Open an image from a resource pack, using the decoded texture cache if one is open for the
+   * resource pack.
+   *
+   * <p>The returned stream should be decoded with {@link se.llbit.resources.ImageLoader#read(InputStream)},
+   * which will take the pixels directly from the cache when possible.
+   *
+   * @return an input stream for the image, or {@code null} if the image is not in the resource pack
+   */
+  public static InputStream getInputStream(ZipFile texturePack, String entryName)
+      throws IOException {
+    DecodedTextureCache cache;
+    synchronized (openCaches) {
+      cache = openCaches.get(texturePack.getName());
+    }
+    if (cache == null) {
+      return texturePack.getInputStream(new ZipEntry(entryName));
+    }
+    return cache.openImage(texturePack, entryName);
+  }
+
+  private synchronized InputStream openImage(ZipFile texturePack, String entryName)
+      throws IOException {
+    BitmapImage image = getCachedImage(entryName);
+    if (image != null) {
+      hits += 1;
+      return new ImageStream(this, entryName, image, new ByteArrayInputStream(new byte[0]));
+    }
+    InputStream in = texturePack.getInputStream(new ZipEntry(entryName));
+    if (in == null) {
+      return null;
+    }
+    return new ImageStream(this, entryName, null, in);
+  }
+
+  private BitmapImage getCachedImage(String entryName) throws IOException {
+    BitmapImage image = decoded.get(entryName);
+    if (image != null) {
+      return new BitmapImage(image);
+    }
+    Entry entry = entries.get(entryName);
+    if (entry == null) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(4 * entry.width * entry.height);
+    readFully(channel, buffer, entry.offset);
+    buffer.flip();
+    image = new BitmapImage(entry.width, entry.height);
+    buffer.asIntBuffer().get(image.data);
+    return image;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      position += n;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private synchronized void store(String entryName, BitmapImage image) {
+    if (!entries.containsKey(entryName)) {
+      decoded.put(entryName, new BitmapImage(image));
+    }
+  }
+
+  /**
+   * Reads the index of the cache file and keeps the file open for reading the images.
+   * Invalid or outdated cache files are ignored.
+   */
+  private void readCacheFile() {
+    if (!cacheFile.isFile()) {
+      return;
+    }
+    FileChannel file = null;
+    try {
+      file = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+      // The stream is not closed, that would close the channel.
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        file.close();
+        return;
+      }
+      long dataOffset = in.readLong();
+      if (!in.readUTF().equals(packPath)
+          || in.readLong() != packSize
+          || in.readLong() != packModified) {
+        Log.infof("Resource pack changed, rebuilding texture cache for %s", packPath);
+        file.close();
+        return;
+      }
+      long size = file.size();
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        String name = in.readUTF();
+        int width = in.readInt();
+        int height = in.readInt();
+        long offset = dataOffset + in.readLong();
+        if (width < 0 || height < 0 || offset + 4L * width * height > size) {
+          throw new IOException("truncated cache file");
+        }
+        entries.put(name, new Entry(width, height, offset));
+      }
+      channel = file;
+    } catch (IOException | RuntimeException e) {
+      Log.warnf("Failed to read texture cache %s: %s", cacheFile.getAbsolutePath(),
+          e.getMessage());
+      entries.clear();
+      closeQuietly(file);
+    }
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      }
+    }
+  }
+
+  /**
+   * @return the number of images that were taken from the cache
+   */
+  public synchronized int getHits() {
+    return hits;
+  }
+
+  /**
+   * Unregisters this cache and writes a new cache file if any images were decoded from the
+   * resource pack. The first time a cache is closed, unused cache files of other resource packs
+   * are then deleted.
+   */
+  @Override public synchronized void close() {
+    boolean prune;
+    synchronized (openCaches) {
+      openCaches.remove(packFile.getPath());
+      prune = !pruned;
+      pruned = true;
+    }
+    if (!decoded.isEmpty()) {
+      writeCacheFile();
+    } else if (channel != null) {
+      closeQuietly(channel);
+      // Mark the cache file as used so that it is not pruned.
+      cacheFile.setLastModified(System.currentTimeMillis());
+    }
+    channel = null;
+    entries.clear();
+    decoded.clear();
+    if (prune) {
+      prune(cacheFile.getParentFile());
+    }
+  }
+
+  /**
+   * Writes the previously cached images together with the newly decoded images to a new cache
+   * file. Previously cached images are copied directly from the old cache file, which is closed
+   * before it is replaced by the new file.
+   */
+  private void writeCacheFile() {
+    File cacheDir = cacheFile.getParentFile();
+    if (!cacheDir.isDirectory()) {
+      cacheDir.mkdirs();
+    }
+    File tempFile = null;
+    try {
+      tempFile = Files.createTempFile(cacheDir.toPath(), cacheFile.getName(), ".tmp").toFile();
+      try (FileOutputStream out = new FileOutputStream(tempFile)) {
+        FileChannel outChannel = out.getChannel();
+        writeFully(outChannel, ByteBuffer.wrap(writeIndex()));
+        for (Entry entry : entries.values()) {
+          long length = 4L * entry.width * entry.height;
+          long copied = 0;
+          while (copied < length) {
+            copied += channel.transferTo(entry.offset + copied, length - copied, outChannel);
+          }
+        }
+        for (BitmapImage image : decoded.values()) {
+          ByteBuffer pixels = ByteBuffer.allocate(4 * image.data.length);
+          pixels.asIntBuffer().put(image.data);
+          writeFully(outChannel, pixels);
+        }
+      } finally {
+        closeQuietly(channel);
+        channel = null;
+      }
+      Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Log.warnf("Failed to write texture cache %s: %s", cacheFile.getAbsolutePath(),
+          e.getMessage());
+      closeQuietly(channel);
+      channel = null;
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /**
+   * @return the header and index of a new cache file with the previously cached images
+   * followed by the newly decoded images
+   */
+  private byte[] writeIndex() throws IOException {
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(index);
+    out.writeUTF(packPath);
+    out.writeLong(packSize);
+    out.writeLong(packModified);
+    out.writeInt(entries.size() + decoded.size());
+    long offset = 0;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Entry image = entry.getValue();
+      out.writeUTF(entry.getKey());
+      out.writeInt(image.width);
+      out.writeInt(image.height);
+      out.writeLong(offset);
+      offset += 4L * image.width * image.height;
+    }
+    for (Map.Entry<String, BitmapImage> entry : decoded.entrySet()) {
+      BitmapImage image = entry.getValue();
+      out.writeUTF(entry.getKey());
+      out.writeInt(image.width);
+      out.writeInt(image.height);
+      out.writeLong(offset);
+      offset += 4L * image.data.length;
+    }
+    ByteBuffer header = ByteBuffer.allocate(16 + index.size());
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putLong(header.capacity());
+    header.put(index.toByteArray());
+    return header.array();
+  }
+
+  /**
+   * Deletes texture cache files in a directory that belong to resource packs that no longer
+   * exist, were written by another version of this cache, or have not been used for
+   * {@link #MAX_UNUSED_DAYS} days. Cache files that are currently open are kept. Temporary files
+   * are deleted when they are as old as an unused cache file, as another process may still be
+   * writing them.
+   */
+  static void prune(File cacheDir) {
+    File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(PREFIX)
+        && (name.endsWith(".bin") || name.endsWith(".tmp")));
+    if (files == null) {
+      return;
+    }
+    long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+    for (File file : files) {
+      synchronized (openCaches) {
+        if (openCaches.values().stream().anyMatch(cache -> cache.cacheFile.equals(file))) {
+          continue;
+        }
+      }
+      if (file.lastModified() < oldest
+          || (file.getName().endsWith(".bin") && !isUsable(file))) {
+        if (file.delete()) {
+          Log.infof("Deleted unused texture cache %s", file.getName());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return {@code true} if the file is a cache file of this version for an existing resource
+   * pack
+   */
+  private static boolean isUsable(File file) {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return false;
+      }
+      in.readLong();
+      return new File(in.readUTF()).isFile();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Input stream for a resource pack image. The image is either already decoded (cache hit), or
+   * the stream wraps the Zip entry and the image is added to the cache once it has been decoded.
+   */
+  public static class ImageStream extends FilterInputStream {
+    private final DecodedTextureCache cache;
+    private final String entryName;
+    private final BitmapImage cached;
+
+    ImageStream(DecodedTextureCache cache, String entryName, BitmapImage cached,
+        InputStream in) {
+      super(in);
+      this.cache = cache;
+      this.entryName = entryName;
+      this.cached = cached;
+    }
+
+    /**
+     * @return the decoded image, or {@code null} if the image was not in the cache
+     */
+    public BitmapImage getCachedImage() {
+      return cached;
+    }
+
+    /**
+     * Add the decoded image to the cache.
+     */
+    public void store(BitmapImage image) {
+      if (cached == null) {
+        cache.store(entryName, image);
+      }
+    }
+  }
+}
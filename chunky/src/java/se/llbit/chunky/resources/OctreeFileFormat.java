@@ -18,11 +18,22 @@ package se.llbit.chunky.resources;
 
 import static se.llbit.math.Octree.DATA_FLAG;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
@@ -33,12 +44,23 @@ import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.world.WorldTexture;
 import se.llbit.log.Log;
 import se.llbit.math.Octree;
+import se.llbit.math.OctreeNodeArray;
 
 public class OctreeFileFormat {
 
   private static final int MIN_OCTREE_VERSION = 3;
   private static final int OCTREE_VERSION = 6;
 
+  /**
+   * The uncompressed format is not gzipped, and starts with these magic bytes instead of the
+   * version number.
+   */
+  private static final byte[] UNCOMPRESSED_MAGIC = { 'C', 'K', 'O', 'T' };
+  private static final int UNCOMPRESSED_OCTREE_VERSION = 7;
+
+  /** Octree flag for node arrays where branch nodes share children. */
+  private static final int FLAG_SHARED_SUBTREES = 1;
+
   /**
    * Load octrees and grass/foliage textures from a file.
    *
@@ -133,6 +155,207 @@ public class OctreeFileFormat {
     waterColors.store(out);
   }
 
+  /**
+   * Check if a stream starts with the header of the uncompressed octree format. This reads
+   * the first bytes of the stream.
+   */
+  public static boolean isUncompressed(InputStream in) throws IOException {
+    byte[] magic = new byte[UNCOMPRESSED_MAGIC.length];
+    try {
+      new DataInputStream(in).readFully(magic);
+    } catch (EOFException e) {
+      return false;
+    }
+    return Arrays.equals(magic, UNCOMPRESSED_MAGIC);
+  }
+
+  /**
+   * Save octrees and grass/foliage/water textures in the uncompressed format.
+   *
+   * <p>The file starts with a 16 byte header: the magic bytes, the format version, and
+   * two reserved ints. It is followed by the palette, the world octree, the water octree and
+   * the grass, foliage and water textures. All numbers are little-endian and every section
+   * starts at a multiple of 8 bytes, so the octree nodes can be memory mapped.
+   *
+   * <p>The palette and the textures are stored in their usual serialized form, preceded by
+   * their length as a long. An octree is stored as its depth (int), flags (int), the number
+   * of nodes (long), and the nodes as written by {@link OctreeNodeArray#write}.
+   */
+  public static void storeUncompressed(OutputStream out, Octree octree,
+      Octree waterTree, BlockPalette palette,
+      WorldTexture grassColors, WorldTexture foliageColors, WorldTexture waterColors)
+      throws IOException {
+    LittleEndianOutput output = new LittleEndianOutput(out);
+    output.write(UNCOMPRESSED_MAGIC);
+    output.writeInt(UNCOMPRESSED_OCTREE_VERSION);
+    output.writeInt(0);
+    output.writeInt(0);
+    output.writeSection(palette::write);
+    output.writeOctree(octree);
+    output.writeOctree(waterTree);
+    output.writeSection(grassColors::store);
+    output.writeSection(foliageColors::store);
+    output.writeSection(waterColors::store);
+    output.flush();
+  }
+
+  /**
+   * Load octrees and grass/foliage/water textures in the uncompressed format. The stream is
+   * read sequentially. If it is a file stream, the nodes of a MAPPED octree are copied from
+   * the file without passing through the Java heap.
+   *
+   * @param in   input stream positioned at the start of the file
+   * @param impl The octree implementation to use
+   */
+  public static OctreeData loadUncompressed(InputStream in, String impl) throws IOException {
+    ReadableByteChannel channel = in instanceof FileInputStream
+        ? ((FileInputStream) in).getChannel()
+        : Channels.newChannel(in);
+    LittleEndianInput input = new LittleEndianInput(channel);
+    ByteBuffer header = input.read(16);
+    byte[] magic = new byte[UNCOMPRESSED_MAGIC.length];
+    header.get(magic);
+    int version = header.getInt();
+    if (!Arrays.equals(magic, UNCOMPRESSED_MAGIC) || version != UNCOMPRESSED_OCTREE_VERSION) {
+      throw new IOException(String.format(
+          "Incompatible octree format: wrong version number (expected %d, was %d).",
+          UNCOMPRESSED_OCTREE_VERSION, version));
+    }
+    OctreeData data = new OctreeData();
+    data.palette = BlockPalette.read(input.readSection());
+    data.worldTree = input.readOctree(impl);
+    data.waterTree = input.readOctree(impl);
+    data.grassColors = WorldTexture.load(input.readSection());
+    data.foliageColors = WorldTexture.load(input.readSection());
+    data.waterColors = WorldTexture.load(input.readSection());
+    data.version = version;
+    return data;
+  }
+
+  private interface SectionWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Writes the little-endian sections of the uncompressed format.
+   */
+  private static class LittleEndianOutput {
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = 0;
+
+    LittleEndianOutput(OutputStream out) {
+      this.out = out;
+    }
+
+    void write(byte[] bytes) throws IOException {
+      out.write(bytes);
+      position += bytes.length;
+    }
+
+    void writeInt(int value) throws IOException {
+      buffer.clear();
+      buffer.putInt(value);
+      write(Arrays.copyOf(buffer.array(), 4));
+    }
+
+    void writeLong(long value) throws IOException {
+      buffer.clear();
+      buffer.putLong(value);
+      write(Arrays.copyOf(buffer.array(), 8));
+    }
+
+    /** Pad to the next multiple of 8 bytes. */
+    void align() throws IOException {
+      int padding = (int) (-position & 7);
+      if (padding > 0) {
+        write(new byte[padding]);
+      }
+    }
+
+    void writeSection(SectionWriter writer) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        writer.write(out);
+      }
+      writeLong(bytes.size());
+      write(bytes.toByteArray());
+      align();
+    }
+
+    void writeOctree(Octree octree) throws IOException {
+      OctreeNodeArray nodes = octree.getNodeArray();
+      try {
+        writeInt(octree.getDepth());
+        writeInt(nodes.hasSharedSubtrees() ? FLAG_SHARED_SUBTREES : 0);
+        writeLong(nodes.size());
+        nodes.write(out);
+        position += 4 * nodes.size();
+      } finally {
+        nodes.dispose();
+      }
+      align();
+    }
+
+    void flush() throws IOException {
+      out.flush();
+    }
+  }
+
+  /**
+   * Reads the little-endian sections of the uncompressed format.
+   */
+  private static class LittleEndianInput {
+    private final ReadableByteChannel channel;
+    private long position = 0;
+
+    LittleEndianInput(ReadableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    ByteBuffer read(int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Unexpected end of octree file");
+        }
+      }
+      position += length;
+      buffer.flip();
+      return buffer;
+    }
+
+    /** Skip to the next multiple of 8 bytes. */
+    void align() throws IOException {
+      int padding = (int) (-position & 7);
+      if (padding > 0) {
+        read(padding);
+      }
+    }
+
+    DataInputStream readSection() throws IOException {
+      long length = read(8).getLong();
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        throw new IOException("Invalid section length in octree file: " + length);
+      }
+      byte[] bytes = read((int) length).array();
+      align();
+      return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    Octree readOctree(String impl) throws IOException {
+      ByteBuffer header = read(16);
+      int depth = header.getInt();
+      int flags = header.getInt();
+      long size = header.getLong();
+      Octree octree = Octree.loadNodeArray(impl, depth, (flags & FLAG_SHARED_SUBTREES) != 0,
+          channel, size);
+      position += 4 * size;
+      align();
+      return octree;
+    }
+  }
+
   public static class OctreeData {
 
     public Octree worldTree, waterTree;
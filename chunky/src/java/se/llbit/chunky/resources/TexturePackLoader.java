@@ -17,6 +17,8 @@
 package se.llbit.chunky.resources;
 
 import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.jfr.Jfr;
+import se.llbit.chunky.jfr.TexturePackLoadEvent;
 import se.llbit.chunky.renderer.scene.Sun;
 import se.llbit.chunky.resources.texturepack.AllTextures;
 import se.llbit.chunky.resources.texturepack.AlternateTextures;
@@ -3648,6 +3650,8 @@ public class TexturePackLoader {
    */
   public static Set<Map.Entry<String, TextureLoader>> loadTextures(File tpFile,
       Collection<Map.Entry<String, TextureLoader>> textures) {
+    TexturePackLoadEvent event = Jfr.AVAILABLE ? TexturePackLoadEvent.start() : null;
+    int cachedImages = 0;
     Set<Map.Entry<String, TextureLoader>> notLoaded = new HashSet<>(textures);
 
     String basename = tpFile.getName().toLowerCase();
@@ -3655,7 +3659,8 @@ public class TexturePackLoader {
       basename = basename.substring(0, basename.length() - 4);
     }
 
-    try (ZipFile texturePack = new ZipFile(tpFile)) {
+    try (ZipFile texturePack = new ZipFile(tpFile);
+        DecodedTextureCache cache = DecodedTextureCache.open(tpFile)) {
       // Seach for the assets directory in the resource pack.
       // The assets directory can be inside a top-level directory with
       // the same name as the resource pack zip file.
@@ -3686,10 +3691,22 @@ public class TexturePackLoader {
 
         // Fall back on the "terrain.png" texture atlas:
         notLoaded = loadTerrainTextures(texturePack, notLoaded);
+
+        if (cache != null && cache.getHits() > 0) {
+          cachedImages = cache.getHits();
+          Log.infof("Used %d cached images from %s", cachedImages, texturePackName(tpFile));
+        }
       }
     } catch (IOException e) {
       Log.warnf("Failed to open %s: %s", texturePackName(tpFile), e.getMessage());
     }
+    if (event != null) {
+      event.path = tpFile.getAbsolutePath();
+      event.requested = textures.size();
+      event.loaded = textures.size() - notLoaded.size();
+      event.cached = cachedImages;
+      event.commit();
+    }
     return notLoaded;
   }
 
@@ -3720,6 +3737,7 @@ public class TexturePackLoader {
    * last used texture pack.
    */
   public static void loadTexturePacks(@NotNull String[] texturePacks, boolean remember) {
+    long startTime = System.currentTimeMillis();
     TextureCache.reset();
     TexturePackLoader.texturePacks = texturePacks;
     Set<Map.Entry<String, TextureLoader>> toLoad = allTextures.entrySet();
@@ -3759,6 +3777,9 @@ public class TexturePackLoader {
       }
       Log.info(message.toString());
     }
+    Log.infof("Loaded textures in %d ms (texture cache %s)",
+        System.currentTimeMillis() - startTime,
+        DecodedTextureCache.isEnabled() ? "enabled" : "disabled");
     if (remember) {
       StringBuilder paths = new StringBuilder();
       for (String path : texturePacks) {
@@ -3775,7 +3796,7 @@ public class TexturePackLoader {
       Set<Map.Entry<String, TextureLoader>> textures) {
     Set<Map.Entry<String, TextureLoader>> notLoaded = new HashSet<>(textures);
 
-    try (InputStream in = texturePack.getInputStream(new ZipEntry("terrain.png"))) {
+    try (InputStream in = DecodedTextureCache.getInputStream(texturePack, "terrain.png")) {
       if (in != null) {
         BitmapImage spriteMap = ImageLoader.read(in);
         BitmapImage[] terrainTextures = getTerrainTextures(spriteMap);
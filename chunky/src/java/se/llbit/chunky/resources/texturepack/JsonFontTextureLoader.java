@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.DecodedTextureCache;
 import se.llbit.chunky.resources.Texture;
 import se.llbit.chunky.resources.texturepack.FontTexture.Glyph;
 import se.llbit.json.JsonArray;
@@ -72,9 +73,8 @@ public class JsonFontTextureLoader extends TextureLoader {
 
       BitmapImage spritemap;
       String texture = fontDefinition.asObject().get("file").stringValue("").split(":")[1];
-      try (InputStream imageStream =
-          texturePack.getInputStream(
-              new ZipEntry(topLevelDir + "assets/minecraft/textures/" + texture))) {
+      try (InputStream imageStream = DecodedTextureCache.getInputStream(texturePack,
+          topLevelDir + "assets/minecraft/textures/" + texture)) {
         if (imageStream == null) {
           Log.error("Could not load font texture " + texture);
           return false;
@@ -17,13 +17,13 @@
 package se.llbit.chunky.resources.texturepack;
 
 import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.DecodedTextureCache;
 import se.llbit.log.Log;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
@@ -79,7 +79,7 @@ public abstract class TextureLoader {
    * @return <code>true</code> if the texture was successfully loaded
    */
   protected boolean load(String file, ZipFile texturePack) {
-    try (InputStream in = texturePack.getInputStream(new ZipEntry(file + ".png"))) {
+    try (InputStream in = DecodedTextureCache.getInputStream(texturePack, file + ".png")) {
       if (in != null) {
         return load(in);
       }
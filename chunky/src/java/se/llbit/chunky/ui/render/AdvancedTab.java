@@ -32,6 +32,7 @@ import se.llbit.chunky.PersistentSettings;
 import se.llbit.chunky.renderer.export.PictureExportFormats;
 import se.llbit.chunky.renderer.RenderController;
 import se.llbit.chunky.renderer.export.PictureExportFormat;
+import se.llbit.chunky.renderer.sampler.SamplerType;
 import se.llbit.chunky.renderer.scene.AsynchronousSceneManager;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.ui.DoubleAdjuster;
@@ -59,6 +60,8 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
   @FXML
   private IntegerAdjuster rayDepth;
   @FXML
+  private IntegerAdjuster maxRayDepth;
+  @FXML
   private Button mergeRenderDump;
   @FXML
   private CheckBox shutdown;
@@ -73,6 +76,10 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
   @FXML
   private ChoiceBox<String> octreeImplementation;
   @FXML
+  private ChoiceBox<SamplerType> sampler;
+  @FXML
+  private DoubleAdjuster noiseThreshold;
+  @FXML
   private IntegerAdjuster gridSize;
   @FXML
   private CheckBox preventNormalEmitterWithSampling;
@@ -96,10 +103,16 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
       controller.getRenderer().setCPULoad(value);
     });
     rayDepth.setName("Ray depth");
-    rayDepth.setTooltip("Sets the minimum recursive ray depth.");
+    rayDepth.setTooltip("Sets the minimum recursive ray depth.\n" +
+        "Deeper rays are terminated randomly, depending on how much they still contribute.");
     rayDepth.setRange(1, 25);
     rayDepth.clampMin();
     rayDepth.onValueChange(value -> scene.setRayDepth(value));
+    maxRayDepth.setName("Max ray depth");
+    maxRayDepth.setTooltip("Sets the maximum recursive ray depth. Set to 0 for no limit.");
+    maxRayDepth.setRange(0, 100);
+    maxRayDepth.clampMin();
+    maxRayDepth.onValueChange(value -> scene.setMaxRayDepth(value));
     mergeRenderDump
             .setTooltip(new Tooltip("Merge an existing render dump with the current render."));
     mergeRenderDump.setOnAction(e -> {
@@ -177,6 +190,21 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
             tooltipTextBuilder.toString()
     ));
 
+    sampler.getItems().addAll(SamplerType.values());
+    sampler.getSelectionModel().selectedItemProperty()
+            .addListener((observable, oldvalue, newvalue) -> scene.setSamplerType(newvalue));
+    sampler.setTooltip(new Tooltip(
+            "Independent: pseudo-random samples.\n" +
+            "Sobol: low-discrepancy samples, less noise at the same sample count.\n" +
+            "Separate Sobol renders of a scene trace the same samples and can not be merged."));
+
+    noiseThreshold.setName("Noise threshold");
+    noiseThreshold.setTooltip("Adaptive sampling: pixels with less noise than this are not sampled further, "
+        + "and rendering stops when all pixels are below it. Zero disables adaptive sampling.");
+    noiseThreshold.setRange(0, 0.1);
+    noiseThreshold.clampMin();
+    noiseThreshold.onValueChange(value -> scene.setNoiseThreshold(value));
+
     gridSize.setRange(4, 64);
     gridSize.setName("Emitter grid size");
     gridSize.setTooltip("Size of the cells of the emitter grid. " +
@@ -205,7 +233,10 @@ public class AdvancedTab extends ScrollPane implements RenderControlsTab, Initia
     renderThreads.set(PersistentSettings.getNumThreads());
     cpuLoad.set(PersistentSettings.getCPULoad());
     rayDepth.set(scene.getRayDepth());
+    maxRayDepth.set(scene.getMaxRayDepth());
     octreeImplementation.getSelectionModel().select(scene.getOctreeImplementation());
+    sampler.getSelectionModel().select(scene.getSamplerType());
+    noiseThreshold.set(scene.getNoiseThreshold());
     gridSize.set(scene.getGridSize());
     preventNormalEmitterWithSampling.setSelected(scene.isPreventNormalEmitterWithSampling());
     animationTime.set(scene.getAnimationTime());
@@ -20,8 +20,10 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tooltip;
 import se.llbit.chunky.renderer.Postprocess;
 import se.llbit.chunky.renderer.RenderMode;
 import se.llbit.chunky.renderer.scene.Scene;
@@ -40,6 +42,7 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
 
   @FXML private DoubleAdjuster exposure;
   @FXML private ChoiceBox<Postprocess> postprocessingMode;
+  @FXML private CheckBox denoiser;
 
   public PostprocessingTab() throws IOException {
     FXMLLoader loader = new FXMLLoader(getClass().getResource("PostprocessingTab.fxml"));
@@ -56,6 +59,7 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
   @Override public void update(Scene scene) {
     postprocessingMode.getSelectionModel().select(scene.getPostprocess());
     exposure.set(scene.getExposure());
+    denoiser.setSelected(scene.isDenoiserEnabled());
   }
 
   @Override public String getTabTitle() {
@@ -84,5 +88,13 @@ public class PostprocessingTab extends ScrollPane implements RenderControlsTab,
       scene.postProcessFrame(new TaskTracker(ProgressListener.NONE));
       controller.getCanvas().forceRepaint();
     });
+    denoiser.setTooltip(new Tooltip(
+        "Smooth out noise using the albedo and normals of the first hit.\n" +
+        "The denoiser buffers start collecting samples when this is enabled."));
+    denoiser.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      scene.setDenoiserEnabled(newValue);
+      scene.postProcessFrame(new TaskTracker(ProgressListener.NONE));
+      controller.getCanvas().forceRepaint();
+    });
   }
 }
@@ -73,7 +73,7 @@ class SettingsExport extends Stage {
     groups.put("Water", set("waterColor", "waterOpacity", "waterVisibility", "useCustomWaterColor", "waterHeight", "stillWater"));
     groups.put("Misc", set("sppTarget", "dumpFrequency", "saveSnapshots", "world", "outputMode",
         "biomeColorsEnabled", "exposure"));
-    groups.put("Advanced", set("postprocess", "rayDepth"));
+    groups.put("Advanced", set("postprocess", "denoiserEnabled", "rayDepth", "maxRayDepth"));
 
     defaultIncluded.add("Fog");
     defaultIncluded.add("Water");
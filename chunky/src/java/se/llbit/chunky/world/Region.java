@@ -26,6 +26,9 @@ import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
+import se.llbit.chunky.jfr.ChunkReadEvent;
+import se.llbit.chunky.jfr.Jfr;
+import se.llbit.chunky.jfr.RegionReadEvent;
 import se.llbit.log.Log;
 
 /**
@@ -123,6 +126,9 @@ public class Region implements Iterable<Chunk> {
       return;
     }
     regionFileTime = modtime;
+    RegionReadEvent event = Jfr.AVAILABLE ? RegionReadEvent.start() : null;
+    int numChunks = 0;
+    long bytesRead = 0;
     try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
       long length = file.length();
       if (length < 2 * SECTOR_SIZE) {
@@ -136,6 +142,7 @@ public class Region implements Iterable<Chunk> {
           Chunk chunk = getChunk(x, z);
           int loc = file.readInt();
           if (loc != 0) {
+            numChunks += 1;
             if (chunk.isEmpty()) {
               chunk = new Chunk(pos, world);
               setChunk(pos, chunk);
@@ -151,11 +158,19 @@ public class Region implements Iterable<Chunk> {
       for (int i = 0; i < NUM_CHUNKS; ++i) {
         chunkTimestamps[i] = file.readInt();
       }
+      bytesRead = 2 * SECTOR_SIZE;
 
       world.regionUpdated(position);
     } catch (IOException e) {
       System.err.println("Failed to read region: " + e.getMessage());
     }
+    if (event != null) {
+      event.regionX = position.x;
+      event.regionZ = position.z;
+      event.bytes = bytesRead;
+      event.chunks = numChunks;
+      event.commit();
+    }
   }
 
   /**
@@ -219,6 +234,7 @@ public class Region implements Iterable<Chunk> {
     int x = chunkPos.x & 31;
     int z = chunkPos.z & 31;
     int index = x + z * 32;
+    ChunkReadEvent event = Jfr.AVAILABLE ? ChunkReadEvent.start() : null;
     try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
       long length = file.length();
       if (length < 2 * SECTOR_SIZE) {
@@ -262,6 +278,12 @@ public class Region implements Iterable<Chunk> {
 
       byte[] buf = new byte[chunkSize - 1];
       file.read(buf);
+      if (event != null) {
+        event.chunkX = chunkPos.x;
+        event.chunkZ = chunkPos.z;
+        event.bytes = chunkSize + 4;
+        event.commit();
+      }
       ByteArrayInputStream in = new ByteArrayInputStream(buf);
       if (type == 1) {
         return new ChunkDataSource(timestamp, new GZIPInputStream(in));
@@ -354,6 +376,13 @@ public class Region implements Iterable<Chunk> {
     return regionFileTime != regionFile.lastModified();
   }
 
+  /**
+   * @return the timestamp of the chunk from the region file header
+   */
+  public int getChunkTimestamp(ChunkPosition chunkPos) {
+    return chunkTimestamps[(chunkPos.x & 31) + (chunkPos.z & 31) * 32];
+  }
+
   /**
    * @return {@code true} if the chunk has changed since the timestamp
    */
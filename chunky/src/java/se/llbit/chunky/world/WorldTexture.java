@@ -16,6 +16,7 @@
  */
 package se.llbit.chunky.world;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 import java.io.DataInputStream;
@@ -73,6 +74,19 @@ public class WorldTexture {
     return ct.get(x & 0xF, z & 0xF);
   }
 
+  /**
+   * @return a copy of this texture that can be modified without changing this texture
+   */
+  public WorldTexture copy() {
+    WorldTexture copy = new WorldTexture();
+    for (Long2ObjectMap.Entry<ChunkTexture> entry : map.long2ObjectEntrySet()) {
+      ChunkTexture tile = new ChunkTexture();
+      System.arraycopy(entry.getValue().data, 0, tile.data, 0, tile.data.length);
+      copy.map.put(entry.getLongKey(), tile);
+    }
+    return copy;
+  }
+
   /**
    * Write the world texture to the output stream
    *
@@ -17,6 +17,7 @@
  */
 package se.llbit.math;
 
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.math.primitive.MutableAABB;
 import se.llbit.math.primitive.Primitive;
 
@@ -70,6 +71,22 @@ public class BVH {
 
     abstract public boolean anyIntersection(Ray ray);
 
+    /**
+     * Same as {@link #closestIntersection(Ray)}, but also counts the visited nodes.
+     */
+    public boolean closestIntersection(Ray ray, RenderStatistics statistics) {
+      statistics.bvhNodeVisits += 1;
+      return closestIntersection(ray);
+    }
+
+    /**
+     * Same as {@link #anyIntersection(Ray)}, but also counts the visited nodes.
+     */
+    public boolean anyIntersection(Ray ray, RenderStatistics statistics) {
+      statistics.bvhNodeVisits += 1;
+      return anyIntersection(ray);
+    }
+
     abstract public int size();
   }
 
@@ -90,6 +107,11 @@ public class BVH {
     }
 
     @Override public boolean closestIntersection(Ray ray) {
+      return closestIntersection(ray, RenderStatistics.current());
+    }
+
+    @Override public boolean closestIntersection(Ray ray, RenderStatistics statistics) {
+      statistics.bvhNodeVisits += 1;
       double t1 = Double.POSITIVE_INFINITY;
       double t2 = Double.POSITIVE_INFINITY;
       if (child1.bb.inside(ray.o)) {
@@ -105,21 +127,26 @@ public class BVH {
 
       boolean hit;
       if (t1 < t2) {
-        hit = child1.closestIntersection(ray);
-        hit = (t2 < ray.t && child2.closestIntersection(ray)) || hit;
+        hit = child1.closestIntersection(ray, statistics);
+        hit = (t2 < ray.t && child2.closestIntersection(ray, statistics)) || hit;
       } else if (t2 < t1) {
-        hit = child2.closestIntersection(ray);
-        hit = (t1 < ray.t && child1.closestIntersection(ray)) || hit;
+        hit = child2.closestIntersection(ray, statistics);
+        hit = (t1 < ray.t && child1.closestIntersection(ray, statistics)) || hit;
       } else {
-        hit = (t1 != Double.POSITIVE_INFINITY) && child1.closestIntersection(ray);
-        hit = ((t2 < ray.t) && child2.closestIntersection(ray)) || hit;
+        hit = (t1 != Double.POSITIVE_INFINITY) && child1.closestIntersection(ray, statistics);
+        hit = ((t2 < ray.t) && child2.closestIntersection(ray, statistics)) || hit;
       }
       return hit;
     }
 
     @Override public boolean anyIntersection(Ray ray) {
-      return (child1.bb.hitTest(ray) && child1.anyIntersection(ray)) || (child2.bb.hitTest(ray)
-          && child2.anyIntersection(ray));
+      return anyIntersection(ray, RenderStatistics.current());
+    }
+
+    @Override public boolean anyIntersection(Ray ray, RenderStatistics statistics) {
+      statistics.bvhNodeVisits += 1;
+      return (child1.bb.hitTest(ray) && child1.anyIntersection(ray, statistics))
+          || (child2.bb.hitTest(ray) && child2.anyIntersection(ray, statistics));
     }
 
     @Override public int size() {
@@ -545,7 +572,7 @@ public class BVH {
    * @return {@code true} if there exists any intersection
    */
   public boolean closestIntersection(Ray ray) {
-    return root.bb.hitTest(ray) && root.closestIntersection(ray);
+    return root.bb.hitTest(ray) && root.closestIntersection(ray, RenderStatistics.current());
   }
 
   /**
@@ -556,7 +583,7 @@ public class BVH {
    * @return {@code true} if there exists any intersection
    */
   public boolean anyIntersection(Ray ray) {
-    return root.bb.hitTest(ray) && root.anyIntersection(ray);
+    return root.bb.hitTest(ray) && root.anyIntersection(ray, RenderStatistics.current());
   }
 
   public Node getRoot() {
@@ -150,7 +150,14 @@ public class BigPackedOctree implements Octree.OctreeImplementation {
       treeData.add(new long[remainingSize]);
   }
 
-  private long getAt(long index) {
+  /**
+   * @return the number of used nodes, including free space
+   */
+  long getNodeArraySize() {
+    return size;
+  }
+
+  long getAt(long index) {
     return treeData.get((int) ((index & FULL_ARRAY_MASK) >> FULL_ARRAY_SHIFT))[(int) (index & SUB_ARRAY_MASK)];
   }
 
@@ -452,6 +459,16 @@ public class BigPackedOctree implements Octree.OctreeImplementation {
     }
   }
 
+  @Override
+  public OctreeStatistics getStatistics() {
+    OctreeStatistics stats = OctreeStatistics.compute(this);
+    long freeNodes = 0;
+    for(long index = freeHead; index != -1; index = getAt(index))
+      freeNodes += 8;
+    stats.setStorage((size - freeNodes) * Long.BYTES, capacity * Long.BYTES, freeNodes);
+    return stats;
+  }
+
   @Override
   public void endFinalization() {
     // There is a bunch of ANY_TYPE nodes we should try to merge
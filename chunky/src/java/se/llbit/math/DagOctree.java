@@ -0,0 +1,678 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import se.llbit.chunky.block.UnknownBlock;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.world.Material;
+import se.llbit.log.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static se.llbit.math.Octree.ANY_TYPE;
+import static se.llbit.math.Octree.BRANCH_NODE;
+import static se.llbit.math.Octree.DATA_FLAG;
+
+/**
+ * A sparse voxel DAG: an octree where identical subtrees are stored only once.
+ *
+ * <p>The nodes are stored in a single int array with the same node encoding as
+ * {@link PackedOctree}, so traversal is the same loop as for the packed octree. Each distinct
+ * group of eight sibling nodes is stored once, and branch nodes with identical subtrees point
+ * to the same group. Groups are looked up in a hash table when they are created, so the tree
+ * is shared while chunks are loaded and never has to be stored without sharing.
+ *
+ * <p>Stored groups are never modified. Setting a block creates new groups for the nodes on the
+ * path from the block to the root, and the groups that are no longer used are removed when the
+ * tree is compacted. The number of unused groups is not tracked, so while building the tree
+ * is compacted each time the array has doubled in size since the previous compaction, and
+ * again in {@link #endFinalization()}.
+ */
+public class DagOctree implements Octree.OctreeImplementation {
+  /**
+   * The nodes of the octree.
+   *
+   * <p>The root node is at index 0 and each group of eight siblings is stored contiguously.
+   * Positive values are branch nodes holding the index of the first child, other values are
+   * leaf nodes holding the negation of the block palette ID.
+   */
+  private int[] treeData;
+
+  /** Number of used elements in {@link #treeData}. */
+  private int size;
+
+  /** Number of used elements in {@link #treeData} after the last compaction. */
+  private int liveSize;
+
+  private final int depth;
+
+  /**
+   * Open addressing hash table of the groups in {@link #treeData}. Each slot holds the index
+   * of the first node of a group, or 0 if the slot is empty. The table is dropped after
+   * finalization and rebuilt when the octree is modified again.
+   */
+  private int[] table;
+  private int tableSize;
+
+  /**
+   * Child values for each level of the tree, used while creating groups. The children of a
+   * node at level {@code n} are at offset {@code 8 * n}.
+   */
+  private final int[] groupScratch;
+
+  /** The tree is not compacted while building until it uses this many elements. */
+  private static final int MIN_COMPACT_SIZE = 1 << 20;
+
+  /** Marks a group of a source array that has already been copied, see {@link #copyNodes}. */
+  private static final int COPIED = Integer.MIN_VALUE;
+
+  /**
+   * NodeId implementation for the DAG octree.
+   */
+  private static final class NodeId implements Octree.NodeId {
+    final int nodeIndex;
+
+    NodeId(int nodeIndex) {
+      this.nodeIndex = nodeIndex;
+    }
+  }
+
+  public DagOctree(int depth) {
+    this.depth = depth;
+    treeData = new int[64];
+    size = 1;
+    liveSize = 1;
+    groupScratch = new int[8 * (depth + 1)];
+  }
+
+  /**
+   * @return the number of nodes that are actually stored, including groups that are no longer
+   * used until the tree is compacted
+   */
+  public long storedNodeCount() {
+    return size;
+  }
+
+  /**
+   * @return the nodes, in the node layout of {@link PackedOctree}
+   */
+  int[] getNodeArray() {
+    return treeData;
+  }
+
+  int getNodeArraySize() {
+    return size;
+  }
+
+  /**
+   * Create a DagOctree from nodes in the node layout of {@link PackedOctree}, where branch
+   * nodes may share children. Identical subtrees are shared in the new octree.
+   *
+   * <p>The node array is overwritten while it is copied.
+   */
+  static DagOctree fromNodeArray(int depth, int[] nodes, int size) {
+    DagOctree tree = new DagOctree(depth);
+    tree.treeData = new int[Math.max(64, size)];
+    tree.table = new int[64];
+    int root = tree.copyNodes(nodes, nodes[0], depth, false);
+    tree.treeData[0] = root;
+    tree.liveSize = tree.size;
+    tree.table = null;
+    return tree;
+  }
+
+  /**
+   * Create a DagOctree with the same nodes as another octree implementation.
+   */
+  static DagOctree copyOf(Octree.OctreeImplementation implementation) {
+    DagOctree tree = new DagOctree(implementation.getDepth());
+    int root = tree.copyNode(implementation, implementation.getRoot(), tree.depth);
+    tree.treeData[0] = root;
+    tree.liveSize = tree.size;
+    tree.table = null;
+    return tree;
+  }
+
+  /**
+   * Create a copy of this octree that can be modified without changing this octree.
+   */
+  DagOctree copy() {
+    DagOctree copy = new DagOctree(depth);
+    copy.treeData = Arrays.copyOf(treeData, size);
+    copy.size = size;
+    copy.liveSize = liveSize;
+    return copy;
+  }
+
+  /**
+   * Find the group with the given children, or add it if it is not yet stored. Groups where
+   * all children are the same leaf are merged into that leaf.
+   *
+   * @return the value of the node with the given children
+   */
+  private int intern(int[] children, int offset) {
+    int first = children[offset];
+    if (first <= 0) {
+      int i = 1;
+      while (i < 8 && children[offset + i] == first) {
+        i += 1;
+      }
+      if (i == 8) {
+        return first;
+      }
+    }
+    if (table == null) {
+      buildTable();
+    }
+    int mask = table.length - 1;
+    int slot = hashGroup(children, offset) & mask;
+    while (table[slot] != 0) {
+      if (groupEquals(table[slot], children, offset)) {
+        return table[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size + 8 > treeData.length) {
+      long newSize = Math.max(size + 8L, (long) Math.ceil(treeData.length * 1.5));
+      if (newSize > PackedOctree.MAX_ARRAY_SIZE) {
+        throw new PackedOctree.OctreeTooBigException();
+      }
+      treeData = Arrays.copyOf(treeData, (int) newSize);
+    }
+    int index = size;
+    System.arraycopy(children, offset, treeData, index, 8);
+    size += 8;
+    table[slot] = index;
+    tableSize += 1;
+    if (2 * tableSize > table.length) {
+      growTable(table.length * 2);
+    }
+    return index;
+  }
+
+  /**
+   * @return the leaf that a group of leaves is merged into during finalization, where
+   * {@link Octree#ANY_TYPE} leaves can be merged with any other leaf, or 1 if the group
+   * can not be merged
+   */
+  private static int mergedType(int[] children, int offset) {
+    int mergedType = -ANY_TYPE;
+    for (int i = 0; i < 8; ++i) {
+      int child = children[offset + i];
+      if (child > 0) {
+        return 1;
+      }
+      if (mergedType == -ANY_TYPE) {
+        mergedType = child;
+      } else if (child != -ANY_TYPE && child != mergedType) {
+        return 1;
+      }
+    }
+    return mergedType;
+  }
+
+  private static int hashGroup(int[] data, int offset) {
+    int hash = 0;
+    for (int i = 0; i < 8; ++i) {
+      hash = 31 * hash + data[offset + i];
+    }
+    // Mix the bits as the palette IDs and child indices are small numbers.
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  private boolean groupEquals(int index, int[] children, int offset) {
+    for (int i = 0; i < 8; ++i) {
+      if (treeData[index + i] != children[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Add all stored groups to a new hash table. The stored groups are all different, as each
+   * group is only added after looking it up.
+   */
+  private void buildTable() {
+    int groups = size / 8;
+    int tableLength = 64;
+    while (tableLength < 4L * groups) {
+      tableLength *= 2;
+    }
+    table = new int[tableLength];
+    tableSize = 0;
+    for (int index = 1; index < size; index += 8) {
+      insert(table, index);
+      tableSize += 1;
+    }
+  }
+
+  private void growTable(int length) {
+    int[] newTable = new int[length];
+    for (int index : table) {
+      if (index != 0) {
+        insert(newTable, index);
+      }
+    }
+    table = newTable;
+  }
+
+  private void insert(int[] table, int index) {
+    int mask = table.length - 1;
+    int slot = hashGroup(treeData, index) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = index;
+  }
+
+  /**
+   * Copy the reachable groups of a node array into this tree.
+   *
+   * <p>The first two elements of each copied group in the source array are overwritten with
+   * the new value of the node and {@link #COPIED}, so shared groups are only copied once.
+   *
+   * @param level the level of the node, the children are at level {@code level - 1}
+   * @param merge merge groups of leaves that only differ in {@link Octree#ANY_TYPE} leaves
+   * @return the value of the node in this tree
+   */
+  private int copyNodes(int[] nodes, int value, int level, boolean merge) {
+    if (value <= 0) {
+      return value;
+    }
+    if (nodes[value + 1] == COPIED) {
+      return nodes[value];
+    }
+    // The children are written to the scratch array before looking up the group, as the
+    // recursive calls use the scratch space for the lower levels.
+    int offset = 8 * level;
+    for (int i = 0; i < 8; ++i) {
+      groupScratch[offset + i] = copyNodes(nodes, nodes[value + i], level - 1, merge);
+    }
+    int result = merge ? mergedType(groupScratch, offset) : 1;
+    if (result > 0) {
+      result = intern(groupScratch, offset);
+    }
+    nodes[value] = result;
+    nodes[value + 1] = COPIED;
+    return result;
+  }
+
+  /**
+   * Copy a node of another octree implementation into this tree.
+   *
+   * @return the value of the node in this tree
+   */
+  private int copyNode(Octree.OctreeImplementation source, Octree.NodeId node, int level) {
+    if (!source.isBranch(node)) {
+      return -source.getType(node);
+    }
+    int offset = 8 * level;
+    for (int i = 0; i < 8; ++i) {
+      groupScratch[offset + i] = copyNode(source, source.getChild(node, i), level - 1);
+    }
+    return intern(groupScratch, offset);
+  }
+
+  /**
+   * Remove the groups that are no longer used by copying the used groups to a new array.
+   *
+   * @param merge merge groups of leaves that only differ in {@link Octree#ANY_TYPE} leaves
+   */
+  private void compact(boolean merge) {
+    int[] nodes = treeData;
+    treeData = new int[Math.max(64, merge ? liveSize : size)];
+    size = 1;
+    table = new int[64];
+    tableSize = 0;
+    // The array may be reallocated while copying, so the root is stored afterwards.
+    int root = copyNodes(nodes, nodes[0], depth, merge);
+    treeData[0] = root;
+    liveSize = size;
+  }
+
+  /**
+   * Compact the tree if the array has more than doubled in size since the last compaction.
+   * The groups added since then may still be used, so this does not mean that half of the
+   * array is unused, but it bounds the work of compacting to the growth of the array.
+   */
+  private void compactIfNeeded() {
+    if (size >= MIN_COMPACT_SIZE && size > 2L * liveSize) {
+      compact(false);
+      Log.infof("Compacted DAG octree to %d nodes", size);
+    }
+  }
+
+  private static int childIndex(int level, int x, int y, int z) {
+    int lx = 1 & (x >>> level);
+    int ly = 1 & (y >>> level);
+    int lz = 1 & (z >>> level);
+    return (lx << 2) | (ly << 1) | lz;
+  }
+
+  /**
+   * Replace the node at the given level that contains the given position. New groups are
+   * created for the nodes above it, and parents with eight identical leaves are merged.
+   *
+   * @param value the new value of the node, from {@link #intern}
+   */
+  private void replace(int level, int value, int x, int y, int z) {
+    // The values of the nodes on the path from the root, by level.
+    int[] path = new int[depth + 1];
+    int node = treeData[0];
+    for (int i = depth; i > level; --i) {
+      path[i] = node;
+      if (node <= 0) {
+        if (node == value) {
+          // Everything in this region is already of this type.
+          return;
+        }
+      } else {
+        node = treeData[node + childIndex(i - 1, x, y, z)];
+      }
+    }
+    if (node == value) {
+      return;
+    }
+    for (int i = level + 1; i <= depth; ++i) {
+      int parent = path[i];
+      if (parent > 0) {
+        System.arraycopy(treeData, parent, groupScratch, 0, 8);
+      } else {
+        Arrays.fill(groupScratch, 0, 8, parent);
+      }
+      groupScratch[childIndex(i - 1, x, y, z)] = value;
+      value = intern(groupScratch, 0);
+    }
+    treeData[0] = value;
+  }
+
+  @Override
+  public void set(int type, int x, int y, int z) {
+    compactIfNeeded();
+    replace(0, -type, x, y, z);
+  }
+
+  @Override
+  @Deprecated
+  public void set(Octree.Node data, int x, int y, int z) {
+    set(data.type, x, y, z);
+  }
+
+  @Override
+  public void setCube(int cubeDepth, int[] types, int x, int y, int z) {
+    compactIfNeeded();
+    int value = cubeNode(cubeDepth, types, cubeDepth, 0, 0, 0);
+    replace(cubeDepth, value, x, y, z);
+  }
+
+  /**
+   * Create the node of a part of a cube of blocks. As in {@link PackedOctree#setCube},
+   * {@link Octree#ANY_TYPE} blocks are merged with the other blocks of their parent.
+   *
+   * @param level the level of the node, the cube is at level {@code cubeDepth}
+   * @param x x coordinate of the node in the cube
+   */
+  private int cubeNode(int cubeDepth, int[] types, int level, int x, int y, int z) {
+    if (level == 0) {
+      return -types[(z << (2 * cubeDepth)) + (y << cubeDepth) + x];
+    }
+    int half = 1 << (level - 1);
+    int offset = 8 * level;
+    for (int i = 0; i < 8; ++i) {
+      groupScratch[offset + i] = cubeNode(cubeDepth, types, level - 1,
+          x + ((i >> 2) & 1) * half, y + ((i >> 1) & 1) * half, z + (i & 1) * half);
+    }
+    int mergedType = mergedType(groupScratch, offset);
+    return mergedType <= 0 ? mergedType : intern(groupScratch, offset);
+  }
+
+  /**
+   * Replace a node with a copy of another octree. Subtrees that are already stored in this
+   * octree are shared.
+   */
+  void setSubtree(Octree.OctreeImplementation subtree, int x, int y, int z) {
+    compactIfNeeded();
+    int value;
+    if (subtree instanceof DagOctree) {
+      DagOctree dag = (DagOctree) subtree;
+      int[] nodes = Arrays.copyOf(dag.treeData, dag.size);
+      value = copyNodes(nodes, nodes[0], dag.depth, false);
+    } else {
+      value = copyNode(subtree, subtree.getRoot(), subtree.getDepth());
+    }
+    replace(subtree.getDepth(), value, x, y, z);
+  }
+
+  private int getNodeIndex(int x, int y, int z) {
+    int nodeIndex = 0;
+    int level = depth;
+    while (treeData[nodeIndex] > 0) {
+      level -= 1;
+      nodeIndex = treeData[nodeIndex] + childIndex(level, x, y, z);
+    }
+    return nodeIndex;
+  }
+
+  @Override
+  public Octree.Node get(int x, int y, int z) {
+    return new Octree.Node(-treeData[getNodeIndex(x, y, z)]);
+  }
+
+  @Override
+  public Material getMaterial(int x, int y, int z, BlockPalette palette) {
+    int nodeIndex = getNodeIndex(x, y, z);
+    if (treeData[nodeIndex] > 0) {
+      return UnknownBlock.UNKNOWN;
+    }
+    return palette.get(-treeData[nodeIndex]);
+  }
+
+  @Override
+  public void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z) {
+    int[] treeData = this.treeData;
+    int nodeIndex = 0;
+    int level = depth;
+    while (treeData[nodeIndex] > 0) {
+      level -= 1;
+      int lx = x >>> level;
+      int ly = y >>> level;
+      int lz = z >>> level;
+      nodeIndex = treeData[nodeIndex] + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+    }
+    outTypeAndLevel.left(-treeData[nodeIndex]).right(level);
+  }
+
+  /**
+   * Stores the octree in the same format as the other implementations. Shared subtrees
+   * are written once for each place they occur in the octree.
+   */
+  @Override
+  public void store(DataOutputStream output) throws IOException {
+    output.writeInt(depth);
+    storeNode(output, 0);
+  }
+
+  private void storeNode(DataOutputStream out, int nodeIndex) throws IOException {
+    int type = treeData[nodeIndex] > 0 ? BRANCH_NODE : -treeData[nodeIndex];
+    out.writeInt(type);
+    if (type == BRANCH_NODE) {
+      for (int i = 0; i < 8; ++i) {
+        storeNode(out, treeData[nodeIndex] + i);
+      }
+    }
+  }
+
+  @Override
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return the number of nodes in the octree, counting shared subtrees once for each
+   * place they occur in the octree
+   */
+  @Override
+  public long nodeCount() {
+    return countNodes(new long[size], 0);
+  }
+
+  /**
+   * Count the nodes of a subtree. Counts of groups are cached in {@code groupCounts} at the
+   * index of the first node of the group, so each shared group is only counted once.
+   */
+  private long countNodes(long[] groupCounts, int nodeIndex) {
+    int children = treeData[nodeIndex];
+    if (children <= 0) {
+      return 1;
+    }
+    if (groupCounts[children] == 0) {
+      long total = 0;
+      for (int i = 0; i < 8; ++i) {
+        total += countNodes(groupCounts, children + i);
+      }
+      groupCounts[children] = total;
+    }
+    return 1 + groupCounts[children];
+  }
+
+  /**
+   * The node counts include shared subtrees once for each place they occur, while the storage
+   * figures count each stored node once.
+   */
+  @Override
+  public OctreeStatistics getStatistics() {
+    OctreeStatistics stats = OctreeStatistics.compute(this);
+    stats.setStorage((long) size * Integer.BYTES, (long) treeData.length * Integer.BYTES, 0);
+    return stats;
+  }
+
+  @Override
+  public Octree.NodeId getRoot() {
+    return new NodeId(0);
+  }
+
+  @Override
+  public boolean isBranch(Octree.NodeId node) {
+    return treeData[((NodeId) node).nodeIndex] > 0;
+  }
+
+  @Override
+  public Octree.NodeId getChild(Octree.NodeId parent, int childNo) {
+    return new NodeId(treeData[((NodeId) parent).nodeIndex] + childNo);
+  }
+
+  @Override
+  public int getType(Octree.NodeId node) {
+    return -treeData[((NodeId) node).nodeIndex];
+  }
+
+  @Override
+  @Deprecated
+  public int getData(Octree.NodeId node) {
+    return 0;
+  }
+
+  /**
+   * Merge the nodes that can be merged and remove the groups that are no longer used.
+   */
+  @Override
+  public void endFinalization() {
+    compact(true);
+    treeData = Arrays.copyOf(treeData, size);
+    table = null;
+    long nodeCount = nodeCount();
+    Log.infof("Octree deduplicated: %d nodes stored for %d octree nodes (%.1f%%)",
+        size, nodeCount, 100.0 * size / nodeCount);
+  }
+
+  public static DagOctree load(DataInputStream in) throws IOException {
+    int depth = in.readInt();
+    DagOctree tree = new DagOctree(depth);
+    int root = tree.loadNode(in, depth);
+    tree.treeData[0] = root;
+    tree.liveSize = tree.size;
+    tree.table = null;
+    return tree;
+  }
+
+  public static DagOctree loadWithNodeCount(long nodeCount, DataInputStream in)
+      throws IOException {
+    return load(in);
+  }
+
+  /**
+   * Read a node and its children, sharing the groups that are already stored.
+   *
+   * @return the value of the node
+   */
+  private int loadNode(DataInputStream in, int level) throws IOException {
+    int type = in.readInt();
+    if (type != BRANCH_NODE) {
+      if ((type & DATA_FLAG) == 0) {
+        return -type;
+      }
+      in.readInt(); // Skip the data value.
+      return -(type ^ DATA_FLAG);
+    }
+    int offset = 8 * level;
+    for (int i = 0; i < 8; ++i) {
+      groupScratch[offset + i] = loadNode(in, level - 1);
+    }
+    return intern(groupScratch, offset);
+  }
+
+  /**
+   * Add DagOctree to OctreeImplementationFactory so it can be created and loaded by name.
+   */
+  static public void initImplementation() {
+    Octree.addImplementationFactory("DAG", new Octree.ImplementationFactory() {
+      @Override
+      public Octree.OctreeImplementation create(int depth) {
+        return new DagOctree(depth);
+      }
+
+      @Override
+      public Octree.OctreeImplementation load(DataInputStream in) throws IOException {
+        return DagOctree.load(in);
+      }
+
+      @Override
+      public Octree.OctreeImplementation loadWithNodeCount(long nodeCount, DataInputStream in)
+          throws IOException {
+        return DagOctree.loadWithNodeCount(nodeCount, in);
+      }
+
+      @Override
+      public boolean isOfType(Octree.OctreeImplementation implementation) {
+        return implementation instanceof DagOctree;
+      }
+
+      @Override
+      public String getDescription() {
+        return "Packed octree where identical subtrees are stored only once. Uses less memory than PACKED for large scenes, but loading chunks and finalizing the octree take longer.";
+      }
+    });
+  }
+}
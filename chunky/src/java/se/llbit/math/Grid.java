@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Predicate;
 
 public class Grid {
   private static final int GRID_FORMAT_VERSION = 2;
@@ -80,6 +81,20 @@ public class Grid {
       maxZ = (int) pos.z;
   }
 
+  /**
+   * Create a new grid with the emitters of this grid that match the filter.
+   * The new grid must be prepared before it is used.
+   */
+  public Grid filterEmitters(Predicate<EmitterPosition> filter) {
+    Grid grid = new Grid(cellSize);
+    for (EmitterPosition pos : emitterPositions) {
+      if (filter.test(pos)) {
+        grid.addEmitter(pos);
+      }
+    }
+    return grid;
+  }
+
   private int cellIndex(int x, int y, int z) {
     return (((y - offsetY) * sizeX) + (x - offsetX)) * sizeZ + (z - offsetZ);
   }
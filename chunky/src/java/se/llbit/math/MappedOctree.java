@@ -0,0 +1,619 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.block.UnknownBlock;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.world.Material;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static se.llbit.math.Octree.*;
+
+/**
+ * A packed octree stored outside of the Java heap, in memory mapped segments of a temporary
+ * file.
+ *
+ * <p>The operating system pages the octree in and out of memory as needed, so the size of
+ * the octree is neither limited by the maximum heap size nor by the amount of physical memory.
+ * This is used as the fallback when a {@link PackedOctree} becomes too big.
+ *
+ * <p>The temporary files are stored in {@link PersistentSettings#getOctreeStorageDirectory()},
+ * which is on disk rather than in a memory backed temporary directory. A file is deleted when
+ * its octree is {@linkplain #dispose() disposed} and the mapping is released, which happens
+ * when the octree is garbage collected.
+ *
+ * <p>The layout is the same as for {@link PackedOctree}: one int per node, with the eight
+ * children of a branch node stored contiguously. To address more than 2^31 nodes the value of
+ * a branch node is the number of its child group instead of the index of the first child.
+ * The root node is stored at index 0 and group {@code g} (starting at 1) occupies indices
+ * {@code 8*g-7} to {@code 8*g}.
+ */
+public class MappedOctree implements Octree.OctreeImplementation {
+  /** Each mapped segment holds at most 2^28 ints (1 GiB). */
+  private static final int SEGMENT_SHIFT = 28;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+
+  private static final int DEFAULT_INITIAL_SIZE = 1 << 16;
+
+  private static final double ARRAY_RESIZE_MULTIPLIER = 1.5;
+
+  /** Views of the mapped segments of the file. */
+  private IntBuffer[] segments = new IntBuffer[0];
+
+  /** The number of nodes that fit in the mapped segments. */
+  private long capacity;
+
+  /** Number of used nodes. */
+  private long size;
+
+  /** Group number of the first free group, 0 if there are no free groups. */
+  private int freeHead;
+
+  private final int depth;
+
+  /** The storage file, or {@code null} when the octree has been disposed. */
+  private FileChannel channel;
+
+  /** Set when leftover storage files have been removed from the storage directory. */
+  private static boolean storageDirectoryCleaned = false;
+
+  private static final class NodeId implements Octree.NodeId {
+    final long nodeIndex;
+
+    NodeId(long nodeIndex) {
+      this.nodeIndex = nodeIndex;
+    }
+  }
+
+  /**
+   * Constructs an empty octree
+   * @param depth The depth of the tree
+   */
+  public MappedOctree(int depth) {
+    this(depth, DEFAULT_INITIAL_SIZE);
+  }
+
+  /**
+   * Constructor building a tree with capacity for some nodes
+   * @param depth The depth of the tree
+   * @param nodeCount The number of nodes this tree will contain
+   */
+  public MappedOctree(int depth, long nodeCount) {
+    this.depth = depth;
+    try {
+      File file = File.createTempFile("octree", ".bin", storageDirectory());
+      // DELETE_ON_CLOSE only promises to delete the file when the channel is closed by
+      // dispose(), and on Windows that fails while the file is still mapped. Files left behind
+      // are removed by storageDirectory() the next time Chunky starts.
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create octree storage file", e);
+    }
+    ensureCapacity(Math.max(nodeCount, DEFAULT_INITIAL_SIZE));
+    setAt(0, 0);
+    size = 1;
+    freeHead = 0;
+  }
+
+  /**
+   * @return the directory for storage files, after removing files left behind by Chunky
+   * instances that did not exit normally
+   */
+  private static synchronized File storageDirectory() throws IOException {
+    File directory = PersistentSettings.getOctreeStorageDirectory();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    if (!storageDirectoryCleaned) {
+      storageDirectoryCleaned = true;
+      File[] files = directory.listFiles((dir, name) -> name.startsWith("octree")
+          && name.endsWith(".bin"));
+      if (files != null) {
+        for (File file : files) {
+          // Fails for files that are in use by another Chunky instance on Windows. On other
+          // systems the storage of a running instance stays valid until it closes the file.
+          //noinspection ResultOfMethodCallIgnored
+          file.delete();
+        }
+      }
+    }
+    return directory;
+  }
+
+  /**
+   * Closes the storage file. The octree can still be read, since the mapped segments stay
+   * valid until they are garbage collected, but it can no longer grow.
+   */
+  @Override
+  public void dispose() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * Map more of the storage file so that at least the given number of nodes fit.
+   * The file grows as the mapped regions are extended.
+   */
+  private void ensureCapacity(long required) {
+    if (required <= capacity) {
+      return;
+    }
+    long newCapacity = Math.max(required, (long) Math.ceil(capacity * ARRAY_RESIZE_MULTIPLIER));
+    // The last segment may be partially mapped, it is mapped again with the new size.
+    int first = (int) (capacity >>> SEGMENT_SHIFT);
+    int last = (int) ((newCapacity - 1) >>> SEGMENT_SHIFT);
+    if (channel == null) {
+      throw new IllegalStateException("The octree has been disposed");
+    }
+    if (last >= segments.length) {
+      segments = Arrays.copyOf(segments, last + 1);
+    }
+    try {
+      for (int i = first; i <= last; ++i) {
+        long start = (long) i << SEGMENT_SHIFT;
+        long length = Math.min(SEGMENT_SIZE, newCapacity - start);
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, 4 * start, 4 * length)
+            .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not map octree storage", e);
+    }
+    capacity = newCapacity;
+  }
+
+  /**
+   * @return the number of used nodes, including free space
+   */
+  long getNodeArraySize() {
+    return size;
+  }
+
+  int getAt(long index) {
+    return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) index & SEGMENT_MASK);
+  }
+
+  private void setAt(long index, int value) {
+    segments[(int) (index >>> SEGMENT_SHIFT)].put((int) index & SEGMENT_MASK, value);
+  }
+
+  /**
+   * @return the index of the first child of a branch node with the given value
+   */
+  private static long childIndex(int value) {
+    return 8L * value - 7;
+  }
+
+  /**
+   * @return the value of a branch node whose first child is at the given index
+   */
+  private static int branchValue(long childIndex) {
+    return (int) ((childIndex + 7) >>> 3);
+  }
+
+  /**
+   * Finds space in the storage to put 8 nodes.
+   * Checks the free list first, then appends at the end of the storage.
+   * @return the index of the first of the 8 nodes
+   */
+  private long findSpace() {
+    if (freeHead != 0) {
+      long index = childIndex(freeHead);
+      freeHead = getAt(index);
+      return index;
+    }
+    if (size + 8 > capacity) {
+      if (branchValue(size) == Integer.MAX_VALUE) {
+        throw new PackedOctree.OctreeTooBigException();
+      }
+      ensureCapacity(size + 8);
+    }
+    long index = size;
+    size += 8;
+    return index;
+  }
+
+  /**
+   * Add the 8 nodes starting at index to the free list.
+   */
+  private void freeSpace(long index) {
+    setAt(index, freeHead);
+    freeHead = branchValue(index);
+  }
+
+  private void subdivideNode(long nodeIndex) {
+    long childrenIndex = findSpace();
+    int value = getAt(nodeIndex);
+    for (int i = 0; i < 8; ++i) {
+      setAt(childrenIndex + i, value);
+    }
+    setAt(nodeIndex, branchValue(childrenIndex));
+  }
+
+  private void mergeNode(long nodeIndex, int value) {
+    freeSpace(childIndex(getAt(nodeIndex)));
+    setAt(nodeIndex, value);
+  }
+
+  @Override
+  public void set(int type, int x, int y, int z) {
+    long[] parents = new long[depth];
+    long nodeIndex = 0;
+    int value = -type;
+
+    for (int i = depth - 1; i >= 0; --i) {
+      parents[i] = nodeIndex;
+
+      int current = getAt(nodeIndex);
+      if (current == value) {
+        // Everything in this region is already of this type.
+        return;
+      }
+      if (current <= 0) {
+        subdivideNode(nodeIndex);
+      }
+
+      int xbit = 1 & (x >> i);
+      int ybit = 1 & (y >> i);
+      int zbit = 1 & (z >> i);
+      nodeIndex = childIndex(getAt(nodeIndex)) + ((xbit << 2) | (ybit << 1) | zbit);
+    }
+    setAt(nodeIndex, value);
+
+    // Merge nodes where all children have been set to the same type, starting from the bottom.
+    for (int i = 0; i < depth; ++i) {
+      long parentIndex = parents[i];
+      long children = childIndex(getAt(parentIndex));
+      boolean allSame = true;
+      for (int j = 0; j < 8; ++j) {
+        if (getAt(children + j) != value) {
+          allSame = false;
+          break;
+        }
+      }
+      if (allSame) {
+        mergeNode(parentIndex, value);
+      } else {
+        break;
+      }
+    }
+  }
+
+  @Override
+  @Deprecated
+  public void set(Octree.Node data, int x, int y, int z) {
+    set(data.type, x, y, z);
+  }
+
+  private long getNodeIndex(int x, int y, int z) {
+    long nodeIndex = 0;
+    int level = depth;
+    int value;
+    while ((value = getAt(nodeIndex)) > 0) {
+      level -= 1;
+      int lx = 1 & (x >>> level);
+      int ly = 1 & (y >>> level);
+      int lz = 1 & (z >>> level);
+      nodeIndex = childIndex(value) + ((lx << 2) | (ly << 1) | lz);
+    }
+    return nodeIndex;
+  }
+
+  @Override
+  public void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z) {
+    long nodeIndex = 0;
+    int level = depth;
+    int value;
+    while ((value = getAt(nodeIndex)) > 0) {
+      level -= 1;
+      int lx = x >>> level;
+      int ly = y >>> level;
+      int lz = z >>> level;
+      nodeIndex = childIndex(value) + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+    }
+    outTypeAndLevel.left(-value).right(level);
+  }
+
+  @Override
+  public Octree.Node get(int x, int y, int z) {
+    int value = getAt(getNodeIndex(x, y, z));
+    // Return dummy Node, will work if only type and data are used, breaks if children are needed
+    return new Octree.Node(value > 0 ? BRANCH_NODE : -value);
+  }
+
+  @Override
+  public Material getMaterial(int x, int y, int z, BlockPalette palette) {
+    int value = getAt(getNodeIndex(x, y, z));
+    if (value > 0) {
+      return UnknownBlock.UNKNOWN;
+    }
+    return palette.get(-value);
+  }
+
+  @Override
+  public void store(DataOutputStream output) throws IOException {
+    output.writeInt(depth);
+    storeNode(output, 0);
+  }
+
+  private void storeNode(DataOutputStream out, long nodeIndex) throws IOException {
+    int value = getAt(nodeIndex);
+    if (value > 0) {
+      out.writeInt(BRANCH_NODE);
+      long children = childIndex(value);
+      for (int i = 0; i < 8; ++i) {
+        storeNode(out, children + i);
+      }
+    } else {
+      out.writeInt(-value);
+    }
+  }
+
+  /**
+   * Create a MappedOctree from a node array read from a channel, in the layout of
+   * {@link OctreeNodeArray}. If the source is a file channel the nodes are copied to the
+   * storage file of the octree without passing through the Java heap.
+   */
+  static MappedOctree load(int depth, ReadableByteChannel source, long size)
+      throws IOException {
+    MappedOctree tree = new MappedOctree(depth, size);
+    long transferred = 0;
+    while (transferred < 4 * size) {
+      long count = tree.channel.transferFrom(source, transferred, 4 * size - transferred);
+      if (count <= 0) {
+        throw new IOException("Unexpected end of octree file");
+      }
+      transferred += count;
+    }
+    tree.size = size;
+    return tree;
+  }
+
+  /**
+   * Create a MappedOctree with the same nodes as another octree implementation.
+   */
+  static MappedOctree copyOf(Octree.OctreeImplementation implementation) {
+    MappedOctree tree = new MappedOctree(implementation.getDepth());
+    tree.copyNode(implementation, implementation.getRoot(), 0);
+    return tree;
+  }
+
+  /**
+   * Replace the node at the position and depth of another octree with a copy of that octree.
+   * This inserts subtrees that were built in parallel. The parent nodes are not merged, that
+   * is done by {@link #endFinalization()}.
+   *
+   * x, y, z are in octree coordinates and must be multiples of the subtree size.
+   */
+  void setSubtree(Octree.OctreeImplementation subtree, int x, int y, int z) {
+    long nodeIndex = 0;
+    for (int i = depth - 1; i >= subtree.getDepth(); --i) {
+      if (getAt(nodeIndex) <= 0) {
+        subdivideNode(nodeIndex);
+      }
+      int xbit = 1 & (x >> i);
+      int ybit = 1 & (y >> i);
+      int zbit = 1 & (z >> i);
+      nodeIndex = childIndex(getAt(nodeIndex)) + ((xbit << 2) | (ybit << 1) | zbit);
+    }
+    freeSubtree(nodeIndex);
+    copyNode(subtree, subtree.getRoot(), nodeIndex);
+  }
+
+  private void freeSubtree(long nodeIndex) {
+    int value = getAt(nodeIndex);
+    if (value > 0) {
+      long children = childIndex(value);
+      for (int i = 0; i < 8; ++i) {
+        freeSubtree(children + i);
+      }
+      freeSpace(children);
+    }
+  }
+
+  private void copyNode(Octree.OctreeImplementation source, Octree.NodeId node, long nodeIndex) {
+    if (source.isBranch(node)) {
+      long childrenIndex = findSpace();
+      setAt(nodeIndex, branchValue(childrenIndex));
+      for (int i = 0; i < 8; ++i) {
+        copyNode(source, source.getChild(node, i), childrenIndex + i);
+      }
+    } else {
+      setAt(nodeIndex, -source.getType(node));
+    }
+  }
+
+  public static MappedOctree load(DataInputStream in) throws IOException {
+    int depth = in.readInt();
+    MappedOctree tree = new MappedOctree(depth);
+    tree.loadNode(in, 0);
+    return tree;
+  }
+
+  public static MappedOctree loadWithNodeCount(long nodeCount, DataInputStream in)
+      throws IOException {
+    int depth = in.readInt();
+    MappedOctree tree = new MappedOctree(depth, nodeCount);
+    tree.loadNode(in, 0);
+    return tree;
+  }
+
+  private void loadNode(DataInputStream in, long nodeIndex) throws IOException {
+    int type = in.readInt();
+    if (type == BRANCH_NODE) {
+      long childrenIndex = findSpace();
+      setAt(nodeIndex, branchValue(childrenIndex));
+      for (int i = 0; i < 8; ++i) {
+        loadNode(in, childrenIndex + i);
+      }
+    } else {
+      if ((type & DATA_FLAG) != 0) {
+        in.readInt(); // Skip the data.
+        type ^= DATA_FLAG;
+      }
+      setAt(nodeIndex, -type);
+    }
+  }
+
+  @Override
+  public int getDepth() {
+    return depth;
+  }
+
+  @Override
+  public long nodeCount() {
+    return countNodes(0);
+  }
+
+  private long countNodes(long nodeIndex) {
+    int value = getAt(nodeIndex);
+    if (value > 0) {
+      long total = 1;
+      long children = childIndex(value);
+      for (int i = 0; i < 8; ++i) {
+        total += countNodes(children + i);
+      }
+      return total;
+    }
+    return 1;
+  }
+
+  /**
+   * The storage figures are the size of the backing file, not heap memory.
+   */
+  @Override
+  public OctreeStatistics getStatistics() {
+    OctreeStatistics stats = OctreeStatistics.compute(this);
+    long freeNodes = 0;
+    for (int group = freeHead; group != 0; group = getAt(childIndex(group))) {
+      freeNodes += 8;
+    }
+    stats.setStorage((size - freeNodes) * Integer.BYTES, capacity * Integer.BYTES, freeNodes);
+    return stats;
+  }
+
+  @Override
+  public Octree.NodeId getRoot() {
+    return new NodeId(0);
+  }
+
+  @Override
+  public boolean isBranch(Octree.NodeId node) {
+    return getAt(((NodeId) node).nodeIndex) > 0;
+  }
+
+  @Override
+  public Octree.NodeId getChild(Octree.NodeId parent, int childNo) {
+    return new NodeId(childIndex(getAt(((NodeId) parent).nodeIndex)) + childNo);
+  }
+
+  @Override
+  public int getType(Octree.NodeId node) {
+    return -getAt(((NodeId) node).nodeIndex);
+  }
+
+  @Override
+  @Deprecated
+  public int getData(Octree.NodeId node) {
+    return 0;
+  }
+
+  @Override
+  public void endFinalization() {
+    // There is a bunch of ANY_TYPE nodes we should try to merge
+    if (getAt(0) > 0) {
+      finalizationNode(0);
+    }
+  }
+
+  private void finalizationNode(long nodeIndex) {
+    boolean canMerge = true;
+    int mergedValue = -ANY_TYPE;
+    long children = childIndex(getAt(nodeIndex));
+    for (int i = 0; i < 8; ++i) {
+      long childIndex = children + i;
+      if (getAt(childIndex) > 0) {
+        finalizationNode(childIndex);
+        // The node may have been merged, retest if it still a branch node
+        if (getAt(childIndex) > 0) {
+          canMerge = false;
+        }
+      }
+      if (canMerge) {
+        int value = getAt(childIndex);
+        if (mergedValue == -ANY_TYPE) {
+          mergedValue = value;
+        } else if (value != -ANY_TYPE && value != mergedValue) {
+          canMerge = false;
+        }
+      }
+    }
+    if (canMerge) {
+      mergeNode(nodeIndex, mergedValue);
+    }
+  }
+
+  static public void initImplementation() {
+    Octree.addImplementationFactory("MAPPED", new Octree.ImplementationFactory() {
+      @Override
+      public Octree.OctreeImplementation create(int depth) {
+        return new MappedOctree(depth);
+      }
+
+      @Override
+      public Octree.OctreeImplementation load(DataInputStream in) throws IOException {
+        return MappedOctree.load(in);
+      }
+
+      @Override
+      public Octree.OctreeImplementation loadWithNodeCount(long nodeCount, DataInputStream in)
+          throws IOException {
+        return MappedOctree.loadWithNodeCount(nodeCount, in);
+      }
+
+      @Override
+      public boolean isOfType(Octree.OctreeImplementation implementation) {
+        return implementation instanceof MappedOctree;
+      }
+
+      @Override
+      public String getDescription() {
+        return "Stores the octree in a memory mapped temporary file instead of the Java heap. Works for octrees bigger than the available memory, but is slower than PACKED. Used automatically when an octree is too big for PACKED.";
+      }
+    });
+  }
+}
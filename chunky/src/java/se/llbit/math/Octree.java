@@ -18,6 +18,8 @@
 package se.llbit.math;
 
 import java.io.*;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,6 +36,7 @@ import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.model.TexturedBlockModel;
 import se.llbit.chunky.model.WaterModel;
 import se.llbit.chunky.plugin.PluginApi;
+import se.llbit.chunky.renderer.RenderStatistics;
 import se.llbit.chunky.renderer.scene.Scene;
 import se.llbit.chunky.world.Material;
 import se.llbit.log.Log;
@@ -70,6 +73,31 @@ public class Octree {
     int getData(NodeId node);
     default void startFinalization() {}
     default void endFinalization() {}
+
+    /**
+     * Release resources that are not managed by the garbage collector, like open files.
+     * This is called when the octree is replaced. Another scene may still share the octree,
+     * so it must remain readable, but it is not modified after this.
+     */
+    default void dispose() {}
+
+    /**
+     * Compute node statistics of this octree. Implementations that know how their nodes are
+     * stored should also set the storage figures.
+     */
+    default OctreeStatistics getStatistics() {
+      return OctreeStatistics.compute(this);
+    }
+
+    /**
+     * @return statistics counted while finalizing this octree, or {@code null} if the
+     * implementation does not count them. They are not updated when the octree is changed
+     * after the finalization.
+     */
+    default OctreeStatistics getFinalizationStatistics() {
+      return null;
+    }
+
     default void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z) {
       NodeId node = getRoot();
       int level = getDepth();
@@ -83,6 +111,19 @@ public class Octree {
       outTypeAndLevel.right(level).left(getType(node));
     }
 
+    /**
+     * Find the type and level of the leaf that contains the given block, starting the descent
+     * from the closest ancestor the block shares with the leaf found by the previous lookup
+     * through the same path. Consecutive lookups along a ray are usually in neighbouring
+     * leaves, so this skips most of the descent.
+     *
+     * <p>The default implementation ignores the path and descends from the root.
+     */
+    default void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z,
+        NodePath path) {
+      getWithLevel(outTypeAndLevel, x, y, z);
+    }
+
     /**
      * Set a whole 2^n * 2^n * 2^n cube of blocks
      * @param cubeDepth the n
@@ -113,6 +154,53 @@ public class Octree {
 
   public interface NodeId {}
 
+  /**
+   * The nodes on the path from the root to the leaf found by the last lookup in an octree
+   * implementation. The meaning of the node references is up to the implementation, and a
+   * path must only be used with one octree, which must not be modified while it is used.
+   */
+  public static final class NodePath {
+    /** The node at each level of the path, indexed by level. */
+    public final int[] nodes;
+
+    /** Level of the last leaf, or -1 if the path is empty. */
+    public int level = -1;
+
+    /** Type of the last leaf. */
+    public int type;
+
+    /** The block coordinates of the last lookup. */
+    public int x, y, z;
+
+    private static final ThreadLocal<NodePath> THREAD_PATHS =
+        ThreadLocal.withInitial(() -> new NodePath(0));
+
+    public NodePath(int depth) {
+      nodes = new int[depth + 1];
+    }
+
+    /**
+     * @return an empty path that is reused by all ray traversals on the current thread. The
+     * path must not be used after the traversal, and a traversal must not start another one.
+     */
+    static NodePath forCurrentThread(int depth) {
+      NodePath path = THREAD_PATHS.get();
+      if (path.nodes.length <= depth) {
+        path = new NodePath(depth);
+        THREAD_PATHS.set(path);
+      }
+      path.clear();
+      return path;
+    }
+
+    /**
+     * Forget the last leaf, so that the next lookup starts from the root.
+     */
+    public void clear() {
+      level = -1;
+    }
+  }
+
   public interface ImplementationFactory {
     OctreeImplementation create(int depth);
     OctreeImplementation load(DataInputStream in) throws IOException;
@@ -123,6 +211,11 @@ public class Octree {
 
   static private Map<String, ImplementationFactory> factories = new HashMap<>();
   static public final String DEFAULT_IMPLEMENTATION = "PACKED";
+
+  /**
+   * The implementation that is switched to when an octree is too big for its implementation.
+   */
+  static public final String OVERFLOW_IMPLEMENTATION = "MAPPED";
   static private ImplementationFactory getImplementationFactory(String implementation) {
     if(factories.containsKey(implementation))
       return factories.get(implementation);
@@ -130,6 +223,18 @@ public class Octree {
     return factories.get(DEFAULT_IMPLEMENTATION);
   }
 
+  /**
+   * @return the factory of an octree implementation, or {@code null} if it is not registered
+   */
+  static private ImplementationFactory getImplementationFactory(OctreeImplementation implementation) {
+    for(ImplementationFactory factory : factories.values()) {
+      if(factory.isOfType(implementation)) {
+        return factory;
+      }
+    }
+    return null;
+  }
+
   public static final int BRANCH_NODE = -1;
 
   /**
@@ -327,11 +432,11 @@ public class Octree {
       implementation.set(type, x, y, z);
     } catch(PackedOctree.OctreeTooBigException e) {
       // Octree is too big, switch implementation and retry
-      Log.warn("Octree is too big, falling back to old (slower and bigger) implementation.");
+      Log.warn("Octree is too big, falling back to memory mapped (slower) implementation.");
       try {
-        switchImplementation("NODE");
+        switchImplementation(OVERFLOW_IMPLEMENTATION);
       } catch(IOException ioException) {
-        throw new RuntimeException("Couldn't switch the octree implementation to NODE", ioException);
+        throw new RuntimeException("Couldn't switch the octree implementation to " + OVERFLOW_IMPLEMENTATION, ioException);
       }
       implementation.set(type, x, y, z);
     }
@@ -347,11 +452,11 @@ public class Octree {
       implementation.set(data, x, y, z);
     } catch(PackedOctree.OctreeTooBigException e) {
       // Octree is too big, switch implementation and retry
-      Log.warn("Octree is too big, falling back to old (slower and bigger) implementation.");
+      Log.warn("Octree is too big, falling back to memory mapped (slower) implementation.");
       try {
-        switchImplementation("NODE");
+        switchImplementation(OVERFLOW_IMPLEMENTATION);
       } catch(IOException ioException) {
-        throw new RuntimeException("Couldn't switch the octree implementation to NODE", ioException);
+        throw new RuntimeException("Couldn't switch the octree implementation to " + OVERFLOW_IMPLEMENTATION, ioException);
       }
       implementation.set(data, x, y, z);
     }
@@ -399,6 +504,57 @@ public class Octree {
     return new Octree(getImplementationFactory(impl).load(in));
   }
 
+  /**
+   * @return the nodes of this octree as a flat array, for the uncompressed octree file format.
+   * The array must be {@linkplain OctreeNodeArray#dispose() disposed} after use.
+   */
+  public OctreeNodeArray getNodeArray() {
+    return OctreeNodeArray.of(implementation);
+  }
+
+  /**
+   * Load an octree from a node array written by {@link OctreeNodeArray#write}. The channel
+   * is positioned after the node array when this returns.
+   *
+   * <p>The PACKED and DAG implementations read the array into their storage directly and
+   * MAPPED copies it to its storage file. Other implementations are converted from a
+   * MAPPED octree.
+   *
+   * @param shared {@code true} if branch nodes in the array can share the same children
+   */
+  public static Octree loadNodeArray(String impl, int depth, boolean shared,
+      ReadableByteChannel channel, long size) throws IOException {
+    Log.infof("Loading octree (%s)", impl);
+    if (shared || (impl.equals("DAG") && size <= PackedOctree.MAX_ARRAY_SIZE)) {
+      int[] nodes = OctreeNodeArray.readPacked(channel, size, 0);
+      DagOctree dag = DagOctree.fromNodeArray(depth, nodes, (int) size);
+      if (impl.equals("DAG")) {
+        return new Octree(dag);
+      }
+      Octree octree = new Octree(MappedOctree.copyOf(dag));
+      octree.switchImplementation(impl);
+      return octree;
+    }
+    switch (impl) {
+      case "PACKED":
+        return new Octree(PackedOctree.loadNodeArray(depth, channel, size));
+      case "DAG": {
+        // The array is too big to read at once, but the shared octree may still fit.
+        MappedOctree mapped = MappedOctree.load(depth, channel, size);
+        try {
+          return new Octree(DagOctree.copyOf(mapped));
+        } finally {
+          mapped.dispose();
+        }
+      }
+      default: {
+        Octree octree = new Octree(MappedOctree.load(depth, channel, size));
+        octree.switchImplementation(impl);
+        return octree;
+      }
+    }
+  }
+
   /**
    * Test if a point is inside the octree.
    *
@@ -556,6 +712,20 @@ public class Octree {
    * @return {@code false} if the ray did not hit the geometry
    */
   public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette) {
+    return enterBlock(scene, ray, palette, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Intersects the ray with the geometry inside the octree, giving up once the ray has
+   * travelled further than the given distance.
+   *
+   * <p>A hit in a leaf node that the ray enters before the maximum distance is still reported
+   * even if the intersection itself is further away, so the caller must compare the distance.
+   *
+   * @param maxDistance the maximum distance to march, as measured by {@code ray.distance}
+   * @return {@code false} if the ray did not hit the geometry
+   */
+  public boolean enterBlock(Scene scene, Ray ray, BlockPalette palette, double maxDistance) {
     if (!isInside(ray.o) && !enterOctree(ray))
       return false;
 
@@ -574,11 +744,17 @@ public class Octree {
     double offsetZ = -ray.o.z * invDz;
 
     IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    NodePath path = NodePath.forCurrentThread(depth);
+    RenderStatistics statistics = RenderStatistics.current();
 
-    // Marching is done in a top-down fashion: at each step, the octree is descended from the root to find the leaf
-    // node the ray is in. Terminating the march is then decided based on the block type in that leaf node. Finally the
-    // ray is advanced to the boundary of the current leaf node and the next, ready for the next iteration.
+    // Marching is done in a top-down fashion: at each step, the octree is descended to find the leaf node the ray is
+    // in, starting from the closest common ancestor with the previous leaf. Terminating the march is then decided
+    // based on the block type in that leaf node. Finally the ray is advanced to the boundary of the current leaf
+    // node and the next, ready for the next iteration.
     while (true) {
+      if (ray.distance + distance > maxDistance)
+        return false; // something closer was already hit
+
       // Add small offset past the intersection to avoid
       // recursion to the same octree node!
       int x = (int) Math.floor(ray.o.x + ray.d.x * (distance + Ray.OFFSET));
@@ -592,9 +768,10 @@ public class Octree {
       if (lx != 0 || ly != 0 || lz != 0)
         return false; // outside of octree!
 
-      implementation.getWithLevel(typeAndLevel, x, y, z);
+      implementation.getWithLevel(typeAndLevel, x, y, z, path);
       int type = typeAndLevel.leftInt();
       int level = typeAndLevel.rightInt();
+      statistics.octreeSteps += 1;
 
       lx = x >>> level;
       ly = y >>> level;
@@ -702,16 +879,33 @@ public class Octree {
    * @return {@code false} if the ray doesn't hit anything
    */
   public boolean exitWater(Scene scene, Ray ray, BlockPalette palette) {
+    return exitWater(scene, ray, palette, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Advance the ray until it leaves the current water body, giving up once the ray has
+   * travelled further than the given distance.
+   *
+   * @param maxDistance the maximum distance to march, as measured by {@code ray.distance}
+   * @return {@code false} if the ray doesn't hit anything
+   */
+  public boolean exitWater(Scene scene, Ray ray, BlockPalette palette, double maxDistance) {
     if (!isInside(ray.o) && !enterOctree(ray))
       return false;
 
     int depth = getDepth();
-    // Marching is done in a top-down fashion: at each step, the octree is descended from the root to find the leaf
-    // node the ray is in. Terminating the march is then decided based on the block type in that leaf node. Finally the
-    // ray is advanced to the boundary of the current leaf node and the next, ready for the next iteration.
+    // Marching is done in a top-down fashion: at each step, the octree is descended to find the leaf node the ray is
+    // in, starting from the closest common ancestor with the previous leaf. Terminating the march is then decided
+    // based on the block type in that leaf node. Finally the ray is advanced to the boundary of the current leaf
+    // node and the next, ready for the next iteration.
 
     IntIntMutablePair typeAndLevel = new IntIntMutablePair(0, 0);
+    NodePath path = NodePath.forCurrentThread(depth);
+    RenderStatistics statistics = RenderStatistics.current();
     while (true) {
+      if (ray.distance > maxDistance)
+        return false; // something closer was already hit
+
       // Add small offset past the intersection to avoid
       // recursion to the same octree node!
       int x = (int) QuickMath.floor(ray.o.x + ray.d.x * Ray.OFFSET);
@@ -726,9 +920,10 @@ public class Octree {
         return false; // outside of octree!
 
       // Descend the tree to find the current leaf node
-      implementation.getWithLevel(typeAndLevel, x, y, z);
+      implementation.getWithLevel(typeAndLevel, x, y, z, path);
       int type = typeAndLevel.leftInt();
       int level = typeAndLevel.rightInt();
+      statistics.octreeSteps += 1;
 
       lx = x >>> level;
       ly = y >>> level;
@@ -839,6 +1034,21 @@ public class Octree {
     return implementation.getDepth();
   }
 
+  /**
+   * @return node and memory statistics of this octree
+   */
+  public OctreeStatistics getStatistics() {
+    return implementation.getStatistics();
+  }
+
+  /**
+   * @return node statistics counted while finalizing this octree, or {@code null} if they
+   * are not available. Unlike {@link #getStatistics()} this does not walk the octree.
+   */
+  public OctreeStatistics getFinalizationStatistics() {
+    return implementation.getFinalizationStatistics();
+  }
+
   public void startFinalization() {
     implementation.startFinalization();
   }
@@ -851,6 +1061,106 @@ public class Octree {
     implementation.setCube(cubeDepth, types, x, y, z);
   }
 
+  /**
+   * Create an empty octree for building a part of this octree on another thread.
+   * The subtree uses the implementation of this octree, so it is stored the same way.
+   * The subtree is inserted into this octree with {@link #setSubtree}, and should be
+   * disposed after that.
+   *
+   * @param subtreeDepth depth of the subtree, at most the depth of this octree
+   */
+  public synchronized Octree createSubtree(int subtreeDepth) {
+    ImplementationFactory factory = getImplementationFactory(implementation);
+    if(factory == null) {
+      return new Octree(new PackedOctree(subtreeDepth));
+    }
+    return new Octree(factory.create(subtreeDepth));
+  }
+
+  /**
+   * Replace a part of this octree with a subtree created by {@link #createSubtree}.
+   * The parent nodes are merged by {@link #endFinalization()}.
+   *
+   * @param x x position of the subtree, a multiple of the subtree size
+   * @param y y position of the subtree, a multiple of the subtree size
+   * @param z z position of the subtree, a multiple of the subtree size
+   */
+  public synchronized void setSubtree(Octree subtree, int x, int y, int z) {
+    OctreeImplementation source = subtree.implementation;
+    boolean copied;
+    try {
+      copied = copySubtree(source, x, y, z);
+    } catch(PackedOctree.OctreeTooBigException e) {
+      // Octree is too big, switch implementation and retry
+      Log.warn("Octree is too big, falling back to memory mapped (slower) implementation.");
+      try {
+        switchImplementation(OVERFLOW_IMPLEMENTATION);
+      } catch(IOException ioException) {
+        throw new RuntimeException("Couldn't switch the octree implementation to " + OVERFLOW_IMPLEMENTATION, ioException);
+      }
+      copied = copySubtree(source, x, y, z);
+    }
+    if(!copied) {
+      // Other implementations are given the leaf nodes of the subtree.
+      setSubtreeNode(source, source.getRoot(), source.getDepth(), x, y, z,
+          new int[1 << (3 * MAX_LEAF_CUBE_DEPTH)]);
+    }
+  }
+
+  /**
+   * Copy the nodes of a subtree into this octree, if the implementation of this octree
+   * can do that directly.
+   *
+   * @return {@code false} if the subtree was not copied
+   */
+  private boolean copySubtree(OctreeImplementation source, int x, int y, int z) {
+    if(implementation instanceof PackedOctree && source instanceof PackedOctree) {
+      ((PackedOctree) implementation).setSubtree((PackedOctree) source, x, y, z);
+      return true;
+    } else if(implementation instanceof MappedOctree) {
+      ((MappedOctree) implementation).setSubtree(source, x, y, z);
+      return true;
+    } else if(implementation instanceof DagOctree) {
+      ((DagOctree) implementation).setSubtree(source, x, y, z);
+      return true;
+    }
+    return false;
+  }
+
+  /** Leaves up to this depth are inserted with a single {@code setCube()} call. */
+  private static final int MAX_LEAF_CUBE_DEPTH = 4;
+
+  /**
+   * @param types buffer for the types of a leaf cube, reused for all leaves
+   */
+  private void setSubtreeNode(OctreeImplementation subtree, NodeId node, int level, int x, int y, int z,
+      int[] types) {
+    if(subtree.isBranch(node)) {
+      int half = 1 << (level - 1);
+      for(int i = 0; i < 8; ++i) {
+        setSubtreeNode(subtree, subtree.getChild(node, i), level - 1,
+            x + ((i >> 2) & 1) * half, y + ((i >> 1) & 1) * half, z + (i & 1) * half, types);
+      }
+    } else {
+      setLeaf(subtree.getType(node), level, x, y, z, types);
+    }
+  }
+
+  private void setLeaf(int type, int level, int x, int y, int z, int[] types) {
+    if(level == 0) {
+      implementation.set(type, x, y, z);
+    } else if(level <= MAX_LEAF_CUBE_DEPTH) {
+      // Only the first 2^(3*level) elements are used by setCube.
+      Arrays.fill(types, 0, 1 << (3 * level), type);
+      implementation.setCube(level, types, x, y, z);
+    } else {
+      int half = 1 << (level - 1);
+      for(int i = 0; i < 8; ++i) {
+        setLeaf(type, level - 1, x + ((i >> 2) & 1) * half, y + ((i >> 1) & 1) * half, z + (i & 1) * half, types);
+      }
+    }
+  }
+
   /**
    * Switch between any two implementation by reusing the load and store methods of
    * the octree implementations
@@ -874,6 +1184,7 @@ public class Octree {
     try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(tempFile)))) {
       implementation.store(out);
     }
+    implementation.dispose();
     implementation = null; // Allow th gc to free memory during construction of the new octree
 
     try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new FileInputStream(tempFile)))) {
@@ -883,6 +1194,46 @@ public class Octree {
     tempFile.delete();
   }
 
+  /**
+   * Create a copy of this octree that can be modified without changing this octree.
+   */
+  public Octree copy() throws IOException {
+    if(implementation instanceof DagOctree) {
+      return new Octree(((DagOctree) implementation).copy());
+    }
+    if(implementation instanceof PackedOctree) {
+      return new Octree(((PackedOctree) implementation).copy());
+    }
+
+    // Other implementations are copied by storing and reloading them, like in switchImplementation.
+    ImplementationFactory factory = getImplementationFactory(implementation);
+    if(factory == null) {
+      throw new IOException("Unknown octree implementation: " + implementation.getClass().getName());
+    }
+    long nodeCount = implementation.nodeCount();
+    File tempFile = File.createTempFile("octree-copy", ".bin");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(tempFile)))) {
+        implementation.store(out);
+      }
+      try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new FileInputStream(tempFile)))) {
+        return new Octree(factory.loadWithNodeCount(nodeCount, in));
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * Release the resources of the implementation that are not managed by the garbage
+   * collector. Called when the octree is replaced.
+   *
+   * @see OctreeImplementation#dispose()
+   */
+  public synchronized void dispose() {
+    implementation.dispose();
+  }
+
   @PluginApi
   public OctreeImplementation getImplementation() {
     return implementation;
@@ -896,6 +1247,8 @@ public class Octree {
     NodeBasedOctree.initImplementation();
     PackedOctree.initImplementation();
     BigPackedOctree.initImplementation();
+    DagOctree.initImplementation();
+    MappedOctree.initImplementation();
   }
 
   public static Iterable<Map.Entry<String, ImplementationFactory>> getEntries() {
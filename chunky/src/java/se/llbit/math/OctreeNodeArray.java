@@ -0,0 +1,201 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The nodes of an octree as a flat array of ints, used by the uncompressed octree file format.
+ *
+ * <p>The array has the layout of {@link MappedOctree}: the root node is at index 0 and the
+ * eight children of a branch node are stored contiguously. Group {@code g} (starting at 1)
+ * occupies indices {@code 8*g-7} to {@code 8*g}. A positive value is a branch node holding
+ * the group number of its children, other values are leaf nodes holding the negation of the
+ * block palette ID. The array may contain unused groups that no branch node refers to.
+ *
+ * <p>The packed octree implementations all allocate their child groups at these positions, so
+ * the array is written directly from their storage without walking the tree.
+ */
+public abstract class OctreeNodeArray {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * @return the number of nodes in the array, including unused groups
+   */
+  public abstract long size();
+
+  /**
+   * @return {@code true} if branch nodes in the array can share the same children
+   */
+  public boolean hasSharedSubtrees() {
+    return false;
+  }
+
+  protected abstract int get(long index);
+
+  /**
+   * Release storage that was allocated for this array. The octree it was created from is
+   * not affected.
+   */
+  public void dispose() {
+  }
+
+  /**
+   * Write the nodes as little-endian ints.
+   */
+  public void write(OutputStream out) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    long size = size();
+    for (long i = 0; i < size; ++i) {
+      if (!buffer.hasRemaining()) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+      buffer.putInt(get(i));
+    }
+    out.write(buffer.array(), 0, buffer.position());
+  }
+
+  /**
+   * @return the node array of an octree. Octree implementations without packed storage are
+   * first copied to a {@link MappedOctree}, which is disposed with the array.
+   */
+  static OctreeNodeArray of(Octree.OctreeImplementation implementation) {
+    if (implementation instanceof DagOctree) {
+      DagOctree dag = (DagOctree) implementation;
+      return ofShared(dag.getNodeArray(), dag.getNodeArraySize());
+    }
+    if (implementation instanceof PackedOctree) {
+      PackedOctree packed = (PackedOctree) implementation;
+      return new OctreeNodeArray() {
+        @Override public long size() {
+          return packed.getNodeArraySize();
+        }
+
+        @Override protected int get(long index) {
+          int value = packed.getAt((int) index);
+          return value > 0 ? (value + 7) >>> 3 : value;
+        }
+      };
+    }
+    if (implementation instanceof BigPackedOctree) {
+      BigPackedOctree packed = (BigPackedOctree) implementation;
+      return new OctreeNodeArray() {
+        @Override public long size() {
+          return packed.getNodeArraySize();
+        }
+
+        @Override protected int get(long index) {
+          long value = packed.getAt(index);
+          return value > 0 ? (int) ((value + 7) >>> 3) : (int) value;
+        }
+      };
+    }
+    boolean copied = !(implementation instanceof MappedOctree);
+    MappedOctree mapped = copied
+        ? MappedOctree.copyOf(implementation)
+        : (MappedOctree) implementation;
+    return new OctreeNodeArray() {
+      @Override public long size() {
+        return mapped.getNodeArraySize();
+      }
+
+      @Override protected int get(long index) {
+        return mapped.getAt(index);
+      }
+
+      @Override public void dispose() {
+        if (copied) {
+          mapped.dispose();
+        }
+      }
+    };
+  }
+
+  /**
+   * Node array of an int array where branch nodes hold the index of the first child.
+   */
+  private static OctreeNodeArray ofShared(int[] treeData, int size) {
+    return new OctreeNodeArray() {
+      @Override public long size() {
+        return size;
+      }
+
+      @Override public boolean hasSharedSubtrees() {
+        return true;
+      }
+
+      @Override protected int get(long index) {
+        int value = treeData[(int) index];
+        return value > 0 ? (value + 7) >>> 3 : value;
+      }
+    };
+  }
+
+  /**
+   * Read a node array into an int array where branch nodes hold the index of the
+   * first child, the layout used by {@link PackedOctree} and {@link DagOctree}.
+   *
+   * @param minLength minimum length of the returned array
+   */
+  static int[] readPacked(ReadableByteChannel channel, long size, int minLength)
+      throws IOException {
+    if (size > PackedOctree.MAX_ARRAY_SIZE) {
+      throw new PackedOctree.OctreeTooBigException();
+    }
+    int[] treeData = new int[(int) Math.max(size, minLength)];
+    readPacked(channel, treeData, (int) size);
+    return treeData;
+  }
+
+  /**
+   * Read a part of a node array into an int array, converting it to the layout used by
+   * {@link PackedOctree}.
+   *
+   * @param count number of nodes to read
+   */
+  static void readPacked(ReadableByteChannel channel, int[] treeData, int count)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    int index = 0;
+    while (index < count) {
+      buffer.clear();
+      buffer.limit((int) Math.min(BUFFER_SIZE, 4L * (count - index)));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Unexpected end of octree file");
+        }
+      }
+      buffer.flip();
+      IntBuffer ints = buffer.asIntBuffer();
+      int read = ints.remaining();
+      ints.get(treeData, index, read);
+      index += read;
+    }
+    for (int i = 0; i < count; ++i) {
+      int value = treeData[i];
+      if (value > 0) {
+        treeData[i] = 8 * value - 7;
+      }
+    }
+  }
+}
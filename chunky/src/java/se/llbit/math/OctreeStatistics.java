@@ -0,0 +1,291 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import se.llbit.chunky.main.Chunky;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node and memory statistics of an octree.
+ *
+ * <p>Levels are counted from the bottom of the tree: a node at level {@code n} covers a cube of
+ * {@code 2^n} blocks on each side, so leaves at level 0 are single blocks and the root is at
+ * the level given by the depth of the tree.
+ *
+ * <p>The storage figures are only known for implementations that report them, otherwise they
+ * are -1.
+ */
+public class OctreeStatistics {
+  /** Number of levels below the root that are split into separate tasks. */
+  private static final int PARALLEL_LEVELS = 3;
+
+  private final int depth;
+  private final long[] branchNodes;
+  private final long[] leafNodes;
+  private final Int2LongOpenHashMap leafTypes = new Int2LongOpenHashMap();
+  private long anyTypeLeaves;
+  private long anyTypeBlocks;
+
+  private long bytesUsed = -1;
+  private long bytesAllocated = -1;
+  private long freeNodes = -1;
+
+  OctreeStatistics(int depth) {
+    this.depth = depth;
+    branchNodes = new long[depth + 1];
+    leafNodes = new long[depth + 1];
+  }
+
+  /**
+   * Count the nodes of an octree. The subtrees a few levels below the root are counted in
+   * parallel on the common thread pool, so the octree must not be modified while this is
+   * running.
+   */
+  public static OctreeStatistics compute(Octree.OctreeImplementation octree) {
+    int depth = octree.getDepth();
+    OctreeStatistics result = new OctreeStatistics(depth);
+    List<Octree.NodeId> subtrees = new ArrayList<>();
+    List<Integer> subtreeLevels = new ArrayList<>();
+    collect(octree, octree.getRoot(), depth, Math.max(0, depth - PARALLEL_LEVELS),
+        result, subtrees, subtreeLevels);
+    List<Integer> tasks = new ArrayList<>(subtrees.size());
+    for (int i = 0; i < subtrees.size(); ++i) {
+      tasks.add(i);
+    }
+    OctreeStatistics subtreeStats;
+    try {
+      subtreeStats = Chunky.getCommonThreads().submit(() -> tasks.parallelStream()
+          .map(i -> {
+            OctreeStatistics stats = new OctreeStatistics(depth);
+            stats.count(octree, subtrees.get(i), subtreeLevels.get(i));
+            return stats;
+          })
+          .reduce(new OctreeStatistics(depth), OctreeStatistics::merge)).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("Failed to compute octree statistics", e);
+    }
+    return merge(result, subtreeStats);
+  }
+
+  /**
+   * Count the nodes above the split level and collect the subtrees below it.
+   */
+  private static void collect(Octree.OctreeImplementation octree, Octree.NodeId node, int level,
+      int splitLevel, OctreeStatistics result, List<Octree.NodeId> subtrees,
+      List<Integer> subtreeLevels) {
+    if (level <= splitLevel || !octree.isBranch(node)) {
+      subtrees.add(node);
+      subtreeLevels.add(level);
+      return;
+    }
+    result.branchNodes[level] += 1;
+    for (int i = 0; i < 8; ++i) {
+      collect(octree, octree.getChild(node, i), level - 1, splitLevel, result, subtrees,
+          subtreeLevels);
+    }
+  }
+
+  private void count(Octree.OctreeImplementation octree, Octree.NodeId node, int level) {
+    if (octree.isBranch(node)) {
+      countBranch(level);
+      for (int i = 0; i < 8; ++i) {
+        count(octree, octree.getChild(node, i), level - 1);
+      }
+    } else {
+      countLeaf(level, octree.getType(node));
+    }
+  }
+
+  /**
+   * Count a branch node. Used by implementations that count the nodes while they walk the
+   * tree for another reason.
+   */
+  void countBranch(int level) {
+    branchNodes[level] += 1;
+  }
+
+  /**
+   * Count a leaf node.
+   */
+  void countLeaf(int level, int type) {
+    leafNodes[level] += 1;
+    leafTypes.addTo(type, 1);
+    if (type == Octree.ANY_TYPE) {
+      anyTypeLeaves += 1;
+      anyTypeBlocks += 1L << (3 * level);
+    }
+  }
+
+  private static OctreeStatistics merge(OctreeStatistics a, OctreeStatistics b) {
+    OctreeStatistics result = new OctreeStatistics(a.depth);
+    for (int level = 0; level <= a.depth; ++level) {
+      result.branchNodes[level] = a.branchNodes[level] + b.branchNodes[level];
+      result.leafNodes[level] = a.leafNodes[level] + b.leafNodes[level];
+    }
+    result.leafTypes.putAll(a.leafTypes);
+    for (Int2LongMap.Entry entry : b.leafTypes.int2LongEntrySet()) {
+      result.leafTypes.addTo(entry.getIntKey(), entry.getLongValue());
+    }
+    result.anyTypeLeaves = a.anyTypeLeaves + b.anyTypeLeaves;
+    result.anyTypeBlocks = a.anyTypeBlocks + b.anyTypeBlocks;
+    return result;
+  }
+
+  /**
+   * Set the storage figures of the octree.
+   *
+   * @param bytesUsed bytes used by the nodes that are in the tree
+   * @param bytesAllocated bytes allocated for nodes, including unused and free nodes
+   * @param freeNodes number of nodes in the free list
+   */
+  public void setStorage(long bytesUsed, long bytesAllocated, long freeNodes) {
+    this.bytesUsed = bytesUsed;
+    this.bytesAllocated = bytesAllocated;
+    this.freeNodes = freeNodes;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return the number of branch nodes at the given level
+   */
+  public long getBranchNodes(int level) {
+    return branchNodes[level];
+  }
+
+  /**
+   * @return the number of leaf nodes at the given level
+   */
+  public long getLeafNodes(int level) {
+    return leafNodes[level];
+  }
+
+  public long getNodeCount() {
+    long total = 0;
+    for (int level = 0; level <= depth; ++level) {
+      total += branchNodes[level] + leafNodes[level];
+    }
+    return total;
+  }
+
+  public long getLeafCount() {
+    long total = 0;
+    for (long leaves : leafNodes) {
+      total += leaves;
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of leaves of each block palette type
+   */
+  public Int2LongMap getLeafTypes() {
+    return leafTypes;
+  }
+
+  /**
+   * @return the number of ANY_TYPE leaves that could not be merged with a neighbouring type
+   */
+  public long getAnyTypeLeaves() {
+    return anyTypeLeaves;
+  }
+
+  /**
+   * @return the number of blocks covered by ANY_TYPE leaves
+   */
+  public long getAnyTypeBlocks() {
+    return anyTypeBlocks;
+  }
+
+  /**
+   * @return the average number of blocks covered by a leaf
+   */
+  public double getBlocksPerLeaf() {
+    long leaves = getLeafCount();
+    return leaves == 0 ? 0 : Math.pow(8, depth) / leaves;
+  }
+
+  public long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  public long getBytesAllocated() {
+    return bytesAllocated;
+  }
+
+  public long getFreeNodes() {
+    return freeNodes;
+  }
+
+  /**
+   * @return the fraction of the allocated bytes that is not used by nodes in the tree,
+   * or -1 if the storage is unknown
+   */
+  public double getUnusedFraction() {
+    if (bytesAllocated <= 0) {
+      return -1;
+    }
+    return 1 - bytesUsed / (double) bytesAllocated;
+  }
+
+  /**
+   * @return a one line summary of the node count and memory use
+   */
+  public String summary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append(String.format("%,d nodes", getNodeCount()));
+    if (bytesAllocated >= 0) {
+      summary.append(String.format(", %s used of %s allocated",
+          formatBytes(bytesUsed), formatBytes(bytesAllocated)));
+    }
+    return summary.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    text.append(String.format("octree depth %d: %s%n", depth, summary()));
+    text.append(String.format("  leaves: %,d, %.1f blocks per leaf, %d block types%n",
+        getLeafCount(), getBlocksPerLeaf(), leafTypes.size()));
+    text.append(String.format("  unmerged ANY_TYPE leaves: %,d covering %,d blocks%n",
+        anyTypeLeaves, anyTypeBlocks));
+    if (freeNodes >= 0) {
+      text.append(String.format("  free list: %,d nodes, %.1f%% of allocation unused%n",
+          freeNodes, 100 * getUnusedFraction()));
+    }
+    text.append("  level: branches / leaves");
+    for (int level = depth; level >= 0; --level) {
+      text.append(String.format("%n  %5d: %,d / %,d", level, branchNodes[level],
+          leafNodes[level]));
+    }
+    return text.toString();
+  }
+
+  private static String formatBytes(long bytes) {
+    if (bytes < 1024 * 1024) {
+      return String.format("%.1f KiB", bytes / 1024.0);
+    }
+    return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+  }
+}
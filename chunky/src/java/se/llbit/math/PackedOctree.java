@@ -23,11 +23,14 @@ import se.llbit.chunky.block.UnknownBlock;
 import se.llbit.chunky.chunk.BlockPalette;
 import se.llbit.chunky.plugin.PluginApi;
 import se.llbit.chunky.world.Material;
+import se.llbit.log.Log;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static se.llbit.math.Octree.*;
@@ -39,7 +42,7 @@ import static se.llbit.math.Octree.*;
  */
 public class PackedOctree implements Octree.OctreeImplementation {
   /**
-   * The entirety of the octree data is store in an int array.
+   * The entirety of the octree data is store in int arrays.
    * <p>
    * Each node is made of a single integer value, which is either posative or negative.
    * - Positive index -> Branch node; int is the index of first child (the other 7 follow sequentially).
@@ -51,21 +54,49 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * This implementation is inspired by this stackoverflow answer
    * https://stackoverflow.com/questions/41946007/efficient-and-well-explained-implementation-of-a-quadtree-for-2d-collision-det#answer-48330314
    * <p>
-   * When dealing with huge octree, the maximum size of an array may be a limitation.
+   * While the octree fits in {@link #pageSize} nodes, the nodes are stored in this single
+   * array that grows like a dynamic array. A bigger octree is split into pages instead, and
+   * grows by adding a page rather than copying all nodes to a bigger array. The array is then
+   * reused as the first page and this field is null.
+   * <p>
+   * Node indices are ints, so the number of nodes is limited to {@link #MAX_ARRAY_SIZE}.
    * When this occurs this implementation wan no longer be used and we must fallback on another one.
    * Here we'll throw an exception that the caller can catch.
    *
    * Note: This is public for some plugins. Stability is not guaranteed.
+   *
+   * @deprecated The field is null for octrees that are stored in pages. It will be made
+   * private in the next release.
    */
+  @Deprecated
   public int[] treeData;
 
   /**
-   * The max size of an array we allow is a bit less than the max value an integer can have
+   * The nodes of a big octree, null while {@link #treeData} is used. The node at index i is
+   * at {@code pages[i >>> pageShift][i & pageMask]}.
+   */
+  private int[][] pages;
+
+  /**
+   * Pages have 2^26 nodes. Octrees of up to 64M nodes (256 MiB) are kept in a single array,
+   * where traversal is a bit faster. Bigger octrees never copy more than one page while growing.
    */
-  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 16;
+  private static final int DEFAULT_PAGE_SHIFT = 26;
+
+  private final int pageShift;
+
+  /** Number of nodes in a page. */
+  private final int pageSize;
+
+  private final int pageMask;
 
   /**
-   * The size of the dynamic array. Capacity is given by treeData.length.
+   * The max number of nodes we allow is a bit less than the max value an integer can have
+   */
+  static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 16;
+
+  /**
+   * The size of the dynamic array. Capacity is given by {@link #capacity}.
    *
    * Java's built in ArrayList isn't used as generics don't work with primitives, and
    * Integer objects are object wrappers and will be references to somewhere else in
@@ -74,6 +105,11 @@ public class PackedOctree implements Octree.OctreeImplementation {
    */
   private int size;
 
+  /**
+   * The number of nodes that fit in the allocated array or pages.
+   */
+  private long capacity;
+
   /**
    * When removing nodes form the tree, it leaves holes in the array. Those holes
    * could be reused later when new nodes need to be added.
@@ -97,6 +133,12 @@ public class PackedOctree implements Octree.OctreeImplementation {
    */
   List<int[]> tempTree = new ArrayList<>();
 
+  /**
+   * Node statistics counted by the last compaction, null if the octree was not compacted
+   * since the last finalization started.
+   */
+  private OctreeStatistics finalizationStatistics;
+
   /**
    * NodeId implementation for a int array PackedOctree.
    */
@@ -132,21 +174,21 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
   @Override
   public boolean isBranch(Octree.NodeId node) {
-    return treeData[((NodeId) node).nodeIndex] > 0;
+    return getAt(((NodeId) node).nodeIndex) > 0;
   }
 
   @Override
   public Octree.NodeId getChild(Octree.NodeId parent, int childNo) {
-    return new NodeId(treeData[((NodeId) parent).nodeIndex] + childNo);
+    return new NodeId(getAt(((NodeId) parent).nodeIndex) + childNo);
   }
 
   @Override
   public int getType(Octree.NodeId node) {
-    return -treeData[((NodeId) node).nodeIndex];
+    return -getAt(((NodeId) node).nodeIndex);
   }
 
   private int getTypeFromIndex(int nodeIndex) {
-    return -treeData[nodeIndex];
+    return -getAt(nodeIndex);
   }
 
   @Override
@@ -161,13 +203,30 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @param nodeCount The number of nodes this tree will contain
    */
   public PackedOctree(int depth, long nodeCount) {
+    this(depth, nodeCount, DEFAULT_PAGE_SHIFT);
+  }
+
+  /**
+   * Constructor building a tree with capacity for some nodes, stored in pages of the given
+   * size once the tree does not fit in one page. Small pages are used to test paging.
+   *
+   * @param depth     The depth of the tree
+   * @param nodeCount The number of nodes this tree will contain
+   * @param pageShift Pages have 2^pageShift nodes
+   */
+  PackedOctree(int depth, long nodeCount, int pageShift) {
     this.depth = depth;
-    long arraySize = Math.max(nodeCount, DEFAULT_INITIAL_SIZE);
+    this.pageShift = pageShift;
+    pageSize = 1 << pageShift;
+    pageMask = pageSize - 1;
+    long arraySize = Math.max(nodeCount, Math.min(DEFAULT_INITIAL_SIZE, pageSize));
     if(arraySize > (long) MAX_ARRAY_SIZE)
       throw new OctreeTooBigException();
-    treeData = new int[(int) arraySize];
+    treeData = new int[(int) Math.min(arraySize, pageSize)];
+    capacity = treeData.length;
+    ensureCapacity(arraySize);
     // Add a root node
-    treeData[0] = 0;
+    setAt(0, 0);
     size = 1;
     // No holes
     freeHead = -1;
@@ -180,7 +239,11 @@ public class PackedOctree implements Octree.OctreeImplementation {
    */
   public PackedOctree(int depth) {
     this.depth = depth;
+    pageShift = DEFAULT_PAGE_SHIFT;
+    pageSize = 1 << pageShift;
+    pageMask = pageSize - 1;
     treeData = new int[DEFAULT_INITIAL_SIZE];
+    capacity = DEFAULT_INITIAL_SIZE;
     // Add a root node
     treeData[0] = 0;
     size = 1;
@@ -188,11 +251,74 @@ public class PackedOctree implements Octree.OctreeImplementation {
     freeHead = -1;
   }
 
+  /**
+   * @return the value of the node at the given index
+   */
+  int getAt(int index) {
+    int[] treeData = this.treeData;
+    if(treeData != null) {
+      return treeData[index];
+    }
+    return pages[index >>> pageShift][index & pageMask];
+  }
+
+  private void setAt(int index, int value) {
+    int[] treeData = this.treeData;
+    if(treeData != null) {
+      treeData[index] = value;
+    } else {
+      pages[index >>> pageShift][index & pageMask] = value;
+    }
+  }
+
+  /**
+   * @return the array holding the nodes from index {@code page * pageSize}
+   */
+  private int[] getPage(int page) {
+    return treeData != null ? treeData : pages[page];
+  }
+
+  /**
+   * Make room for at least the given number of nodes. The single array is grown by copying
+   * until it has the size of a page, then new pages are added. Full pages are never copied.
+   */
+  private void ensureCapacity(long required) {
+    if(required <= capacity) {
+      return;
+    }
+    if(required > (long) MAX_ARRAY_SIZE) {
+      // too many nodes for int indices
+      throw new OctreeTooBigException();
+    }
+    if(treeData != null) {
+      if(treeData.length < pageSize) {
+        // Grow the array like a dynamic array
+        long newSize = (long) Math.ceil(treeData.length * ARRAY_RESIZE_MULTIPLIER);
+        newSize = Math.min(Math.max(newSize, required), pageSize);
+        treeData = Arrays.copyOf(treeData, (int) newSize);
+        capacity = newSize;
+      }
+      if(required <= capacity) {
+        return;
+      }
+      // Switch to pages, the full array becomes the first page
+      pages = new int[][] { treeData };
+      treeData = null;
+    }
+    int pageCount = (int) ((required + pageMask) >>> pageShift);
+    int[][] newPages = Arrays.copyOf(pages, pageCount);
+    for(int i = pages.length; i < pageCount; ++i) {
+      newPages[i] = new int[pageSize];
+    }
+    pages = newPages;
+    capacity = (long) pageCount << pageShift;
+  }
+
   /**
    * Finds an open space in the array to put 8 nodes.
    *
    * Checks free list first, then tries to append at the end of the array,
-   * reallocating and extending the array if needed.
+   * adding a page if needed.
    *
    * Method also marks returned index as used (by removing from free list or
    * incrementing size)
@@ -205,36 +331,12 @@ public class PackedOctree implements Octree.OctreeImplementation {
       // get and return first value
       int index = freeHead;
       // advance freeHead down the linked list.
-      freeHead = treeData[freeHead];
+      freeHead = getAt(freeHead);
       return index;
     }
 
-    // append in array if we have the capacity
-    if(size + 8 <= treeData.length) {
-      int index = size;
-      size += 8;
-      return index;
-    }
-
-    // We need to grow the array
-    long newSize = (long) Math.ceil(treeData.length * ARRAY_RESIZE_MULTIPLIER);
-    // We need to check the array won't be too big
-    if(newSize > (long) MAX_ARRAY_SIZE) {
-      // We can allocate less memory than initially wanted if the next block will still be able to fit
-      // If not, this implementation isn't suitable
-      if(MAX_ARRAY_SIZE - size > 8) {
-        // If by making the new array be of size MAX_ARRAY_SIZE we can still fit the block requested
-        newSize = MAX_ARRAY_SIZE;
-      } else {
-        // array is too big for this datatype
-        throw new OctreeTooBigException();
-      }
-    }
-    // Allocate new array and copy existing contents over
-    int[] newArray = new int[(int) newSize];
-    System.arraycopy(treeData, 0, newArray, 0, size);
-    treeData = newArray;
-    // and increase size marker
+    // append in array, growing it if we don't have the capacity
+    ensureCapacity((long) size + 8);
     int index = size;
     size += 8;
     return index;
@@ -246,7 +348,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @param index the index of the beginning of the block to free
    */
   private void freeSpace(int index) {
-    treeData[index] = freeHead;
+    setAt(index, freeHead);
     freeHead = index;
   }
 
@@ -261,10 +363,10 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
     // Copy type to all children
     for(int i = 0; i < 8; ++i) {
-      treeData[firstChildIndex + i] = treeData[nodeIndex];
+      setAt(firstChildIndex + i, getAt(nodeIndex));
     }
     // Make this parent node a branching node pointing to its children.
-    treeData[nodeIndex] = firstChildIndex;
+    setAt(nodeIndex, firstChildIndex);
   }
 
   /**
@@ -274,9 +376,9 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @param typeNegation The negation of the type (the value directly stored in the array)
    */
   private void mergeNode(int nodeIndex, int typeNegation) {
-    int childrenIndex = treeData[nodeIndex];
+    int childrenIndex = getAt(nodeIndex);
     freeSpace(childrenIndex); // Delete children
-    treeData[nodeIndex] = typeNegation; // Make the node a leaf one
+    setAt(nodeIndex, typeNegation); // Make the node a leaf one
   }
 
   /**
@@ -289,9 +391,9 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @return true id the nodes compare equals, false otherwise
    */
   private boolean nodeEquals(int firstNodeIndex, int secondNodeIndex) {
-    boolean firstIsBranch = treeData[firstNodeIndex] > 0;
-    boolean secondIsBranch = treeData[secondNodeIndex] > 0;
-    return (!firstIsBranch && !secondIsBranch && treeData[firstNodeIndex] == treeData[secondNodeIndex]); // compare types
+    boolean firstIsBranch = getAt(firstNodeIndex) > 0;
+    boolean secondIsBranch = getAt(secondNodeIndex) > 0;
+    return (!firstIsBranch && !secondIsBranch && getAt(firstNodeIndex) == getAt(secondNodeIndex)); // compare types
   }
 
   /**
@@ -304,9 +406,9 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @return true id the nodes compare equals, false otherwise
    */
   private boolean nodeEquals(int firstNodeIndex, Octree.Node secondNode) {
-    boolean firstIsBranch = treeData[firstNodeIndex] > 0;
+    boolean firstIsBranch = getAt(firstNodeIndex) > 0;
     boolean secondIsBranch = (secondNode.type == BRANCH_NODE);
-    return (!firstIsBranch && !secondIsBranch && -treeData[firstNodeIndex] == secondNode.type); // compare types (don't forget that in the tree the negation of the type is stored)
+    return (!firstIsBranch && !secondIsBranch && -getAt(firstNodeIndex) == secondNode.type); // compare types (don't forget that in the tree the negation of the type is stored)
   }
 
   /**
@@ -338,7 +440,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
         return;
       }
 
-      if(treeData[nodeIndex] <= 0) { // It's a leaf node
+      if(getAt(nodeIndex) <= 0) { // It's a leaf node
         subdivideNode(nodeIndex);
       }
 
@@ -347,11 +449,11 @@ public class PackedOctree implements Octree.OctreeImplementation {
       int ybit = 1 & (y >> i);
       int zbit = 1 & (z >> i);
       position = (xbit << 2) | (ybit << 1) | zbit;
-      nodeIndex = treeData[nodeIndex] + position;
+      nodeIndex = getAt(nodeIndex) + position;
 
     }
     // store type into final node (this specific block coordinate's node)
-    treeData[nodeIndex] = -data.type; // Negation of BlockPalette type stored
+    setAt(nodeIndex, -data.type); // Negation of BlockPalette type stored
 
     // Merge nodes where all children have been set to the same type, starting from the bottom.
     for(int i = 0; i < depth; ++i) {
@@ -360,7 +462,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
       // assert each child is of same type
       boolean allSame = true;
       for(int j = 0; j < 8; ++j) {
-        int childIndex = treeData[parentIndex] + j;
+        int childIndex = getAt(parentIndex) + j;
         if(!nodeEquals(childIndex, nodeIndex)) {
           allSame = false;
           break;
@@ -369,7 +471,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
       // If all same type, join them. Else, parents can't join, so break merge loop.
       if(allSame) {
-        mergeNode(parentIndex, treeData[nodeIndex]);
+        mergeNode(parentIndex, getAt(nodeIndex));
       } else {
         break;
       }
@@ -399,7 +501,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * Free a whole subtree recursively
    */
   private void freeSubTree(int nodeIndex) {
-    int childrenIdx = treeData[nodeIndex];
+    int childrenIdx = getAt(nodeIndex);
     if(childrenIdx <= 0)
       return;
 
@@ -421,7 +523,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
     int childrenIdx = findSpace();
     for(int i = 0; i < 8; ++i) {
       int value = insertTempTree(level+1, startIdx*8 + i);
-      treeData[childrenIdx+i] = value;
+      setAt(childrenIdx+i, value);
     }
 
     return childrenIdx;
@@ -431,6 +533,10 @@ public class PackedOctree implements Octree.OctreeImplementation {
   public void setCube(int cubeDepth, int[] types, int x, int y, int z) {
     int size = 1 << cubeDepth;
 
+    if(tempTree == null) {
+      // The temporary tree is dropped during finalization, recreate it when chunks are reloaded.
+      tempTree = new ArrayList<>();
+    }
     for(int nextLevel = tempTree.size(); nextLevel <= cubeDepth; ++nextLevel)
       tempTree.add(new int[1 << (3*nextLevel)]);
 
@@ -487,11 +593,11 @@ public class PackedOctree implements Octree.OctreeImplementation {
     for(int i = depth - 1; i >= cubeDepth; --i) {
       parents[i] = nodeIndex;
 
-      if(type <= 0 && treeData[nodeIndex] == type) { // Everything in this region is already of this blocktype.
+      if(type <= 0 && getAt(nodeIndex) == type) { // Everything in this region is already of this blocktype.
         return;
       }
 
-      if(treeData[nodeIndex] <= 0) { // It's a leaf node
+      if(getAt(nodeIndex) <= 0) { // It's a leaf node
         subdivideNode(nodeIndex);
       }
 
@@ -500,13 +606,13 @@ public class PackedOctree implements Octree.OctreeImplementation {
       int ybit = 1 & (y >> i);
       int zbit = 1 & (z >> i);
       position = (xbit << 2) | (ybit << 1) | zbit;
-      nodeIndex = treeData[nodeIndex] + position;
+      nodeIndex = getAt(nodeIndex) + position;
     }
 
     freeSubTree(nodeIndex);
 
     int value = insertTempTree(0, 0);
-    treeData[nodeIndex] = value;
+    setAt(nodeIndex, value);
 
     // Merge nodes where all children have been set to the same type, starting from the bottom.
     for(int i = cubeDepth; i < depth; ++i) {
@@ -515,7 +621,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
       // check each child is of same type
       boolean allSame = true;
       for(int j = 0; j < 8; ++j) {
-        int childIndex = treeData[parentIndex] + j;
+        int childIndex = getAt(parentIndex) + j;
         if(!nodeEquals(childIndex, nodeIndex)) {
           allSame = false;
           break;
@@ -524,13 +630,35 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
       // If all same type, join them. Else, parents can't join, so break merge loop.
       if(allSame) {
-        mergeNode(parentIndex, treeData[nodeIndex]);
+        mergeNode(parentIndex, getAt(nodeIndex));
       } else {
         break;
       }
     }
   }
 
+  /**
+   * Replace the node at the position and depth of another packed octree with a copy of that
+   * octree. This inserts subtrees that were built in parallel. The parent nodes are not merged,
+   * that is done by {@link #endFinalization()}.
+   *
+   * x, y, z are in octree coordinates and must be multiples of the subtree size.
+   */
+  void setSubtree(PackedOctree subtree, int x, int y, int z) {
+    int nodeIndex = 0; // start at root
+    for(int i = depth - 1; i >= subtree.depth; --i) {
+      if(getAt(nodeIndex) <= 0) { // It's a leaf node
+        subdivideNode(nodeIndex);
+      }
+      int xbit = 1 & (x >> i);
+      int ybit = 1 & (y >> i);
+      int zbit = 1 & (z >> i);
+      nodeIndex = getAt(nodeIndex) + ((xbit << 2) | (ybit << 1) | zbit);
+    }
+    freeSubTree(nodeIndex);
+    copyNode(subtree, 0, nodeIndex);
+  }
+
   /**
    * Gets a NodeID and depth of the node that is (or contains) the specified block.
    *
@@ -542,16 +670,80 @@ public class PackedOctree implements Octree.OctreeImplementation {
   public void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z) {
     int nodeIndex = 0;
     int level = depth;
-    while(treeData[nodeIndex] > 0) {
-      level -= 1;
-      int lx = x >>> level;
-      int ly = y >>> level;
-      int lz = z >>> level;
-      nodeIndex = treeData[nodeIndex] + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+    int[] treeData = this.treeData;
+    if(treeData != null) {
+      while(treeData[nodeIndex] > 0) {
+        level -= 1;
+        int lx = x >>> level;
+        int ly = y >>> level;
+        int lz = z >>> level;
+        nodeIndex = treeData[nodeIndex] + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+      }
+    } else {
+      int[][] pages = this.pages;
+      int pageShift = this.pageShift;
+      int pageMask = this.pageMask;
+      int value;
+      while((value = pages[nodeIndex >>> pageShift][nodeIndex & pageMask]) > 0) {
+        level -= 1;
+        int lx = x >>> level;
+        int ly = y >>> level;
+        int lz = z >>> level;
+        nodeIndex = value + (((lx & 1) << 2) | ((ly & 1) << 1) | (lz & 1));
+      }
     }
     outTypeAndLevel.left(getTypeFromIndex(nodeIndex)).right(level);
   }
 
+  @Override
+  public void getWithLevel(IntIntMutablePair outTypeAndLevel, int x, int y, int z,
+      Octree.NodePath path) {
+    int[] nodes = path.nodes;
+    int nodeIndex = 0;
+    int level = depth;
+    if (path.level >= 0) {
+      // The lowest level where the block and the previous lookup are in the same node.
+      int common = 32 - Integer.numberOfLeadingZeros((x ^ path.x) | (y ^ path.y) | (z ^ path.z));
+      path.x = x;
+      path.y = y;
+      path.z = z;
+      if (common <= path.level) {
+        outTypeAndLevel.left(path.type).right(path.level);
+        return;
+      }
+      level = common;
+      nodeIndex = nodes[level];
+    } else {
+      path.x = x;
+      path.y = y;
+      path.z = z;
+      nodes[level] = 0;
+    }
+    int[] treeData = this.treeData;
+    if(treeData != null) {
+      int value;
+      while((value = treeData[nodeIndex]) > 0) {
+        level -= 1;
+        nodeIndex = value + ((((x >>> level) & 1) << 2) | (((y >>> level) & 1) << 1) | ((z >>> level) & 1));
+        nodes[level] = nodeIndex;
+      }
+    } else {
+      int[][] pages = this.pages;
+      int pageShift = this.pageShift;
+      int pageMask = this.pageMask;
+      int value;
+      while((value = pages[nodeIndex >>> pageShift][nodeIndex & pageMask]) > 0) {
+        level -= 1;
+        nodeIndex = value + ((((x >>> level) & 1) << 2) | (((y >>> level) & 1) << 1) | ((z >>> level) & 1));
+        nodes[level] = nodeIndex;
+      }
+    }
+    int type = getTypeFromIndex(nodeIndex);
+    path.level = level;
+    path.type = type;
+    outTypeAndLevel.left(type).right(level);
+  }
+
   /**
    * Gets the array index of the node which is (or contains) the block specified, via a binary (octnary?) search.
    *
@@ -560,12 +752,12 @@ public class PackedOctree implements Octree.OctreeImplementation {
   private int getNodeIndex(int x, int y, int z) {
     int nodeIndex = 0;
     int level = depth;
-    while(treeData[nodeIndex] > 0) {
+    while(getAt(nodeIndex) > 0) {
       level -= 1;
       int lx = 1 & (x >>> level);
       int ly = 1 & (y >>> level);
       int lz = 1 & (z >>> level);
-      nodeIndex = treeData[nodeIndex] + ((lx << 2) | (ly << 1) | lz);
+      nodeIndex = getAt(nodeIndex) + ((lx << 2) | (ly << 1) | lz);
     }
     return nodeIndex;
   }
@@ -584,7 +776,7 @@ public class PackedOctree implements Octree.OctreeImplementation {
   public Octree.Node get(int x, int y, int z) {
     int nodeIndex = getNodeIndex(x, y, z);
 
-    Octree.Node node = new Octree.Node(treeData[nodeIndex] > 0 ? BRANCH_NODE : -treeData[nodeIndex]);
+    Octree.Node node = new Octree.Node(getAt(nodeIndex) > 0 ? BRANCH_NODE : -getAt(nodeIndex));
 
     // Return dummy Node, will work if only type and data are used, breaks if children are needed
     return node;
@@ -599,10 +791,10 @@ public class PackedOctree implements Octree.OctreeImplementation {
   public Material getMaterial(int x, int y, int z, BlockPalette palette) {
     // Building the dummy node is useless here
     int nodeIndex = getNodeIndex(x, y, z);
-    if(treeData[nodeIndex] > 0) {
+    if(getAt(nodeIndex) > 0) {
       return UnknownBlock.UNKNOWN;
     }
-    return palette.get(-treeData[nodeIndex]);
+    return palette.get(-getAt(nodeIndex));
   }
 
   /**
@@ -649,6 +841,85 @@ public class PackedOctree implements Octree.OctreeImplementation {
     return tree;
   }
 
+  /**
+   * Create a new PackedOctree by reading a node array from a channel, one page at a time.
+   *
+   * @param size number of nodes in the node array, without free space
+   * @see OctreeNodeArray
+   */
+  static PackedOctree loadNodeArray(int depth, ReadableByteChannel channel, long size)
+      throws IOException {
+    PackedOctree tree = new PackedOctree(depth, size);
+    for(int page = 0; (long) page << tree.pageShift < size; ++page) {
+      long offset = (long) page << tree.pageShift;
+      int count = (int) Math.min(tree.pageSize, size - offset);
+      OctreeNodeArray.readPacked(channel, tree.getPage(page), count);
+    }
+    tree.size = (int) size;
+    return tree;
+  }
+
+  /**
+   * @return the number of used nodes, including free space
+   */
+  int getNodeArraySize() {
+    return size;
+  }
+
+  private void copyNode(PackedOctree source, int sourceIndex, int nodeIndex) {
+    int value = source.getAt(sourceIndex);
+    if(value > 0) {
+      int childrenIndex = findSpace();
+      setAt(nodeIndex, childrenIndex);
+      for(int i = 0; i < 8; ++i) {
+        copyNode(source, value + i, childrenIndex + i);
+      }
+    } else {
+      setAt(nodeIndex, value);
+    }
+  }
+
+  /**
+   * Copy a subtree of another octree and count its nodes.
+   *
+   * @param level the level of the node, counted from the bottom of the tree
+   */
+  private void copyNode(PackedOctree source, int sourceIndex, int nodeIndex, int level,
+      OctreeStatistics stats) {
+    int value = source.getAt(sourceIndex);
+    if(value > 0) {
+      stats.countBranch(level);
+      int childrenIndex = findSpace();
+      setAt(nodeIndex, childrenIndex);
+      for(int i = 0; i < 8; ++i) {
+        copyNode(source, value + i, childrenIndex + i, level - 1, stats);
+      }
+    } else {
+      stats.countLeaf(level, -value);
+      setAt(nodeIndex, value);
+    }
+  }
+
+  /**
+   * @return a copy of this octree, sharing no storage with it
+   */
+  PackedOctree copy() {
+    PackedOctree tree = new PackedOctree(depth, 0, pageShift);
+    if(treeData != null) {
+      tree.treeData = treeData.clone();
+    } else {
+      tree.treeData = null;
+      tree.pages = new int[pages.length][];
+      for(int i = 0; i < pages.length; ++i) {
+        tree.pages[i] = pages[i].clone();
+      }
+    }
+    tree.capacity = capacity;
+    tree.size = size;
+    tree.freeHead = freeHead;
+    return tree;
+  }
+
   /**
    * Recursively read this node in from its serialized form from an InputStream (probably from a file).
    */
@@ -656,16 +927,16 @@ public class PackedOctree implements Octree.OctreeImplementation {
     int type = in.readInt();
     if(type == BRANCH_NODE) {
       int childrenIndex = findSpace();
-      treeData[nodeIndex] = childrenIndex;
+      setAt(nodeIndex, childrenIndex);
       for(int i = 0; i < 8; ++i) {
         loadNode(in, childrenIndex + i);
       }
     } else {
       if((type & DATA_FLAG) == 0) {
-        treeData[nodeIndex] = -type; // negation of type
+        setAt(nodeIndex, -type); // negation of type
       } else {
         int data = in.readInt();
-        treeData[nodeIndex] = -(type ^ DATA_FLAG);
+        setAt(nodeIndex, -(type ^ DATA_FLAG));
       }
     }
   }
@@ -676,14 +947,14 @@ public class PackedOctree implements Octree.OctreeImplementation {
   private void storeNode(DataOutputStream out, int nodeIndex) throws IOException {
     // Branches are stored as branch markers, not the index (index is for array form only)
     // Otherwise store its palette type (positive of stored value)
-    int type = treeData[nodeIndex] > 0 ? BRANCH_NODE : -treeData[nodeIndex];
+    int type = getAt(nodeIndex) > 0 ? BRANCH_NODE : -getAt(nodeIndex);
     out.writeInt(type);
 
     // And if its a branch, recursively store its children.
     // Note: this stores Depth-First, NOT Breadth-First.
     if(type == BRANCH_NODE) {
       for(int i = 0; i < 8; ++i) {
-        storeNode(out, treeData[nodeIndex] + i);
+        storeNode(out, getAt(nodeIndex) + i);
       }
     }
   }
@@ -702,28 +973,95 @@ public class PackedOctree implements Octree.OctreeImplementation {
    * @param nodeIndex Index of starting node.
    */
   private long countNodes(int nodeIndex) {
-    if(treeData[nodeIndex] > 0) {
+    if(getAt(nodeIndex) > 0) {
       long total = 1; // this node
       for(int i = 0; i < 8; ++i)
-        total += countNodes(treeData[nodeIndex] + i);
+        total += countNodes(getAt(nodeIndex) + i);
       return total;
     }
     // leaf node -> just this node
     return 1;
   }
 
+  @Override
+  public OctreeStatistics getStatistics() {
+    OctreeStatistics stats = OctreeStatistics.compute(this);
+    long freeNodes = 0;
+    for(int index = freeHead; index != -1; index = getAt(index))
+      freeNodes += 8;
+    stats.setStorage((size - freeNodes) * Integer.BYTES, capacity * Integer.BYTES, freeNodes);
+    return stats;
+  }
+
+  @Override
+  public OctreeStatistics getFinalizationStatistics() {
+    return finalizationStatistics;
+  }
+
   @Override
   public void startFinalization() {
     tempTree = null; // no longer needed
+    finalizationStatistics = null;
   }
 
   /**
-   * Merge all nodes that can be merged together.
+   * Merge all nodes that can be merged together, then compact the node storage.
    */
   @Override
   public void endFinalization() {
+    mergeNodes();
+    compact();
+  }
+
+  /**
+   * Merge all nodes that can be merged together, without compacting.
+   */
+  void mergeNodes() {
     // There is a bunch of ANY_TYPE nodes we should try to merge
-    finalizationNode(0);
+    if(getAt(0) > 0) {
+      // Only a branching root has children. Merging a leaf root would free the root itself
+      // and loop the free list.
+      finalizationNode(0);
+    }
+  }
+
+  /**
+   * Rewrite the nodes in depth-first order into storage without free space.
+   *
+   * Merging and replacing subtrees leaves holes in the free list and scatters the groups of
+   * siblings over the array. After compacting there is no free space and the children of a
+   * node are stored right after the groups of its previous siblings, as when loading an
+   * octree from a file, so traversal touches fewer cache lines.
+   *
+   * The nodes are counted while they are copied, for {@link #getFinalizationStatistics()}.
+   */
+  private void compact() {
+    // The nodes that are not in the free list, an upper bound of the nodes in the tree
+    // that does not need a walk over the tree.
+    long usedNodes = size;
+    for(int index = freeHead; index != -1; index = getAt(index))
+      usedNodes -= 8;
+    Runtime runtime = Runtime.getRuntime();
+    long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    if(usedNodes * Integer.BYTES > available) {
+      Log.info("Not enough free memory to compact the octree");
+      return;
+    }
+    long oldCapacity = capacity;
+    PackedOctree compacted = new PackedOctree(depth, usedNodes, pageShift);
+    OctreeStatistics stats = new OctreeStatistics(depth);
+    compacted.copyNode(this, 0, 0, depth, stats);
+    treeData = compacted.treeData;
+    pages = compacted.pages;
+    capacity = compacted.capacity;
+    size = compacted.size;
+    freeHead = -1;
+    stats.setStorage(size * Integer.BYTES, capacity * Integer.BYTES, 0);
+    finalizationStatistics = stats;
+    if((oldCapacity - capacity) * Integer.BYTES >= 1 << 20) {
+      Log.infof("Compacted octree from %d to %d MiB", oldCapacity * Integer.BYTES >> 20,
+          capacity * Integer.BYTES >> 20);
+    }
   }
 
   /**
@@ -738,14 +1076,14 @@ public class PackedOctree implements Octree.OctreeImplementation {
 
     // For each child node...
     for(int i = 0; i < 8; ++i) {
-      int childIndex = treeData[nodeIndex] + i;
+      int childIndex = getAt(nodeIndex) + i;
 
       // If branches, recursively attempt merge on it.
-      if(treeData[childIndex] > 0) {
+      if(getAt(childIndex) > 0) {
         finalizationNode(childIndex);
 
         // If child node did not merge, we cannot merge.
-        if(treeData[childIndex] > 0) {
+        if(getAt(childIndex) > 0) {
           isStillMergeable = false;
         }
       }
@@ -754,10 +1092,10 @@ public class PackedOctree implements Octree.OctreeImplementation {
       if(isStillMergeable) {
         // If no non-ANY_TYPE merge type selected, try to set it to this new block's.
         if(mergedType == -ANY_TYPE) {
-          mergedType = treeData[childIndex];
+          mergedType = getAt(childIndex);
 
           // Else we have already selected a type. Make sure this block is compatible with that merge.
-        } else if(!(treeData[childIndex] == -ANY_TYPE || (treeData[childIndex] == mergedType))) {
+        } else if(!(getAt(childIndex) == -ANY_TYPE || (getAt(childIndex) == mergedType))) {
           isStillMergeable = false;
         }
       }
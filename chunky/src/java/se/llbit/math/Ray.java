@@ -120,6 +120,12 @@ public class Ray {
    */
   public boolean specular;
 
+  /**
+   * Path throughput: the fraction of the radiance carried by this ray that reaches the camera,
+   * including Russian Roulette compensation. Used to decide when to terminate the path.
+   */
+  public double throughput = 1;
+
   /**
    * Builds an uninitialized ray.
    */
@@ -146,6 +152,7 @@ public class Ray {
     color.set(0, 0, 0, 0);
     emittance.set(0, 0, 0);
     specular = true;
+    throughput = 1;
   }
 
   /**
@@ -162,6 +169,7 @@ public class Ray {
     color.set(0, 0, 0, 0);
     emittance.set(0, 0, 0);
     specular = other.specular;
+    throughput = other.throughput;
   }
 
   /**
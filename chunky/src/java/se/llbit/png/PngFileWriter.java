@@ -118,6 +118,46 @@ public class PngFileWriter implements AutoCloseable {
     idat.close();
   }
 
+  private IDATWriter rowWriter = null;
+  private boolean rowAlpha;
+
+  /**
+   * Start writing an image one row at a time, for images that do not fit in memory.
+   * Each row is written with {@link #writeRow}, and {@link #finishRows()} must be called
+   * after the last row.
+   *
+   * @param alpha write an RGBA image, using the alpha channel of the ARGB pixels
+   */
+  public void startRows(int width, int height, boolean alpha) throws IOException {
+    writeChunk(new IHDR(width, height, alpha ? IHDR.COLOR_TYPE_RGBA : IHDR.COLOR_TYPE_RGB));
+    rowWriter = new IDATWriter();
+    rowAlpha = alpha;
+  }
+
+  /**
+   * Write one row of ARGB pixels.
+   */
+  public void writeRow(int[] data, int offset, int width) throws IOException {
+    rowWriter.write(IDAT.FILTER_TYPE_NONE); // Scanline header.
+    for (int x = 0; x < width; ++x) {
+      int argb = data[offset + x];
+      rowWriter.write((argb >> 16) & 0xFF);
+      rowWriter.write((argb >> 8) & 0xFF);
+      rowWriter.write(argb & 0xFF);
+      if (rowAlpha) {
+        rowWriter.write(argb >>> 24);
+      }
+    }
+  }
+
+  /**
+   * Finish an image written with {@link #writeRow}.
+   */
+  public void finishRows() throws IOException {
+    rowWriter.close();
+    rowWriter = null;
+  }
+
   class IDATWriter {
     Deflater deflater = new Deflater();
     int inputSize = 0;
@@ -20,6 +20,7 @@ import java.awt.Image;
 import java.awt.Toolkit;
 import java.io.ByteArrayOutputStream;
 import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.DecodedTextureCache;
 import se.llbit.log.Log;
 
 import javax.imageio.ImageIO;
@@ -89,6 +90,20 @@ public final class ImageLoader {
   }
 
   public static BitmapImage read(InputStream in) throws IOException {
+    if (in instanceof DecodedTextureCache.ImageStream) {
+      // Resource pack image: use the decoded texture cache.
+      DecodedTextureCache.ImageStream imageStream = (DecodedTextureCache.ImageStream) in;
+      BitmapImage image = imageStream.getCachedImage();
+      if (image == null) {
+        image = decode(in);
+        imageStream.store(image);
+      }
+      return image;
+    }
+    return decode(in);
+  }
+
+  private static BitmapImage decode(InputStream in) throws IOException {
     // TODO remove this when java 8 support is dropped
     if (!IMAGEIO_PNG_TRANSPARENT_COLOR_SUPPORTED) {
       ByteArrayOutputStream buffer = new ByteArrayOutputStream();
@@ -0,0 +1,48 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import se.llbit.chunky.renderer.AnimationRender.Property;
+import se.llbit.chunky.renderer.scene.Scene;
+
+import java.io.File;
+
+public class TestAnimationRender {
+  /**
+   * Properties are interpolated between their own keyframes, and keep their first or last
+   * value outside them.
+   */
+  @Test
+  public void testInterpolation() {
+    AnimationRender animation = new AnimationRender(new Scene(), new File("."));
+    animation.addKeyframe(2, Property.CAMERA_FOV, 40);
+    animation.addKeyframe(6, Property.CAMERA_FOV, 80);
+    animation.addKeyframe(0, Property.SUN_ALTITUDE, 1);
+
+    assertEquals(7, animation.numFrames());
+    assertEquals(40, animation.value(Property.CAMERA_FOV, 0, 70), 1e-9);
+    assertEquals(40, animation.value(Property.CAMERA_FOV, 2, 70), 1e-9);
+    assertEquals(50, animation.value(Property.CAMERA_FOV, 3, 70), 1e-9);
+    assertEquals(80, animation.value(Property.CAMERA_FOV, 6, 70), 1e-9);
+    assertEquals(80, animation.value(Property.CAMERA_FOV, 9, 70), 1e-9);
+    assertEquals(1, animation.value(Property.SUN_ALTITUDE, 5, 0.5), 1e-9);
+    assertEquals(0.5, animation.value(Property.ANIMATION_TIME, 5, 0.5), 1e-9);
+  }
+}
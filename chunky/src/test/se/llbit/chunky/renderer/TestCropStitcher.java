@@ -0,0 +1,82 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import se.llbit.util.TaskTracker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TestCropStitcher {
+  private static CropStitcher.PixelSource fill(int width, int height, int argb) {
+    return () -> {
+      int[] pixels = new int[width * height];
+      Arrays.fill(pixels, argb);
+      return pixels;
+    };
+  }
+
+  /**
+   * Crops with different heights should end up at their positions in the frame, and
+   * uncovered parts should be black.
+   */
+  @Test
+  public void testStitch() throws IOException {
+    CropStitcher stitcher = new CropStitcher(7, 5);
+    stitcher.add(0, 0, 3, 5, fill(3, 5, 0xFFFF0000));
+    stitcher.add(3, 1, 4, 2, fill(4, 2, 0xFF00FF00));
+    stitcher.add(3, 3, 2, 2, fill(2, 2, 0xFF0000FF));
+    File output = File.createTempFile("stitch", ".png");
+    output.deleteOnExit();
+    stitcher.stitch(output, false, TaskTracker.Task.NONE);
+
+    BufferedImage image = ImageIO.read(output);
+    assertEquals(7, image.getWidth());
+    assertEquals(5, image.getHeight());
+    for (int y = 0; y < 5; ++y) {
+      for (int x = 0; x < 7; ++x) {
+        int expected;
+        if (x < 3) {
+          expected = 0xFFFF0000;
+        } else if (y >= 1 && y < 3) {
+          expected = 0xFF00FF00;
+        } else if (y >= 3 && x < 5) {
+          expected = 0xFF0000FF;
+        } else {
+          expected = 0xFF000000;
+        }
+        assertEquals(String.format("pixel (%d, %d)", x, y), expected, image.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCropOutsideFrame() {
+    new CropStitcher(10, 10).add(5, 5, 6, 5, fill(6, 5, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidFileName() {
+    new CropStitcher(10, 10).addFile(new File("scene-100.png"), null);
+  }
+}
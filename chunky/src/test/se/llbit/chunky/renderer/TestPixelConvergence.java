@@ -0,0 +1,132 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestPixelConvergence {
+  /**
+   * Add a pair of samples with luminance 0 and 2 to a pixel, so that the mean luminance is 1
+   * and the variance of a sample is 1.
+   */
+  private static void addNoisyPair(PixelConvergence convergence, int pixel) {
+    convergence.addSamples(pixel, 2, 0 * 0 + 2 * 2, 1);
+  }
+
+  /**
+   * A pixel is converged once it has enough samples and the standard error of its luminance
+   * is below the threshold.
+   */
+  @Test
+  public void testConvergence() {
+    PixelConvergence convergence = new PixelConvergence(2, 1, 0);
+    convergence.startPass(0, 1000, 0.095);
+
+    // Without noise, the pixel converges as soon as there are enough samples.
+    for (int i = 1; i < PixelConvergence.MIN_SAMPLES; ++i) {
+      convergence.addSamples(0, 1, 0.25, 0.5);
+      assertFalse(convergence.isConverged(0));
+    }
+    convergence.addSamples(0, 1, 0.25, 0.5);
+    assertTrue(convergence.isConverged(0));
+    assertEquals(PixelConvergence.MIN_SAMPLES, convergence.getSampleCount(0));
+    assertEquals(0.5, convergence.getConvergedFraction(), 0);
+
+    // The standard error is 1/sqrt(n), which is below 0.095 from 112 samples.
+    for (int n = 2; n < 112; n += 2) {
+      addNoisyPair(convergence, 1);
+      assertFalse(convergence.isConverged(1));
+    }
+    addNoisyPair(convergence, 1);
+    assertTrue(convergence.isConverged(1));
+    assertEquals(112, convergence.getSampleCount(1));
+    assertTrue(convergence.isConverged());
+  }
+
+  /**
+   * The counts are kept between passes, but are reset if the SPP of the scene is not the SPP
+   * that the previous pass rendered to.
+   */
+  @Test
+  public void testReset() {
+    PixelConvergence convergence = new PixelConvergence(2, 1, 10);
+    assertEquals(10, convergence.getSampleCount(0));
+    convergence.startPass(10, 20, 0.1);
+    for (int i = 0; i < 20; ++i) {
+      convergence.addSamples(0, 1, 0.25, 0.5);
+    }
+    assertTrue(convergence.isConverged(0));
+    assertEquals(30, convergence.getSampleCount(0));
+
+    // The next pass continues from the SPP of the previous pass.
+    convergence.startPass(30, 20, 0.1);
+    assertTrue(convergence.isConverged(0));
+    assertEquals(30, convergence.getSampleCount(0));
+    assertEquals(10, convergence.getSampleCount(1));
+
+    // The render was reset.
+    convergence.startPass(0, 20, 0.1);
+    assertFalse(convergence.isConverged(0));
+    assertEquals(0, convergence.getSampleCount(0));
+    assertEquals(0, convergence.getSampleCount(1));
+    assertEquals(0, convergence.getConvergedFraction(), 0);
+
+    // The noise estimate is restarted, so MIN_SAMPLES new samples are needed to converge.
+    for (int i = 1; i < PixelConvergence.MIN_SAMPLES; ++i) {
+      convergence.addSamples(0, 1, 0.25, 0.5);
+    }
+    assertFalse(convergence.isConverged(0));
+  }
+
+  /**
+   * Lowering the threshold samples converged pixels again, raising it does not.
+   */
+  @Test
+  public void testLowerThreshold() {
+    PixelConvergence convergence = new PixelConvergence(1, 1, 0);
+    convergence.startPass(0, 200, 0.095);
+    for (int n = 0; n < 112; n += 2) {
+      addNoisyPair(convergence, 0);
+    }
+    assertTrue(convergence.isConverged(0));
+
+    convergence.startPass(200, 200, 0.2);
+    assertTrue(convergence.isConverged(0));
+    convergence.startPass(400, 200, 0.2);
+    assertTrue(convergence.isConverged(0));
+
+    // The error is 1/sqrt(n), which is below 0.09 from 124 samples.
+    convergence.startPass(600, 200, 0.09);
+    assertFalse(convergence.isConverged(0));
+    assertFalse(convergence.isConverged());
+    assertEquals(112, convergence.getSampleCount(0));
+    addNoisyPair(convergence, 0);
+    addNoisyPair(convergence, 0);
+    addNoisyPair(convergence, 0);
+    assertEquals(118, convergence.getSampleCount(0));
+    assertFalse(convergence.isConverged(0));
+    for (int n = 118; n < 124; n += 2) {
+      addNoisyPair(convergence, 0);
+    }
+    assertTrue(convergence.isConverged(0));
+    assertTrue(convergence.isConverged());
+  }
+}
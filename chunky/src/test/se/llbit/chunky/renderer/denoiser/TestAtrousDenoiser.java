@@ -0,0 +1,147 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.denoiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import se.llbit.math.Vector3;
+
+import java.util.Random;
+
+public class TestAtrousDenoiser {
+  private static final int WIDTH = 32;
+  private static final int HEIGHT = 24;
+  private static final int SPP = 4;
+
+  /**
+   * Render a plane lit with the given irradiance, with a checkerboard albedo. The left half
+   * of the image faces a different direction than the right half.
+   */
+  private static double[] render(AovBuffer aov, double irradiance, double noise, long seed) {
+    Random random = new Random(seed);
+    double[] samples = new double[WIDTH * HEIGHT * 3];
+    Vector3 albedoSum = new Vector3();
+    Vector3 normalSum = new Vector3();
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        double albedo = ((x + y) % 2 == 0) ? 0.8 : 0.3;
+        double light = x < WIDTH / 2 ? irradiance : irradiance / 4;
+        double sum = 0;
+        double squaredLuminanceSum = 0;
+        for (int i = 0; i < SPP; ++i) {
+          double sample = albedo * light * (1 + noise * (2 * random.nextDouble() - 1));
+          sum += sample;
+          squaredLuminanceSum += sample * sample;
+        }
+        int pixel = y * WIDTH + x;
+        for (int c = 0; c < 3; ++c) {
+          samples[pixel * 3 + c] = sum / SPP;
+        }
+        albedoSum.set(albedo * SPP, albedo * SPP, albedo * SPP);
+        if (x < WIDTH / 2) {
+          normalSum.set(0, SPP, 0);
+        } else {
+          normalSum.set(SPP, 0, 0);
+        }
+        aov.addSamples(pixel, SPP, albedoSum, normalSum, squaredLuminanceSum);
+      }
+    }
+    return samples;
+  }
+
+  private static double error(double[] image, double[] reference) {
+    double sum = 0;
+    for (int i = 0; i < image.length; ++i) {
+      double d = image[i] - reference[i];
+      sum += d * d;
+    }
+    return Math.sqrt(sum / image.length);
+  }
+
+  /**
+   * A noise-free image is not changed, including the albedo pattern and the edge between the
+   * two halves.
+   */
+  @Test
+  public void testNoiseFreeImage() {
+    AovBuffer aov = new AovBuffer(WIDTH, HEIGHT);
+    double[] samples = render(aov, 1, 0, 0);
+    double[] result = new double[samples.length];
+    new AtrousDenoiser(WIDTH, HEIGHT).denoise(samples, aov, result);
+    for (int i = 0; i < samples.length; ++i) {
+      assertEquals(samples[i], result[i], 1e-9);
+    }
+  }
+
+  @Test
+  public void testNoiseIsReduced() {
+    AovBuffer aov = new AovBuffer(WIDTH, HEIGHT);
+    double[] samples = render(aov, 1, 0.5, 1);
+    double[] reference = render(new AovBuffer(WIDTH, HEIGHT), 1, 0, 0);
+    double[] result = new double[samples.length];
+    new AtrousDenoiser(WIDTH, HEIGHT).denoise(samples, aov, result);
+    assertTrue(error(result, reference) < error(samples, reference) / 3);
+  }
+
+  /**
+   * Pixels without AOV samples are copied unchanged.
+   */
+  @Test
+  public void testPixelsWithoutSamples() {
+    AovBuffer aov = new AovBuffer(WIDTH, HEIGHT);
+    double[] samples = new double[WIDTH * HEIGHT * 3];
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = i % 7;
+    }
+    double[] result = new double[samples.length];
+    new AtrousDenoiser(WIDTH, HEIGHT).denoise(samples, aov, result);
+    for (int i = 0; i < samples.length; ++i) {
+      assertEquals(samples[i], result[i], 0);
+    }
+  }
+
+  /**
+   * A denoiser that is reused for another frame gives the same result as a new denoiser,
+   * also for pixels that had samples in the previous frame but not in this one.
+   */
+  @Test
+  public void testReuseDenoiser() {
+    AtrousDenoiser denoiser = new AtrousDenoiser(WIDTH, HEIGHT);
+    AovBuffer aov = new AovBuffer(WIDTH, HEIGHT);
+    double[] samples = render(aov, 1, 0.5, 2);
+    double[] result = new double[samples.length];
+    denoiser.denoise(samples, aov, result);
+
+    AovBuffer nextAov = new AovBuffer(WIDTH, HEIGHT);
+    double[] nextSamples = render(nextAov, 2, 0.5, 3);
+    // Clear the samples of the top half.
+    nextAov.clear();
+    Vector3 albedo = new Vector3(0.5, 0.5, 0.5);
+    Vector3 normal = new Vector3(0, 1, 0);
+    for (int pixel = WIDTH * HEIGHT / 2; pixel < WIDTH * HEIGHT; ++pixel) {
+      nextAov.addSamples(pixel, 1, albedo, normal, 0.25);
+    }
+    double[] expected = new double[samples.length];
+    new AtrousDenoiser(WIDTH, HEIGHT).denoise(nextSamples, nextAov, expected);
+    denoiser.denoise(nextSamples, nextAov, result);
+    for (int i = 0; i < samples.length; ++i) {
+      assertEquals(expected[i], result[i], 0);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class TestContentStore {
+  /** SHA-256 of "hello". */
+  private static final String HELLO_HASH =
+      "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] hello() {
+    return "hello".getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testAdd() throws IOException {
+    ContentStore store = new ContentStore(folder.newFolder("store"));
+    File file = folder.newFile("a.txt");
+    Files.write(file.toPath(), hello());
+
+    assertNull(store.get(HELLO_HASH));
+    assertEquals(HELLO_HASH, store.add(file));
+    assertNotNull(store.get(HELLO_HASH));
+    assertArrayEquals(hello(), Files.readAllBytes(store.get(HELLO_HASH).toPath()));
+  }
+
+  /**
+   * Files with the same content are only stored once.
+   */
+  @Test
+  public void testDeduplication() throws IOException {
+    File directory = folder.newFolder("store");
+    ContentStore store = new ContentStore(directory);
+    File a = folder.newFile("a.txt");
+    File b = folder.newFile("b.txt");
+    Files.write(a.toPath(), hello());
+    Files.write(b.toPath(), hello());
+
+    assertEquals(store.add(a), store.add(b));
+    store.put(HELLO_HASH, 5, new ByteArrayInputStream(hello()));
+    String[] files = directory.list();
+    assertNotNull(files);
+    assertArrayEquals(new String[] { HELLO_HASH }, files);
+  }
+
+  @Test
+  public void testPutWrongContent() throws IOException {
+    File directory = folder.newFolder("store");
+    ContentStore store = new ContentStore(directory);
+    byte[] other = "world".getBytes(StandardCharsets.UTF_8);
+    try {
+      store.put(HELLO_HASH, other.length, new ByteArrayInputStream(other));
+      throw new AssertionError("Expected an IOException");
+    } catch (IOException expected) {
+    }
+    assertNull(store.get(HELLO_HASH));
+    assertEquals(0, directory.list().length);
+  }
+
+  @Test
+  public void testInvalidHash() throws IOException {
+    ContentStore store = new ContentStore(folder.newFolder("store"));
+    assertNull(store.get("../" + HELLO_HASH.substring(3)));
+  }
+
+  @Test
+  public void testLink() throws IOException {
+    ContentStore store = new ContentStore(folder.newFolder("store"));
+    File file = folder.newFile("a.txt");
+    Files.write(file.toPath(), hello());
+    String hash = store.add(file);
+
+    File target = new File(folder.newFolder("scene"), "scene.json");
+    store.link(hash, target);
+    // Linking again replaces the file.
+    store.link(hash, target);
+    assertArrayEquals(hello(), Files.readAllBytes(target.toPath()));
+    assertArrayEquals(new String[] { "scene.json" }, target.getParentFile().list());
+  }
+}
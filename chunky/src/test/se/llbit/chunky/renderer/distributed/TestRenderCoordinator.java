@@ -0,0 +1,243 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.main.Chunky;
+import se.llbit.chunky.main.ChunkyOptions;
+import se.llbit.chunky.renderer.RenderContext;
+import se.llbit.chunky.renderer.renderdump.RenderDump;
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.util.TaskTracker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Runs a coordinator and talks to it like a render worker.
+ */
+public class TestRenderCoordinator {
+  private static final int WIDTH = Math.max(10, Scene.MIN_CANVAS_WIDTH);
+  private static final int HEIGHT = Math.max(10, Scene.MIN_CANVAS_HEIGHT);
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** The worker side of a connection. */
+  private static class Worker implements AutoCloseable {
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+    final RenderJob job;
+
+    Worker(int port) throws IOException, InterruptedException {
+      socket = connect(port);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(RenderJob.MAGIC);
+      out.writeInt(RenderJob.VERSION);
+      job = RenderJob.read(in);
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+      // The coordinator is started on another thread.
+      for (int attempt = 0; ; ++attempt) {
+        try {
+          return new Socket("localhost", port);
+        } catch (ConnectException e) {
+          if (attempt == 100) {
+            throw e;
+          }
+          Thread.sleep(50);
+        }
+      }
+    }
+
+    /**
+     * Request all files of the job and return their content, in job order.
+     */
+    byte[][] requestFiles() throws IOException {
+      out.writeInt(job.allFiles().size());
+      for (RenderJob.JobFile file : job.allFiles()) {
+        out.writeUTF(file.hash);
+      }
+      byte[][] content = new byte[job.allFiles().size()][];
+      for (int i = 0; i < content.length; ++i) {
+        content[i] = new byte[(int) job.allFiles().get(i).size];
+        in.readFully(content[i]);
+      }
+      return content;
+    }
+
+    void sendSamples(int spp) throws IOException {
+      Scene report = new Scene();
+      report.width = WIDTH;
+      report.height = HEIGHT;
+      report.initBuffers();
+      Arrays.fill(report.getSampleBuffer(), 0.5);
+      report.spp = spp;
+      ByteArrayOutputStream dump = new ByteArrayOutputStream();
+      RenderDump.save(dump, report, TaskTracker.NONE);
+      out.writeInt(dump.size());
+      dump.writeTo(out);
+      out.flush();
+    }
+
+    /**
+     * Close the connection and wait until the coordinator has closed its side.
+     */
+    void disconnect() throws IOException {
+      socket.shutdownOutput();
+      while (in.read() != -1) {
+      }
+      socket.close();
+    }
+
+    @Override public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static Thread start(RenderCoordinator coordinator, int port) {
+    Thread server = new Thread(() -> {
+      try {
+        coordinator.run(port);
+      } catch (IOException e) {
+        throw new Error(e);
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  @Test(timeout = 60000)
+  public void testExchange() throws Exception {
+    File sceneDirectory = folder.newFolder("scene");
+    byte[] description = "{}".getBytes(StandardCharsets.UTF_8);
+    byte[] octree = new byte[1000];
+    Arrays.fill(octree, (byte) 7);
+    Files.write(new File(sceneDirectory, "test.json").toPath(), description);
+    Files.write(new File(sceneDirectory, "test.octree2").toPath(), octree);
+
+    Scene scene = new Scene();
+    scene.setName("test");
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.initBuffers();
+    scene.setTargetSpp(4);
+    RenderContext context = new RenderContext(new Chunky(ChunkyOptions.getDefaults()));
+    context.setSceneDirectory(sceneDirectory);
+    RenderCoordinator coordinator = new RenderCoordinator(scene, context,
+        Collections.emptyList(), folder.newFolder("farm"), 1, TaskTracker.NONE);
+
+    int port = freePort();
+    Thread server = start(coordinator, port);
+
+    try (Worker first = new Worker(port)) {
+      assertEquals("test", first.job.sceneName);
+      assertEquals(1, first.job.reportInterval);
+      assertTrue(first.job.texturePacks.isEmpty());
+      assertEquals(2, first.job.sceneFiles.size());
+      assertEquals("test.json", first.job.sceneFiles.get(0).name);
+      assertEquals("test.octree2", first.job.sceneFiles.get(1).name);
+      byte[][] files = first.requestFiles();
+      assertArrayEquals(description, files[0]);
+      assertArrayEquals(octree, files[1]);
+      assertTrue(first.job.sampleOffset > 0);
+      first.disconnect();
+
+      // The first worker did not send any samples, so its range is reused.
+      try (Worker second = new Worker(port); Worker third = new Worker(port)) {
+        assertEquals(first.job.sampleOffset, second.job.sampleOffset);
+        assertTrue(third.job.sampleOffset > second.job.sampleOffset);
+        second.out.writeInt(0);
+        third.out.writeInt(0);
+
+        second.sendSamples(1);
+        third.sendSamples(3);
+        // The target SPP is reached, so the coordinator closes the connections.
+        assertEquals(-1, second.in.read());
+        assertEquals(-1, third.in.read());
+      }
+    }
+    server.join();
+    assertEquals(4, scene.spp);
+    assertEquals(0.5, scene.getSampleBuffer()[0], 1e-9);
+  }
+
+  /**
+   * A worker that requests more files than the job has, or that sends a render dump with an
+   * invalid size, is disconnected without allocating memory for the request.
+   */
+  @Test(timeout = 60000)
+  public void testInvalidSizes() throws Exception {
+    File sceneDirectory = folder.newFolder("scene");
+    Files.write(new File(sceneDirectory, "test.json").toPath(),
+        "{}".getBytes(StandardCharsets.UTF_8));
+
+    Scene scene = new Scene();
+    scene.setName("test");
+    scene.setCanvasSize(WIDTH, HEIGHT);
+    scene.initBuffers();
+    scene.setTargetSpp(4);
+    RenderContext context = new RenderContext(new Chunky(ChunkyOptions.getDefaults()));
+    context.setSceneDirectory(sceneDirectory);
+    RenderCoordinator coordinator = new RenderCoordinator(scene, context,
+        Collections.emptyList(), folder.newFolder("farm"), 1, TaskTracker.NONE);
+
+    int port = freePort();
+    Thread server = start(coordinator, port);
+    try {
+      try (Worker worker = new Worker(port)) {
+        worker.out.writeInt(Integer.MAX_VALUE);
+        assertEquals(-1, worker.in.read());
+      }
+      for (int size : new int[] { -1, Integer.MAX_VALUE }) {
+        try (Worker worker = new Worker(port)) {
+          worker.out.writeInt(0);
+          worker.out.writeInt(size);
+          assertEquals(-1, worker.in.read());
+        }
+      }
+    } finally {
+      coordinator.stop();
+    }
+    server.join();
+    assertEquals(0, scene.spp);
+  }
+}
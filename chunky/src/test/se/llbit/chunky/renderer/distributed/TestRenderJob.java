@@ -0,0 +1,65 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.distributed;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestRenderJob {
+  private static void assertFilesEqual(List<RenderJob.JobFile> expected,
+      List<RenderJob.JobFile> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).name, actual.get(i).name);
+      assertEquals(expected.get(i).hash, actual.get(i).hash);
+      assertEquals(expected.get(i).size, actual.get(i).size);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    RenderJob job = new RenderJob("scène", 0, 30,
+        Arrays.asList(
+            new RenderJob.JobFile("scène.json", "ab", 12),
+            new RenderJob.JobFile("scène.octree2", "cd", 1L << 33)),
+        Collections.singletonList(new RenderJob.JobFile("pack.zip", "ef", 0)));
+    // Offsets do not fit in an int after a few hundred workers.
+    job = job.withSampleOffset(300L << 32);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    job.write(new DataOutputStream(bytes));
+    RenderJob copy = RenderJob.read(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(job.sceneName, copy.sceneName);
+    assertEquals(300L << 32, copy.sampleOffset);
+    assertEquals(job.reportInterval, copy.reportInterval);
+    assertFilesEqual(job.sceneFiles, copy.sceneFiles);
+    assertFilesEqual(job.texturePacks, copy.texturePacks);
+    assertFilesEqual(job.allFiles(), copy.allFiles());
+  }
+}
@@ -0,0 +1,72 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.sampler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSobolSampler {
+  /**
+   * The first 16 samples of each pair of dimensions should have one sample in each
+   * 4x4 cell and in each of the 16 intervals of both dimensions.
+   */
+  @Test
+  public void testStratification() {
+    SobolSampler sampler = new SobolSampler();
+    for (int pair = 0; pair < 8; ++pair) {
+      boolean[] cells = new boolean[16];
+      boolean[] first = new boolean[16];
+      boolean[] second = new boolean[16];
+      for (int i = 0; i < 16; ++i) {
+        sampler.startSample(3, 7, i);
+        for (int dim = 0; dim < 2 * pair; ++dim) {
+          sampler.nextDouble();
+        }
+        double u = sampler.nextDouble();
+        double v = sampler.nextDouble();
+        assertTrue(u >= 0 && u < 1);
+        assertTrue(v >= 0 && v < 1);
+        cells[(int) (u * 4) * 4 + (int) (v * 4)] = true;
+        first[(int) (u * 16)] = true;
+        second[(int) (v * 16)] = true;
+      }
+      for (int i = 0; i < 16; ++i) {
+        assertTrue(cells[i]);
+        assertTrue(first[i]);
+        assertTrue(second[i]);
+      }
+    }
+  }
+
+  /**
+   * The values of a sample only depend on the pixel and the sample index.
+   */
+  @Test
+  public void testDeterministic() {
+    SobolSampler a = new SobolSampler();
+    SobolSampler b = new SobolSampler();
+    a.startSample(10, 20, 5);
+    a.nextDouble();
+    a.startSample(1, 2, 3);
+    b.startSample(1, 2, 3);
+    for (int dim = 0; dim < 10; ++dim) {
+      assertEquals(a.nextDouble(), b.nextDouble(), 0);
+    }
+  }
+}
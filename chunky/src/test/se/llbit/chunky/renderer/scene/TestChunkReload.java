@@ -0,0 +1,182 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.renderer.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.chunky.block.BlockSpec;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.chunk.ChunkData;
+import se.llbit.chunky.world.Chunk;
+import se.llbit.chunky.world.ChunkPosition;
+import se.llbit.chunky.world.Region;
+import se.llbit.chunky.world.World;
+import se.llbit.math.Octree;
+import se.llbit.math.Vector3i;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.StringTag;
+import se.llbit.util.TaskTracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestChunkReload {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File settingsDirectory;
+
+  @Before public void setUp() throws IOException {
+    Files.write(folder.newFile("chunky.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+    settingsDirectory = PersistentSettings.settingsDirectory();
+    PersistentSettings.changeSettingsDirectory(folder.getRoot());
+  }
+
+  @After public void tearDown() {
+    PersistentSettings.changeSettingsDirectory(settingsDirectory);
+  }
+
+  private static BlockSpec block(String name) {
+    CompoundTag tag = new CompoundTag();
+    tag.add("Name", new StringTag(name));
+    return new BlockSpec(tag);
+  }
+
+  /**
+   * A world where every chunk has a floor of stone. Chunks can have a glass block on top of
+   * the floor, which changes the timestamp of the chunk.
+   */
+  private static class TestWorld extends World {
+    final Map<ChunkPosition, Integer> timestamps = new HashMap<>();
+    final Map<ChunkPosition, Region> regions = new HashMap<>();
+
+    TestWorld(File directory) {
+      super("test", directory, OVERWORLD_DIMENSION, Collections.emptySet(), false, 0, 0);
+    }
+
+    void addGlass(ChunkPosition cp) {
+      timestamps.merge(cp, 1, Integer::sum);
+    }
+
+    @Override public synchronized Region getRegion(ChunkPosition pos) {
+      return regions.computeIfAbsent(pos, p -> new Region(p, this) {
+        @Override public synchronized void parse() {
+        }
+
+        @Override public Chunk getChunk(ChunkPosition cp) {
+          return new TestChunk(cp, TestWorld.this);
+        }
+
+        @Override public int getChunkTimestamp(ChunkPosition cp) {
+          return timestamps.getOrDefault(cp, 0);
+        }
+
+        @Override public boolean chunkChangedSince(ChunkPosition cp, int timestamp) {
+          return timestamp != getChunkTimestamp(cp);
+        }
+      });
+    }
+  }
+
+  private static class TestChunk extends Chunk {
+    private final TestWorld world;
+    private final ChunkPosition position;
+
+    TestChunk(ChunkPosition position, TestWorld world) {
+      super(position, world);
+      this.world = world;
+      this.position = position;
+    }
+
+    @Override public synchronized ChunkData getChunkData(ChunkData chunkData,
+        BlockPalette palette) {
+      chunkData.clear();
+      int stone = palette.put(block("minecraft:stone"));
+      for (int x = 0; x < 16; ++x) {
+        for (int z = 0; z < 16; ++z) {
+          chunkData.setBlockAt(x, 0, z, stone);
+          chunkData.setBlockAt(x, 1, z, stone);
+        }
+      }
+      if (world.timestamps.getOrDefault(position, 0) > 0) {
+        chunkData.setBlockAt(8, 2, 8, palette.put(block("minecraft:glass")));
+      }
+      return chunkData;
+    }
+  }
+
+  private static void assertBlockAt(String name, Scene scene, int x, int y, int z) {
+    Vector3i origin = scene.getOrigin();
+    Octree octree = scene.getWorldOctree();
+    // The block is already in the palette, so this only looks up its index.
+    assertEquals(scene.getPalette().put(block(name)),
+        octree.get(x - origin.x, y - origin.y, z - origin.z).type);
+  }
+
+  /**
+   * Reloading changed chunks adds the new blocks to a copy of the block palette and the
+   * octree, so that the scene being rendered is not changed.
+   */
+  @Test public void testReloadChangedChunks() throws IOException {
+    TestWorld world = new TestWorld(folder.newFolder("world"));
+    List<ChunkPosition> chunks = new ArrayList<>();
+    for (int x = -1; x <= 1; ++x) {
+      for (int z = -1; z <= 1; ++z) {
+        chunks.add(ChunkPosition.get(x, z));
+      }
+    }
+    Scene scene = new Scene();
+    scene.loadChunks(TaskTracker.NONE, world, chunks);
+    assertBlockAt("minecraft:air", scene, 8, 2, 8);
+
+    Scene renderScene = new Scene();
+    renderScene.copyState(scene);
+    BlockPalette renderPalette = renderScene.getPalette();
+    int renderPaletteSize = renderPalette.getPalette().size();
+    assertFalse(scene.reloadChunks(TaskTracker.NONE, world));
+
+    ChunkPosition changed = ChunkPosition.get(0, 0);
+    world.addGlass(changed);
+    assertEquals(Collections.singletonList(changed), scene.findChangedChunks(world));
+    assertTrue(scene.reloadChunks(TaskTracker.NONE, world));
+
+    assertBlockAt("minecraft:glass", scene, 8, 2, 8);
+    assertBlockAt("minecraft:stone", scene, 8, 1, 8);
+    assertNotSame(renderPalette, scene.getPalette());
+
+    // The scene being rendered keeps its palette and octree.
+    assertSame(renderPalette, renderScene.getPalette());
+    assertEquals(renderPaletteSize, renderPalette.getPalette().size());
+    assertBlockAt("minecraft:air", renderScene, 8, 2, 8);
+  }
+}
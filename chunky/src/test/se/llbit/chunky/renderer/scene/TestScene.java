@@ -17,9 +17,17 @@
  */
 package se.llbit.chunky.renderer.scene;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
+import java.util.Random;
+
 public class TestScene {
+  /** Fraction of the light that the simulated surface reflects at each bounce. */
+  private static final double ALBEDO = 0.6;
+
   /**
    * Test that modifying material properties does not throw an exception.
    *
@@ -30,4 +38,55 @@ public class TestScene {
     new Scene().setSpecular("minecraft:gravel", 0.3f);
     new Scene().setIor("minecraft:gravel", 0.3f);
   }
+
+  /**
+   * Russian roulette does not change the expected radiance of a path, compared to a reference
+   * without roulette, and it ends the paths after fewer bounces.
+   */
+  @Test public void testRussianRouletteUnbiased() {
+    Scene reference = new Scene();
+    // Rays below the ray depth always survive, so there is no roulette in practice.
+    reference.rayDepth = 1000;
+    Scene roulette = new Scene();
+    roulette.rayDepth = 2;
+
+    int samples = 200000;
+    long[] referenceBounces = new long[1];
+    long[] rouletteBounces = new long[1];
+    double expected = 0;
+    double actual = 0;
+    Random random = new Random(0);
+    for (int i = 0; i < samples; ++i) {
+      expected += tracePath(reference, random, referenceBounces);
+      actual += tracePath(roulette, random, rouletteBounces);
+    }
+    expected /= samples;
+    actual /= samples;
+
+    assertEquals(1 / (1 - ALBEDO), expected, 1e-9);
+    assertEquals(expected, actual, 0.02);
+    assertTrue(rouletteBounces[0] < referenceBounces[0] / 10);
+  }
+
+  /**
+   * Trace a path where each bounce emits one unit of light and reflects {@link #ALBEDO} of the
+   * incoming light, in the same way as the path tracer uses {@link Scene#kill}.
+   *
+   * @return the radiance of the path
+   */
+  private static double tracePath(Scene scene, Random random, long[] bounces) {
+    double radiance = 0;
+    double throughput = 1;
+    int depth = 0;
+    while (true) {
+      radiance += throughput;
+      double survival = scene.kill(depth + 1, throughput * ALBEDO, random);
+      if (survival == 0) {
+        return radiance;
+      }
+      throughput *= ALBEDO / survival;
+      depth += 1;
+      bounces[0] += 1;
+    }
+  }
 }
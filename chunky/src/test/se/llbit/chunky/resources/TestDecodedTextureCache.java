@@ -0,0 +1,147 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.PersistentSettings;
+import se.llbit.resources.ImageLoader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class TestDecodedTextureCache {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File settingsDirectory;
+
+  @Before public void setUp() throws IOException {
+    Files.write(folder.newFile("chunky.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+    settingsDirectory = PersistentSettings.settingsDirectory();
+    PersistentSettings.changeSettingsDirectory(folder.getRoot());
+  }
+
+  @After public void tearDown() {
+    PersistentSettings.changeSettingsDirectory(settingsDirectory);
+  }
+
+  private File writePack() throws IOException {
+    BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+    for (int i = 0; i < 6; ++i) {
+      image.setRGB(i % 3, i / 3, 0xFF000000 | (i * 0x203040));
+    }
+    File pack = folder.newFile("pack.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(pack))) {
+      out.putNextEntry(new ZipEntry("a.png"));
+      ImageIO.write(image, "png", out);
+      out.putNextEntry(new ZipEntry("b.png"));
+      ImageIO.write(image, "png", out);
+    }
+    return pack;
+  }
+
+  private static BitmapImage load(File pack, String name, int expectedHits) throws IOException {
+    try (ZipFile zip = new ZipFile(pack);
+        DecodedTextureCache cache = DecodedTextureCache.open(pack)) {
+      BitmapImage image;
+      try (InputStream in = DecodedTextureCache.getInputStream(zip, name)) {
+        image = ImageLoader.read(in);
+      }
+      assertEquals(expectedHits, cache.getHits());
+      return image;
+    }
+  }
+
+  /**
+   * Decoded images are written to the cache file when the cache is closed, and read from it
+   * the next time the resource pack is loaded.
+   */
+  @Test public void testCachedImages() throws IOException {
+    File pack = writePack();
+    BitmapImage a = load(pack, "a.png", 0);
+    File cacheFile = new File(PersistentSettings.cacheDirectory(),
+        DecodedTextureCache.cacheFileName(pack.getAbsolutePath()));
+    assertTrue(cacheFile.isFile());
+
+    // Adding an image to an existing cache file keeps the previous images.
+    BitmapImage b = load(pack, "b.png", 0);
+    assertArrayEquals(a.data, b.data);
+    assertArrayEquals(a.data, load(pack, "a.png", 1).data);
+    assertArrayEquals(b.data, load(pack, "b.png", 1).data);
+    assertEquals(3, a.width);
+    assertEquals(0xFF000000 | (5 * 0x203040), a.getPixel(2, 1));
+
+    // The temporary files are renamed to the cache file.
+    String[] tempFiles = PersistentSettings.cacheDirectory().list(
+        (dir, name) -> name.endsWith(".tmp"));
+    assertEquals(0, tempFiles.length);
+  }
+
+  /**
+   * The cache file name only depends on the resource pack path.
+   */
+  @Test public void testCacheFileName() {
+    assertEquals(
+        "textures-ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad.bin",
+        DecodedTextureCache.cacheFileName("abc"));
+  }
+
+  /**
+   * Cache files for missing resource packs and cache files in an old format are deleted.
+   */
+  @Test public void testPrune() throws IOException {
+    File pack = writePack();
+    load(pack, "a.png", 0);
+    File cacheDir = PersistentSettings.cacheDirectory();
+    File cacheFile = new File(cacheDir,
+        DecodedTextureCache.cacheFileName(pack.getAbsolutePath()));
+    File oldFormat = new File(cacheDir, "textures-AbCdE.bin");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(oldFormat))) {
+      out.writeInt(0x43544331);
+      out.writeInt(1);
+    }
+    File unrelated = new File(cacheDir, "other.bin");
+    assertTrue(unrelated.createNewFile());
+
+    DecodedTextureCache.prune(cacheDir);
+    assertTrue(cacheFile.isFile());
+    assertFalse(oldFormat.exists());
+    assertTrue(unrelated.isFile());
+
+    assertTrue(pack.delete());
+    DecodedTextureCache.prune(cacheDir);
+    assertFalse(cacheFile.exists());
+  }
+}
@@ -0,0 +1,150 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.chunk.BlockPalette;
+import se.llbit.chunky.world.WorldTexture;
+import se.llbit.math.Octree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class TestOctreeFileFormat {
+  private static final int DEPTH = 5;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BlockPalette palette = new BlockPalette();
+  private final Octree worldTree = new Octree(Octree.DEFAULT_IMPLEMENTATION, DEPTH);
+  private final Octree waterTree = new Octree(Octree.DEFAULT_IMPLEMENTATION, DEPTH);
+  private final WorldTexture grass = new WorldTexture();
+  private final WorldTexture foliage = new WorldTexture();
+  private final WorldTexture water = new WorldTexture();
+
+  public TestOctreeFileFormat() {
+    Random random = new Random(0);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 3000; ++i) {
+      // Clusters of a few types, so that the trees have leaves on many levels.
+      int x = random.nextInt(size / 2) * 2;
+      int y = random.nextInt(size / 2) * 2;
+      int z = random.nextInt(size / 2) * 2;
+      worldTree.set(1 + random.nextInt(3), x, y, z);
+      worldTree.set(1 + random.nextInt(3), x + 1, y, z);
+      if (y < 4) {
+        waterTree.set(5, x, y, z);
+      }
+    }
+    grass.set(3, 4, new float[] { 0.25f, 0.5f, 0.75f });
+  }
+
+  private byte[] storeUncompressed() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OctreeFileFormat.storeUncompressed(bytes, worldTree, waterTree, palette, grass, foliage,
+        water);
+    return bytes.toByteArray();
+  }
+
+  private static void assertSameTree(Octree expected, Octree actual) {
+    assertEquals(expected.getDepth(), actual.getDepth());
+    int size = 1 << expected.getDepth();
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          assertEquals(expected.get(x, y, z).type, actual.get(x, y, z).type);
+        }
+      }
+    }
+  }
+
+  private void assertSameData(OctreeFileFormat.OctreeData data) {
+    assertSameTree(worldTree, data.worldTree);
+    assertSameTree(waterTree, data.waterTree);
+    assertArrayEquals(grass.get(3, 4), data.grassColors.get(3, 4), 0);
+    assertFalse(data.foliageColors.contains(3, 4));
+  }
+
+  @Test
+  public void testDetectFormat() throws IOException {
+    assertTrue(OctreeFileFormat.isUncompressed(new ByteArrayInputStream(storeUncompressed())));
+
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(gzip))) {
+      OctreeFileFormat.store(out, worldTree, waterTree, palette, grass, foliage, water);
+    }
+    assertFalse(OctreeFileFormat.isUncompressed(new ByteArrayInputStream(gzip.toByteArray())));
+    assertFalse(OctreeFileFormat.isUncompressed(new ByteArrayInputStream(new byte[2])));
+  }
+
+  /**
+   * Octrees are read into each built-in implementation from a stream.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] bytes = storeUncompressed();
+    for (String impl : new String[] { "PACKED", "DAG", "MAPPED", "BIGPACKED" }) {
+      OctreeFileFormat.OctreeData data =
+          OctreeFileFormat.loadUncompressed(new ByteArrayInputStream(bytes), impl);
+      assertEquals(impl, data.worldTree.getImplementation().getClass(),
+          new Octree(impl, DEPTH).getImplementation().getClass());
+      assertSameData(data);
+    }
+  }
+
+  /**
+   * A file stream lets MAPPED copy the nodes from the file channel.
+   */
+  @Test
+  public void testRoundTripFile() throws IOException {
+    File file = folder.newFile("scene.octree2");
+    Files.write(file.toPath(), storeUncompressed());
+    for (String impl : new String[] { "PACKED", "MAPPED" }) {
+      try (InputStream in = new FileInputStream(file)) {
+        assertSameData(OctreeFileFormat.loadUncompressed(in, impl));
+      }
+    }
+  }
+
+  /**
+   * A deduplicated octree is stored with its shared subtrees.
+   */
+  @Test
+  public void testRoundTripShared() throws IOException {
+    worldTree.switchImplementation("DAG");
+    byte[] bytes = storeUncompressed();
+    worldTree.switchImplementation("PACKED");
+    for (String impl : new String[] { "PACKED", "DAG", "MAPPED" }) {
+      assertSameData(OctreeFileFormat.loadUncompressed(new ByteArrayInputStream(bytes), impl));
+    }
+  }
+}
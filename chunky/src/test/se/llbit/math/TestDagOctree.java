@@ -0,0 +1,247 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class TestDagOctree {
+  private static final int DEPTH = 6;
+
+  private static byte[] store(Octree.OctreeImplementation octree) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      octree.store(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Every block has the same type in both octrees.
+   *
+   * <p>The nodes may differ before finalization, as {@link PackedOctree#set} does not always
+   * merge all parents that can be merged.
+   */
+  private static void assertSameBlocks(PackedOctree expected, DagOctree actual) {
+    int size = 1 << expected.getDepth();
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          assertEquals(expected.get(x, y, z).type, actual.get(x, y, z).type);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lookups of every block and the stored nodes are the same in both octrees.
+   */
+  private static void assertSameTree(PackedOctree expected, DagOctree actual)
+      throws IOException {
+    assertSameBlocks(expected, actual);
+    int size = 1 << expected.getDepth();
+    IntIntMutablePair expectedLeaf = new IntIntMutablePair(0, 0);
+    IntIntMutablePair actualLeaf = new IntIntMutablePair(0, 0);
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          expected.getWithLevel(expectedLeaf, x, y, z);
+          actual.getWithLevel(actualLeaf, x, y, z);
+          assertEquals(expectedLeaf.leftInt(), actualLeaf.leftInt());
+          assertEquals(expectedLeaf.rightInt(), actualLeaf.rightInt());
+        }
+      }
+    }
+    assertEquals(expected.nodeCount(), actual.nodeCount());
+    assertArrayEquals(store(expected), store(actual));
+  }
+
+  private static void finalize(Octree.OctreeImplementation... octrees) {
+    for (Octree.OctreeImplementation octree : octrees) {
+      octree.startFinalization();
+      octree.endFinalization();
+    }
+  }
+
+  /**
+   * Setting blocks gives the same octree as a packed octree, also when blocks are replaced so
+   * that nodes are split and merged again.
+   */
+  @Test
+  public void testSet() throws IOException {
+    Random random = new Random(0);
+    PackedOctree expected = new PackedOctree(DEPTH);
+    DagOctree actual = new DagOctree(DEPTH);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 20000; ++i) {
+      // Blocks of a few types in small clusters, so that leaves are on many levels.
+      int x = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      int y = random.nextInt(size / 4) * 4;
+      int z = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      int type = random.nextInt(4);
+      expected.set(type, x, y, z);
+      actual.set(type, x, y, z);
+    }
+    assertSameBlocks(expected, actual);
+    finalize(expected, actual);
+    assertSameTree(expected, actual);
+  }
+
+  /**
+   * Setting cubes gives the same octree as a packed octree, including the merging of
+   * {@link Octree#ANY_TYPE} blocks.
+   */
+  @Test
+  public void testSetCube() throws IOException {
+    Random random = new Random(1);
+    PackedOctree expected = new PackedOctree(DEPTH);
+    DagOctree actual = new DagOctree(DEPTH);
+    int cubeDepth = 3;
+    int cubeSize = 1 << cubeDepth;
+    int[] types = new int[cubeSize * cubeSize * cubeSize];
+    int cubesPerSide = 1 << (DEPTH - cubeDepth);
+    for (int i = 0; i < 200; ++i) {
+      int fill = random.nextInt(3);
+      for (int j = 0; j < types.length; ++j) {
+        switch (random.nextInt(8)) {
+          case 0:
+            types[j] = Octree.ANY_TYPE;
+            break;
+          case 1:
+            types[j] = random.nextInt(3);
+            break;
+          default:
+            types[j] = fill;
+        }
+      }
+      int x = random.nextInt(cubesPerSide) * cubeSize;
+      int y = random.nextInt(cubesPerSide) * cubeSize;
+      int z = random.nextInt(cubesPerSide) * cubeSize;
+      expected.setCube(cubeDepth, types, x, y, z);
+      actual.setCube(cubeDepth, types, x, y, z);
+    }
+    assertSameBlocks(expected, actual);
+    finalize(expected, actual);
+    assertSameTree(expected, actual);
+  }
+
+  /**
+   * Splicing in subtrees gives the same finalized octree as a packed octree, both for DAG
+   * and packed subtrees.
+   */
+  @Test
+  public void testSetSubtree() throws IOException {
+    Random random = new Random(2);
+    PackedOctree expected = new PackedOctree(DEPTH);
+    DagOctree actual = new DagOctree(DEPTH);
+    int subtreeDepth = 4;
+    int subtreeSize = 1 << subtreeDepth;
+    for (int i = 0; i < 30; ++i) {
+      PackedOctree packedSubtree = new PackedOctree(subtreeDepth);
+      DagOctree dagSubtree = new DagOctree(subtreeDepth);
+      for (int j = 0; j < 500; ++j) {
+        int type = random.nextInt(3);
+        int x = random.nextInt(subtreeSize);
+        int y = random.nextInt(subtreeSize);
+        int z = random.nextInt(subtreeSize);
+        packedSubtree.set(type, x, y, z);
+        dagSubtree.set(type, x, y, z);
+      }
+      int x = random.nextInt(1 << (DEPTH - subtreeDepth)) * subtreeSize;
+      int y = random.nextInt(1 << (DEPTH - subtreeDepth)) * subtreeSize;
+      int z = random.nextInt(1 << (DEPTH - subtreeDepth)) * subtreeSize;
+      expected.setSubtree(packedSubtree, x, y, z);
+      actual.setSubtree(i % 2 == 0 ? dagSubtree : packedSubtree, x, y, z);
+    }
+    finalize(expected, actual);
+    assertSameTree(expected, actual);
+  }
+
+  /**
+   * A world made of one repeated pattern stores each distinct subtree once, also after
+   * loading it from the stored format.
+   */
+  @Test
+  public void testDeduplication() throws IOException {
+    int depth = 8;
+    Random random = new Random(3);
+    int[] pattern = new int[8 * 8 * 8];
+    for (int i = 0; i < pattern.length; ++i) {
+      pattern[i] = random.nextInt(4);
+    }
+    DagOctree octree = new DagOctree(depth);
+    int size = 1 << depth;
+    for (int x = 0; x < size; x += 8) {
+      for (int y = 0; y < size; y += 8) {
+        for (int z = 0; z < size; z += 8) {
+          octree.setCube(3, pattern, x, y, z);
+        }
+      }
+    }
+    finalize(octree);
+    // 32768 copies of the pattern, each with more than 512 nodes, share one copy of the
+    // pattern and one group for each level above it.
+    long nodeCount = octree.nodeCount();
+    assertTrue(nodeCount > 32768L * 512);
+    assertTrue(octree.storedNodeCount() < 1000);
+
+    byte[] stored = store(octree);
+    DagOctree loaded = DagOctree.load(new DataInputStream(new ByteArrayInputStream(stored)));
+    assertEquals(octree.storedNodeCount(), loaded.storedNodeCount());
+    assertArrayEquals(stored, store(loaded));
+  }
+
+  /**
+   * Groups that are no longer used are removed while building, and the octree stays the
+   * same as a packed octree.
+   */
+  @Test
+  public void testCompactWhileBuilding() throws IOException {
+    int depth = 8;
+    Random random = new Random(4);
+    PackedOctree expected = new PackedOctree(depth);
+    DagOctree actual = new DagOctree(depth);
+    int size = 1 << depth;
+    long maxStored = 0;
+    for (int i = 0; i < 150000; ++i) {
+      // Replacing blocks in a small region leaves the old groups of the path unused.
+      int type = random.nextInt(3);
+      int x = random.nextInt(size / 8);
+      int y = random.nextInt(size / 8);
+      int z = random.nextInt(size / 8);
+      expected.set(type, x, y, z);
+      actual.set(type, x, y, z);
+      maxStored = Math.max(maxStored, actual.storedNodeCount());
+    }
+    // Each set adds up to one group for every level, about six million nodes in total.
+    assertTrue(maxStored < 2 << 20);
+    finalize(expected, actual);
+    assertEquals(expected.nodeCount(), actual.nodeCount());
+    assertArrayEquals(store(expected), store(actual));
+  }
+}
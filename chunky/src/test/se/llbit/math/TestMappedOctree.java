@@ -0,0 +1,79 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.PersistentSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class TestMappedOctree {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File settingsDirectory;
+
+  @Before public void setUp() throws IOException {
+    Files.write(folder.newFile("chunky.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+    settingsDirectory = PersistentSettings.settingsDirectory();
+    PersistentSettings.changeSettingsDirectory(folder.getRoot());
+  }
+
+  @After public void tearDown() {
+    PersistentSettings.changeSettingsDirectory(settingsDirectory);
+  }
+
+  /**
+   * The storage file is created in the cache directory, and a disposed octree can still be
+   * read but not grown.
+   */
+  @Test public void testDispose() {
+    File storage = new File(PersistentSettings.cacheDirectory(), "octree");
+    MappedOctree octree = new MappedOctree(4);
+    octree.set(3, 1, 2, 3);
+    octree.dispose();
+    assertEquals(3, octree.get(1, 2, 3).type);
+    assertEquals(0, octree.get(0, 0, 0).type);
+    octree.dispose();
+
+    // The file is deleted when it is closed, on Windows only once it is also unmapped.
+    assertTrue(storage.isDirectory());
+    File[] files = storage.listFiles();
+    assertTrue(files != null
+        && (files.length == 0 || System.getProperty("os.name").startsWith("Windows")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGrowAfterDispose() {
+    MappedOctree octree = new MappedOctree(12);
+    octree.dispose();
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; ++i) {
+      octree.set(1, random.nextInt(1 << 12), random.nextInt(1 << 12), random.nextInt(1 << 12));
+    }
+  }
+}
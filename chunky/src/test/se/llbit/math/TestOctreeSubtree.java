@@ -0,0 +1,161 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.llbit.chunky.PersistentSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TestOctreeSubtree {
+  private static final int DEPTH = 7;
+  private static final int SUBTREE_DEPTH = 5;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File settingsDirectory;
+
+  @Before public void setUp() throws IOException {
+    Files.write(folder.newFile("chunky.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+    settingsDirectory = PersistentSettings.settingsDirectory();
+    PersistentSettings.changeSettingsDirectory(folder.getRoot());
+  }
+
+  @After public void tearDown() {
+    PersistentSettings.changeSettingsDirectory(settingsDirectory);
+  }
+
+  /** A 16x16x16 cube of blocks, like a chunk section. */
+  private static class Cube {
+    final int x, y, z;
+    final int[] types = new int[16 * 16 * 16];
+
+    Cube(int x, int y, int z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+  }
+
+  private static List<Cube> randomCubes() {
+    Random random = new Random(0);
+    Set<Integer> positions = new HashSet<>();
+    List<Cube> cubes = new ArrayList<>();
+    int cubesPerSide = 1 << (DEPTH - 4);
+    while (cubes.size() < 60) {
+      int x = random.nextInt(cubesPerSide);
+      int y = random.nextInt(cubesPerSide);
+      int z = random.nextInt(cubesPerSide);
+      if (!positions.add((x * cubesPerSide + y) * cubesPerSide + z)) {
+        continue;
+      }
+      Cube cube = new Cube(x * 16, y * 16, z * 16);
+      if (random.nextInt(4) == 0) {
+        // Uniform cubes are merged with their neighbours.
+        Arrays.fill(cube.types, 1);
+      } else {
+        for (int i = 0; i < cube.types.length; ++i) {
+          // Runs of the same type along x, so that leaves are on several levels.
+          cube.types[i] = i % 16 < 8 ? 1 + (i / 512) % 3 : random.nextInt(4);
+        }
+      }
+      cubes.add(cube);
+    }
+    return cubes;
+  }
+
+  private static byte[] store(Octree octree) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      octree.getImplementation().store(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Building parts of an octree in subtrees and splicing them in gives the same finalized
+   * octree as setting all cubes directly in the octree.
+   */
+  private static void testSplice(String implementation) throws IOException {
+    List<Cube> cubes = randomCubes();
+
+    Octree expected = new Octree(implementation, DEPTH);
+    for (Cube cube : cubes) {
+      expected.setCube(4, cube.types, cube.x, cube.y, cube.z);
+    }
+
+    Octree actual = new Octree(implementation, DEPTH);
+    int subtreeSize = 1 << SUBTREE_DEPTH;
+    int mask = subtreeSize - 1;
+    for (int x = 0; x < 1 << DEPTH; x += subtreeSize) {
+      for (int y = 0; y < 1 << DEPTH; y += subtreeSize) {
+        for (int z = 0; z < 1 << DEPTH; z += subtreeSize) {
+          Octree subtree = null;
+          for (Cube cube : cubes) {
+            if ((cube.x & ~mask) == x && (cube.y & ~mask) == y && (cube.z & ~mask) == z) {
+              if (subtree == null) {
+                subtree = actual.createSubtree(SUBTREE_DEPTH);
+              }
+              subtree.setCube(4, cube.types, cube.x & mask, cube.y & mask, cube.z & mask);
+            }
+          }
+          if (subtree != null) {
+            actual.setSubtree(subtree, x, y, z);
+            subtree.dispose();
+          }
+        }
+      }
+    }
+
+    for (Octree octree : new Octree[] {expected, actual}) {
+      octree.startFinalization();
+      octree.endFinalization();
+    }
+    assertArrayEquals(store(expected), store(actual));
+    expected.dispose();
+    actual.dispose();
+  }
+
+  @Test public void testSplicePacked() throws IOException {
+    testSplice("PACKED");
+  }
+
+  @Test public void testSpliceMapped() throws IOException {
+    testSplice("MAPPED");
+  }
+
+  @Test public void testSpliceDag() throws IOException {
+    testSplice("DAG");
+  }
+}
@@ -0,0 +1,185 @@
+/* Copyright (c) 2021 Chunky contributors
+ *
+ * This file is part of Chunky.
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import it.unimi.dsi.fastutil.ints.IntIntMutablePair;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestPackedOctree {
+  private static final int DEPTH = 6;
+
+  /**
+   * Lookups through a node path give the same leaves as lookups from the root, both for
+   * neighbouring blocks and for blocks far apart.
+   */
+  @Test
+  public void testLookupWithPath() {
+    Random random = new Random(0);
+    PackedOctree octree = new PackedOctree(DEPTH);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 2000; ++i) {
+      // Blocks of a few types in small clusters, so that leaves are on many levels.
+      int x = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      int y = random.nextInt(size / 4) * 4;
+      int z = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      octree.set(1 + random.nextInt(3), x, y, z);
+    }
+
+    Octree.NodePath path = new Octree.NodePath(DEPTH);
+    IntIntMutablePair expected = new IntIntMutablePair(0, 0);
+    IntIntMutablePair actual = new IntIntMutablePair(0, 0);
+    int x = 0;
+    int y = 0;
+    int z = 0;
+    for (int i = 0; i < 10000; ++i) {
+      if (random.nextInt(10) == 0) {
+        x = random.nextInt(size);
+        y = random.nextInt(size);
+        z = random.nextInt(size);
+      } else {
+        x = Math.floorMod(x + random.nextInt(3) - 1, size);
+        y = Math.floorMod(y + random.nextInt(3) - 1, size);
+        z = Math.floorMod(z + random.nextInt(3) - 1, size);
+      }
+      octree.getWithLevel(expected, x, y, z);
+      octree.getWithLevel(actual, x, y, z, path);
+      assertEquals(expected.leftInt(), actual.leftInt());
+      assertEquals(expected.rightInt(), actual.rightInt());
+    }
+  }
+
+  /**
+   * The statistics counted while compacting the octree after finalization are the same as
+   * those from a walk over the finalized octree.
+   */
+  @Test
+  public void testFinalizationStatistics() {
+    Random random = new Random(1);
+    PackedOctree octree = new PackedOctree(DEPTH);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 2000; ++i) {
+      int x = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      int y = random.nextInt(size / 4) * 4;
+      int z = random.nextInt(size / 4) * 4 + random.nextInt(2);
+      octree.set(random.nextInt(3) == 0 ? Octree.ANY_TYPE : 1 + random.nextInt(3), x, y, z);
+    }
+    octree.startFinalization();
+    octree.endFinalization();
+
+    OctreeStatistics counted = octree.getFinalizationStatistics();
+    OctreeStatistics expected = octree.getStatistics();
+    for (int level = 0; level <= DEPTH; ++level) {
+      assertEquals(expected.getBranchNodes(level), counted.getBranchNodes(level));
+      assertEquals(expected.getLeafNodes(level), counted.getLeafNodes(level));
+    }
+    assertEquals(expected.getLeafTypes(), counted.getLeafTypes());
+    assertEquals(expected.getAnyTypeBlocks(), counted.getAnyTypeBlocks());
+    assertEquals(expected.getBytesUsed(), counted.getBytesUsed());
+    assertEquals(expected.getBytesAllocated(), counted.getBytesAllocated());
+
+    octree.startFinalization();
+    assertNull(octree.getFinalizationStatistics());
+  }
+
+  /**
+   * Finalizing an octree that is a single leaf, like the water octree of a scene without
+   * water, leaves it unchanged.
+   */
+  @Test(timeout = 10000)
+  public void testFinalizeLeafRoot() {
+    PackedOctree octree = new PackedOctree(DEPTH);
+    octree.startFinalization();
+    octree.endFinalization();
+    octree.startFinalization();
+    octree.endFinalization();
+    assertEquals(0, octree.get(1, 2, 3).type);
+    assertEquals(0, octree.getFinalizationStatistics().getBranchNodes(DEPTH));
+    assertEquals(1, octree.getFinalizationStatistics().getLeafNodes(DEPTH));
+  }
+
+  private static void assertSameBlocks(PackedOctree expected, PackedOctree actual) {
+    int size = 1 << DEPTH;
+    IntIntMutablePair expectedLeaf = new IntIntMutablePair(0, 0);
+    IntIntMutablePair actualLeaf = new IntIntMutablePair(0, 0);
+    Octree.NodePath path = new Octree.NodePath(DEPTH);
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        for (int z = 0; z < size; ++z) {
+          expected.getWithLevel(expectedLeaf, x, y, z);
+          actual.getWithLevel(actualLeaf, x, y, z, path);
+          assertEquals(expectedLeaf.leftInt(), actualLeaf.leftInt());
+          assertEquals(expectedLeaf.rightInt(), actualLeaf.rightInt());
+          assertEquals(expectedLeaf.leftInt(), actual.get(x, y, z).type);
+        }
+      }
+    }
+  }
+
+  /**
+   * An octree with small pages switches from a single array to pages when it grows past
+   * the first page, and stores the same blocks as an octree in a single array.
+   */
+  @Test
+  public void testPages() {
+    Random random = new Random(2);
+    PackedOctree expected = new PackedOctree(DEPTH);
+    PackedOctree paged = new PackedOctree(DEPTH, 0, 6);
+    int size = 1 << DEPTH;
+    for (int i = 0; i < 2000; ++i) {
+      int x = random.nextInt(size);
+      int y = random.nextInt(size);
+      int z = random.nextInt(size);
+      int type = 1 + random.nextInt(3);
+      expected.set(type, x, y, z);
+      paged.set(type, x, y, z);
+      if (i == 0) {
+        assertNotNull(paged.treeData);
+      }
+    }
+    assertNull(paged.treeData);
+    assertTrue(paged.getNodeArraySize() > 10 * 64);
+    assertSameBlocks(expected, paged);
+
+    // Overwrite parts of the tree, so that nodes are freed and reused across pages.
+    for (int i = 0; i < 500; ++i) {
+      int x = random.nextInt(size / 8) * 8;
+      int y = random.nextInt(size / 8) * 8;
+      int z = random.nextInt(size / 8) * 8;
+      for (int j = 0; j < 8 * 8 * 8; ++j) {
+        expected.set(1, x + (j & 7), y + (j >> 3 & 7), z + (j >> 6));
+        paged.set(1, x + (j & 7), y + (j >> 3 & 7), z + (j >> 6));
+      }
+    }
+    assertSameBlocks(expected, paged);
+    assertSameBlocks(expected, paged.copy());
+
+    expected.startFinalization();
+    expected.endFinalization();
+    paged.startFinalization();
+    paged.endFinalization();
+    assertNull(paged.treeData);
+    assertEquals(expected.getNodeArraySize(), paged.getNodeArraySize());
+    assertSameBlocks(expected, paged);
+  }
+}
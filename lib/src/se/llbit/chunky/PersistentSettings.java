@@ -446,6 +446,46 @@ public final class PersistentSettings {
     save();
   }
 
+  /**
+   * Checks if decoded resource pack images should be cached on disk to speed up loading textures
+   * the next time the same resource packs are used.
+   */
+  public static boolean getUseTextureCache() {
+    return settings.getBool("textureCache", true);
+  }
+
+  public static void setUseTextureCache(boolean value) {
+    settings.setBool("textureCache", value);
+    save();
+  }
+
+  /**
+   * Checks if scene octrees should be saved in the uncompressed format. Uncompressed octree
+   * files are several times bigger, but load much faster.
+   */
+  public static boolean getUncompressedOctree() {
+    return settings.getBool("uncompressedOctree", false);
+  }
+
+  public static void setUncompressedOctree(boolean value) {
+    settings.setBool("uncompressedOctree", value);
+    save();
+  }
+
+  /**
+   * @return the directory for the storage files of octrees that are kept outside of the Java
+   * heap. Defaults to a directory in the cache directory.
+   */
+  public static File getOctreeStorageDirectory() {
+    String path = settings.getString("octreeStorageDirectory", "");
+    return path.isEmpty() ? new File(cacheDir, "octree") : new File(path);
+  }
+
+  public static void setOctreeStorageDirectory(String path) {
+    settings.setString("octreeStorageDirectory", path);
+    save();
+  }
+
   public static int getCanvasScale() {
     return settings.getInt("canvasScale", 100);
   }